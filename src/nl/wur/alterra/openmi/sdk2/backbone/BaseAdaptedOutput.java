@@ -8,6 +8,12 @@ import java.util.List;
 
 /**
  * Implementation of the BaseAdaptedOutput.
+ * <p/>
+ * By default an adapted output recomputes its values as soon as its adaptee changes. In lazy
+ * mode it is only marked stale when the adaptee changes, and its values are recomputed when
+ * they are requested with getValues. Adapted outputs that keep their values in the value set
+ * of BaseOutput get this for free, those that override getValues have to call
+ * refreshIfStale() first.
  *
  * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
  */
@@ -16,6 +22,11 @@ public abstract class BaseAdaptedOutput extends BaseOutput implements IBaseAdapt
     // fields
     private Arguments arguments;
     private IBaseOutput adaptee;
+    private boolean lazy;
+    private boolean stale;
+    private boolean staleAll;
+    private DirtyRegion staleRegion;
+    private boolean pulling;
 
 
     public BaseAdaptedOutput() {
@@ -38,7 +49,144 @@ public abstract class BaseAdaptedOutput extends BaseOutput implements IBaseAdapt
 
     @Override
     public void refresh() {
-        super.refreshAdaptedOutputs();
+        refreshAdaptedOutputs();
+    }
+
+
+    /**
+     * Refreshes the adapted output after only the values of the adaptee in the dirty region
+     * have changed. The base implementation refreshes the complete adapted output. Adapters
+     * that compute each value from the adaptee value with the same indices (e.g. unit
+     * conversions) can override it to recompute only the changed values, and then pass the
+     * region on with refreshAdaptedOutputs(dirtyRegion). The region is only valid during the
+     * call and must not be kept.
+     *
+     * @param dirtyRegion indices of the changed values of the adaptee
+     */
+    public void refresh(DirtyRegion dirtyRegion) {
+        refresh();
+    }
+
+
+    public boolean isLazy() {
+        return lazy;
+    }
+
+
+    /**
+     * Switches lazy mode on or off. Switching it on marks the values as stale, switching it
+     * off brings them up to date right away.
+     *
+     * @param lazy true to recompute the values only when they are requested
+     */
+    public void setLazy(boolean lazy) {
+        if (this.lazy != lazy) {
+            this.lazy = lazy;
+            if (lazy) {
+                stale = true;
+                staleAll = true;
+            } else {
+                refreshIfStale();
+            }
+        }
+    }
+
+
+    public boolean isStale() {
+        return stale;
+    }
+
+
+    /**
+     * Marks the values of this adapted output as out of date, because the values of the
+     * adaptee in the dirty region have changed. Changes are accumulated until the values are
+     * recomputed. The adapted outputs of this one are informed right away, so lazy ones are
+     * marked stale as well.
+     *
+     * @param dirtyRegion indices of the changed values of the adaptee, null when unknown
+     */
+    public void markStale(DirtyRegion dirtyRegion) {
+        boolean all = (dirtyRegion == null) || dirtyRegion.isAll();
+        if (!stale) {
+            stale = true;
+            staleAll = all;
+            if (!all) {
+                staleRegion = new DirtyRegion(dirtyRegion.getNumberOfIndices());
+                staleRegion.add(dirtyRegion);
+            }
+        } else if (!staleAll) {
+            if (all || (staleRegion.getNumberOfIndices() != dirtyRegion.getNumberOfIndices())) {
+                staleAll = true;
+            } else {
+                staleRegion.add(dirtyRegion);
+            }
+        }
+
+        if (dirtyRegion == null) {
+            super.refreshAdaptedOutputs();
+        } else {
+            super.refreshAdaptedOutputs(dirtyRegion);
+        }
+    }
+
+
+    /**
+     * Recomputes the values when they are stale, with refresh(DirtyRegion) when only part
+     * of the values of the adaptee have changed. Values are then memoized until the adaptee
+     * changes again.
+     */
+    protected void refreshIfStale() {
+        if (stale && !pulling) {
+            boolean all = staleAll || (staleRegion == null);
+            DirtyRegion region = staleRegion;
+            // cleared first, consumers refreshed by the recompute see the new values
+            staleRegion = null;
+            stale = false;
+            pulling = true;
+            try {
+                if (all) {
+                    refresh();
+                } else {
+                    refresh(region);
+                }
+            } finally {
+                pulling = false;
+            }
+        }
+    }
+
+
+    /**
+     * Refreshes the adapted outputs of this one, unless the values are being recomputed on
+     * request. They have then already been informed when this one was marked stale.
+     */
+    @Override
+    public void refreshAdaptedOutputs() {
+        if (!pulling) {
+            super.refreshAdaptedOutputs();
+        }
+    }
+
+
+    @Override
+    public void refreshAdaptedOutputs(DirtyRegion dirtyRegion) {
+        if (!pulling) {
+            super.refreshAdaptedOutputs(dirtyRegion);
+        }
+    }
+
+
+    @Override
+    public IBaseValueSet getValues() {
+        refreshIfStale();
+        return super.getValues();
+    }
+
+
+    @Override
+    public IBaseValueSet getValues(IBaseExchangeItem querySpecifier) {
+        refreshIfStale();
+        return super.getValues(querySpecifier);
     }
 
 
@@ -69,6 +217,10 @@ public abstract class BaseAdaptedOutput extends BaseOutput implements IBaseAdapt
                 setComponent(adaptee.getComponent());
             }
 
+            if (lazy) {
+                markStale(null);
+            }
+
             sendObjectChangedNotification(adaptee);
         }
     }
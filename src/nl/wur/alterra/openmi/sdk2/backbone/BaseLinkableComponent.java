@@ -62,6 +62,11 @@ public abstract class BaseLinkableComponent extends IdentifiableOmiObject implem
         public void sendNotification(IBaseLinkableComponent component,
                                      LinkableComponentStatus oldStatus,
                                      LinkableComponentStatus newStatus, String message) {
+            NotificationBus bus = getNotificationBus();
+            boolean published = (bus != null) && bus.hasSubscribers();
+            if (!published && (countObservers() == 0)) {
+                return;
+            }
 
             LinkableComponentStatusChangeEventArgs args = new
                     LinkableComponentStatusChangeEventArgs();
@@ -70,8 +75,13 @@ public abstract class BaseLinkableComponent extends IdentifiableOmiObject implem
             args.setNewStatus(newStatus);
             args.setMessage(message);
 
-            setChanged();
-            notifyObservers(args);
+            if (published) {
+                bus.publish(OmiNotification.newOtherNotification(component, args, false));
+            }
+            if (countObservers() > 0) {
+                setChanged();
+                notifyObservers(args);
+            }
         }
     }
 
@@ -280,7 +290,13 @@ public abstract class BaseLinkableComponent extends IdentifiableOmiObject implem
     }
 
 
-    private void updateStatus(LinkableComponentStatus newStatus, String message) {
+    /**
+     * Changes the status of the component and notifies the status changed observers.
+     *
+     * @param newStatus of the component
+     * @param message   describing the change
+     */
+    protected void updateStatus(LinkableComponentStatus newStatus, String message) {
         if (!status.equals(newStatus)) {
             LinkableComponentStatus oldStatus = status;
             status = newStatus;
@@ -14,9 +14,20 @@ import java.util.List;
  */
 public class BaseOutput extends BaseExchangeItem implements IBaseOutput {
 
+    // messages
+    private static final String NO_UPDATE_STARTED = "endUpdate() called without a matching " +
+            "beginUpdate().";
+
     // fields
     private List<IBaseInput> consumers;
     private List<IBaseAdaptedOutput> adaptedOutputs;
+    private long version;
+    private IBaseValueSet snapshot;
+    private long snapshotVersion;
+    private DirtyRegion dirtyRegion;
+    private boolean allDirty;
+    private int updateDepth;
+    private boolean notifyPending;
 
 
     public static BaseOutput newInstance(String id, String caption, String description,
@@ -134,30 +145,135 @@ public class BaseOutput extends BaseExchangeItem implements IBaseOutput {
     }
 
 
+    /**
+     * Returns the number of times the values of this output have been changed through
+     * setValues or setValue.
+     *
+     * @return the version of the values
+     */
+    public long getVersion() {
+        return version;
+    }
+
+
+    /**
+     * Returns a read-only snapshot of the values of this output, for consumers that keep
+     * using the values while the output changes them. All calls made at the same version get
+     * the same snapshot, so it is shared instead of copied for each consumer. Snapshots of a
+     * DoubleValueSet only copy the pages that are changed afterwards, other value sets are
+     * copied into a read-only value set (see ValueSets.snapshotOf).
+     * <p/>
+     * Only changes made through setValues and setValue are tracked, changes made directly to
+     * the value set do not result in a new snapshot.
+     *
+     * @return snapshot of the values, or null when there are no values
+     */
+    public IBaseValueSet getSnapshot() {
+        if (valueSet == null) {
+            return null;
+        }
+        if ((snapshot == null) || (snapshotVersion != version)) {
+            snapshot = ValueSets.snapshotOf(valueSet);
+            snapshotVersion = version;
+        }
+        return snapshot;
+    }
+
+
     public void setValues(IBaseValueSet values, boolean forced, boolean notify) {
         if (forced || (!nullEquals(this.valueSet, values))) {
             this.valueSet = values;
-            refreshAdaptedOutputs();
-            if (notify) {
-                sendObjectChangedNotification(this.valueSet);
+            version++;
+            allDirty = true;
+            notifyPending |= notify;
+            if (updateDepth == 0) {
+                flushUpdate();
             }
         }
     }
 
 
+    /**
+     * Sets a single value. The adapted outputs are refreshed for the changed value only,
+     * those derived from BaseAdaptedOutput through refresh(DirtyRegion). Between beginUpdate
+     * and endUpdate the changed indices are collected and the adapted outputs are refreshed
+     * once, when the update ends.
+     *
+     * @param indices of the value
+     * @param value   to set
+     * @param forced  true to set the value even when it is equal to the current value
+     * @param notify  true to send a changed notification for the value set
+     */
     public void setValue(int[] indices, Object value, boolean forced, boolean notify) {
         if (this.valueSet != null) {
             if (forced || (!nullEquals(valueSet.getValue(indices), value))) {
                 valueSet.setValue(indices, value);
-                refreshAdaptedOutputs();
-                if (notify) {
-                    sendObjectChangedNotification(this.valueSet);
+                version++;
+                if (!allDirty) {
+                    if ((dirtyRegion == null) || (dirtyRegion.getNumberOfIndices() != indices
+                            .length)) {
+                        dirtyRegion = new DirtyRegion(indices.length);
+                    }
+                    dirtyRegion.add(indices);
+                }
+                notifyPending |= notify;
+                if (updateDepth == 0) {
+                    flushUpdate();
                 }
             }
         }
     }
 
 
+    /**
+     * Starts a batch of changes. Until the matching call of endUpdate the adapted outputs
+     * are not refreshed and no changed notifications are sent. Updates can be nested.
+     */
+    public void beginUpdate() {
+        updateDepth++;
+    }
+
+
+    /**
+     * Ends a batch of changes started with beginUpdate. When the outermost update ends the
+     * adapted outputs are refreshed once for all changed values, and a single changed
+     * notification is sent when one was requested for any of the changes.
+     */
+    public void endUpdate() {
+        if (updateDepth == 0) {
+            throw new IllegalStateException(NO_UPDATE_STARTED);
+        }
+        updateDepth--;
+        if (updateDepth == 0) {
+            flushUpdate();
+        }
+    }
+
+
+    public boolean isUpdating() {
+        return updateDepth > 0;
+    }
+
+
+    // refreshes the adapted outputs for the changes collected so far
+    private void flushUpdate() {
+        if (allDirty) {
+            allDirty = false;
+            if (dirtyRegion != null) {
+                dirtyRegion.clear();
+            }
+            refreshAdaptedOutputs();
+        } else if ((dirtyRegion != null) && !dirtyRegion.isEmpty()) {
+            refreshAdaptedOutputs(dirtyRegion);
+            dirtyRegion.clear();
+        }
+        if (notifyPending) {
+            notifyPending = false;
+            sendObjectChangedNotification(this.valueSet);
+        }
+    }
+
+
     public void initializeAdaptedOutputs() {
         for (IBaseAdaptedOutput adaptedOutput : adaptedOutputs) {
             adaptedOutput.initialize();
@@ -165,9 +281,42 @@ public class BaseOutput extends BaseExchangeItem implements IBaseOutput {
     }
 
 
+    /**
+     * Refreshes the adapted outputs after the values have changed. Lazy adapted outputs are
+     * only marked stale.
+     */
     public void refreshAdaptedOutputs() {
         for (IBaseAdaptedOutput adaptedOutput : adaptedOutputs) {
-            adaptedOutput.refresh();
+            if ((adaptedOutput instanceof BaseAdaptedOutput) && ((BaseAdaptedOutput)
+                    adaptedOutput).isLazy()) {
+                ((BaseAdaptedOutput) adaptedOutput).markStale(null);
+            } else {
+                adaptedOutput.refresh();
+            }
+        }
+    }
+
+
+    /**
+     * Refreshes the adapted outputs after only the values in the dirty region have changed.
+     * Adapted outputs that are not derived from BaseAdaptedOutput are refreshed completely,
+     * lazy adapted outputs are only marked stale. The region is only valid during the call
+     * and must not be kept.
+     *
+     * @param dirtyRegion indices of the changed values
+     */
+    public void refreshAdaptedOutputs(DirtyRegion dirtyRegion) {
+        for (IBaseAdaptedOutput adaptedOutput : adaptedOutputs) {
+            if (adaptedOutput instanceof BaseAdaptedOutput) {
+                BaseAdaptedOutput baseAdaptedOutput = (BaseAdaptedOutput) adaptedOutput;
+                if (baseAdaptedOutput.isLazy()) {
+                    baseAdaptedOutput.markStale(dirtyRegion);
+                } else {
+                    baseAdaptedOutput.refresh(dirtyRegion);
+                }
+            } else {
+                adaptedOutput.refresh();
+            }
         }
     }
 
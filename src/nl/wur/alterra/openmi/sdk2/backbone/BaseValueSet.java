@@ -3,21 +3,34 @@ package nl.wur.alterra.openmi.sdk2.backbone;
 import org.openmi.standard2.IBaseValueSet;
 
 import java.lang.reflect.Type;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 
 /**
- * Ordered N-dimensional list of values. Note that this class is very generic and not optimized
- * for (high) performance. In case this is needed it is suggested to not derive from this class
- * but instead construct a more specialized version.
+ * Ordered N-dimensional list of values. The dimensions can be jagged, e.g. rows of different
+ * lengths, and need not be filled completely. Values are kept in insertion order and located
+ * through a hash index on the packed int indices, with one more index per prefix length to
+ * keep track of the index counts. Reading and updating values does not create any objects.
+ * <p/>
+ * Copies made with newInstance(IBaseValueSet) from another BaseValueSet share the index and
+ * values with the original until either of them is changed (copy-on-write), so taking a copy
+ * of a value set that is only read is cheap.
+ * <p/>
+ * For data with a fixed rectangular shape the dense value sets (e.g. DoubleValueSet) are more
+ * compact and faster.
  *
  * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
  */
 public class BaseValueSet extends OmiValueSet implements IBaseValueSet {
 
-    private HashMap<String, Object> mValueMap;
-    private HashMap<String, Integer> mIndexCountMap;
+    // fields
     private int mNumberOfIndices;
+    private PackedIndexMap mValueIndex;
+    private PackedIndexMap[] mIndexCountMaps;
+    private Object[] mValues;
+    // true while the index maps and values array are shared with a copy
+    private boolean mShared;
 
 
     public class CopyOperation implements INodeOperation {
@@ -31,7 +44,10 @@ public class BaseValueSet extends OmiValueSet implements IBaseValueSet {
 
         @Override
         public boolean perform(int[] indices, Object value) {
-            target.setValue(indices, value);
+            // skip holes in jagged value sets
+            if (value != null) {
+                target.setValue(indices, value);
+            }
             return true;
         }
     }
@@ -75,20 +91,35 @@ public class BaseValueSet extends OmiValueSet implements IBaseValueSet {
     }
 
 
+    /**
+     * Creates a copy of the specified value set. The values themselves are not cloned. A copy
+     * of another BaseValueSet shares its structure with the original until one of them is
+     * changed, other value sets are copied value by value.
+     *
+     * @param valueSet to copy
+     * @return the copy
+     */
     public static BaseValueSet newInstance(IBaseValueSet valueSet) {
         BaseValueSet result = new BaseValueSet();
         result.setValueType(valueSet.getValueType());
         result.setNumberOfIndices(valueSet.getNumberOfIndices());
 
         if (valueSet instanceof BaseValueSet) {
-            result.copyValues((BaseValueSet) valueSet);
+            ((BaseValueSet) valueSet).shareWith(result);
+        } else if (valueSet instanceof OmiValueSet) {
+            ((OmiValueSet) valueSet).performNodeOperation(result.new CopyOperation(result));
         } else {
             // recursively copy all values
-            int[] indices = new int[valueSet.getNumberOfIndices()];
-            int indexCount = valueSet.getIndexCount(new int[]{});
+            int n = valueSet.getNumberOfIndices();
+            int[] indices = new int[n];
+            int[][] prefixes = new int[n][];
+            for (int i = 0; i < n; i++) {
+                prefixes[i] = new int[i];
+            }
+            int indexCount = valueSet.getIndexCount(prefixes[0]);
             for (int i = 0; i < indexCount; i++) {
                 indices[0] = i;
-                copyValues(valueSet, result, 0, indices);
+                copyValues(valueSet, result, 0, indices, prefixes);
             }
         }
         return result;
@@ -96,72 +127,97 @@ public class BaseValueSet extends OmiValueSet implements IBaseValueSet {
 
 
     private static void copyValues(IBaseValueSet source, IBaseValueSet target, int indexPos,
-                                   int[] indices) {
+                                   int[] indices, int[][] prefixes) {
         if (indexPos == indices.length - 1) {
-            target.setValue(indices, source.getValue(indices));
+            Object value = source.getValue(indices);
+            if (value != null) {
+                target.setValue(indices, value);
+            }
         } else {
             int nextPos = indexPos + 1;
-            int[] subset = new int[nextPos];
-            for (int j = 0; j < nextPos; j++) {
-                subset[j] = indices[j];
-            }
+            int[] subset = prefixes[nextPos];
+            System.arraycopy(indices, 0, subset, 0, nextPos);
             int indexCount = source.getIndexCount(subset);
             for (int i = 0; i < indexCount; i++) {
                 indices[nextPos] = i;
-                copyValues(source, target, nextPos, indices);
+                copyValues(source, target, nextPos, indices, prefixes);
             }
         }
     }
 
 
-    private void copyValues(BaseValueSet sourceValueSet) {
-        INodeOperation copyOp = new CopyOperation(this);
-        sourceValueSet.performNodeOperation(copyOp);
+    // lets the copy use the index maps and values array of this value set, until one changes
+    private void shareWith(BaseValueSet copy) {
+        copy.mNumberOfIndices = mNumberOfIndices;
+        copy.mValueIndex = mValueIndex;
+        copy.mIndexCountMaps = mIndexCountMaps;
+        copy.mValues = mValues;
+        copy.mShared = true;
+        mShared = true;
     }
 
 
-    public BaseValueSet() {
-        super();
-        mValueMap = new HashMap<String, Object>();
+    // makes private copies of the index maps and values array before they are changed
+    private void unshare() {
+        if (mShared) {
+            mValueIndex = mValueIndex.copy();
+            PackedIndexMap[] countMaps = new PackedIndexMap[mIndexCountMaps.length];
+            for (int i = 0; i < countMaps.length; i++) {
+                countMaps[i] = mIndexCountMaps[i].copy();
+            }
+            mIndexCountMaps = countMaps;
+            mValues = mValues.clone();
+            mShared = false;
+        }
+    }
 
-        mNumberOfIndices = 1;
-        mIndexCountMap = new HashMap<String, Integer>();
 
-        mIndexCountMap.put(indexCountMapKey(new int[]{0}), 0);
+    /**
+     * Performs the operation on every value using the worker threads of the pool, see
+     * OmiValueSet. Storage shared with copies is copied before the tasks are started, so the
+     * operation can set values from several threads without each of them copying it.
+     *
+     * @param operation to perform
+     * @param pool      to run the tasks in
+     * @return false when the operation stopped the traversal, true otherwise
+     */
+    @Override
+    public boolean performNodeOperationParallel(INodeOperation operation, ForkJoinPool pool) {
+        unshare();
+        return super.performNodeOperationParallel(operation, pool);
     }
 
 
-    private String valueMapKey(int[] indices) {
-        StringBuilder key = new StringBuilder();
-        for (int index : indices) {
-            if (key.length() > 0) {
-                key.append("_");
-            }
-            key.append(index);
-        }
-        return key.toString();
+    public BaseValueSet() {
+        super();
+        mNumberOfIndices = 1;
+        mValues = new Object[16];
+        createIndexMaps();
     }
 
 
-    private String indexCountMapKey(int[] indices) {
-        StringBuilder key = new StringBuilder();
-        if ((indices == null) || indices.length == 0) {
-            key.append("*");
-        } else {
-            for (int index : indices) {
-                if (key.length() > 0) {
-                    key.append("_");
-                }
-                key.append(index);
-            }
+    private void createIndexMaps() {
+        mValueIndex = new PackedIndexMap(mNumberOfIndices);
+        mIndexCountMaps = new PackedIndexMap[mNumberOfIndices];
+        for (int i = 0; i < mNumberOfIndices; i++) {
+            mIndexCountMaps[i] = new PackedIndexMap(i);
         }
-        return key.toString();
     }
 
 
     public void clear() {
-        mValueMap.clear();
-        mIndexCountMap.clear();
+        if (mShared) {
+            // leave the shared maps and values to the other value set
+            mValues = new Object[16];
+            createIndexMaps();
+            mShared = false;
+        } else if (mValueIndex != null) {
+            Arrays.fill(mValues, 0, mValueIndex.size(), null);
+            mValueIndex.clear();
+            for (PackedIndexMap map : mIndexCountMaps) {
+                map.clear();
+            }
+        }
     }
 
 
@@ -175,19 +231,20 @@ public class BaseValueSet extends OmiValueSet implements IBaseValueSet {
         if (this.mNumberOfIndices != numberOfIndices) {
             clear();
             this.mNumberOfIndices = numberOfIndices;
+            createIndexMaps();
         }
     }
 
 
     @Override
     public int getIndexCount(int[] indices) {
-        Integer val = mIndexCountMap.get(indexCountMapKey(indices));
-        return (val == null) ? -1 : val;
-    }
-
-
-    private void setIndexCount(int[] indices, int indexCount) {
-        mIndexCountMap.put(indexCountMapKey(indices), indexCount);
+        int length = (indices == null) ? 0 : indices.length;
+        if (length >= mNumberOfIndices) {
+            return -1;
+        }
+        PackedIndexMap map = mIndexCountMaps[length];
+        int entry = map.find(indices);
+        return (entry < 0) ? -1 : map.getPayload(entry);
     }
 
 
@@ -197,8 +254,8 @@ public class BaseValueSet extends OmiValueSet implements IBaseValueSet {
             throw new IllegalArgumentException(INVALID_INDICES_SIZE);
         }
 
-        Object val = mValueMap.get(valueMapKey(indices));
-        return val;
+        int entry = mValueIndex.find(indices);
+        return (entry < 0) ? null : mValues[entry];
     }
 
 
@@ -212,18 +269,21 @@ public class BaseValueSet extends OmiValueSet implements IBaseValueSet {
             throw new IllegalArgumentException(INVALID_VALUE_TYPE);
         }
 
-        // store value
-        mValueMap.put(valueMapKey(indices), value);
+        unshare();
+
+        // store value, existing entries are updated in place
+        int entry = mValueIndex.add(indices);
+        if (entry == mValues.length) {
+            mValues = Arrays.copyOf(mValues, mValues.length * 2);
+        }
+        mValues[entry] = value;
 
-        // update max index counts
+        // update max index counts, the key for each prefix is read from the indices directly
         for (int i = indices.length - 1; i >= 0; i--) {
-            int[] subset = new int[i];
-            for (int j = 0; j < i; j++) {
-                subset[j] = indices[j];
-            }
-            int indexCount = getIndexCount(subset);
-            if (indices[i] + 1 > indexCount) {
-                setIndexCount(subset, indices[i] + 1);
+            PackedIndexMap map = mIndexCountMaps[i];
+            int countEntry = map.add(indices);
+            if (indices[i] + 1 > map.getPayload(countEntry)) {
+                map.setPayload(countEntry, indices[i] + 1);
             }
         }
     }
@@ -237,13 +297,19 @@ public class BaseValueSet extends OmiValueSet implements IBaseValueSet {
         BaseValueSet that = (BaseValueSet) o;
 
         if (mNumberOfIndices != that.mNumberOfIndices) return false;
-        if (mIndexCountMap != null ? !mIndexCountMap.equals(that.mIndexCountMap) : that.mIndexCountMap != null)
-            return false;
-        if (mValueMap != null ? !mValueMap.equals(that.mValueMap) : that.mValueMap != null)
-            return false;
         if (getValueType() != null ? !getValueType().equals(that.getValueType()) : that.getValueType() !=
                 null)
             return false;
+        if (mValueIndex.size() != that.mValueIndex.size()) return false;
+
+        // same set of stored indices and values, the index counts follow from the indices
+        int[] indices = new int[mNumberOfIndices];
+        for (int entry = 0; entry < mValueIndex.size(); entry++) {
+            mValueIndex.copyKey(entry, indices);
+            int otherEntry = that.mValueIndex.find(indices);
+            if ((otherEntry < 0) || !nullEquals(mValues[entry], that.mValues[otherEntry]))
+                return false;
+        }
 
         return true;
     }
@@ -252,9 +318,18 @@ public class BaseValueSet extends OmiValueSet implements IBaseValueSet {
     @Override
     public int hashCode() {
         int result = getValueType() != null ? getValueType().hashCode() : 0;
-        result = 31 * result + (mValueMap != null ? mValueMap.hashCode() : 0);
-        result = 31 * result + (mIndexCountMap != null ? mIndexCountMap.hashCode() : 0);
+        int valuesHash = 0;
+        for (int entry = 0; entry < mValueIndex.size(); entry++) {
+            valuesHash += mValueIndex.keyHash(entry) ^ (mValues[entry] != null ? mValues[entry]
+                    .hashCode() : 0);
+        }
+        result = 31 * result + valuesHash;
         result = 31 * result + mNumberOfIndices;
         return result;
     }
+
+
+    private static boolean nullEquals(Object obj1, Object obj2) {
+        return (obj1 == null) ? (obj2 == null) : obj1.equals(obj2);
+    }
 }
@@ -14,8 +14,6 @@ import java.lang.reflect.Array;
  */
 public class BaseValueSet1D<E> extends OmiValueSet implements IBaseValueSet {
 
-    // TODO: Add unit test for this class!
-
     // fields
     private E[] mValues;
     private int mCapacity;
@@ -25,13 +23,13 @@ public class BaseValueSet1D<E> extends OmiValueSet implements IBaseValueSet {
         super();
         mCapacity = capacity;
         setValueType(clazz);
-        mValues = (E[]) Array.newInstance(getValueType().getClass(), mCapacity);
+        mValues = (E[]) Array.newInstance((Class<?>) getValueType(), mCapacity);
     }
 
 
     @Override
     public void clear() {
-        mValues = (E[]) Array.newInstance(getValueType().getClass(), mCapacity);
+        mValues = (E[]) Array.newInstance((Class<?>) getValueType(), mCapacity);
     }
 
 
@@ -14,8 +14,6 @@ import java.lang.reflect.Array;
  */
 public class BaseValueSet2D<E> extends OmiValueSet implements IBaseValueSet {
 
-    // TODO: Add unit test for this class!
-
     // fields
     private E[][] mValues;
     private int mCapacity1;
@@ -27,7 +25,7 @@ public class BaseValueSet2D<E> extends OmiValueSet implements IBaseValueSet {
         mCapacity1 = capacity1;
         mCapacity2 = capacity2;
         setValueType(clazz);
-        mValues = (E[][]) Array.newInstance(getValueType().getClass(), capacity1, capacity2);
+        clear();
     }
 
 
@@ -36,17 +34,29 @@ public class BaseValueSet2D<E> extends OmiValueSet implements IBaseValueSet {
         if ((indices == null) || (indices.length != 2)) {
             throw new IllegalArgumentException(INVALID_INDICES_SIZE);
         }
+        setValue(indices[0], indices[1], value);
+    }
+
+
+    /**
+     * Stores a value without the need to create an index array.
+     *
+     * @param index1 first index
+     * @param index2 second index
+     * @param value  to store
+     */
+    public void setValue(int index1, int index2, Object value) {
         if (!value.getClass().equals(getValueType())) {
             throw new IllegalArgumentException(INVALID_VALUE_TYPE);
         }
 
-        mValues[indices[0]][indices[1]] = (E) value;
+        mValues[index1][index2] = (E) value;
     }
 
 
     @Override
     public void clear() {
-        mValues = (E[][]) Array.newInstance(getValueType().getClass(), mCapacity1, mCapacity2);
+        mValues = (E[][]) Array.newInstance((Class<?>) getValueType(), mCapacity1, mCapacity2);
     }
 
 
@@ -72,6 +82,48 @@ public class BaseValueSet2D<E> extends OmiValueSet implements IBaseValueSet {
         if ((indices == null) || (indices.length != 2)) {
             throw new IllegalArgumentException(INVALID_INDICES_SIZE);
         }
-        return mValues[mCapacity1][mCapacity2];
+        return mValues[indices[0]][indices[1]];
+    }
+
+
+    /**
+     * Retrieves a value without the need to create an index array.
+     *
+     * @param index1 first index
+     * @param index2 second index
+     * @return the value
+     */
+    public Object getValue(int index1, int index2) {
+        return mValues[index1][index2];
+    }
+
+
+    /**
+     * Copies the values with the specified first index into the target array, using a single
+     * array copy.
+     *
+     * @param index1       first index
+     * @param target       array to copy the values into
+     * @param targetOffset position in the target array of the first value
+     * @return number of values copied
+     */
+    public int getValues(int index1, E[] target, int targetOffset) {
+        System.arraycopy(mValues[index1], 0, target, targetOffset, mCapacity2);
+        return mCapacity2;
+    }
+
+
+    /**
+     * Copies values from the source array into the values with the specified first index,
+     * using a single array copy.
+     *
+     * @param index1       first index
+     * @param source       array to copy the values from
+     * @param sourceOffset position in the source array of the first value
+     * @return number of values copied
+     */
+    public int setValues(int index1, E[] source, int sourceOffset) {
+        System.arraycopy(source, sourceOffset, mValues[index1], 0, mCapacity2);
+        return mCapacity2;
     }
 }
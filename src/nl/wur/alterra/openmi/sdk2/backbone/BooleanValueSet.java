@@ -0,0 +1,161 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import java.util.Arrays;
+
+
+/**
+ * Dense value set of any number of dimensions that stores booleans in a flat primitive array.
+ * The typed accessors (getBoolean, setBoolean) avoid auto-boxing, the generic getValue and
+ * setValue methods use Boolean objects.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class BooleanValueSet extends DenseValueSet {
+
+    // fields
+    private boolean[] mValues;
+
+
+    public BooleanValueSet(int... shape) {
+        super(Boolean.class, shape);
+        mValues = new boolean[getSize()];
+    }
+
+
+    protected BooleanValueSet(boolean[] values, int[] shape, int[] strides, int offset) {
+        super(Boolean.class, shape, strides, offset);
+        mValues = values;
+    }
+
+
+    @Override
+    protected DenseValueSet newView(int[] shape, int[] strides, int offset) {
+        return new BooleanValueSet(mValues, shape, strides, offset);
+    }
+
+
+    @Override
+    public BooleanValueSet reshape(int... shape) {
+        return (BooleanValueSet) super.reshape(shape);
+    }
+
+
+    @Override
+    public BooleanValueSet transpose(int... axes) {
+        return (BooleanValueSet) super.transpose(axes);
+    }
+
+
+    @Override
+    public void clear() {
+        if (mValues != null) {
+            if (isContiguous()) {
+                Arrays.fill(mValues, getOffset(), getOffset() + getSize(), false);
+            } else {
+                for (int i = 0; i < getSize(); i++) {
+                    mValues[offsetOfFlat(i)] = false;
+                }
+            }
+        }
+    }
+
+
+    public boolean getBoolean(int... indices) {
+        return mValues[offsetOf(indices)];
+    }
+
+
+    public void setBoolean(int[] indices, boolean value) {
+        mValues[offsetOf(indices)] = value;
+    }
+
+
+    /**
+     * Gets a value by its flat (row-major) index.
+     *
+     * @param flatIndex of the value
+     * @return the value
+     */
+    public boolean getBooleanAt(int flatIndex) {
+        return mValues[offsetOfFlat(flatIndex)];
+    }
+
+
+    /**
+     * Sets a value by its flat (row-major) index.
+     *
+     * @param flatIndex of the value
+     * @param value     to set
+     */
+    public void setBooleanAt(int flatIndex, boolean value) {
+        mValues[offsetOfFlat(flatIndex)] = value;
+    }
+
+
+    @Override
+    public BooleanValueSet copy() {
+        BooleanValueSet copy = new BooleanValueSet(getShape());
+        copy.copyFrom(this);
+        return copy;
+    }
+
+
+    @Override
+    protected boolean copyValuesFrom(DenseValueSet source) {
+        if (source instanceof BooleanValueSet) {
+            BooleanValueSet other = (BooleanValueSet) source;
+            if ((other.mValues == mValues) && !(isContiguous() && other.isContiguous())) {
+                // a view on the same storage, copy it first so values are not overwritten
+                // before they are read
+                other = other.copy();
+            }
+            copyStorage(other, other.mValues, mValues);
+            return true;
+        }
+        return false;
+    }
+
+
+    @Override
+    protected Object valueAt(int offset) {
+        return mValues[offset];
+    }
+
+
+    @Override
+    public Object getValue(int[] indices) {
+        return mValues[offsetOf(indices)];
+    }
+
+
+    @Override
+    public void setValue(int[] indices, Object value) {
+        if (!(value instanceof Boolean)) {
+            throw new IllegalArgumentException(INVALID_VALUE_TYPE);
+        }
+        mValues[offsetOf(indices)] = (Boolean) value;
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+
+        BooleanValueSet that = (BooleanValueSet) o;
+        for (int i = 0; i < getSize(); i++) {
+            if (getBooleanAt(i) != that.getBooleanAt(i)) return false;
+        }
+        return true;
+    }
+
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        for (int i = 0; i < getSize(); i++) {
+            result = 31 * result + (getBooleanAt(i) ? 1231 : 1237);
+        }
+        return result;
+    }
+
+}
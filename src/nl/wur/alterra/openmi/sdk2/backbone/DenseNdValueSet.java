@@ -0,0 +1,179 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import java.util.Arrays;
+
+
+/**
+ * Dense value set of any number of dimensions, e.g. time x layer x element, that stores
+ * objects of one type in a single flat array. For doubles, integers and booleans use the
+ * primitive versions (DoubleValueSet, IntValueSet, BooleanValueSet) instead to avoid
+ * auto-boxing.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class DenseNdValueSet<E> extends DenseValueSet {
+
+    // fields
+    private Class<E> mClass;
+    private Object[] mValues;
+
+
+    public DenseNdValueSet(Class<E> clazz, int... shape) {
+        super(clazz, shape);
+        mClass = clazz;
+        mValues = new Object[getSize()];
+    }
+
+
+    protected DenseNdValueSet(Class<E> clazz, Object[] values, int[] shape, int[] strides,
+                              int offset) {
+        super(clazz, shape, strides, offset);
+        mClass = clazz;
+        mValues = values;
+    }
+
+
+    @Override
+    protected DenseValueSet newView(int[] shape, int[] strides, int offset) {
+        return new DenseNdValueSet<E>(mClass, mValues, shape, strides, offset);
+    }
+
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public DenseNdValueSet<E> reshape(int... shape) {
+        return (DenseNdValueSet<E>) super.reshape(shape);
+    }
+
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public DenseNdValueSet<E> transpose(int... axes) {
+        return (DenseNdValueSet<E>) super.transpose(axes);
+    }
+
+
+    @Override
+    public void clear() {
+        if (mValues != null) {
+            if (isContiguous()) {
+                Arrays.fill(mValues, getOffset(), getOffset() + getSize(), null);
+            } else {
+                for (int i = 0; i < getSize(); i++) {
+                    mValues[offsetOfFlat(i)] = null;
+                }
+            }
+        }
+    }
+
+
+    public E get(int... indices) {
+        return mClass.cast(mValues[offsetOf(indices)]);
+    }
+
+
+    public void set(int[] indices, E value) {
+        setValue(indices, value);
+    }
+
+
+    /**
+     * Gets a value by its flat (row-major) index.
+     *
+     * @param flatIndex of the value
+     * @return the value
+     */
+    public E getAt(int flatIndex) {
+        return mClass.cast(mValues[offsetOfFlat(flatIndex)]);
+    }
+
+
+    /**
+     * Sets a value by its flat (row-major) index.
+     *
+     * @param flatIndex of the value
+     * @param value     to set
+     */
+    public void setAt(int flatIndex, E value) {
+        checkValue(value);
+        mValues[offsetOfFlat(flatIndex)] = value;
+    }
+
+
+    @Override
+    public DenseNdValueSet<E> copy() {
+        DenseNdValueSet<E> copy = new DenseNdValueSet<E>(mClass, getShape());
+        copy.copyFrom(this);
+        return copy;
+    }
+
+
+    @Override
+    protected boolean copyValuesFrom(DenseValueSet source) {
+        if ((source instanceof DenseNdValueSet) && mClass.isAssignableFrom(((DenseNdValueSet<?>)
+                source).mClass)) {
+            DenseNdValueSet<?> other = (DenseNdValueSet<?>) source;
+            if ((other.mValues == mValues) && !(isContiguous() && other.isContiguous())) {
+                // a view on the same storage, copy it first so values are not overwritten
+                // before they are read
+                other = other.copy();
+            }
+            copyStorage(other, other.mValues, mValues);
+            return true;
+        }
+        return false;
+    }
+
+
+    @Override
+    protected Object valueAt(int offset) {
+        return mValues[offset];
+    }
+
+
+    @Override
+    public Object getValue(int[] indices) {
+        return mValues[offsetOf(indices)];
+    }
+
+
+    @Override
+    public void setValue(int[] indices, Object value) {
+        checkValue(value);
+        mValues[offsetOf(indices)] = value;
+    }
+
+
+    private void checkValue(Object value) {
+        if ((value != null) && (!value.getClass().equals(getValueType()))) {
+            throw new IllegalArgumentException(INVALID_VALUE_TYPE);
+        }
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+
+        DenseNdValueSet<?> that = (DenseNdValueSet<?>) o;
+        if (!mClass.equals(that.mClass)) return false;
+        for (int i = 0; i < getSize(); i++) {
+            Object v1 = mValues[offsetOfFlat(i)];
+            Object v2 = that.mValues[that.offsetOfFlat(i)];
+            if ((v1 == null) ? (v2 != null) : !v1.equals(v2)) return false;
+        }
+        return true;
+    }
+
+
+    @Override
+    public int hashCode() {
+        int result = 31 * super.hashCode() + mClass.hashCode();
+        for (int i = 0; i < getSize(); i++) {
+            Object v = mValues[offsetOfFlat(i)];
+            result = 31 * result + (v != null ? v.hashCode() : 0);
+        }
+        return result;
+    }
+
+}
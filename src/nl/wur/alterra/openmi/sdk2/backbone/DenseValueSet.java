@@ -0,0 +1,681 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import org.openmi.standard2.IBaseValueSet;
+
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Root class for value sets with a fixed, rectangular shape of any number of dimensions. The
+ * values are stored in a single flat array, so subclasses can keep their data in arrays of
+ * primitives and avoid auto-boxing for storage.
+ * <p/>
+ * The position of a value in the storage array is found from its indices with a stride per
+ * dimension and a start offset. A newly created value set uses row-major order (last index
+ * varies fastest). Reshaped and transposed views share the storage array of the value set they
+ * are created from, so changes made through a view are visible in the original and vice versa.
+ * <p/>
+ * Flat indices used by the ...At(int) accessors always refer to the logical row-major order
+ * of the (view) shape, independent of the storage layout.
+ * <p/>
+ * The value type of a dense value set is fixed at construction and can not be changed later.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public abstract class DenseValueSet extends OmiValueSet implements IBaseValueSet {
+
+    // messages
+    protected static final String INDEX_OUT_OF_BOUNDS = "Index %d is out of bounds for " +
+            "dimension %d with size %d.";
+    protected static final String INVALID_SHAPE = "Shape of a dense value set must contain at " +
+            "least one dimension and all dimension sizes must be zero or positive.";
+    protected static final String FIXED_VALUE_TYPE = "The value type of a dense value set can " +
+            "not be changed.";
+    protected static final String INVALID_RESHAPE = "Can not reshape a value set of size %d to " +
+            "shape %s.";
+    protected static final String NON_CONTIGUOUS_RESHAPE = "Can not reshape a non-contiguous " +
+            "view, make a copy first.";
+    protected static final String INVALID_ARRAY_RANGE = "Can not transfer %d values at offset %d " +
+            "of an array with length %d.";
+    protected static final String INVALID_COPY_SHAPE = "Can not copy values of shape %s into " +
+            "a value set of shape %s.";
+    protected static final String INVALID_AXES = "Axes %s are not a permutation of the " +
+            "dimensions of the value set.";
+
+    // fields
+    private int[] mShape;
+    private int[] mStrides;
+    private int mOffset;
+    private int mSize;
+    private boolean mContiguous;
+
+
+    protected DenseValueSet(Type valueType, int... shape) {
+        this(valueType, shape, rowMajorStrides(shape), 0);
+    }
+
+
+    protected DenseValueSet(Type valueType, int[] shape, int[] strides, int offset) {
+        super();
+        super.setValueType(valueType);
+
+        mShape = shape.clone();
+        mStrides = strides.clone();
+        mOffset = offset;
+        mSize = sizeOf(shape);
+        mContiguous = Arrays.equals(mStrides, rowMajorStrides(mShape));
+    }
+
+
+    private static int sizeOf(int[] shape) {
+        if ((shape == null) || (shape.length == 0)) {
+            throw new IllegalArgumentException(INVALID_SHAPE);
+        }
+        int size = 1;
+        for (int dimension : shape) {
+            if (dimension < 0) {
+                throw new IllegalArgumentException(INVALID_SHAPE);
+            }
+            size *= dimension;
+        }
+        return size;
+    }
+
+
+    private static int[] rowMajorStrides(int[] shape) {
+        sizeOf(shape);
+        int[] strides = new int[shape.length];
+        int stride = 1;
+        for (int i = shape.length - 1; i >= 0; i--) {
+            strides[i] = stride;
+            stride *= shape[i];
+        }
+        return strides;
+    }
+
+
+    /**
+     * Creates a value set of the same class that shares the storage array of this value set,
+     * using the specified layout.
+     *
+     * @param shape   of the view
+     * @param strides of the view, in storage array positions
+     * @param offset  position of the first value in the storage array
+     * @return the view
+     */
+    protected abstract DenseValueSet newView(int[] shape, int[] strides, int offset);
+
+
+    /**
+     * Creates an independent value set of the same type with the same shape and values. The
+     * copy is always contiguous, so copying a transposed view gives a value set that can be
+     * reshaped.
+     *
+     * @return the copy
+     */
+    public abstract DenseValueSet copy();
+
+
+    /**
+     * Copies the values from a value set with the same storage type into this one, with bulk
+     * array copies where possible. The shapes have already been checked.
+     *
+     * @param source to copy from
+     * @return true when the values were copied, false when the source type is not supported
+     */
+    protected boolean copyValuesFrom(DenseValueSet source) {
+        return false;
+    }
+
+
+    /**
+     * Returns the (boxed) value at the specified position in the storage array, without any
+     * checks.
+     *
+     * @param offset position in the storage array
+     * @return the value
+     */
+    protected abstract Object valueAt(int offset);
+
+
+    /**
+     * Returns a copy of the shape, i.e. the size of each of the dimensions.
+     *
+     * @return array with the dimension sizes
+     */
+    public int[] getShape() {
+        return mShape.clone();
+    }
+
+
+    /**
+     * Returns a copy of the strides, i.e. the distance in the storage array between two
+     * consecutive index values for each of the dimensions.
+     *
+     * @return array with the strides
+     */
+    public int[] getStrides() {
+        return mStrides.clone();
+    }
+
+
+    /**
+     * Returns the position of the first value in the storage array.
+     *
+     * @return offset of the first value
+     */
+    public int getOffset() {
+        return mOffset;
+    }
+
+
+    /**
+     * Returns the total number of values in the value set.
+     *
+     * @return product of all dimension sizes
+     */
+    public int getSize() {
+        return mSize;
+    }
+
+
+    /**
+     * Checks if the values are stored as one block in row-major order, in which case the flat
+     * index of a value plus the offset is its position in the storage array.
+     *
+     * @return true when the storage is contiguous
+     */
+    public boolean isContiguous() {
+        return mContiguous;
+    }
+
+
+    /**
+     * Returns a view with a different shape but the same number of values, that shares the
+     * storage of this value set. Only possible for contiguous value sets.
+     *
+     * @param shape of the view
+     * @return the reshaped view
+     * @throws IllegalArgumentException when the size of the shape does not match
+     * @throws IllegalStateException    when this value set is not contiguous
+     */
+    public DenseValueSet reshape(int... shape) {
+        if (sizeOf(shape) != mSize) {
+            throw new IllegalArgumentException(String.format(INVALID_RESHAPE, mSize,
+                    Arrays.toString(shape)));
+        }
+        if (!mContiguous) {
+            throw new IllegalStateException(NON_CONTIGUOUS_RESHAPE);
+        }
+        return newView(shape, rowMajorStrides(shape), mOffset);
+    }
+
+
+    /**
+     * Returns a view with the dimensions permuted, that shares the storage of this value set.
+     * Dimension i of the view is dimension axes[i] of this value set. Without arguments the
+     * order of the dimensions is reversed.
+     *
+     * @param axes permutation of the dimensions
+     * @return the transposed view
+     * @throws IllegalArgumentException when axes is not a permutation of the dimensions
+     */
+    public DenseValueSet transpose(int... axes) {
+        int n = mShape.length;
+        if ((axes == null) || (axes.length == 0)) {
+            axes = new int[n];
+            for (int i = 0; i < n; i++) {
+                axes[i] = n - 1 - i;
+            }
+        }
+
+        if (axes.length != n) {
+            throw new IllegalArgumentException(String.format(INVALID_AXES, Arrays.toString(axes)));
+        }
+        boolean[] used = new boolean[n];
+        int[] shape = new int[n];
+        int[] strides = new int[n];
+        for (int i = 0; i < n; i++) {
+            int axis = axes[i];
+            if ((axis < 0) || (axis >= n) || used[axis]) {
+                throw new IllegalArgumentException(String.format(INVALID_AXES,
+                        Arrays.toString(axes)));
+            }
+            used[axis] = true;
+            shape[i] = mShape[axis];
+            strides[i] = mStrides[axis];
+        }
+        return newView(shape, strides, mOffset);
+    }
+
+
+    @Override
+    public void setValueType(Type t) {
+        if (t != getValueType()) {
+            throw new UnsupportedOperationException(FIXED_VALUE_TYPE);
+        }
+    }
+
+
+    @Override
+    public int getNumberOfIndices() {
+        return mShape.length;
+    }
+
+
+    @Override
+    public int getIndexCount(int[] indices) {
+        if (indices == null) {
+            return mShape[0];
+        }
+        if (indices.length >= mShape.length) {
+            return -1;
+        }
+        for (int i = 0; i < indices.length; i++) {
+            if ((indices[i] < 0) || (indices[i] >= mShape[i])) {
+                return -1;
+            }
+        }
+        return mShape[indices.length];
+    }
+
+
+    /**
+     * Calculates the position in the storage array of the value with the specified indices.
+     *
+     * @param indices of the value, one for each dimension
+     * @return position of the value in the storage array
+     * @throws IllegalArgumentException  when the number of indices does not match
+     * @throws IndexOutOfBoundsException when one of the indices is out of range
+     */
+    protected int offsetOf(int[] indices) {
+        if ((indices == null) || (indices.length != mShape.length)) {
+            throw new IllegalArgumentException(INVALID_INDICES_SIZE);
+        }
+        int offset = mOffset;
+        for (int i = 0; i < indices.length; i++) {
+            int index = indices[i];
+            if ((index < 0) || (index >= mShape[i])) {
+                throw new IndexOutOfBoundsException(String.format(INDEX_OUT_OF_BOUNDS, index, i,
+                        mShape[i]));
+            }
+            offset += index * mStrides[i];
+        }
+        return offset;
+    }
+
+
+    /**
+     * Calculates the position in the storage array of the value with the specified flat
+     * (row-major) index.
+     *
+     * @param flatIndex of the value
+     * @return position of the value in the storage array
+     * @throws IndexOutOfBoundsException when the index is out of range
+     */
+    protected int offsetOfFlat(int flatIndex) {
+        if ((flatIndex < 0) || (flatIndex >= mSize)) {
+            throw new IndexOutOfBoundsException(String.format(INDEX_OUT_OF_BOUNDS, flatIndex, -1,
+                    mSize));
+        }
+        if (mContiguous) {
+            return mOffset + flatIndex;
+        }
+        int offset = mOffset;
+        for (int i = mShape.length - 1; i >= 0; i--) {
+            offset += (flatIndex % mShape[i]) * mStrides[i];
+            flatIndex /= mShape[i];
+        }
+        return offset;
+    }
+
+
+    /**
+     * Calculates the flat (row-major) index of the first value in the block of values whose
+     * leading indices equal the specified prefix. An empty prefix selects all values.
+     *
+     * @param prefix leading indices of the block, at most one for each dimension
+     * @return flat index of the first value in the block
+     * @throws IllegalArgumentException  when the prefix has too many indices
+     * @throws IndexOutOfBoundsException when one of the indices is out of range
+     */
+    protected int flatIndexOf(int[] prefix) {
+        int length = (prefix == null) ? 0 : prefix.length;
+        if (length > mShape.length) {
+            throw new IllegalArgumentException(INVALID_INDICES_SIZE);
+        }
+        int flatIndex = 0;
+        for (int i = 0; i < mShape.length; i++) {
+            int index = (i < length) ? prefix[i] : 0;
+            if ((i < length) && ((index < 0) || (index >= mShape[i]))) {
+                throw new IndexOutOfBoundsException(String.format(INDEX_OUT_OF_BOUNDS, index, i,
+                        mShape[i]));
+            }
+            flatIndex = flatIndex * mShape[i] + index;
+        }
+        return flatIndex;
+    }
+
+
+    /**
+     * Returns the number of values in a block selected by a prefix of the specified length.
+     *
+     * @param prefixLength number of leading indices
+     * @return number of values in the block
+     */
+    protected int blockSize(int prefixLength) {
+        int size = 1;
+        for (int i = prefixLength; i < mShape.length; i++) {
+            size *= mShape[i];
+        }
+        return size;
+    }
+
+
+    /**
+     * Calculates the position in the storage array of the first value of the line of values
+     * along the specified dimension, through the specified indices. The index for the
+     * dimension itself is ignored.
+     *
+     * @param dimension of the line
+     * @param indices   one for each dimension
+     * @return position of the first value of the line in the storage array
+     */
+    protected int lineOffsetOf(int dimension, int[] indices) {
+        if ((dimension < 0) || (dimension >= mShape.length)) {
+            throw new IndexOutOfBoundsException(String.format(INDEX_OUT_OF_BOUNDS, dimension,
+                    -1, mShape.length));
+        }
+        if ((indices == null) || (indices.length != mShape.length)) {
+            throw new IllegalArgumentException(INVALID_INDICES_SIZE);
+        }
+        int offset = mOffset;
+        for (int i = 0; i < indices.length; i++) {
+            if (i != dimension) {
+                int index = indices[i];
+                if ((index < 0) || (index >= mShape[i])) {
+                    throw new IndexOutOfBoundsException(String.format(INDEX_OUT_OF_BOUNDS, index,
+                            i, mShape[i]));
+                }
+                offset += index * mStrides[i];
+            }
+        }
+        return offset;
+    }
+
+
+    protected int getShape(int dimension) {
+        return mShape[dimension];
+    }
+
+
+    protected int getStride(int dimension) {
+        return mStrides[dimension];
+    }
+
+
+    /**
+     * Checks if a range of positions fits in an array of the specified length.
+     *
+     * @param arrayLength length of the array
+     * @param offset      of the first position
+     * @param count       number of positions
+     * @throws IndexOutOfBoundsException when the range does not fit
+     */
+    protected static void checkArrayRange(int arrayLength, int offset, int count) {
+        if ((offset < 0) || (count < 0) || (offset > arrayLength - count)) {
+            throw new IndexOutOfBoundsException(String.format(INVALID_ARRAY_RANGE, count, offset,
+                    arrayLength));
+        }
+    }
+
+
+    /**
+     * Copies all values of the source into this value set. A dense source must have the same
+     * shape, its values are copied with bulk array copies when the storage types match. Any
+     * other source is copied value by value and must fit within the shape, values that are
+     * missing (null) in the source are left unchanged.
+     *
+     * @param source to copy the values from
+     * @throws IllegalArgumentException when the shapes or value types do not match
+     */
+    public void copyFrom(IBaseValueSet source) {
+        if (source == this) {
+            return;
+        }
+        if (source.getNumberOfIndices() != mShape.length) {
+            throw new IllegalArgumentException(INVALID_INDICES_SIZE);
+        }
+        if (source instanceof DenseValueSet) {
+            DenseValueSet dense = (DenseValueSet) source;
+            if (!Arrays.equals(mShape, dense.mShape)) {
+                throw new IllegalArgumentException(String.format(INVALID_COPY_SHAPE,
+                        Arrays.toString(dense.mShape), Arrays.toString(mShape)));
+            }
+            if (copyValuesFrom(dense)) {
+                return;
+            }
+        }
+
+        if (source instanceof OmiValueSet) {
+            ((OmiValueSet) source).performNodeOperation(new INodeOperation() {
+                @Override
+                public boolean perform(int[] indices, Object value) {
+                    if (value != null) {
+                        setValue(indices, value);
+                    }
+                    return true;
+                }
+            });
+        } else {
+            final IBaseValueSet other = source;
+            performNodeOperation(new INodeOperation() {
+                @Override
+                public boolean perform(int[] indices, Object value) {
+                    Object otherValue = other.getValue(indices);
+                    if (otherValue != null) {
+                        setValue(indices, otherValue);
+                    }
+                    return true;
+                }
+            });
+        }
+    }
+
+
+    /**
+     * Copies the values of a source with the same shape from its storage array into the
+     * storage array of this value set. Both arrays must have the same component type and must
+     * not be the same array, unless both value sets are contiguous. Contiguous value sets are
+     * copied with a single System.arraycopy, others row by row with a plain loop for strided
+     * rows.
+     *
+     * @param source       value set to copy from
+     * @param sourceValues storage array of the source
+     * @param values       storage array of this value set
+     */
+    protected void copyStorage(DenseValueSet source, Object sourceValues, Object values) {
+        if (mSize == 0) {
+            return;
+        }
+        if (mContiguous && source.mContiguous) {
+            System.arraycopy(sourceValues, source.mOffset, values, mOffset, mSize);
+            return;
+        }
+        int last = mShape.length - 1;
+        int rowLength = mShape[last];
+        int sourceStride = source.mStrides[last];
+        int stride = mStrides[last];
+        for (int row = 0; row < mSize; row += rowLength) {
+            int sourceOffset = source.offsetOfFlat(row);
+            int offset = offsetOfFlat(row);
+            if ((sourceStride == 1) && (stride == 1)) {
+                System.arraycopy(sourceValues, sourceOffset, values, offset, rowLength);
+            } else {
+                copyStrided(sourceValues, sourceOffset, sourceStride, values, offset, stride,
+                        rowLength);
+            }
+        }
+    }
+
+
+    // copies count values between strided rows of storage arrays of the same component type
+    private static void copyStrided(Object sourceValues, int sourceOffset, int sourceStride,
+                                    Object values, int offset, int stride, int count) {
+        if (values instanceof double[]) {
+            double[] source = (double[]) sourceValues;
+            double[] target = (double[]) values;
+            for (int i = 0; i < count; i++) {
+                target[offset + i * stride] = source[sourceOffset + i * sourceStride];
+            }
+        } else if (values instanceof int[]) {
+            int[] source = (int[]) sourceValues;
+            int[] target = (int[]) values;
+            for (int i = 0; i < count; i++) {
+                target[offset + i * stride] = source[sourceOffset + i * sourceStride];
+            }
+        } else if (values instanceof boolean[]) {
+            boolean[] source = (boolean[]) sourceValues;
+            boolean[] target = (boolean[]) values;
+            for (int i = 0; i < count; i++) {
+                target[offset + i * stride] = source[sourceOffset + i * sourceStride];
+            }
+        } else {
+            Object[] source = (Object[]) sourceValues;
+            Object[] target = (Object[]) values;
+            for (int i = 0; i < count; i++) {
+                target[offset + i * stride] = source[sourceOffset + i * sourceStride];
+            }
+        }
+    }
+
+
+    /**
+     * Performs the operation on every value in order of the indices, stepping through the
+     * storage array with the strides instead of walking the dimensions recursively.
+     *
+     * @param operation to perform
+     * @return false when the operation stopped the traversal, true otherwise
+     */
+    @Override
+    public boolean performNodeOperation(INodeOperation operation) {
+        return walk(0, mSize, operation);
+    }
+
+
+    /**
+     * Performs the operation on every value using the worker threads of the pool. The flat
+     * index range is split into chunks of about equal size, each walked by a separate task.
+     *
+     * @param operation to perform
+     * @param pool      to run the tasks in
+     * @return false when the operation stopped the traversal, true otherwise
+     */
+    @Override
+    public boolean performNodeOperationParallel(INodeOperation operation, ForkJoinPool pool) {
+        if (mSize == 0) {
+            return true;
+        }
+        SharedNodeOperation shared = new SharedNodeOperation(operation);
+        int grain = Math.max(1, mSize / (pool.getParallelism() * TASKS_PER_THREAD));
+        pool.invoke(new FlatRangeTask(shared, 0, mSize, grain));
+        return !shared.isStopped();
+    }
+
+
+    // walks the values with a flat index in the range [from, to)
+    private boolean walk(int from, int to, INodeOperation operation) {
+        if (from >= to) {
+            return true;
+        }
+        int n = mShape.length;
+        int[] indices = new int[n];
+        int offset = mOffset;
+        for (int i = n - 1, rest = from; i >= 0; i--) {
+            indices[i] = rest % mShape[i];
+            offset += indices[i] * mStrides[i];
+            rest /= mShape[i];
+        }
+        for (int i = from; i < to; i++) {
+            if (!operation.perform(indices, valueAt(offset))) {
+                return false;
+            }
+            // advance the indices like an odometer, last index fastest
+            for (int d = n - 1; d >= 0; d--) {
+                offset += mStrides[d];
+                if (++indices[d] < mShape[d]) {
+                    break;
+                }
+                offset -= mStrides[d] * mShape[d];
+                indices[d] = 0;
+            }
+        }
+        return true;
+    }
+
+
+    // task walking the values with a flat index in the range [from, to)
+    private class FlatRangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SharedNodeOperation mOperation;
+        private final int mFrom;
+        private final int mTo;
+        private final int mGrain;
+
+
+        private FlatRangeTask(SharedNodeOperation operation, int from, int to, int grain) {
+            mOperation = operation;
+            mFrom = from;
+            mTo = to;
+            mGrain = grain;
+        }
+
+
+        @Override
+        protected void compute() {
+            if (mOperation.isStopped()) {
+                return;
+            }
+            if (mTo - mFrom > mGrain) {
+                int middle = (mFrom + mTo) >>> 1;
+                invokeAll(new FlatRangeTask(mOperation, mFrom, middle, mGrain),
+                        new FlatRangeTask(mOperation, middle, mTo, mGrain));
+            } else {
+                walk(mFrom, mTo, mOperation);
+            }
+        }
+    }
+
+
+    @Override
+    public boolean forEachIndexed(IIndexedNodeOperation operation) {
+        for (int i = 0; i < mSize; i++) {
+            int offset = mContiguous ? mOffset + i : offsetOfFlat(i);
+            if (!operation.perform(i, valueAt(offset))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if ((o == null) || (getClass() != o.getClass())) return false;
+
+        DenseValueSet that = (DenseValueSet) o;
+        return Arrays.equals(mShape, that.mShape);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(mShape);
+    }
+
+}
@@ -0,0 +1,424 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import nl.wur.alterra.openmi.sdk2.extras.DirectBuffers;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+
+/**
+ * Dense value set of any number of dimensions that stores doubles outside of the Java heap,
+ * in a direct byte buffer. Large grids kept in this value set do not add to the work of the
+ * garbage collector. It offers the same typed and bulk accessors as DoubleValueSet.
+ * <p/>
+ * The memory is released when close() is called on the value set, after which any access
+ * throws an IllegalStateException. Views created with reshape or transpose share the memory
+ * but do not own it: closing a view has no effect. Close must not be called while other
+ * threads are still accessing the value set or one of its views. When close() is never
+ * called the memory is released once the value set has been garbage collected.
+ * <p/>
+ * The size of a direct value set is limited to Integer.MAX_VALUE / 8 values.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class DirectDoubleValueSet extends DenseValueSet implements Closeable {
+
+    // messages
+    protected static final String CLOSED = "Value set has been closed, its memory is released.";
+    protected static final String TOO_LARGE = "Value set of %d values is too large to store " +
+            "in a direct buffer.";
+
+
+    // memory shared by a value set and its views
+    private static class Memory {
+        private ByteBuffer buffer;
+        private DoubleBuffer values;
+
+
+        private Memory(int size) {
+            if (size > Integer.MAX_VALUE / 8) {
+                throw new IllegalArgumentException(String.format(TOO_LARGE, size));
+            }
+            buffer = ByteBuffer.allocateDirect(size * 8).order(ByteOrder.nativeOrder());
+            values = buffer.asDoubleBuffer();
+        }
+    }
+
+
+    // fields
+    private Memory mMemory;
+    private boolean mOwner;
+
+
+    public DirectDoubleValueSet(int... shape) {
+        super(Double.class, shape);
+        mMemory = new Memory(getSize());
+        mOwner = true;
+    }
+
+
+    private DirectDoubleValueSet(Memory memory, int[] shape, int[] strides, int offset) {
+        super(Double.class, shape, strides, offset);
+        mMemory = memory;
+        mOwner = false;
+    }
+
+
+    @Override
+    protected DenseValueSet newView(int[] shape, int[] strides, int offset) {
+        values();
+        return new DirectDoubleValueSet(mMemory, shape, strides, offset);
+    }
+
+
+    @Override
+    public DirectDoubleValueSet reshape(int... shape) {
+        return (DirectDoubleValueSet) super.reshape(shape);
+    }
+
+
+    @Override
+    public DirectDoubleValueSet transpose(int... axes) {
+        return (DirectDoubleValueSet) super.transpose(axes);
+    }
+
+
+    private DoubleBuffer values() {
+        DoubleBuffer values = mMemory.values;
+        if (values == null) {
+            throw new IllegalStateException(CLOSED);
+        }
+        return values;
+    }
+
+
+    /**
+     * Releases the memory of the value set. Has no effect on views and on value sets that
+     * have already been closed.
+     */
+    @Override
+    public void close() {
+        if (mOwner && (mMemory.buffer != null)) {
+            ByteBuffer buffer = mMemory.buffer;
+            mMemory.values = null;
+            mMemory.buffer = null;
+            DirectBuffers.release(buffer);
+        }
+    }
+
+
+    public boolean isClosed() {
+        return mMemory.values == null;
+    }
+
+
+    @Override
+    public void clear() {
+        if (mMemory != null) {
+            DoubleBuffer values = values();
+            for (int i = 0; i < getSize(); i++) {
+                values.put(offsetOfFlat(i), 0.0);
+            }
+        }
+    }
+
+
+    public double getDouble(int... indices) {
+        return values().get(offsetOf(indices));
+    }
+
+
+    public void setDouble(int[] indices, double value) {
+        values().put(offsetOf(indices), value);
+    }
+
+
+    /**
+     * Gets a value by its flat (row-major) index.
+     *
+     * @param flatIndex of the value
+     * @return the value
+     */
+    public double getDoubleAt(int flatIndex) {
+        return values().get(offsetOfFlat(flatIndex));
+    }
+
+
+    /**
+     * Sets a value by its flat (row-major) index.
+     *
+     * @param flatIndex of the value
+     * @param value     to set
+     */
+    public void setDoubleAt(int flatIndex, double value) {
+        values().put(offsetOfFlat(flatIndex), value);
+    }
+
+
+    /**
+     * Copies a range of values, by flat (row-major) index, into the target array. For
+     * contiguous value sets this is a single bulk copy.
+     *
+     * @param flatIndex    of the first value to copy
+     * @param target       array to copy the values into
+     * @param targetOffset position in the target array of the first value
+     * @param count        number of values to copy
+     */
+    public void getDoublesAt(int flatIndex, double[] target, int targetOffset, int count) {
+        checkArrayRange(getSize(), flatIndex, count);
+        checkArrayRange(target.length, targetOffset, count);
+        DoubleBuffer values = values();
+        if (isContiguous()) {
+            DoubleBuffer source = values.duplicate();
+            source.position(getOffset() + flatIndex);
+            source.get(target, targetOffset, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                target[targetOffset + i] = values.get(offsetOfFlat(flatIndex + i));
+            }
+        }
+    }
+
+
+    /**
+     * Copies values from the source array into a range of values, by flat (row-major) index.
+     * For contiguous value sets this is a single bulk copy.
+     *
+     * @param flatIndex    of the first value to set
+     * @param source       array to copy the values from
+     * @param sourceOffset position in the source array of the first value
+     * @param count        number of values to copy
+     */
+    public void setDoublesAt(int flatIndex, double[] source, int sourceOffset, int count) {
+        checkArrayRange(getSize(), flatIndex, count);
+        checkArrayRange(source.length, sourceOffset, count);
+        DoubleBuffer values = values();
+        if (isContiguous()) {
+            DoubleBuffer target = values.duplicate();
+            target.position(getOffset() + flatIndex);
+            target.put(source, sourceOffset, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                values.put(offsetOfFlat(flatIndex + i), source[sourceOffset + i]);
+            }
+        }
+    }
+
+
+    /**
+     * Copies the block of values whose leading indices equal the specified prefix into the
+     * target array, in row-major order. An empty prefix selects all values.
+     *
+     * @param prefix       leading indices of the block
+     * @param target       array to copy the values into
+     * @param targetOffset position in the target array of the first value
+     * @return number of values copied
+     */
+    public int getDoubles(int[] prefix, double[] target, int targetOffset) {
+        int count = blockSize((prefix == null) ? 0 : prefix.length);
+        getDoublesAt(flatIndexOf(prefix), target, targetOffset, count);
+        return count;
+    }
+
+
+    /**
+     * Copies values from the source array into the block of values whose leading indices
+     * equal the specified prefix, in row-major order. An empty prefix selects all values.
+     *
+     * @param prefix       leading indices of the block
+     * @param source       array to copy the values from
+     * @param sourceOffset position in the source array of the first value
+     * @return number of values copied
+     */
+    public int setDoubles(int[] prefix, double[] source, int sourceOffset) {
+        int count = blockSize((prefix == null) ? 0 : prefix.length);
+        setDoublesAt(flatIndexOf(prefix), source, sourceOffset, count);
+        return count;
+    }
+
+
+    /**
+     * Copies the line of values along one dimension into the target array. The other indices
+     * select the line, the index for the dimension itself is ignored.
+     *
+     * @param dimension    along which to copy
+     * @param indices      one for each dimension
+     * @param target       array to copy the values into
+     * @param targetOffset position in the target array of the first value
+     * @return number of values copied
+     */
+    public int getDoublesAlong(int dimension, int[] indices, double[] target, int targetOffset) {
+        int offset = lineOffsetOf(dimension, indices);
+        int stride = getStride(dimension);
+        int count = getShape(dimension);
+        checkArrayRange(target.length, targetOffset, count);
+        DoubleBuffer values = values();
+        for (int i = 0; i < count; i++, offset += stride) {
+            target[targetOffset + i] = values.get(offset);
+        }
+        return count;
+    }
+
+
+    /**
+     * Copies values from the source array into the line of values along one dimension. The
+     * other indices select the line, the index for the dimension itself is ignored.
+     *
+     * @param dimension    along which to copy
+     * @param indices      one for each dimension
+     * @param source       array to copy the values from
+     * @param sourceOffset position in the source array of the first value
+     * @return number of values copied
+     */
+    public int setDoublesAlong(int dimension, int[] indices, double[] source, int sourceOffset) {
+        int offset = lineOffsetOf(dimension, indices);
+        int stride = getStride(dimension);
+        int count = getShape(dimension);
+        checkArrayRange(source.length, sourceOffset, count);
+        DoubleBuffer values = values();
+        for (int i = 0; i < count; i++, offset += stride) {
+            values.put(offset, source[sourceOffset + i]);
+        }
+        return count;
+    }
+
+
+    /**
+     * Creates an independent copy of the value set in newly allocated memory, which has to be
+     * closed as well.
+     *
+     * @return the copy
+     */
+    @Override
+    public DirectDoubleValueSet copy() {
+        DirectDoubleValueSet copy = new DirectDoubleValueSet(getShape());
+        copy.copyFrom(this);
+        return copy;
+    }
+
+
+    @Override
+    protected boolean copyValuesFrom(DenseValueSet source) {
+        if (source instanceof DirectDoubleValueSet) {
+            DirectDoubleValueSet other = (DirectDoubleValueSet) source;
+            if (other.mMemory == mMemory) {
+                // a view on the same memory, copy it first so values are not overwritten
+                // before they are read
+                DirectDoubleValueSet copy = other.copy();
+                try {
+                    return copyValuesFrom(copy);
+                } finally {
+                    copy.close();
+                }
+            }
+            if (isContiguous() && other.isContiguous()) {
+                DoubleBuffer from = other.values().duplicate();
+                from.limit(other.getOffset() + getSize()).position(other.getOffset());
+                DoubleBuffer to = values().duplicate();
+                to.position(getOffset());
+                to.put(from);
+                return true;
+            }
+        } else if (!(source instanceof DoubleValueSet)) {
+            return false;
+        }
+
+        // row by row, using the bulk accessors of the source
+        int rowLength = getShape(getNumberOfIndices() - 1);
+        double[] row = new double[rowLength];
+        for (int flatIndex = 0; flatIndex < getSize(); flatIndex += rowLength) {
+            if (source instanceof DoubleValueSet) {
+                ((DoubleValueSet) source).getDoublesAt(flatIndex, row, 0, rowLength);
+            } else {
+                ((DirectDoubleValueSet) source).getDoublesAt(flatIndex, row, 0, rowLength);
+            }
+            setDoublesAt(flatIndex, row, 0, rowLength);
+        }
+        return true;
+    }
+
+
+    @Override
+    protected Object valueAt(int offset) {
+        return values().get(offset);
+    }
+
+
+    @Override
+    public boolean forEachDouble(IDoubleNodeOperation operation) {
+        DoubleBuffer values = values();
+        int size = getSize();
+        for (int i = 0; i < size; i++) {
+            if (!operation.perform(i, values.get(offsetOfFlat(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    @Override
+    public void mapDoubles(IDoubleFunction function) {
+        DoubleBuffer values = values();
+        int size = getSize();
+        for (int i = 0; i < size; i++) {
+            int offset = offsetOfFlat(i);
+            values.put(offset, function.apply(values.get(offset)));
+        }
+    }
+
+
+    @Override
+    public double reduceDoubles(IDoubleReduction reduction, double initial) {
+        DoubleBuffer values = values();
+        double result = initial;
+        int size = getSize();
+        for (int i = 0; i < size; i++) {
+            result = reduction.apply(result, values.get(offsetOfFlat(i)));
+        }
+        return result;
+    }
+
+
+    @Override
+    public Object getValue(int[] indices) {
+        return values().get(offsetOf(indices));
+    }
+
+
+    @Override
+    public void setValue(int[] indices, Object value) {
+        if (!(value instanceof Double)) {
+            throw new IllegalArgumentException(INVALID_VALUE_TYPE);
+        }
+        values().put(offsetOf(indices), (Double) value);
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+
+        DirectDoubleValueSet that = (DirectDoubleValueSet) o;
+        for (int i = 0; i < getSize(); i++) {
+            if (Double.doubleToLongBits(getDoubleAt(i)) != Double.doubleToLongBits(that
+                    .getDoubleAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        for (int i = 0; i < getSize(); i++) {
+            long bits = Double.doubleToLongBits(getDoubleAt(i));
+            result = 31 * result + (int) (bits ^ (bits >>> 32));
+        }
+        return result;
+    }
+
+}
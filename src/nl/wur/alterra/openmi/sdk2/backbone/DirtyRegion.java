@@ -0,0 +1,155 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+
+/**
+ * The indices of the values in a value set that have changed since its adapted outputs were
+ * last refreshed. Up to a limit the indices are kept individually, in the order in which the
+ * values were first changed. When more values change the region is widened to the complete
+ * value set, since recomputing everything is then cheaper than recomputing value by value.
+ * <p/>
+ * Adapted outputs use the region to recompute only the values that depend on the changed
+ * values, see BaseAdaptedOutput.refresh(DirtyRegion).
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class DirtyRegion {
+
+    // default maximum number of indices that is kept individually
+    public static final int DEFAULT_LIMIT = 4096;
+
+    // fields
+    private final int mNumberOfIndices;
+    private final int mLimit;
+    private PackedIndexMap mIndices;
+    private boolean mAll;
+
+
+    public DirtyRegion(int numberOfIndices) {
+        this(numberOfIndices, DEFAULT_LIMIT);
+    }
+
+
+    public DirtyRegion(int numberOfIndices, int limit) {
+        mNumberOfIndices = numberOfIndices;
+        mLimit = limit;
+        mIndices = new PackedIndexMap(numberOfIndices);
+        mAll = false;
+    }
+
+
+    /**
+     * Creates a region that covers a complete value set.
+     *
+     * @param numberOfIndices of the value set
+     * @return the region
+     */
+    public static DirtyRegion newAllInstance(int numberOfIndices) {
+        DirtyRegion result = new DirtyRegion(numberOfIndices);
+        result.addAll();
+        return result;
+    }
+
+
+    public int getNumberOfIndices() {
+        return mNumberOfIndices;
+    }
+
+
+    /**
+     * Adds the indices of a changed value to the region.
+     *
+     * @param indices of the value
+     */
+    public void add(int[] indices) {
+        if (indices.length != mNumberOfIndices) {
+            throw new IllegalArgumentException(OmiValueSet.INVALID_INDICES_SIZE);
+        }
+        if (!mAll) {
+            if ((mIndices.size() >= mLimit) && (mIndices.find(indices) < 0)) {
+                addAll();
+            } else {
+                mIndices.add(indices);
+            }
+        }
+    }
+
+
+    /**
+     * Adds all indices of another region to this region.
+     *
+     * @param region to add
+     */
+    public void add(DirtyRegion region) {
+        if (region.isAll()) {
+            addAll();
+        } else {
+            int[] indices = new int[mNumberOfIndices];
+            for (int i = 0; (i < region.size()) && !mAll; i++) {
+                region.getIndices(i, indices);
+                add(indices);
+            }
+        }
+    }
+
+
+    /**
+     * Widens the region to the complete value set.
+     */
+    public void addAll() {
+        mAll = true;
+        mIndices.clear();
+    }
+
+
+    /**
+     * Returns true when the region covers the complete value set, the individual indices are
+     * then no longer available.
+     *
+     * @return true for a complete value set
+     */
+    public boolean isAll() {
+        return mAll;
+    }
+
+
+    public boolean isEmpty() {
+        return !mAll && (mIndices.size() == 0);
+    }
+
+
+    /**
+     * Returns the number of individually kept indices, zero when the region covers the
+     * complete value set.
+     *
+     * @return number of indices
+     */
+    public int size() {
+        return mIndices.size();
+    }
+
+
+    /**
+     * Copies the i-th indices in the region into the specified array.
+     *
+     * @param i       position of the indices in the region
+     * @param indices array to copy the indices into
+     */
+    public void getIndices(int i, int[] indices) {
+        if ((i < 0) || (i >= mIndices.size())) {
+            throw new IndexOutOfBoundsException(String.valueOf(i));
+        }
+        mIndices.copyKey(i, indices);
+    }
+
+
+    public boolean contains(int[] indices) {
+        return mAll || (mIndices.find(indices) >= 0);
+    }
+
+
+    public void clear() {
+        mAll = false;
+        mIndices.clear();
+    }
+
+}
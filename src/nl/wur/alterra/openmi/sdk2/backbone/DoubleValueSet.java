@@ -0,0 +1,455 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Dense value set of any number of dimensions that stores doubles in a flat primitive array.
+ * The typed accessors (getDouble, setDouble) avoid auto-boxing, the generic getValue and
+ * setValue methods use Double objects.
+ * <p/>
+ * A read-only snapshot of the values can be taken at any time with snapshot(). Snapshots
+ * share the storage with the value set, only pages that are changed after a snapshot has
+ * been taken are copied, just before they are changed.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class DoubleValueSet extends DenseValueSet {
+
+    // fields
+    private double[] mValues;
+    private PageSnapshots mSnapshots;
+
+
+    public DoubleValueSet(int... shape) {
+        super(Double.class, shape);
+        mValues = new double[getSize()];
+        mSnapshots = new PageSnapshots(mValues);
+    }
+
+
+    /**
+     * Creates a view on the storage of the source value set, that shares its snapshots.
+     *
+     * @param source  value set to share the storage with
+     * @param shape   of the view
+     * @param strides of the view in the storage array
+     * @param offset  of the first value of the view in the storage array
+     */
+    protected DoubleValueSet(DoubleValueSet source, int[] shape, int[] strides, int offset) {
+        this(source.mValues, source.mSnapshots, shape, strides, offset);
+    }
+
+
+    private DoubleValueSet(double[] values, PageSnapshots snapshots, int[] shape, int[] strides,
+                           int offset) {
+        super(Double.class, shape, strides, offset);
+        mValues = values;
+        mSnapshots = snapshots;
+    }
+
+
+    @Override
+    protected DenseValueSet newView(int[] shape, int[] strides, int offset) {
+        return new DoubleValueSet(mValues, mSnapshots, shape, strides, offset);
+    }
+
+
+    @Override
+    public DoubleValueSet reshape(int... shape) {
+        return (DoubleValueSet) super.reshape(shape);
+    }
+
+
+    @Override
+    public DoubleValueSet transpose(int... axes) {
+        return (DoubleValueSet) super.transpose(axes);
+    }
+
+
+    @Override
+    public void clear() {
+        if (mValues != null) {
+            beforeWriteAll();
+            if (isContiguous()) {
+                Arrays.fill(mValues, getOffset(), getOffset() + getSize(), 0.0);
+            } else {
+                for (int i = 0; i < getSize(); i++) {
+                    mValues[offsetOfFlat(i)] = 0.0;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Takes a read-only snapshot of the current values. This does not copy any values yet.
+     * The snapshot can be read by other threads, but has to be taken by the thread that
+     * writes this value set.
+     *
+     * @return the snapshot
+     */
+    public DoubleValueSetSnapshot snapshot() {
+        int[] strides = new int[getNumberOfIndices()];
+        for (int i = 0; i < strides.length; i++) {
+            strides[i] = getStride(i);
+        }
+        AtomicReferenceArray<double[]> pages = mSnapshots.takeSnapshot();
+        return new DoubleValueSetSnapshot(mSnapshots, pages, mSnapshots.getVersion(),
+                getShape(), strides, getOffset());
+    }
+
+
+    // lets the snapshots copy the pages with positions [from, to) before they are changed
+    private void beforeWrite(int from, int to) {
+        if (mSnapshots.isActive()) {
+            mSnapshots.beforeWrite(from, to);
+        }
+    }
+
+
+    private void beforeWrite(int offset) {
+        if (mSnapshots.isActive()) {
+            mSnapshots.beforeWrite(offset, offset + 1);
+        }
+    }
+
+
+    // for writes that may touch any value of the value set
+    private void beforeWriteAll() {
+        if (mSnapshots.isActive()) {
+            if (isContiguous()) {
+                mSnapshots.beforeWrite(getOffset(), getOffset() + getSize());
+            } else {
+                mSnapshots.beforeWrite(0, mValues.length);
+            }
+        }
+    }
+
+
+    public double getDouble(int... indices) {
+        return mValues[offsetOf(indices)];
+    }
+
+
+    public void setDouble(int[] indices, double value) {
+        int offset = offsetOf(indices);
+        beforeWrite(offset);
+        mValues[offset] = value;
+    }
+
+
+    /**
+     * Gets a value by its flat (row-major) index.
+     *
+     * @param flatIndex of the value
+     * @return the value
+     */
+    public double getDoubleAt(int flatIndex) {
+        return mValues[offsetOfFlat(flatIndex)];
+    }
+
+
+    /**
+     * Sets a value by its flat (row-major) index.
+     *
+     * @param flatIndex of the value
+     * @param value     to set
+     */
+    public void setDoubleAt(int flatIndex, double value) {
+        int offset = offsetOfFlat(flatIndex);
+        beforeWrite(offset);
+        mValues[offset] = value;
+    }
+
+
+    /**
+     * Copies a range of values, by flat (row-major) index, into the target array. For
+     * contiguous value sets this is a single array copy.
+     *
+     * @param flatIndex    of the first value to copy
+     * @param target       array to copy the values into
+     * @param targetOffset position in the target array of the first value
+     * @param count        number of values to copy
+     */
+    public void getDoublesAt(int flatIndex, double[] target, int targetOffset, int count) {
+        checkArrayRange(getSize(), flatIndex, count);
+        checkArrayRange(target.length, targetOffset, count);
+        if (isContiguous()) {
+            System.arraycopy(mValues, getOffset() + flatIndex, target, targetOffset, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                target[targetOffset + i] = mValues[offsetOfFlat(flatIndex + i)];
+            }
+        }
+    }
+
+
+    /**
+     * Copies values from the source array into a range of values, by flat (row-major) index.
+     * For contiguous value sets this is a single array copy.
+     *
+     * @param flatIndex    of the first value to set
+     * @param source       array to copy the values from
+     * @param sourceOffset position in the source array of the first value
+     * @param count        number of values to copy
+     */
+    public void setDoublesAt(int flatIndex, double[] source, int sourceOffset, int count) {
+        checkArrayRange(getSize(), flatIndex, count);
+        checkArrayRange(source.length, sourceOffset, count);
+        if (isContiguous()) {
+            beforeWrite(getOffset() + flatIndex, getOffset() + flatIndex + count);
+            System.arraycopy(source, sourceOffset, mValues, getOffset() + flatIndex, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                int offset = offsetOfFlat(flatIndex + i);
+                beforeWrite(offset);
+                mValues[offset] = source[sourceOffset + i];
+            }
+        }
+    }
+
+
+    /**
+     * Copies the block of values whose leading indices equal the specified prefix into the
+     * target array, in row-major order. An empty prefix selects all values. For contiguous
+     * value sets this is a single array copy.
+     *
+     * @param prefix       leading indices of the block
+     * @param target       array to copy the values into
+     * @param targetOffset position in the target array of the first value
+     * @return number of values copied
+     */
+    public int getDoubles(int[] prefix, double[] target, int targetOffset) {
+        int start = flatIndexOf(prefix);
+        int count = blockSize((prefix == null) ? 0 : prefix.length);
+        checkArrayRange(target.length, targetOffset, count);
+        if (isContiguous()) {
+            System.arraycopy(mValues, getOffset() + start, target, targetOffset, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                target[targetOffset + i] = mValues[offsetOfFlat(start + i)];
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Copies values from the source array into the block of values whose leading indices
+     * equal the specified prefix, in row-major order. An empty prefix selects all values.
+     *
+     * @param prefix       leading indices of the block
+     * @param source       array to copy the values from
+     * @param sourceOffset position in the source array of the first value
+     * @return number of values copied
+     */
+    public int setDoubles(int[] prefix, double[] source, int sourceOffset) {
+        int start = flatIndexOf(prefix);
+        int count = blockSize((prefix == null) ? 0 : prefix.length);
+        checkArrayRange(source.length, sourceOffset, count);
+        if (isContiguous()) {
+            beforeWrite(getOffset() + start, getOffset() + start + count);
+            System.arraycopy(source, sourceOffset, mValues, getOffset() + start, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                int offset = offsetOfFlat(start + i);
+                beforeWrite(offset);
+                mValues[offset] = source[sourceOffset + i];
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Copies the line of values along one dimension into the target array, e.g. the time
+     * series of an element in a time x element value set. The other indices select the line,
+     * the index for the dimension itself is ignored. When the values along the dimension are
+     * adjacent in storage this is a single array copy.
+     *
+     * @param dimension    along which to copy
+     * @param indices      one for each dimension
+     * @param target       array to copy the values into
+     * @param targetOffset position in the target array of the first value
+     * @return number of values copied
+     */
+    public int getDoublesAlong(int dimension, int[] indices, double[] target, int targetOffset) {
+        int offset = lineOffsetOf(dimension, indices);
+        int stride = getStride(dimension);
+        int count = getShape(dimension);
+        checkArrayRange(target.length, targetOffset, count);
+        if (stride == 1) {
+            System.arraycopy(mValues, offset, target, targetOffset, count);
+        } else {
+            for (int i = 0; i < count; i++, offset += stride) {
+                target[targetOffset + i] = mValues[offset];
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Copies values from the source array into the line of values along one dimension. The
+     * other indices select the line, the index for the dimension itself is ignored.
+     *
+     * @param dimension    along which to copy
+     * @param indices      one for each dimension
+     * @param source       array to copy the values from
+     * @param sourceOffset position in the source array of the first value
+     * @return number of values copied
+     */
+    public int setDoublesAlong(int dimension, int[] indices, double[] source, int sourceOffset) {
+        int offset = lineOffsetOf(dimension, indices);
+        int stride = getStride(dimension);
+        int count = getShape(dimension);
+        checkArrayRange(source.length, sourceOffset, count);
+        if (stride == 1) {
+            beforeWrite(offset, offset + count);
+            System.arraycopy(source, sourceOffset, mValues, offset, count);
+        } else {
+            for (int i = 0; i < count; i++, offset += stride) {
+                beforeWrite(offset);
+                mValues[offset] = source[sourceOffset + i];
+            }
+        }
+        return count;
+    }
+
+
+    @Override
+    public DoubleValueSet copy() {
+        DoubleValueSet copy = new DoubleValueSet(getShape());
+        copy.copyFrom(this);
+        return copy;
+    }
+
+
+    @Override
+    protected boolean copyValuesFrom(DenseValueSet source) {
+        if (source instanceof DoubleValueSet) {
+            DoubleValueSet other = (DoubleValueSet) source;
+            if ((other.mValues == mValues) && !(isContiguous() && other.isContiguous())) {
+                // a view on the same storage, copy it first so values are not overwritten
+                // before they are read
+                other = other.copy();
+            }
+            beforeWriteAll();
+            copyStorage(other, other.mValues, mValues);
+            return true;
+        } else if ((source instanceof DirectDoubleValueSet) && isContiguous()) {
+            beforeWriteAll();
+            ((DirectDoubleValueSet) source).getDoublesAt(0, mValues, getOffset(), getSize());
+            return true;
+        }
+        return false;
+    }
+
+
+    @Override
+    protected Object valueAt(int offset) {
+        return mValues[offset];
+    }
+
+
+    @Override
+    public boolean forEachDouble(IDoubleNodeOperation operation) {
+        int size = getSize();
+        if (isContiguous()) {
+            int offset = getOffset();
+            for (int i = 0; i < size; i++) {
+                if (!operation.perform(i, mValues[offset + i])) {
+                    return false;
+                }
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                if (!operation.perform(i, mValues[offsetOfFlat(i)])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+
+    @Override
+    public void mapDoubles(IDoubleFunction function) {
+        beforeWriteAll();
+        int size = getSize();
+        if (isContiguous()) {
+            int offset = getOffset();
+            for (int i = 0; i < size; i++) {
+                mValues[offset + i] = function.apply(mValues[offset + i]);
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                int offset = offsetOfFlat(i);
+                mValues[offset] = function.apply(mValues[offset]);
+            }
+        }
+    }
+
+
+    @Override
+    public double reduceDoubles(IDoubleReduction reduction, double initial) {
+        double result = initial;
+        int size = getSize();
+        if (isContiguous()) {
+            int offset = getOffset();
+            for (int i = 0; i < size; i++) {
+                result = reduction.apply(result, mValues[offset + i]);
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                result = reduction.apply(result, mValues[offsetOfFlat(i)]);
+            }
+        }
+        return result;
+    }
+
+
+    @Override
+    public Object getValue(int[] indices) {
+        return mValues[offsetOf(indices)];
+    }
+
+
+    @Override
+    public void setValue(int[] indices, Object value) {
+        if (!(value instanceof Double)) {
+            throw new IllegalArgumentException(INVALID_VALUE_TYPE);
+        }
+        int offset = offsetOf(indices);
+        beforeWrite(offset);
+        mValues[offset] = (Double) value;
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+
+        DoubleValueSet that = (DoubleValueSet) o;
+        for (int i = 0; i < getSize(); i++) {
+            if (Double.doubleToLongBits(getDoubleAt(i)) != Double.doubleToLongBits(that
+                    .getDoubleAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        for (int i = 0; i < getSize(); i++) {
+            long bits = Double.doubleToLongBits(getDoubleAt(i));
+            result = 31 * result + (int) (bits ^ (bits >>> 32));
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,187 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Read-only view of the values of a DoubleValueSet at the moment the snapshot was taken.
+ * Taking a snapshot does not copy any values. The snapshot reads the storage of the value set
+ * directly, until a page of the storage is changed: the value set then first hands a copy of
+ * the original page to the snapshot. Many consumers can therefore share the values of an
+ * output safely, at the cost of copying only the pages that are written afterwards.
+ * <p/>
+ * Snapshots can be read by other threads while the value set is written, e.g. handed to the
+ * consumer of an output that is already computing the next time step. They have to be taken
+ * by the thread that writes the value set. Snapshots that are no longer referenced are
+ * dropped by the garbage collector.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class DoubleValueSetSnapshot extends DenseValueSet {
+
+    // messages
+    protected static final String READ_ONLY = "A value set snapshot can not be changed.";
+
+    // fields
+    private PageSnapshots mSnapshots;
+    private AtomicReferenceArray<double[]> mPages;
+    private int mVersion;
+
+
+    DoubleValueSetSnapshot(PageSnapshots snapshots, AtomicReferenceArray<double[]> pages,
+                           int version, int[] shape, int[] strides, int offset) {
+        super(Double.class, shape, strides, offset);
+        mSnapshots = snapshots;
+        mPages = pages;
+        mVersion = version;
+    }
+
+
+    @Override
+    protected DenseValueSet newView(int[] shape, int[] strides, int offset) {
+        return new DoubleValueSetSnapshot(mSnapshots, mPages, mVersion, shape, strides, offset);
+    }
+
+
+    @Override
+    public DoubleValueSetSnapshot reshape(int... shape) {
+        return (DoubleValueSetSnapshot) super.reshape(shape);
+    }
+
+
+    @Override
+    public DoubleValueSetSnapshot transpose(int... axes) {
+        return (DoubleValueSetSnapshot) super.transpose(axes);
+    }
+
+
+    /**
+     * Returns the version of the value set storage this snapshot was taken at, i.e. the
+     * number of snapshots taken of it so far.
+     *
+     * @return the version
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+
+    @Override
+    public void clear() {
+        // also called while the value type is set on construction
+        if (mPages != null) {
+            throw new UnsupportedOperationException(READ_ONLY);
+        }
+    }
+
+
+    // copied pages never change, only pages still read from the storage need the lock
+    private double read(int offset) {
+        double[] page = mPages.get(offset >>> PageSnapshots.PAGE_SHIFT);
+        return (page != null) ? page[offset & PageSnapshots.PAGE_MASK] :
+                mSnapshots.read(mPages, offset);
+    }
+
+
+    public double getDouble(int... indices) {
+        return read(offsetOf(indices));
+    }
+
+
+    /**
+     * Gets a value by its flat (row-major) index.
+     *
+     * @param flatIndex of the value
+     * @return the value
+     */
+    public double getDoubleAt(int flatIndex) {
+        return read(offsetOfFlat(flatIndex));
+    }
+
+
+    /**
+     * Copies a range of values, by flat (row-major) index, into the target array.
+     *
+     * @param flatIndex    of the first value to copy
+     * @param target       array to copy the values into
+     * @param targetOffset position in the target array of the first value
+     * @param count        number of values to copy
+     */
+    public void getDoublesAt(int flatIndex, double[] target, int targetOffset, int count) {
+        checkArrayRange(getSize(), flatIndex, count);
+        checkArrayRange(target.length, targetOffset, count);
+        if (isContiguous()) {
+            // page by page
+            int offset = getOffset() + flatIndex;
+            int end = offset + count;
+            while (offset < end) {
+                int length = Math.min(end, (offset | PageSnapshots.PAGE_MASK) + 1) - offset;
+                mSnapshots.read(mPages, offset, target, targetOffset, length);
+                offset += length;
+                targetOffset += length;
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                target[targetOffset + i] = read(offsetOfFlat(flatIndex + i));
+            }
+        }
+    }
+
+
+    /**
+     * Creates an independent, writable value set with the values of this snapshot.
+     *
+     * @return the copy
+     */
+    @Override
+    public DoubleValueSet copy() {
+        DoubleValueSet copy = new DoubleValueSet(getShape());
+        for (int i = 0; i < getSize(); i++) {
+            copy.setDoubleAt(i, getDoubleAt(i));
+        }
+        return copy;
+    }
+
+
+    @Override
+    protected Object valueAt(int offset) {
+        return read(offset);
+    }
+
+
+    @Override
+    public Object getValue(int[] indices) {
+        return read(offsetOf(indices));
+    }
+
+
+    @Override
+    public void setValue(int[] indices, Object value) {
+        throw new UnsupportedOperationException(READ_ONLY);
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+
+        DoubleValueSetSnapshot that = (DoubleValueSetSnapshot) o;
+        for (int i = 0; i < getSize(); i++) {
+            if (Double.doubleToLongBits(getDoubleAt(i)) != Double.doubleToLongBits(that
+                    .getDoubleAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        for (int i = 0; i < getSize(); i++) {
+            long bits = Double.doubleToLongBits(getDoubleAt(i));
+            result = 31 * result + (int) (bits ^ (bits >>> 32));
+        }
+        return result;
+    }
+
+}
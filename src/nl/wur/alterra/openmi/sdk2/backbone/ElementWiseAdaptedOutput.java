@@ -0,0 +1,219 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import org.openmi.standard2.IBaseLinkableComponent;
+import org.openmi.standard2.IBaseOutput;
+import org.openmi.standard2.IBaseValueSet;
+import org.openmi.standard2.IValueDefinition;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Base class for stateless adapted outputs that compute each value only from the adaptee
+ * value with the same indices, e.g. unit conversions, scaling and classification. Subclasses
+ * only provide the per value computation (the kernel) in adaptValue.
+ * <p/>
+ * Stacked element-wise adapted outputs are fused: the last adapted output of a chain applies
+ * the kernels of all adapted outputs in the chain to the values of the first adaptee that is
+ * not element-wise, in a single pass and without creating a value set for each of the
+ * adapted outputs in between. For that, element-wise adapted outputs are lazy by default, an
+ * adapted output in the chain only computes its own values when they are requested.
+ * <p/>
+ * When every kernel in a chain works on doubles (isDoubleKernel) and the source is a
+ * DoubleValueSet, the chain runs on primitive doubles without boxing.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public abstract class ElementWiseAdaptedOutput extends BaseAdaptedOutput {
+
+    public ElementWiseAdaptedOutput() {
+        this(null, null);
+    }
+
+
+    public ElementWiseAdaptedOutput(IBaseLinkableComponent owner, IValueDefinition valueDef) {
+        super(owner, valueDef, null);
+        setLazy(true);
+    }
+
+
+    /**
+     * Computes the adapted value from a value of the adaptee. The result may only depend on
+     * the value and on the arguments of the adapted output, not on any other values.
+     *
+     * @param value of the adaptee, never null
+     * @return the adapted value
+     */
+    public abstract Object adaptValue(Object value);
+
+
+    /**
+     * Returns true when the kernel is also available for primitive doubles, in adaptDouble.
+     * Adapted values must then be doubles as well.
+     *
+     * @return true when adaptDouble can be used
+     */
+    public boolean isDoubleKernel() {
+        return false;
+    }
+
+
+    /**
+     * Primitive version of adaptValue for adapted outputs that have a double kernel.
+     *
+     * @param value of the adaptee
+     * @return the adapted value
+     */
+    public double adaptDouble(double value) {
+        return (Double) adaptValue(value);
+    }
+
+
+    /**
+     * Returns the type of the adapted values, for adaptee values of the specified type. The
+     * default is the same type.
+     *
+     * @param valueType of the adaptee values
+     * @return type of the adapted values
+     */
+    public Type getAdaptedValueType(Type valueType) {
+        return valueType;
+    }
+
+
+    /**
+     * Recomputes the values by running the kernels of the chain of element-wise adapted
+     * outputs that ends with this one over the values of the first adaptee in the chain.
+     */
+    @Override
+    public void refresh() {
+        ElementWiseAdaptedOutput[] chain = getFusedChain();
+        IBaseOutput source = chain[0].getAdaptee();
+        IBaseValueSet sourceValues = (source == null) ? null : source.getValues();
+        valueSet = (sourceValues == null) ? null : evaluate(chain, sourceValues);
+        super.refresh();
+    }
+
+
+    /**
+     * Recomputes only the values in the dirty region, by running the kernels of the chain
+     * over the changed values of the first adaptee in the chain. Element-wise adapted outputs
+     * keep the indices of their adaptee, so the region applies to every adapted output in the
+     * chain. Falls back to a complete refresh when there are no values to update yet.
+     *
+     * @param dirtyRegion indices of the changed values of the adaptee
+     */
+    @Override
+    public void refresh(DirtyRegion dirtyRegion) {
+        ElementWiseAdaptedOutput[] chain = getFusedChain();
+        IBaseOutput source = chain[0].getAdaptee();
+        IBaseValueSet sourceValues = (source == null) ? null : source.getValues();
+        if ((valueSet == null) || (sourceValues == null) || dirtyRegion.isAll() ||
+                (valueSet.getNumberOfIndices() != dirtyRegion.getNumberOfIndices()) ||
+                !update(chain, sourceValues, valueSet, dirtyRegion)) {
+            refresh();
+            return;
+        }
+        refreshAdaptedOutputs(dirtyRegion);
+    }
+
+
+    /**
+     * Returns the chain of element-wise adapted outputs that ends with this one, starting
+     * with the first whose adaptee is not element-wise.
+     *
+     * @return the adapted outputs in the chain, in order of evaluation
+     */
+    public ElementWiseAdaptedOutput[] getFusedChain() {
+        List<ElementWiseAdaptedOutput> chain = new ArrayList<ElementWiseAdaptedOutput>();
+        ElementWiseAdaptedOutput stage = this;
+        chain.add(stage);
+        while ((stage.getAdaptee() instanceof ElementWiseAdaptedOutput) && (stage.getAdaptee()
+                != this)) {
+            stage = (ElementWiseAdaptedOutput) stage.getAdaptee();
+            chain.add(0, stage);
+        }
+        return chain.toArray(new ElementWiseAdaptedOutput[chain.size()]);
+    }
+
+
+    private static IBaseValueSet evaluate(final ElementWiseAdaptedOutput[] chain,
+                                          IBaseValueSet source) {
+        boolean doubles = true;
+        Type valueType = source.getValueType();
+        for (ElementWiseAdaptedOutput stage : chain) {
+            doubles &= stage.isDoubleKernel();
+            valueType = stage.getAdaptedValueType(valueType);
+        }
+
+        // primitive pass
+        if (doubles && (source instanceof DoubleValueSet)) {
+            DoubleValueSet result = ((DoubleValueSet) source).copy();
+            result.mapDoubles(new OmiValueSet.IDoubleFunction() {
+                @Override
+                public double apply(double value) {
+                    for (ElementWiseAdaptedOutput stage : chain) {
+                        value = stage.adaptDouble(value);
+                    }
+                    return value;
+                }
+            });
+            return result;
+        }
+
+        // single pass over the source values
+        OmiValueSet values = (source instanceof OmiValueSet) ? (OmiValueSet) source :
+                BaseValueSet.newInstance(source);
+        final BaseValueSet result = BaseValueSet.newInstance(valueType,
+                source.getNumberOfIndices());
+        values.performNodeOperation(new OmiValueSet.INodeOperation() {
+            @Override
+            public boolean perform(int[] indices, Object value) {
+                if (value != null) {
+                    for (ElementWiseAdaptedOutput stage : chain) {
+                        value = stage.adaptValue(value);
+                    }
+                    result.setValue(indices, value);
+                }
+                return true;
+            }
+        });
+        return result;
+    }
+
+
+    // recomputes the values in the region, returns false when a source value is missing
+    private static boolean update(ElementWiseAdaptedOutput[] chain, IBaseValueSet source,
+                                  IBaseValueSet target, DirtyRegion region) {
+        boolean doubles = (source instanceof DoubleValueSet) && (target instanceof
+                DoubleValueSet);
+        for (ElementWiseAdaptedOutput stage : chain) {
+            doubles &= stage.isDoubleKernel();
+        }
+
+        int[] indices = new int[region.getNumberOfIndices()];
+        for (int i = 0; i < region.size(); i++) {
+            region.getIndices(i, indices);
+            if (doubles) {
+                double value = ((DoubleValueSet) source).getDouble(indices);
+                for (ElementWiseAdaptedOutput stage : chain) {
+                    value = stage.adaptDouble(value);
+                }
+                ((DoubleValueSet) target).setDouble(indices, value);
+            } else {
+                Object value = source.getValue(indices);
+                if (value == null) {
+                    return false;
+                }
+                for (ElementWiseAdaptedOutput stage : chain) {
+                    value = stage.adaptValue(value);
+                }
+                target.setValue(indices, value);
+            }
+        }
+        return true;
+    }
+
+}
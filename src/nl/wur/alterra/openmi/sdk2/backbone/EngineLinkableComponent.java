@@ -29,23 +29,242 @@
 package nl.wur.alterra.openmi.sdk2.backbone;
 
 import nl.wur.alterra.openmi.sdk2.extras.IEngine;
+import org.openmi.standard2.IBaseInput;
+import org.openmi.standard2.IBaseOutput;
+import org.openmi.standard2.IBaseValueSet;
+import org.openmi.standard2.LinkableComponentStatus;
+
+import java.util.Arrays;
 
 
 /**
  * Linkable Component that delegates to an IEngine.
+ * <p/>
+ * The component advances the engine in fixed time steps from a start time to an end time
+ * (modified Julian days), by default a single step. On each update the values of the inputs,
+ * or when an input has no values those of its provider, are passed to the engine with
+ * setDoubles, the engine is updated, and the values of the outputs are read back with
+ * getDoubles, all for the time at the end of the step. Values are exchanged as flat arrays of
+ * doubles, missing values as NaN. The status goes from UPDATING to UPDATED, or to DONE after
+ * the last step, and to FAILED when a call of the engine fails.
+ * <p/>
+ * Engines that wrap external executables or exchange files spend most of their updates
+ * blocked. Such components should be marked as blocking, the composition then runs their
+ * prepare, update and finish calls on threads for blocking tasks (virtual threads when the
+ * JVM supports them) instead of on its bounded pool of worker threads.
  *
  * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
  */
 public class EngineLinkableComponent extends BaseLinkableComponent {
 
+    // messages
+    private static final String INVALID_TIME_HORIZON = "The time step must be positive and " +
+            "the end time can not be before the start time.";
+
     // fields
     private IEngine engine;
+    private boolean blocking;
+    private double startTime;
+    private double endTime;
+    private double timeStep;
+    private double currentTime;
 
 
     public EngineLinkableComponent(IEngine engine) {
+        this(engine, false);
+    }
+
+
+    public EngineLinkableComponent(IEngine engine, boolean blocking) {
         super();
         this.engine = engine;
+        this.blocking = blocking;
+        this.startTime = 0;
+        this.endTime = 0;
+        this.timeStep = 1;
+        this.currentTime = 0;
+    }
+
+
+    public IEngine getEngine() {
+        return engine;
+    }
+
+
+    /**
+     * Returns true when the engine spends most of its calls blocked, e.g. waiting for an
+     * external executable.
+     *
+     * @return true for a blocking (IO-bound) engine
+     */
+    public boolean isBlocking() {
+        return blocking;
+    }
+
+
+    public void setBlocking(boolean blocking) {
+        this.blocking = blocking;
+    }
+
+
+    /**
+     * Sets the times the engine is run for. The component is done once a step ends at or
+     * after the end time.
+     *
+     * @param startTime of the first step, as modified Julian day
+     * @param endTime   of the run, as modified Julian day
+     * @param timeStep  length of a step in days
+     * @throws IllegalArgumentException when the time step is not positive or the end time
+     *                                  is before the start time
+     */
+    public void setTimeHorizon(double startTime, double endTime, double timeStep) {
+        if ((timeStep <= 0) || (endTime < startTime)) {
+            throw new IllegalArgumentException(INVALID_TIME_HORIZON);
+        }
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.timeStep = timeStep;
+        this.currentTime = startTime;
+    }
+
+
+    public double getStartTime() {
+        return startTime;
+    }
+
+
+    public double getEndTime() {
+        return endTime;
     }
 
 
+    public double getTimeStep() {
+        return timeStep;
+    }
+
+
+    /**
+     * Returns the time the engine has been updated to.
+     *
+     * @return the current time, as modified Julian day
+     */
+    public double getCurrentTime() {
+        return currentTime;
+    }
+
+
+    @Override
+    public void initialize() {
+        updateStatus(LinkableComponentStatus.INITIALIZING, "initializing");
+        try {
+            engine.initialize(this);
+            super.initialize();
+        } catch (RuntimeException ex) {
+            updateStatus(LinkableComponentStatus.FAILED, ex.getMessage());
+            throw ex;
+        }
+        updateStatus(LinkableComponentStatus.INITIALIZED, "initialized");
+    }
+
+
+    @Override
+    public void prepare() {
+        updateStatus(LinkableComponentStatus.PREPARING, "preparing");
+        try {
+            engine.prepare();
+        } catch (RuntimeException ex) {
+            updateStatus(LinkableComponentStatus.FAILED, ex.getMessage());
+            throw ex;
+        }
+        currentTime = startTime;
+        updateStatus(LinkableComponentStatus.UPDATED, "prepared");
+    }
+
+
+    @Override
+    public void update(IBaseOutput[] requiredOutputs) {
+        updateStatus(LinkableComponentStatus.UPDATING, "updating");
+        double time = currentTime + timeStep;
+        try {
+            for (IBaseInput input : getInputs()) {
+                IBaseValueSet values = input.getValues();
+                if ((values == null) && (input.getProvider() != null)) {
+                    values = input.getProvider().getValues();
+                }
+                if (values != null) {
+                    engine.setDoubles(input.getId(), time, Double.NaN, toDoubles(values));
+                }
+            }
+            engine.update();
+            for (IBaseOutput output : getOutputs()) {
+                double[] values = engine.getDoubles(output.getId(), time, Double.NaN);
+                if ((values != null) && (output instanceof BaseOutput)) {
+                    setDoubles((BaseOutput) output, values);
+                }
+            }
+        } catch (RuntimeException ex) {
+            updateStatus(LinkableComponentStatus.FAILED, ex.getMessage());
+            throw ex;
+        }
+        currentTime = time;
+        if (currentTime >= endTime) {
+            updateStatus(LinkableComponentStatus.DONE, "done");
+        } else {
+            updateStatus(LinkableComponentStatus.UPDATED, "updated");
+        }
+    }
+
+
+    @Override
+    public void finish() {
+        boolean failed = getStatus() == LinkableComponentStatus.FAILED;
+        updateStatus(LinkableComponentStatus.FINISHING, "finishing");
+        engine.finish(failed);
+        updateStatus(LinkableComponentStatus.FINISHED, "finished");
+    }
+
+
+    // flattens the values in row-major order, values that are not a number become NaN
+    private static double[] toDoubles(IBaseValueSet values) {
+        OmiValueSet omiValues = (values instanceof OmiValueSet) ? (OmiValueSet) values :
+                BaseValueSet.newInstance(values);
+        final int[] count = new int[1];
+        if (omiValues instanceof DenseValueSet) {
+            count[0] = ((DenseValueSet) omiValues).getSize();
+        } else {
+            omiValues.forEachIndexed(new OmiValueSet.IIndexedNodeOperation() {
+                @Override
+                public boolean perform(int flatIndex, Object value) {
+                    count[0]++;
+                    return true;
+                }
+            });
+        }
+        final double[] result = new double[count[0]];
+        Arrays.fill(result, Double.NaN);
+        omiValues.forEachDouble(new OmiValueSet.IDoubleNodeOperation() {
+            @Override
+            public boolean perform(int flatIndex, double value) {
+                result[flatIndex] = value;
+                return true;
+            }
+        });
+        return result;
+    }
+
+
+    // stores the values in the double value set of the output, or in a new one
+    private static void setDoubles(BaseOutput output, double[] values) {
+        IBaseValueSet current = output.getValues();
+        DoubleValueSet target;
+        if ((current instanceof DoubleValueSet) && (((DoubleValueSet) current).getSize() ==
+                values.length)) {
+            target = (DoubleValueSet) current;
+        } else {
+            target = new DoubleValueSet(values.length);
+        }
+        target.setDoublesAt(0, values, 0, values.length);
+        output.setValues(target, true, false);
+    }
+
 }
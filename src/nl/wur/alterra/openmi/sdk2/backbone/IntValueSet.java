@@ -0,0 +1,369 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import java.util.Arrays;
+
+
+/**
+ * Dense value set of any number of dimensions that stores integers in a flat primitive array.
+ * The typed accessors (getInt, setInt) avoid auto-boxing, the generic getValue and
+ * setValue methods use Integer objects.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class IntValueSet extends DenseValueSet {
+
+    // fields
+    private int[] mValues;
+
+
+    public IntValueSet(int... shape) {
+        super(Integer.class, shape);
+        mValues = new int[getSize()];
+    }
+
+
+    protected IntValueSet(int[] values, int[] shape, int[] strides, int offset) {
+        super(Integer.class, shape, strides, offset);
+        mValues = values;
+    }
+
+
+    @Override
+    protected DenseValueSet newView(int[] shape, int[] strides, int offset) {
+        return new IntValueSet(mValues, shape, strides, offset);
+    }
+
+
+    @Override
+    public IntValueSet reshape(int... shape) {
+        return (IntValueSet) super.reshape(shape);
+    }
+
+
+    @Override
+    public IntValueSet transpose(int... axes) {
+        return (IntValueSet) super.transpose(axes);
+    }
+
+
+    @Override
+    public void clear() {
+        if (mValues != null) {
+            if (isContiguous()) {
+                Arrays.fill(mValues, getOffset(), getOffset() + getSize(), 0);
+            } else {
+                for (int i = 0; i < getSize(); i++) {
+                    mValues[offsetOfFlat(i)] = 0;
+                }
+            }
+        }
+    }
+
+
+    public int getInt(int... indices) {
+        return mValues[offsetOf(indices)];
+    }
+
+
+    public void setInt(int[] indices, int value) {
+        mValues[offsetOf(indices)] = value;
+    }
+
+
+    /**
+     * Gets a value by its flat (row-major) index.
+     *
+     * @param flatIndex of the value
+     * @return the value
+     */
+    public int getIntAt(int flatIndex) {
+        return mValues[offsetOfFlat(flatIndex)];
+    }
+
+
+    /**
+     * Sets a value by its flat (row-major) index.
+     *
+     * @param flatIndex of the value
+     * @param value     to set
+     */
+    public void setIntAt(int flatIndex, int value) {
+        mValues[offsetOfFlat(flatIndex)] = value;
+    }
+
+
+    /**
+     * Copies a range of values, by flat (row-major) index, into the target array. For
+     * contiguous value sets this is a single array copy.
+     *
+     * @param flatIndex    of the first value to copy
+     * @param target       array to copy the values into
+     * @param targetOffset position in the target array of the first value
+     * @param count        number of values to copy
+     */
+    public void getIntsAt(int flatIndex, int[] target, int targetOffset, int count) {
+        checkArrayRange(getSize(), flatIndex, count);
+        checkArrayRange(target.length, targetOffset, count);
+        if (isContiguous()) {
+            System.arraycopy(mValues, getOffset() + flatIndex, target, targetOffset, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                target[targetOffset + i] = mValues[offsetOfFlat(flatIndex + i)];
+            }
+        }
+    }
+
+
+    /**
+     * Copies values from the source array into a range of values, by flat (row-major) index.
+     * For contiguous value sets this is a single array copy.
+     *
+     * @param flatIndex    of the first value to set
+     * @param source       array to copy the values from
+     * @param sourceOffset position in the source array of the first value
+     * @param count        number of values to copy
+     */
+    public void setIntsAt(int flatIndex, int[] source, int sourceOffset, int count) {
+        checkArrayRange(getSize(), flatIndex, count);
+        checkArrayRange(source.length, sourceOffset, count);
+        if (isContiguous()) {
+            System.arraycopy(source, sourceOffset, mValues, getOffset() + flatIndex, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                mValues[offsetOfFlat(flatIndex + i)] = source[sourceOffset + i];
+            }
+        }
+    }
+
+
+    /**
+     * Copies the block of values whose leading indices equal the specified prefix into the
+     * target array, in row-major order. An empty prefix selects all values. For contiguous
+     * value sets this is a single array copy.
+     *
+     * @param prefix       leading indices of the block
+     * @param target       array to copy the values into
+     * @param targetOffset position in the target array of the first value
+     * @return number of values copied
+     */
+    public int getInts(int[] prefix, int[] target, int targetOffset) {
+        int start = flatIndexOf(prefix);
+        int count = blockSize((prefix == null) ? 0 : prefix.length);
+        checkArrayRange(target.length, targetOffset, count);
+        if (isContiguous()) {
+            System.arraycopy(mValues, getOffset() + start, target, targetOffset, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                target[targetOffset + i] = mValues[offsetOfFlat(start + i)];
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Copies values from the source array into the block of values whose leading indices
+     * equal the specified prefix, in row-major order. An empty prefix selects all values.
+     *
+     * @param prefix       leading indices of the block
+     * @param source       array to copy the values from
+     * @param sourceOffset position in the source array of the first value
+     * @return number of values copied
+     */
+    public int setInts(int[] prefix, int[] source, int sourceOffset) {
+        int start = flatIndexOf(prefix);
+        int count = blockSize((prefix == null) ? 0 : prefix.length);
+        checkArrayRange(source.length, sourceOffset, count);
+        if (isContiguous()) {
+            System.arraycopy(source, sourceOffset, mValues, getOffset() + start, count);
+        } else {
+            for (int i = 0; i < count; i++) {
+                mValues[offsetOfFlat(start + i)] = source[sourceOffset + i];
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Copies the line of values along one dimension into the target array, e.g. the time
+     * series of an element in a time x element value set. The other indices select the line,
+     * the index for the dimension itself is ignored. When the values along the dimension are
+     * adjacent in storage this is a single array copy.
+     *
+     * @param dimension    along which to copy
+     * @param indices      one for each dimension
+     * @param target       array to copy the values into
+     * @param targetOffset position in the target array of the first value
+     * @return number of values copied
+     */
+    public int getIntsAlong(int dimension, int[] indices, int[] target, int targetOffset) {
+        int offset = lineOffsetOf(dimension, indices);
+        int stride = getStride(dimension);
+        int count = getShape(dimension);
+        checkArrayRange(target.length, targetOffset, count);
+        if (stride == 1) {
+            System.arraycopy(mValues, offset, target, targetOffset, count);
+        } else {
+            for (int i = 0; i < count; i++, offset += stride) {
+                target[targetOffset + i] = mValues[offset];
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * Copies values from the source array into the line of values along one dimension. The
+     * other indices select the line, the index for the dimension itself is ignored.
+     *
+     * @param dimension    along which to copy
+     * @param indices      one for each dimension
+     * @param source       array to copy the values from
+     * @param sourceOffset position in the source array of the first value
+     * @return number of values copied
+     */
+    public int setIntsAlong(int dimension, int[] indices, int[] source, int sourceOffset) {
+        int offset = lineOffsetOf(dimension, indices);
+        int stride = getStride(dimension);
+        int count = getShape(dimension);
+        checkArrayRange(source.length, sourceOffset, count);
+        if (stride == 1) {
+            System.arraycopy(source, sourceOffset, mValues, offset, count);
+        } else {
+            for (int i = 0; i < count; i++, offset += stride) {
+                mValues[offset] = source[sourceOffset + i];
+            }
+        }
+        return count;
+    }
+
+
+    @Override
+    public IntValueSet copy() {
+        IntValueSet copy = new IntValueSet(getShape());
+        copy.copyFrom(this);
+        return copy;
+    }
+
+
+    @Override
+    protected boolean copyValuesFrom(DenseValueSet source) {
+        if (source instanceof IntValueSet) {
+            IntValueSet other = (IntValueSet) source;
+            if ((other.mValues == mValues) && !(isContiguous() && other.isContiguous())) {
+                // a view on the same storage, copy it first so values are not overwritten
+                // before they are read
+                other = other.copy();
+            }
+            copyStorage(other, other.mValues, mValues);
+            return true;
+        }
+        return false;
+    }
+
+
+    @Override
+    protected Object valueAt(int offset) {
+        return mValues[offset];
+    }
+
+
+    @Override
+    public boolean forEachDouble(IDoubleNodeOperation operation) {
+        int size = getSize();
+        if (isContiguous()) {
+            int offset = getOffset();
+            for (int i = 0; i < size; i++) {
+                if (!operation.perform(i, mValues[offset + i])) {
+                    return false;
+                }
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                if (!operation.perform(i, mValues[offsetOfFlat(i)])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Replaces every value by the result of the function, rounded to the nearest integer.
+     *
+     * @param function to apply
+     */
+    @Override
+    public void mapDoubles(IDoubleFunction function) {
+        int size = getSize();
+        if (isContiguous()) {
+            int offset = getOffset();
+            for (int i = 0; i < size; i++) {
+                mValues[offset + i] = (int) Math.round(function.apply(mValues[offset + i]));
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                int offset = offsetOfFlat(i);
+                mValues[offset] = (int) Math.round(function.apply(mValues[offset]));
+            }
+        }
+    }
+
+
+    @Override
+    public double reduceDoubles(IDoubleReduction reduction, double initial) {
+        double result = initial;
+        int size = getSize();
+        if (isContiguous()) {
+            int offset = getOffset();
+            for (int i = 0; i < size; i++) {
+                result = reduction.apply(result, mValues[offset + i]);
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                result = reduction.apply(result, mValues[offsetOfFlat(i)]);
+            }
+        }
+        return result;
+    }
+
+
+    @Override
+    public Object getValue(int[] indices) {
+        return mValues[offsetOf(indices)];
+    }
+
+
+    @Override
+    public void setValue(int[] indices, Object value) {
+        if (!(value instanceof Integer)) {
+            throw new IllegalArgumentException(INVALID_VALUE_TYPE);
+        }
+        mValues[offsetOf(indices)] = (Integer) value;
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+
+        IntValueSet that = (IntValueSet) o;
+        for (int i = 0; i < getSize(); i++) {
+            if (getIntAt(i) != that.getIntAt(i)) return false;
+        }
+        return true;
+    }
+
+
+    @Override
+    public int hashCode() {
+        int result = super.hashCode();
+        for (int i = 0; i < getSize(); i++) {
+            result = 31 * result + getIntAt(i);
+        }
+        return result;
+    }
+
+}
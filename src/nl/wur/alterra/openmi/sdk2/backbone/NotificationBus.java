@@ -0,0 +1,321 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Delivers notifications of OmiObjects to subscribers, as an alternative to the synchronous
+ * dispatch of java.util.Observable. Publishing a notification does not take any locks, it is
+ * only added to a queue. The queued notifications are delivered in batches: every subscriber
+ * receives a list with all notifications that were queued since the previous delivery, in
+ * order of publication.
+ * <p/>
+ * A MODIFIED notification for a sender and variable that is still queued replaces the queued
+ * notification instead of being added again, so a value that is changed many times between
+ * two deliveries results in a single notification. When other notifications were queued after
+ * the one it replaces, the replaced notification is dropped and the new one is queued at the
+ * end, so that the notifications are still delivered in order of publication. Senders and
+ * variables are compared by reference.
+ * <p/>
+ * A synchronous bus delivers the queued notifications in the thread that publishes them. An
+ * asynchronous bus delivers them in a separate (daemon) thread, so that slow subscribers, e.g.
+ * user interfaces and loggers, do not slow down the publishing model. Batches are never
+ * delivered at the same time, subscribers do not have to be thread-safe.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class NotificationBus {
+
+    // fields
+    private final boolean asynchronous;
+    private final boolean coalescing;
+    private final Queue<Entry> queue;
+    private final ConcurrentMap<Key, Entry> modified;
+    private final AtomicLong queued;
+    private final List<ISubscriber> subscribers;
+    private final Object deliveryLock;
+    private final AtomicBoolean signalled;
+    private volatile Thread deliveryThread;
+    private volatile boolean closed;
+
+
+    /**
+     * Receives the notifications published on a bus.
+     */
+    public interface ISubscriber {
+        /**
+         * Called with the notifications published since the previous delivery.
+         *
+         * @param notifications in order of publication, never empty
+         */
+        void notify(List<OmiNotification> notifications);
+    }
+
+
+    /**
+     * Identifies the sender and variable of a MODIFIED notification, by reference.
+     */
+    private static final class Key {
+        private final Object sender;
+        private final Object variable;
+
+
+        private Key(Object sender, Object variable) {
+            this.sender = sender;
+            this.variable = variable;
+        }
+
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return (sender == that.sender) && (variable == that.variable);
+        }
+
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(sender) + System.identityHashCode(variable);
+        }
+    }
+
+
+    /**
+     * A queued notification, that can be replaced until it is taken for delivery.
+     */
+    private static final class Entry {
+        private final Key key;
+        private final AtomicReference<OmiNotification> notification;
+        private volatile long sequence;
+
+
+        private Entry(Key key, OmiNotification notification) {
+            this.key = key;
+            this.notification = new AtomicReference<OmiNotification>(notification);
+        }
+
+
+        private boolean replace(OmiNotification replacement) {
+            OmiNotification current;
+            do {
+                current = notification.get();
+                if (current == null) {
+                    // already taken
+                    return false;
+                }
+            } while (!notification.compareAndSet(current, replacement));
+            return true;
+        }
+    }
+
+
+    /**
+     * Creates a synchronous bus that coalesces MODIFIED notifications.
+     */
+    public NotificationBus() {
+        this(false, true);
+    }
+
+
+    /**
+     * Creates a bus.
+     *
+     * @param asynchronous true to deliver the notifications in a separate thread
+     * @param coalescing   true to coalesce MODIFIED notifications for the same sender and
+     *                     variable
+     */
+    public NotificationBus(boolean asynchronous, boolean coalescing) {
+        this.asynchronous = asynchronous;
+        this.coalescing = coalescing;
+        this.queue = new ConcurrentLinkedQueue<Entry>();
+        this.modified = new ConcurrentHashMap<Key, Entry>();
+        this.queued = new AtomicLong();
+        this.subscribers = new CopyOnWriteArrayList<ISubscriber>();
+        this.deliveryLock = new Object();
+        this.signalled = new AtomicBoolean(false);
+        this.closed = false;
+    }
+
+
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+
+
+    public void subscribe(ISubscriber subscriber) {
+        if ((subscriber != null) && !subscribers.contains(subscriber)) {
+            subscribers.add(subscriber);
+        }
+    }
+
+
+    public void unsubscribe(ISubscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+
+    public boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+
+    /**
+     * Queues a notification for delivery. Notifications published on a closed bus, or while
+     * there are no subscribers, are dropped.
+     *
+     * @param notification to publish
+     */
+    public void publish(OmiNotification notification) {
+        if (closed || subscribers.isEmpty()) {
+            return;
+        }
+
+        if (coalescing && (notification.getChangeType() == OmiNotification.Type.MODIFIED)) {
+            Key key = new Key(notification.getSender(), notification.getVariable());
+            while (true) {
+                Entry existing = modified.get(key);
+                if (existing == null) {
+                    Entry entry = new Entry(key, notification);
+                    if (modified.putIfAbsent(key, entry) == null) {
+                        enqueue(entry);
+                        break;
+                    }
+                } else if ((existing.sequence == queued.get()) &&
+                        existing.replace(notification)) {
+                    // still the last queued notification
+                    break;
+                } else {
+                    // drop the queued notification and add this one at the end
+                    Entry entry = new Entry(key, notification);
+                    if (modified.replace(key, existing, entry)) {
+                        existing.notification.set(null);
+                        enqueue(entry);
+                        break;
+                    }
+                }
+            }
+        } else {
+            enqueue(new Entry(null, notification));
+        }
+
+        if (asynchronous) {
+            signal();
+        } else {
+            flush();
+        }
+    }
+
+
+    private void enqueue(Entry entry) {
+        entry.sequence = queued.incrementAndGet();
+        queue.add(entry);
+    }
+
+
+    /**
+     * Delivers all queued notifications in the calling thread. Every subscriber gets the
+     * notifications, also when delivering them to another subscriber failed.
+     *
+     * @throws RuntimeException the first exception thrown by a subscriber
+     */
+    public void flush() {
+        synchronized (deliveryLock) {
+            List<OmiNotification> batch = new ArrayList<OmiNotification>();
+            Entry entry;
+            while ((entry = queue.poll()) != null) {
+                if (entry.key != null) {
+                    modified.remove(entry.key, entry);
+                }
+                OmiNotification notification = entry.notification.getAndSet(null);
+                if (notification != null) {
+                    batch.add(notification);
+                }
+            }
+            if (!batch.isEmpty()) {
+                List<OmiNotification> notifications = Collections.unmodifiableList(batch);
+                RuntimeException failure = null;
+                for (ISubscriber subscriber : subscribers) {
+                    try {
+                        subscriber.notify(notifications);
+                    } catch (RuntimeException ex) {
+                        if (failure == null) {
+                            failure = ex;
+                        }
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Delivers the queued notifications and stops the delivery thread of an asynchronous
+     * bus. Notifications published afterwards are dropped.
+     */
+    public void close() {
+        closed = true;
+        Thread thread = deliveryThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        flush();
+    }
+
+
+    private void signal() {
+        if (signalled.compareAndSet(false, true)) {
+            Thread thread = deliveryThread;
+            if (thread == null) {
+                thread = startDeliveryThread();
+            }
+            LockSupport.unpark(thread);
+        }
+    }
+
+
+    private synchronized Thread startDeliveryThread() {
+        if (deliveryThread == null) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!closed) {
+                        signalled.set(false);
+                        try {
+                            flush();
+                        } catch (RuntimeException ex) {
+                            // a failing subscriber must not stop the delivery
+                        }
+                        if (!signalled.get() && !closed) {
+                            LockSupport.park(NotificationBus.this);
+                        }
+                    }
+                }
+            }, "notification-bus");
+            thread.setDaemon(true);
+            thread.start();
+            deliveryThread = thread;
+        }
+        return deliveryThread;
+    }
+
+}
@@ -8,6 +8,13 @@ import java.util.Date;
 
 /**
  * Class for exchanging notification details from observable to observer.
+ * <p/>
+ * The default message of a notification created with one of the factory methods describes the
+ * sender and the variable as they were when the notification was created, so it can be read
+ * safely by a subscriber on another thread. Only the class, id and caption of both are taken
+ * when the notification is created, the variable is not converted to a string (a value set
+ * would be printed completely), but described by its identity hash code when it is not
+ * identifiable. The message is only formatted when it is first asked for.
  *
  * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
  */
@@ -19,59 +26,154 @@ public class OmiNotification {
     private Object sender;
     private Object variable;
     private Type changeType;
-    private String message;
+    // a String, or a PendingMessage for a default message that has not been asked for
+    private volatile Object message;
+
+
+    /**
+     * Class, id and caption of an object, as described in a default message.
+     */
+    private static final class Description {
+        private final Class<?> type;
+        private final boolean identifiable;
+        private final String id;
+        private final String caption;
+        private final int identity;
+
+
+        private Description(Object object) {
+            type = object.getClass();
+            identifiable = object instanceof IIdentifiable;
+            id = identifiable ? ((IIdentifiable) object).getId() : null;
+            caption = identifiable ? ((IIdentifiable) object).getCaption() : null;
+            identity = System.identityHashCode(object);
+        }
+
+
+        private void appendTo(StringBuilder sb, boolean withIdentity) {
+            sb.append(type.getSimpleName());
+            if (identifiable) {
+                sb.append("{");
+                sb.append(id);
+                sb.append(",");
+                sb.append(caption);
+                sb.append("}");
+            } else if (withIdentity) {
+                sb.append("@");
+                sb.append(Integer.toHexString(identity));
+            }
+        }
+
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Description)) return false;
+
+            Description that = (Description) o;
+            return (type == that.type) && (identity == that.identity) &&
+                    nullEquals(id, that.id) && nullEquals(caption, that.caption);
+        }
+
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + identity;
+        }
+    }
+
+
+    /**
+     * Default message of which the formatting is left until it is asked for.
+     */
+    private static final class PendingMessage {
+        private final long time;
+        private final Description sender;
+        private final Type changeType;
+        private final Description variable;
+        private volatile String rendered;
+
+
+        private PendingMessage(long time, Description sender, Type changeType,
+                               Description variable) {
+            this.time = time;
+            this.sender = sender;
+            this.changeType = changeType;
+            this.variable = variable;
+        }
+
+
+        private String render() {
+            String result = rendered;
+            if (result == null) {
+                result = createMessage(this);
+                rendered = result;
+            }
+            return result;
+        }
+
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PendingMessage)) return false;
+
+            PendingMessage that = (PendingMessage) o;
+            return (time == that.time) && (changeType == that.changeType) &&
+                    sender.equals(that.sender) && variable.equals(that.variable);
+        }
+
+
+        @Override
+        public int hashCode() {
+            int result = (int) (time ^ (time >>> 32));
+            result = 31 * result + sender.hashCode();
+            result = 31 * result + changeType.hashCode();
+            result = 31 * result + variable.hashCode();
+            return result;
+        }
+    }
 
 
     public static OmiNotification newAddNotification(Object sender, Object variable, boolean addMessage) {
-        String msg = addMessage ? createMessage(sender, variable, OmiNotification.Type.ADDED) :
-                null;
-        return new OmiNotification(sender, variable, OmiNotification.Type.ADDED, msg);
+        return new OmiNotification(sender, variable, OmiNotification.Type.ADDED, addMessage);
     }
 
 
     public static OmiNotification newDeleteNotification(Object sender, Object variable,
                                                         boolean addMessage) {
-        String msg = addMessage ? createMessage(sender, variable, OmiNotification.Type.DELETED) :
-                null;
-        return new OmiNotification(sender, variable, OmiNotification.Type.DELETED, msg);
+        return new OmiNotification(sender, variable, OmiNotification.Type.DELETED, addMessage);
     }
 
 
     public static OmiNotification newModifiedNotification(Object sender, Object variable,
                                                           boolean addMessage) {
-        String msg = addMessage ? createMessage(sender, variable, OmiNotification.Type.MODIFIED) :
-                null;
-        return new OmiNotification(sender, variable, OmiNotification.Type.MODIFIED, msg);
+        return new OmiNotification(sender, variable, OmiNotification.Type.MODIFIED, addMessage);
     }
 
 
     public static OmiNotification newOtherNotification(Object sender, Object variable,
                                                        boolean addMessage) {
-        String msg = addMessage ? createMessage(sender, variable, OmiNotification.Type.OTHER) :
-                null;
-        return new OmiNotification(sender, variable, OmiNotification.Type.OTHER, msg);
+        return new OmiNotification(sender, variable, OmiNotification.Type.OTHER, addMessage);
     }
 
 
-    private static String createMessage(Object sender, Object variable, Type changeType) {
+    private static boolean nullEquals(Object obj1, Object obj2) {
+        return (obj1 != null) ? obj1.equals(obj2) : (obj2 == null);
+    }
+
+
+    private static String createMessage(PendingMessage message) {
         StringBuilder sb = new StringBuilder();
 
-        // timestamp
-        sb.append(DateFormat.getTimeInstance().format(new Date()));
+        sb.append(DateFormat.getTimeInstance().format(new Date(message.time)));
         sb.append(": ");
-        sb.append(sender.getClass().getSimpleName());
 
         // add sender info
-        if (sender instanceof IIdentifiable) {
-            sb.append("{");
-            sb.append(((IIdentifiable) sender).getId());
-            sb.append(",");
-            sb.append(((IIdentifiable) sender).getCaption());
-            sb.append("}");
-        }
+        message.sender.appendTo(sb, false);
 
         // type of change
-        switch (changeType) {
+        switch (message.changeType) {
             case ADDED:
                 sb.append(": Added object ");
                 break;
@@ -85,7 +187,7 @@ public class OmiNotification {
                 sb.append(": Notifies about object ");
                 break;
         }
-        sb.append(variable.getClass().getSimpleName() + ": " + variable);
+        message.variable.appendTo(sb, true);
 
         return sb.toString();
     }
@@ -99,6 +201,25 @@ public class OmiNotification {
     }
 
 
+    /**
+     * Creates a notification with a default message, that is formatted when it is first asked
+     * for.
+     *
+     * @param sender     of the notification
+     * @param variable   that changed
+     * @param changeType type of the change
+     * @param addMessage true to add the default message
+     */
+    public OmiNotification(Object sender, Object variable, Type changeType,
+                           boolean addMessage) {
+        this(sender, variable, changeType, (String) null);
+        if (addMessage) {
+            this.message = new PendingMessage(System.currentTimeMillis(),
+                    new Description(sender), changeType, new Description(variable));
+        }
+    }
+
+
     public Object getSender() {
         return sender;
     }
@@ -130,7 +251,8 @@ public class OmiNotification {
 
 
     public String getMessage() {
-        return message;
+        Object msg = message;
+        return (msg instanceof PendingMessage) ? ((PendingMessage) msg).render() : (String) msg;
     }
 
 
@@ -140,7 +262,9 @@ public class OmiNotification {
 
 
     public boolean hasMessage() {
-        return (message != null) && (message.length() > 0);
+        Object msg = message;
+        return (msg instanceof PendingMessage) ||
+                ((msg != null) && (((String) msg).length() > 0));
     }
 
 
@@ -152,7 +276,9 @@ public class OmiNotification {
         OmiNotification that = (OmiNotification) o;
 
         if (changeType != that.changeType) return false;
-        if (message != null ? !message.equals(that.message) : that.message != null) return false;
+        Object msg = message;
+        Object thatMsg = that.message;
+        if (msg != null ? !msg.equals(thatMsg) : thatMsg != null) return false;
         if (sender != null ? !sender.equals(that.sender) : that.sender != null) return false;
         if (variable != null ? !variable.equals(that.variable) : that.variable != null)
             return false;
@@ -166,7 +292,8 @@ public class OmiNotification {
         int result = sender != null ? sender.hashCode() : 0;
         result = 31 * result + (variable != null ? variable.hashCode() : 0);
         result = 31 * result + (changeType != null ? changeType.hashCode() : 0);
-        result = 31 * result + (message != null ? message.hashCode() : 0);
+        Object msg = message;
+        result = 31 * result + (msg != null ? msg.hashCode() : 0);
         return result;
     }
 
@@ -177,7 +304,7 @@ public class OmiNotification {
                 "sender=" + sender +
                 ", variable=" + variable +
                 ", changeType=" + changeType +
-                ", message='" + message + '\'' +
+                ", message='" + getMessage() + '\'' +
                 '}';
     }
 }
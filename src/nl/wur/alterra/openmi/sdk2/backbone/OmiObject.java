@@ -29,15 +29,25 @@
 package nl.wur.alterra.openmi.sdk2.backbone;
 
 import java.util.Observable;
+import java.util.Observer;
 
 
 /**
  * Abstract base class for classes in the OpenMI backbone.
+ * <p/>
+ * Notifications are sent to the observers, as for any Observable, and published on the
+ * notification bus of the object when it has one. Without observers the synchronized dispatch
+ * of Observable is skipped, objects that only publish on a bus do not take any locks. When
+ * nobody listens at all, no notifications are created.
  *
  * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
  */
 public abstract class OmiObject extends Observable {
 
+    // fields
+    private volatile NotificationBus notificationBus;
+    private volatile boolean observed;
+
 
     /**
      * Checks if two objects are equal, taking into account that one or both
@@ -66,19 +76,77 @@ public abstract class OmiObject extends Observable {
     }
 
 
+    public NotificationBus getNotificationBus() {
+        return notificationBus;
+    }
+
+
     /**
-     * Sends the specified notification to all observers.
+     * Sets the bus to publish the notifications of this object on.
+     *
+     * @param notificationBus to publish on, or null to only notify the observers
+     */
+    public void setNotificationBus(NotificationBus notificationBus) {
+        this.notificationBus = notificationBus;
+    }
+
+
+    // Observer is deprecated like Observable itself, the overrides only track whether there are any
+    @SuppressWarnings("deprecation")
+    @Override
+    public synchronized void addObserver(Observer o) {
+        super.addObserver(o);
+        observed = countObservers() > 0;
+    }
+
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public synchronized void deleteObserver(Observer o) {
+        super.deleteObserver(o);
+        observed = countObservers() > 0;
+    }
+
+
+    @Override
+    public synchronized void deleteObservers() {
+        super.deleteObservers();
+        observed = false;
+    }
+
+
+    /**
+     * Returns true when there are observers or subscribers of the notification bus, i.e. when
+     * notifications have to be created at all.
+     *
+     * @return true when notifications are received
+     */
+    protected boolean hasListeners() {
+        NotificationBus bus = notificationBus;
+        return observed || ((bus != null) && bus.hasSubscribers());
+    }
+
+
+    /**
+     * Sends the specified notification to all observers and publishes it on the notification
+     * bus.
      *
      * @param notification
      */
     protected void notify(OmiNotification notification) {
-        super.setChanged();
-        notifyObservers(notification);
+        NotificationBus bus = notificationBus;
+        if (bus != null) {
+            bus.publish(notification);
+        }
+        if (observed) {
+            super.setChanged();
+            notifyObservers(notification);
+        }
     }
 
 
     public void sendNotificationIfObjectChanged(Object oldVar, Object newVar) {
-        if (!nullEquals(oldVar, newVar)) {
+        if (hasListeners() && !nullEquals(oldVar, newVar)) {
             OmiNotification n = OmiNotification.newModifiedNotification(this, newVar, true);
             notify(n);
         }
@@ -86,7 +154,7 @@ public abstract class OmiObject extends Observable {
 
 
     public void sendObjectChangedNotification(Object changedVar) {
-        if (changedVar != null) {
+        if ((changedVar != null) && hasListeners()) {
             OmiNotification n = OmiNotification.newModifiedNotification(this, changedVar, true);
             notify(n);
         }
@@ -94,7 +162,7 @@ public abstract class OmiObject extends Observable {
 
 
     public void sendObjectDeletedNotification(Object deletedVar) {
-        if (deletedVar != null) {
+        if ((deletedVar != null) && hasListeners()) {
             OmiNotification n = OmiNotification.newDeleteNotification(this, deletedVar, true);
             notify(n);
         }
@@ -102,7 +170,7 @@ public abstract class OmiObject extends Observable {
 
 
     public void sendObjectAddedNotification(Object newVar) {
-        if (newVar != null) {
+        if ((newVar != null) && hasListeners()) {
             OmiNotification n = OmiNotification.newAddNotification(this, newVar, true);
             notify(n);
         }
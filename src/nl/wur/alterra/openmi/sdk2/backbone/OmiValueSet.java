@@ -1,6 +1,9 @@
 package nl.wur.alterra.openmi.sdk2.backbone;
 
 import java.lang.reflect.Type;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
@@ -17,6 +20,9 @@ public abstract class OmiValueSet {
             "set";
 
 
+    // number of tasks per worker thread a parallel node operation is split into
+    protected static final int TASKS_PER_THREAD = 4;
+
     // fields
     private Type mValueType;
 
@@ -47,39 +53,324 @@ public abstract class OmiValueSet {
 
     public abstract Object getValue(int[] indices);
 
+    public abstract void setValue(int[] indices, Object value);
+
 
-    // interface for performing an operation on each value set item
+    // interface for performing an operation on each value set item, return false to stop
     public interface INodeOperation {
         public boolean perform(int[] indices, Object value);
     }
 
 
-    public void performNodeOperation(INodeOperation operation) {
-        int[] indices = new int[getNumberOfIndices()];
-        int indexCount = getIndexCount(new int[]{});
+    // interface for performing an operation on each value set item, identified by its flat
+    // index (position in the traversal order), return false to stop
+    public interface IIndexedNodeOperation {
+        public boolean perform(int flatIndex, Object value);
+    }
+
+
+    // primitive version of IIndexedNodeOperation for numeric values, return false to stop
+    public interface IDoubleNodeOperation {
+        public boolean perform(int flatIndex, double value);
+    }
+
+
+    // function that calculates a new value from a value
+    public interface IValueFunction {
+        public Object apply(Object value);
+    }
+
+
+    // primitive version of IValueFunction for doubles
+    public interface IDoubleFunction {
+        public double apply(double value);
+    }
+
+
+    // function that combines an intermediate result with a value
+    public interface IDoubleReduction {
+        public double apply(double result, double value);
+    }
+
+
+    /**
+     * Performs the operation on every value in the value set, in order of the indices (last
+     * index varies fastest), until the operation returns false. This generic implementation
+     * walks the dimensions using getIndexCount and getValue, value sets with a fixed layout
+     * override it with a faster version.
+     *
+     * @param operation to perform
+     * @return false when the operation stopped the traversal, true otherwise
+     */
+    public boolean performNodeOperation(INodeOperation operation) {
+        int n = getNumberOfIndices();
+        int[] indices = new int[n];
+        int[][] prefixes = createPrefixes(n);
+        int indexCount = getIndexCount(prefixes[0]);
         for (int i = 0; i < indexCount; i++) {
             indices[0] = i;
-            visitNodes(0, indices, operation);
+            if (!visitNodes(0, indices, prefixes, operation)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    public boolean visitNodes(int indexPos, int[] indices, INodeOperation operation) {
+        return visitNodes(indexPos, indices, createPrefixes(indices.length), operation);
+    }
+
+
+    // prefix arrays for each level are created once per traversal and reused
+    private static int[][] createPrefixes(int numberOfIndices) {
+        int[][] prefixes = new int[Math.max(1, numberOfIndices)][];
+        for (int i = 0; i < prefixes.length; i++) {
+            prefixes[i] = new int[i];
         }
+        return prefixes;
     }
 
 
-    public void visitNodes(int indexPos, int[] indices, INodeOperation operation) {
+    private boolean visitNodes(int indexPos, int[] indices, int[][] prefixes,
+                               INodeOperation operation) {
         if (indexPos == indices.length - 1) {
-            // TODO handle error result
-            operation.perform(indices, getValue(indices));
+            return operation.perform(indices, getValue(indices));
         } else {
             int nextPos = indexPos + 1;
-            int[] subset = new int[nextPos];
-            for (int j = 0; j < nextPos; j++) {
-                subset[j] = indices[j];
-            }
+            int[] subset = prefixes[nextPos];
+            System.arraycopy(indices, 0, subset, 0, nextPos);
             int indexCount = getIndexCount(subset);
             for (int i = 0; i < indexCount; i++) {
                 indices[nextPos] = i;
-                visitNodes(nextPos, indices, operation);
+                if (!visitNodes(nextPos, indices, prefixes, operation)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * Performs the operation on every value in the value set using the worker threads of the
+     * pool. The range of the first index is split into chunks that are handled by separate
+     * tasks, so values are not visited in a fixed order. As soon as the operation returns
+     * false for a value, all tasks stop.
+     * <p/>
+     * The operation must be safe to call from multiple threads at the same time. The indices
+     * array passed to it is owned by the calling task and must not be kept. The operation may
+     * set the value it is called for, but should not change the structure of the value set.
+     *
+     * @param operation to perform
+     * @param pool      to run the tasks in
+     * @return false when the operation stopped the traversal, true otherwise
+     */
+    public boolean performNodeOperationParallel(INodeOperation operation, ForkJoinPool pool) {
+        int indexCount = getIndexCount(new int[]{});
+        if (indexCount <= 0) {
+            return true;
+        }
+        SharedNodeOperation shared = new SharedNodeOperation(operation);
+        int grain = Math.max(1, indexCount / (pool.getParallelism() * TASKS_PER_THREAD));
+        pool.invoke(new OuterIndexRangeTask(shared, 0, indexCount, grain));
+        return !shared.isStopped();
+    }
+
+
+    /**
+     * Node operation shared by the tasks of a parallel traversal. Once the wrapped operation
+     * has returned false, it returns false for all other tasks as well.
+     */
+    protected static final class SharedNodeOperation implements INodeOperation {
+        private final INodeOperation mOperation;
+        private final AtomicBoolean mStopped = new AtomicBoolean(false);
+
+
+        public SharedNodeOperation(INodeOperation operation) {
+            mOperation = operation;
+        }
+
+
+        public boolean isStopped() {
+            return mStopped.get();
+        }
+
+
+        @Override
+        public boolean perform(int[] indices, Object value) {
+            if (mStopped.get()) {
+                return false;
+            }
+            if (!mOperation.perform(indices, value)) {
+                mStopped.set(true);
+                return false;
+            }
+            return true;
+        }
+    }
+
+
+    // task visiting all values with a first index in the range [from, to)
+    private class OuterIndexRangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SharedNodeOperation mOperation;
+        private final int mFrom;
+        private final int mTo;
+        private final int mGrain;
+
+
+        private OuterIndexRangeTask(SharedNodeOperation operation, int from, int to, int grain) {
+            mOperation = operation;
+            mFrom = from;
+            mTo = to;
+            mGrain = grain;
+        }
+
+
+        @Override
+        protected void compute() {
+            if (mOperation.isStopped()) {
+                return;
+            }
+            if (mTo - mFrom > mGrain) {
+                int middle = (mFrom + mTo) >>> 1;
+                invokeAll(new OuterIndexRangeTask(mOperation, mFrom, middle, mGrain),
+                        new OuterIndexRangeTask(mOperation, middle, mTo, mGrain));
+            } else {
+                int n = getNumberOfIndices();
+                int[] indices = new int[n];
+                int[][] prefixes = createPrefixes(n);
+                for (int i = mFrom; i < mTo; i++) {
+                    indices[0] = i;
+                    if (!visitNodes(0, indices, prefixes, mOperation)) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Performs the operation on every value in the value set, in the same order as
+     * performNodeOperation, passing a flat index instead of the indices.
+     *
+     * @param operation to perform
+     * @return false when the operation stopped the traversal, true otherwise
+     */
+    public boolean forEachIndexed(final IIndexedNodeOperation operation) {
+        return performNodeOperation(new INodeOperation() {
+            private int flatIndex = 0;
+
+
+            @Override
+            public boolean perform(int[] indices, Object value) {
+                return operation.perform(flatIndex++, value);
+            }
+        });
+    }
+
+
+    /**
+     * Performs the operation on every numeric value in the value set, in the same order as
+     * performNodeOperation. Values that are not a Number (e.g. missing values) are skipped,
+     * but do count for the flat index.
+     *
+     * @param operation to perform
+     * @return false when the operation stopped the traversal, true otherwise
+     */
+    public boolean forEachDouble(final IDoubleNodeOperation operation) {
+        return forEachIndexed(new IIndexedNodeOperation() {
+            @Override
+            public boolean perform(int flatIndex, Object value) {
+                return !(value instanceof Number) || operation.perform(flatIndex,
+                        ((Number) value).doubleValue());
             }
+        });
+    }
+
+
+    /**
+     * Replaces every value in the value set by the result of the function.
+     *
+     * @param function to apply
+     */
+    public void map(final IValueFunction function) {
+        performNodeOperation(new INodeOperation() {
+            @Override
+            public boolean perform(int[] indices, Object value) {
+                setValue(indices, function.apply(value));
+                return true;
+            }
+        });
+    }
+
+
+    /**
+     * Replaces every numeric value in the value set by the result of the function. The result
+     * is stored with the type of the value it replaces, results for integral types are rounded
+     * to the nearest integer. Values that are not a Number are skipped.
+     *
+     * @param function to apply
+     */
+    public void mapDoubles(final IDoubleFunction function) {
+        performNodeOperation(new INodeOperation() {
+            @Override
+            public boolean perform(int[] indices, Object value) {
+                if (value instanceof Number) {
+                    setValue(indices, toNumberOfType(function.apply(((Number) value)
+                            .doubleValue()), (Number) value));
+                }
+                return true;
+            }
+        });
+    }
+
+
+    /**
+     * Converts a double into a Number of the same class as the specified number, rounding to
+     * the nearest integer for integral classes. Other classes of numbers result in a Double.
+     *
+     * @param value  to convert
+     * @param number with the class to convert to
+     * @return the converted value
+     */
+    protected static Number toNumberOfType(double value, Number number) {
+        if (number instanceof Integer) {
+            return (int) Math.round(value);
+        } else if (number instanceof Long) {
+            return Math.round(value);
+        } else if (number instanceof Float) {
+            return (float) value;
+        } else if (number instanceof Short) {
+            return (short) Math.round(value);
+        } else if (number instanceof Byte) {
+            return (byte) Math.round(value);
         }
+        return value;
+    }
+
+
+    /**
+     * Combines all numeric values in the value set into a single result, e.g. a sum or a
+     * maximum. Values that are not a Number are skipped.
+     *
+     * @param reduction to apply
+     * @param initial   result to start with
+     * @return the result
+     */
+    public double reduceDoubles(final IDoubleReduction reduction, double initial) {
+        final double[] result = new double[]{initial};
+        forEachDouble(new IDoubleNodeOperation() {
+            @Override
+            public boolean perform(int flatIndex, double value) {
+                result[0] = reduction.apply(result[0], value);
+                return true;
+            }
+        });
+        return result[0];
     }
 
 }
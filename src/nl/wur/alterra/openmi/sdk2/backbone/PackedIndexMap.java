@@ -0,0 +1,213 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import java.util.Arrays;
+
+
+/**
+ * Hash map from fixed length tuples of int indices to int payloads, without boxing and
+ * without creating objects for the keys. Keys are read directly from the first keyWidth
+ * positions of the index array that is passed in, so a map for a prefix of the indices can
+ * be queried with the full index array.
+ * <p/>
+ * Entries are packed in insertion order in flat int arrays and can be addressed by their
+ * entry number, which does not change while the map is not cleared. The hash table itself
+ * only holds entry numbers (open addressing with linear probing). Entries can not be removed
+ * individually.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+final class PackedIndexMap {
+
+    private static final int NO_ENTRY = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // fields
+    private final int mKeyWidth;
+    private int[] mTable;
+    private int[] mEntryKeys;
+    private int[] mEntryPayloads;
+    private int mSize;
+
+
+    PackedIndexMap(int keyWidth) {
+        mKeyWidth = keyWidth;
+        mTable = new int[INITIAL_CAPACITY * 2];
+        Arrays.fill(mTable, NO_ENTRY);
+        mEntryKeys = new int[INITIAL_CAPACITY * keyWidth];
+        mEntryPayloads = new int[INITIAL_CAPACITY];
+        mSize = 0;
+    }
+
+
+    private PackedIndexMap(PackedIndexMap source) {
+        mKeyWidth = source.mKeyWidth;
+        mTable = source.mTable.clone();
+        mEntryKeys = source.mEntryKeys.clone();
+        mEntryPayloads = source.mEntryPayloads.clone();
+        mSize = source.mSize;
+    }
+
+
+    /**
+     * Returns an independent copy of this map.
+     *
+     * @return copy of the map
+     */
+    PackedIndexMap copy() {
+        return new PackedIndexMap(this);
+    }
+
+
+    int getKeyWidth() {
+        return mKeyWidth;
+    }
+
+
+    int size() {
+        return mSize;
+    }
+
+
+    void clear() {
+        Arrays.fill(mTable, NO_ENTRY);
+        mSize = 0;
+    }
+
+
+    /**
+     * Looks up the entry for the key made up of the first keyWidth values of the specified
+     * indices.
+     *
+     * @param indices containing the key
+     * @return entry number, or -1 when the key is not in the map
+     */
+    int find(int[] indices) {
+        int mask = mTable.length - 1;
+        int slot = hash(indices, 0) & mask;
+        int entry;
+        while ((entry = mTable[slot]) != NO_ENTRY) {
+            if (keyEquals(entry, indices)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NO_ENTRY;
+    }
+
+
+    /**
+     * Looks up the entry for the key made up of the first keyWidth values of the specified
+     * indices, and adds a new entry with payload zero when the key is not yet in the map.
+     *
+     * @param indices containing the key
+     * @return entry number
+     */
+    int add(int[] indices) {
+        int mask = mTable.length - 1;
+        int slot = hash(indices, 0) & mask;
+        int entry;
+        while ((entry = mTable[slot]) != NO_ENTRY) {
+            if (keyEquals(entry, indices)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        entry = mSize++;
+        if (entry == mEntryPayloads.length) {
+            int capacity = mEntryPayloads.length * 2;
+            mEntryKeys = Arrays.copyOf(mEntryKeys, capacity * mKeyWidth);
+            mEntryPayloads = Arrays.copyOf(mEntryPayloads, capacity);
+        }
+        System.arraycopy(indices, 0, mEntryKeys, entry * mKeyWidth, mKeyWidth);
+        mEntryPayloads[entry] = 0;
+
+        if (mSize * 2 > mTable.length) {
+            rehash(mTable.length * 2);
+        } else {
+            mTable[slot] = entry;
+        }
+        return entry;
+    }
+
+
+    int getPayload(int entry) {
+        return mEntryPayloads[entry];
+    }
+
+
+    void setPayload(int entry, int payload) {
+        mEntryPayloads[entry] = payload;
+    }
+
+
+    /**
+     * Returns one of the indices of the key of an entry.
+     *
+     * @param entry    number of the entry
+     * @param position within the key
+     * @return index value
+     */
+    int getKey(int entry, int position) {
+        return mEntryKeys[entry * mKeyWidth + position];
+    }
+
+
+    /**
+     * Copies the key of an entry into the first keyWidth positions of the target array.
+     *
+     * @param entry   number of the entry
+     * @param indices array to copy the key into
+     */
+    void copyKey(int entry, int[] indices) {
+        System.arraycopy(mEntryKeys, entry * mKeyWidth, indices, 0, mKeyWidth);
+    }
+
+
+    /**
+     * Returns the hash of the key of an entry, equal to the hash of the same key passed in as
+     * an index array.
+     *
+     * @param entry number of the entry
+     * @return hash code of the key
+     */
+    int keyHash(int entry) {
+        return hash(mEntryKeys, entry * mKeyWidth);
+    }
+
+
+    private boolean keyEquals(int entry, int[] indices) {
+        int offset = entry * mKeyWidth;
+        for (int i = 0; i < mKeyWidth; i++) {
+            if (mEntryKeys[offset + i] != indices[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private int hash(int[] keys, int offset) {
+        int h = 1;
+        for (int i = 0; i < mKeyWidth; i++) {
+            h = 31 * h + keys[offset + i];
+        }
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+
+    private void rehash(int tableSize) {
+        mTable = new int[tableSize];
+        Arrays.fill(mTable, NO_ENTRY);
+        int mask = tableSize - 1;
+        for (int entry = 0; entry < mSize; entry++) {
+            int slot = hash(mEntryKeys, entry * mKeyWidth) & mask;
+            while (mTable[slot] != NO_ENTRY) {
+                slot = (slot + 1) & mask;
+            }
+            mTable[slot] = entry;
+        }
+    }
+
+}
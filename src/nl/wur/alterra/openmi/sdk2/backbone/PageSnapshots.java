@@ -0,0 +1,182 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Keeps track of the snapshots taken of a storage array of doubles, shared by a value set and
+ * its views. The storage is divided in pages. Each snapshot has a table with one entry per
+ * page, that is null as long as the page has not been changed and the snapshot can read it
+ * from the storage. Before a page is written for the first time after a snapshot was taken,
+ * a single copy of the page is put in the tables of all snapshots that still read it from the
+ * storage.
+ * <p/>
+ * A version number is increased every time a snapshot is taken. Each page records the version
+ * it was last copied for, so writing a page that has already been copied costs a single
+ * comparison. Snapshots are only weakly referenced and are dropped once they have been
+ * garbage collected.
+ * <p/>
+ * Snapshots can be read by other threads while the storage is written, without locking. Page
+ * copies are published through the atomic page tables before the page is written, so the
+ * table entry works like the sequence number of a seqlock: a snapshot that reads a page from
+ * the storage checks its table again afterwards, and reads the copy instead when the page
+ * was copied in the meantime. Snapshots have to be taken by the thread that writes the
+ * storage.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+final class PageSnapshots {
+
+    static final int PAGE_SHIFT = 10;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // fields
+    private final double[] mValues;
+    private final List<WeakReference<AtomicReferenceArray<double[]>>> mSnapshots;
+    private int[] mPageVersions;
+    private volatile int mVersion;
+    private volatile boolean mActive;
+
+
+    PageSnapshots(double[] values) {
+        mValues = values;
+        mSnapshots = new ArrayList<WeakReference<AtomicReferenceArray<double[]>>>();
+    }
+
+
+    /**
+     * Returns true when there might be snapshots that read pages from the storage.
+     *
+     * @return true when writes have to be reported with beforeWrite
+     */
+    boolean isActive() {
+        return mActive;
+    }
+
+
+    /**
+     * Returns the number of snapshots taken so far.
+     *
+     * @return the version
+     */
+    int getVersion() {
+        return mVersion;
+    }
+
+
+    /**
+     * Starts a new snapshot of the storage.
+     *
+     * @return page table of the snapshot, all pages are still read from the storage
+     */
+    synchronized AtomicReferenceArray<double[]> takeSnapshot() {
+        if (mPageVersions == null) {
+            mPageVersions = new int[(mValues.length + PAGE_MASK) >>> PAGE_SHIFT];
+        }
+        AtomicReferenceArray<double[]> pages = new AtomicReferenceArray<double[]>(
+                mPageVersions.length);
+        mVersion++;
+        mSnapshots.add(new WeakReference<AtomicReferenceArray<double[]>>(pages));
+        mActive = true;
+        return pages;
+    }
+
+
+    /**
+     * Must be called before positions of the storage are written, while snapshots are active.
+     *
+     * @param from first position that will be written
+     * @param to   position after the last one that will be written
+     */
+    void beforeWrite(int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int last = (to - 1) >>> PAGE_SHIFT;
+        for (int page = from >>> PAGE_SHIFT; page <= last; page++) {
+            if (mPageVersions[page] != mVersion) {
+                preserve(page);
+            }
+        }
+    }
+
+
+    private synchronized void preserve(int page) {
+        if (mPageVersions[page] == mVersion) {
+            return;
+        }
+        double[] copy = null;
+        Iterator<WeakReference<AtomicReferenceArray<double[]>>> iterator = mSnapshots.iterator();
+        while (iterator.hasNext()) {
+            AtomicReferenceArray<double[]> pages = iterator.next().get();
+            if (pages == null) {
+                iterator.remove();
+            } else if (pages.get(page) == null) {
+                if (copy == null) {
+                    int start = page << PAGE_SHIFT;
+                    copy = Arrays.copyOfRange(mValues, start, Math.min(start + PAGE_SIZE,
+                            mValues.length));
+                }
+                pages.set(page, copy);
+            }
+        }
+        mPageVersions[page] = mVersion;
+        if (mSnapshots.isEmpty()) {
+            mActive = false;
+        }
+    }
+
+
+    /**
+     * Reads a position of the storage for a snapshot, from its copy of the page when it has
+     * one, or else from the storage when the page was not copied while it was read.
+     *
+     * @param pages  page table of the snapshot
+     * @param offset position to read
+     * @return the value
+     */
+    double read(AtomicReferenceArray<double[]> pages, int offset) {
+        int index = offset >>> PAGE_SHIFT;
+        double[] page = pages.get(index);
+        if (page == null) {
+            double value = mValues[offset];
+            page = pages.get(index);
+            if (page == null) {
+                return value;
+            }
+        }
+        return page[offset & PAGE_MASK];
+    }
+
+
+    /**
+     * Copies a range of positions within a single page of the storage for a snapshot, see
+     * read(pages, offset).
+     *
+     * @param pages        page table of the snapshot
+     * @param offset       first position to copy
+     * @param target       array to copy the values into
+     * @param targetOffset position in the target array of the first value
+     * @param count        number of values to copy
+     */
+    void read(AtomicReferenceArray<double[]> pages, int offset, double[] target,
+              int targetOffset, int count) {
+        int index = offset >>> PAGE_SHIFT;
+        double[] page = pages.get(index);
+        if (page == null) {
+            System.arraycopy(mValues, offset, target, targetOffset, count);
+            page = pages.get(index);
+            if (page == null) {
+                return;
+            }
+        }
+        System.arraycopy(page, offset & PAGE_MASK, target, targetOffset, count);
+    }
+
+}
@@ -0,0 +1,106 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import org.openmi.standard2.IBaseValueSet;
+
+import java.lang.reflect.Type;
+
+
+/**
+ * Read-only view of a value set. Used by ValueSets.snapshotOf for the copies it makes of value
+ * sets that have no copy-on-write snapshots, so that the consumers sharing such a snapshot can
+ * not change it. The view itself does not copy the values, the wrapped value set should not
+ * be changed by anyone else.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class ReadOnlyValueSet extends OmiValueSet implements IBaseValueSet {
+
+    // messages
+    protected static final String READ_ONLY = "A read-only value set can not be changed.";
+
+    // fields
+    private final IBaseValueSet mValues;
+
+
+    public ReadOnlyValueSet(IBaseValueSet values) {
+        super();
+        mValues = values;
+    }
+
+
+    @Override
+    public Type getValueType() {
+        return mValues.getValueType();
+    }
+
+
+    @Override
+    public void setValueType(Type t) {
+        throw new UnsupportedOperationException(READ_ONLY);
+    }
+
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException(READ_ONLY);
+    }
+
+
+    @Override
+    public int getNumberOfIndices() {
+        return mValues.getNumberOfIndices();
+    }
+
+
+    @Override
+    public int getIndexCount(int[] indices) {
+        return mValues.getIndexCount(indices);
+    }
+
+
+    @Override
+    public Object getValue(int[] indices) {
+        return mValues.getValue(indices);
+    }
+
+
+    @Override
+    public void setValue(int[] indices, Object value) {
+        throw new UnsupportedOperationException(READ_ONLY);
+    }
+
+
+    @Override
+    public boolean performNodeOperation(INodeOperation operation) {
+        if (mValues instanceof OmiValueSet) {
+            return ((OmiValueSet) mValues).performNodeOperation(operation);
+        }
+        return super.performNodeOperation(operation);
+    }
+
+
+    @Override
+    public boolean forEachDouble(IDoubleNodeOperation operation) {
+        if (mValues instanceof OmiValueSet) {
+            return ((OmiValueSet) mValues).forEachDouble(operation);
+        }
+        return super.forEachDouble(operation);
+    }
+
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ReadOnlyValueSet that = (ReadOnlyValueSet) o;
+        return mValues.equals(that.mValues);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return mValues.hashCode();
+    }
+
+}
@@ -0,0 +1,94 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import org.openmi.standard2.IBaseValueSet;
+
+
+/**
+ * Helper for copying values between value sets of any of the SDK types. Copies are made with
+ * the fastest path available for the combination of value sets: bulk array copies between
+ * dense value sets, shared (copy-on-write) structure between BaseValueSets, and a single walk
+ * over the values in all other cases. Snapshots of double value sets copy only the pages
+ * that are changed later on.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public final class ValueSets {
+
+    private ValueSets() {
+        // utility class
+    }
+
+
+    /**
+     * Creates a copy of the value set that keeps its shape. Dense value sets are copied into a
+     * new dense value set of the same type, all other value sets into a BaseValueSet.
+     *
+     * @param source value set to copy
+     * @return the copy
+     */
+    public static IBaseValueSet copyOf(IBaseValueSet source) {
+        if (source instanceof DenseValueSet) {
+            return ((DenseValueSet) source).copy();
+        }
+        return BaseValueSet.newInstance(source);
+    }
+
+
+    /**
+     * Returns a read-only snapshot of the current values of the value set. For a
+     * DoubleValueSet this is a copy-on-write snapshot that does not copy any values up front,
+     * read-only value sets and snapshots are returned as they are. A DirectDoubleValueSet is
+     * copied into a DoubleValueSet on the heap, so the snapshot does not hold memory that has
+     * to be closed. All other value sets are copied with copyOf and wrapped in a
+     * ReadOnlyValueSet.
+     *
+     * @param source value set to take a snapshot of
+     * @return the snapshot
+     */
+    public static IBaseValueSet snapshotOf(IBaseValueSet source) {
+        if (source instanceof DoubleValueSet) {
+            return ((DoubleValueSet) source).snapshot();
+        } else if ((source instanceof DoubleValueSetSnapshot) ||
+                (source instanceof ReadOnlyValueSet)) {
+            return source;
+        } else if (source instanceof DirectDoubleValueSet) {
+            DoubleValueSet copy = new DoubleValueSet(((DirectDoubleValueSet) source).getShape());
+            copy.copyFrom(source);
+            return copy.snapshot();
+        }
+        return new ReadOnlyValueSet(copyOf(source));
+    }
+
+
+    /**
+     * Copies all values of the source into the target. Values that are missing (null) in the
+     * source are left unchanged in the target.
+     *
+     * @param source value set to copy from
+     * @param target value set to copy into
+     * @throws IllegalArgumentException when the number of indices, shapes or value types of
+     *                                  the value sets do not match
+     */
+    public static void copy(IBaseValueSet source, final IBaseValueSet target) {
+        if (target instanceof DenseValueSet) {
+            ((DenseValueSet) target).copyFrom(source);
+        } else if (source instanceof OmiValueSet) {
+            if (source.getNumberOfIndices() != target.getNumberOfIndices()) {
+                throw new IllegalArgumentException(OmiValueSet.INVALID_INDICES_SIZE);
+            }
+            ((OmiValueSet) source).performNodeOperation(new OmiValueSet.INodeOperation() {
+                @Override
+                public boolean perform(int[] indices, Object value) {
+                    if (value != null) {
+                        target.setValue(indices, value);
+                    }
+                    return true;
+                }
+            });
+        } else {
+            BaseValueSet values = BaseValueSet.newInstance(source);
+            copy(values, target);
+        }
+    }
+
+}
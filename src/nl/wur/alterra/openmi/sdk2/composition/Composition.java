@@ -1,19 +1,572 @@
 package nl.wur.alterra.openmi.sdk2.composition;
 
+import nl.wur.alterra.openmi.sdk2.backbone.EngineLinkableComponent;
+import nl.wur.alterra.openmi.sdk2.backbone.OmiException;
+import nl.wur.alterra.openmi.sdk2.backbone.ValueSets;
+import nl.wur.alterra.openmi.sdk2.extras.BlockingExecutors;
+import org.openmi.standard2.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+
 /**
- * Unintentionally left blank.
+ * A set of linked components that are run together.
+ * <p/>
+ * Running the composition updates the components in rounds, until all of them are done. The
+ * dependencies between the components are taken from the links between their exchange items
+ * (the providers of the inputs and the consumers of the outputs, including those of adapted
+ * outputs). Within a round a component is only updated after all components it depends on
+ * have been updated, so the values it pulls from its providers are those of the same round.
+ * Components that do not depend on each other are updated at the same time, by the worker
+ * threads of a work-stealing pool. Each component is updated by a single task per round.
+ * <p/>
+ * Links that form a cycle can not be ordered. The cycle is broken at a link from the component
+ * that was added to the composition first, its consumer then pulls the values of that
+ * component from the previous round.
+ * <p/>
+ * In pipelined mode the rounds are not synchronized: every component advances through its
+ * time steps on its own, as soon as the values of its providers for the step are available.
+ * A provider can therefore compute the next step while its consumers still process the
+ * previous one, and a chain of components runs at the speed of its slowest component. For
+ * each link the composition keeps a bounded buffer of read-only snapshots of the output
+ * values, one per step, and sets the values of the consuming input to the snapshot for the
+ * step before the consumer is updated. In this mode components have to read the values of
+ * their inputs, not those of the providers. A provider that is a full buffer ahead of a
+ * consumer waits for it. When a provider is done its consumers keep the last values. A link
+ * that is ignored to break a cycle gets a buffer of a single step, the consumer does not wait
+ * for it on its first step and from then on gets the snapshot of the previous step.
+ * <p/>
+ * Components that spend most of their calls blocked, e.g. engines that wrap external
+ * executables, can be marked as blocking (see setBlocking and EngineLinkableComponent). Their
+ * prepare, update and finish calls are handed to a separate executor for blocking tasks,
+ * using virtual threads when the JVM supports them (see BlockingExecutors), while the other
+ * components stay on the bounded pool. Many blocking components can then be in flight at the
+ * same time without taking worker threads from the pool.
  *
  * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
  */
 public class Composition {
 
+    // default number of time steps a provider can be ahead of a consumer in pipelined mode
+    public static final int DEFAULT_BUFFER_SIZE = 2;
+
+    // interval at which waiting components check whether the run has failed
+    private static final long WAIT_INTERVAL_MS = 50;
+
+    // messages
+    private static final String INVALID_BUFFER_SIZE = "The buffer size must be at least 1.";
+    private static final String PREPARE_FAILED = "Prepare of component %s failed.";
+    private static final String UPDATE_FAILED = "Update of component %s failed.";
+    private static final String FINISH_FAILED = "Finish of component %s failed.";
+    private static final String UPDATE_INTERRUPTED = "Update of the composition was " +
+            "interrupted.";
+
+    // fields
+    private List<IBaseLinkableComponent> components;
+    private ForkJoinPool pool;
+    private boolean pipelined;
+    private int bufferSize;
+    private Set<IBaseLinkableComponent> blockingComponents;
+    private ExecutorService blockingExecutor;
+    private boolean ownsPool;
+    private boolean ownsBlockingExecutor;
+
+
+    /**
+     * A component in the dependency graph of the composition.
+     */
+    private static final class Node {
+        private final IBaseLinkableComponent component;
+        private final Set<Node> providers = new LinkedHashSet<Node>();
+        private final Set<Node> delayedProviders = new LinkedHashSet<Node>();
+        private final List<Node> consumers = new ArrayList<Node>();
+        private final List<Link> inputLinks = new ArrayList<Link>();
+        private final List<Link> outputLinks = new ArrayList<Link>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private int state;
+
+
+        private Node(IBaseLinkableComponent component) {
+            this.component = component;
+        }
+    }
+
+
+    /**
+     * Updates a single component and starts the updates of the consumers for which it was
+     * the last provider to be updated.
+     */
+    private final class UpdateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Node node;
+        private final CountDownLatch done;
+        private final AtomicReference<OmiException> failure;
+
+
+        private UpdateTask(Node node, CountDownLatch done,
+                           AtomicReference<OmiException> failure) {
+            this.node = node;
+            this.done = done;
+            this.failure = failure;
+        }
+
+
+        @Override
+        protected void compute() {
+            try {
+                // skip the update once any component has failed
+                if ((failure.get() == null) && !Composition.isDone(node.component.getStatus())) {
+                    node.component.update(null);
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, new OmiException(String.format(UPDATE_FAILED,
+                        node.component.getId()), t));
+            }
+            for (Node consumer : node.consumers) {
+                if (consumer.pending.decrementAndGet() == 0) {
+                    execute(consumer.component, new UpdateTask(consumer, done, failure));
+                }
+            }
+            done.countDown();
+        }
+    }
+
+
+    /**
+     * A link between an output and an input of two components, with the buffer of value
+     * snapshots used in pipelined mode. A delayed link closes a cycle, its consumer starts
+     * without values.
+     */
+    private static final class Link {
+        private final IBaseOutput output;
+        private final IBaseInput input;
+        private final BlockingQueue<Step> buffer;
+        private boolean delayed;
+        private volatile boolean providerDone;
+        private volatile boolean consumerDone;
+
+
+        private Link(IBaseOutput output, IBaseInput input, int bufferSize, boolean delayed) {
+            this.output = output;
+            this.input = input;
+            this.buffer = new ArrayBlockingQueue<Step>(bufferSize);
+            this.delayed = delayed;
+        }
+
+
+        private boolean put(IBaseValueSet values, AtomicReference<OmiException> failure)
+                throws InterruptedException {
+            Transfer transfer = new Transfer(this, new Step(values), failure);
+            ForkJoinPool.managedBlock(transfer);
+            return transfer.success;
+        }
+
+
+        private boolean take(AtomicReference<OmiException> failure)
+                throws InterruptedException {
+            if (delayed) {
+                // only called by the consumer, nothing to wait for on its first step
+                delayed = false;
+                return true;
+            }
+            Transfer transfer = new Transfer(this, null, failure);
+            ForkJoinPool.managedBlock(transfer);
+            if (transfer.received != null) {
+                input.setValues(transfer.received.values);
+            }
+            return transfer.success;
+        }
+    }
+
+
+    /**
+     * The values of an output for a single time step, values may be null.
+     */
+    private static final class Step {
+        private final IBaseValueSet values;
+
+
+        private Step(IBaseValueSet values) {
+            this.values = values;
+        }
+    }
+
+
+    /**
+     * Puts a step in, or takes a step from, the buffer of a link. Waiting is done through the
+     * pool, so that it can start another worker thread while a component waits.
+     */
+    private static final class Transfer implements ForkJoinPool.ManagedBlocker {
+        private final Link link;
+        private final Step step;
+        private final AtomicReference<OmiException> failure;
+        private Step received;
+        private boolean finished;
+        private boolean success;
+
+
+        private Transfer(Link link, Step step, AtomicReference<OmiException> failure) {
+            this.link = link;
+            this.step = step;
+            this.failure = failure;
+        }
+
+
+        @Override
+        public boolean isReleasable() {
+            try {
+                return tryTransfer(0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+
+        @Override
+        public boolean block() throws InterruptedException {
+            while (!tryTransfer(WAIT_INTERVAL_MS)) {
+                // check again
+            }
+            return true;
+        }
+
+
+        private boolean tryTransfer(long timeout) throws InterruptedException {
+            if (finished) {
+                return true;
+            }
+            if (failure.get() != null) {
+                finished = true;
+            } else if (step != null) {
+                // steps for consumers that are done are dropped
+                if (link.consumerDone || link.buffer.offer(step, timeout,
+                        TimeUnit.MILLISECONDS)) {
+                    finished = success = true;
+                }
+            } else {
+                boolean providerDone = link.providerDone;
+                received = link.buffer.poll(timeout, TimeUnit.MILLISECONDS);
+                if ((received == null) && providerDone) {
+                    received = link.buffer.poll();
+                }
+                // the consumer keeps the last values once the provider is done
+                finished = success = (received != null) || providerDone;
+            }
+            return finished;
+        }
+    }
+
+
+    /**
+     * Advances a single component through its time steps in pipelined mode, until it is done
+     * or the run has failed.
+     */
+    private final class PipelineTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Node node;
+        private final CountDownLatch done;
+        private final AtomicReference<OmiException> failure;
+
+
+        private PipelineTask(Node node, CountDownLatch done,
+                             AtomicReference<OmiException> failure) {
+            this.node = node;
+            this.done = done;
+            this.failure = failure;
+        }
+
+
+        @Override
+        protected void compute() {
+            try {
+                while ((failure.get() == null) &&
+                        !Composition.isDone(node.component.getStatus())) {
+                    for (Link link : node.inputLinks) {
+                        if (!link.take(failure)) {
+                            return;
+                        }
+                    }
+                    node.component.update(null);
+
+                    // a single snapshot per output, shared by its links
+                    Map<IBaseOutput, IBaseValueSet> snapshots = new IdentityHashMap<IBaseOutput,
+                            IBaseValueSet>();
+                    for (Link link : node.outputLinks) {
+                        if (!snapshots.containsKey(link.output)) {
+                            IBaseValueSet values = link.output.getValues();
+                            snapshots.put(link.output, (values == null) ? null :
+                                    ValueSets.snapshotOf(values));
+                        }
+                        if (!link.put(snapshots.get(link.output), failure)) {
+                            return;
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, new OmiException(String.format(UPDATE_FAILED,
+                        node.component.getId()), t));
+            } finally {
+                for (Link link : node.outputLinks) {
+                    link.providerDone = true;
+                }
+                for (Link link : node.inputLinks) {
+                    link.consumerDone = true;
+                }
+                done.countDown();
+            }
+        }
+    }
+
+
+    /**
+     * Calls prepare or finish on a single component.
+     */
+    private static final class LifecycleTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final IBaseLinkableComponent component;
+        private final boolean finish;
+        private final CountDownLatch done;
+        private final AtomicReference<OmiException> failure;
+
+
+        private LifecycleTask(IBaseLinkableComponent component, boolean finish,
+                              CountDownLatch done, AtomicReference<OmiException> failure) {
+            this.component = component;
+            this.finish = finish;
+            this.done = done;
+            this.failure = failure;
+        }
+
+
+        @Override
+        protected void compute() {
+            try {
+                if (finish) {
+                    component.finish();
+                } else {
+                    component.prepare();
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, new OmiException(String.format(finish ?
+                        FINISH_FAILED : PREPARE_FAILED, component.getId()), t));
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+
+    public Composition() {
+        this(null);
+    }
+
+
+    /**
+     * Creates a composition that updates its components in the specified pool.
+     *
+     * @param pool to update the components in, when null a pool with a worker thread for
+     *             each processor is created on the first update and shut down by shutdown
+     */
+    public Composition(ForkJoinPool pool) {
+        this.components = new ArrayList<IBaseLinkableComponent>();
+        this.pool = pool;
+        this.pipelined = false;
+        this.bufferSize = DEFAULT_BUFFER_SIZE;
+        this.blockingComponents = Collections.newSetFromMap(new IdentityHashMap<
+                IBaseLinkableComponent, Boolean>());
+    }
+
+
+    public List<IBaseLinkableComponent> getComponents() {
+        return Collections.unmodifiableList(components);
+    }
+
+
+    public boolean addComponent(IBaseLinkableComponent component) {
+        if ((component != null) && !components.contains(component)) {
+            return components.add(component);
+        }
+        return false;
+    }
+
+
+    public boolean removeComponent(IBaseLinkableComponent component) {
+        return components.remove(component);
+    }
+
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+
+    /**
+     * Sets whether the components are run pipelined, i.e. without synchronizing them on each
+     * round. See the class description.
+     *
+     * @param pipelined true for pipelined mode
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+
+    /**
+     * Sets the maximum number of time steps of values that are buffered for each link in
+     * pipelined mode.
+     *
+     * @param bufferSize number of time steps, at least 1
+     * @throws IllegalArgumentException when the size is less than 1
+     */
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException(INVALID_BUFFER_SIZE);
+        }
+        this.bufferSize = bufferSize;
+    }
+
+
+    /**
+     * Returns true when the calls of the component are run on the executor for blocking
+     * tasks, because it has been marked as blocking in the composition or it is a blocking
+     * EngineLinkableComponent.
+     *
+     * @param component to check
+     * @return true for a blocking component
+     */
+    public boolean isBlocking(IBaseLinkableComponent component) {
+        return blockingComponents.contains(component) ||
+                ((component instanceof EngineLinkableComponent) &&
+                        ((EngineLinkableComponent) component).isBlocking());
+    }
+
+
+    /**
+     * Marks a component as blocking, i.e. spending most of its calls waiting for IO.
+     *
+     * @param component to mark
+     * @param blocking  true for a blocking component
+     */
+    public void setBlocking(IBaseLinkableComponent component, boolean blocking) {
+        if (blocking) {
+            blockingComponents.add(component);
+        } else {
+            blockingComponents.remove(component);
+        }
+    }
+
+
+    /**
+     * Sets the executor for the calls of blocking components. When not set an executor from
+     * BlockingExecutors is created on first use. An executor set here is not shut down by
+     * the composition.
+     *
+     * @param executor for blocking tasks
+     */
+    public synchronized void setBlockingExecutor(ExecutorService executor) {
+        if (ownsBlockingExecutor) {
+            blockingExecutor.shutdown();
+            ownsBlockingExecutor = false;
+        }
+        this.blockingExecutor = executor;
+    }
+
+
+    /**
+     * Shuts down the pool and the executor for blocking tasks when the composition created
+     * them itself, a pool passed to the constructor and an executor set with
+     * setBlockingExecutor are left running. Tasks that are still running are completed. When
+     * the composition is run again new ones are created.
+     */
+    public synchronized void shutdown() {
+        if (ownsPool) {
+            pool.shutdown();
+            pool = null;
+            ownsPool = false;
+        }
+        if (ownsBlockingExecutor) {
+            blockingExecutor.shutdown();
+            blockingExecutor = null;
+            ownsBlockingExecutor = false;
+        }
+    }
+
+
     public void initialize(Object... args) {
         // TODO: implement initialize
     }
 
 
+    /**
+     * Runs the composition until all components are done, in rounds or pipelined.
+     *
+     * @throws OmiException when the update of a component failed
+     */
     public void run() {
-        // TODO: implement run
+        if (pipelined) {
+            runPipelined();
+        } else {
+            while (!isDone()) {
+                update();
+            }
+        }
+    }
+
+
+    /**
+     * Prepares all components for running, at the same time.
+     *
+     * @throws OmiException when a component could not be prepared
+     */
+    public void prepare() {
+        runLifecycle(false);
+    }
+
+
+    /**
+     * Finishes all components, at the same time. Every component is finished, also when
+     * finishing another one failed.
+     *
+     * @throws OmiException when a component could not be finished
+     */
+    public void finish() {
+        runLifecycle(true);
+    }
+
+
+    private void runLifecycle(boolean finish) {
+        startPool();
+        CountDownLatch done = new CountDownLatch(components.size());
+        AtomicReference<OmiException> failure = new AtomicReference<OmiException>();
+        for (IBaseLinkableComponent component : components) {
+            execute(component, new LifecycleTask(component, finish, done, failure));
+        }
+        await(done, failure);
     }
 
 
@@ -21,4 +574,294 @@ public class Composition {
         // TODO: implement smart run
         // find @In and @Out matches for specified args and automatically connect them
     }
+
+
+    /**
+     * Returns true when none of the components needs to be updated anymore, i.e. all of them
+     * are done, finished or have failed.
+     *
+     * @return true when the composition is done
+     */
+    public boolean isDone() {
+        for (IBaseLinkableComponent component : components) {
+            if (!isDone(component.getStatus())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static boolean isDone(LinkableComponentStatus status) {
+        return (status == LinkableComponentStatus.DONE) ||
+                (status == LinkableComponentStatus.FINISHING) ||
+                (status == LinkableComponentStatus.FINISHED) ||
+                (status == LinkableComponentStatus.FAILED);
+    }
+
+
+    /**
+     * Performs a single round, updating each component that is not done yet once, after the
+     * components it depends on. Once an update fails the components that have not been
+     * started yet are skipped.
+     *
+     * @throws OmiException when the update of a component failed
+     */
+    public void update() {
+        List<Node> nodes = buildGraph();
+        if (nodes.isEmpty()) {
+            return;
+        }
+        startPool();
+
+        CountDownLatch done = new CountDownLatch(nodes.size());
+        AtomicReference<OmiException> failure = new AtomicReference<OmiException>();
+        for (Node node : nodes) {
+            node.pending.set(node.providers.size());
+        }
+        for (Node node : nodes) {
+            if (node.providers.isEmpty()) {
+                execute(node.component, new UpdateTask(node, done, failure));
+            }
+        }
+        await(done, failure);
+    }
+
+
+    private void runPipelined() {
+        List<Node> nodes = buildGraph();
+        if (nodes.isEmpty()) {
+            return;
+        }
+        startPool();
+        buildLinks(nodes);
+
+        CountDownLatch done = new CountDownLatch(nodes.size());
+        AtomicReference<OmiException> failure = new AtomicReference<OmiException>();
+        for (Node node : nodes) {
+            execute(node.component, new PipelineTask(node, done, failure));
+        }
+        await(done, failure);
+    }
+
+
+    private void startPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+            ownsPool = true;
+        }
+    }
+
+
+    // the executor for blocking tasks is only created when a blocking component is run
+    private synchronized ExecutorService getBlockingExecutor() {
+        if (blockingExecutor == null) {
+            blockingExecutor = BlockingExecutors.newExecutor("composition");
+            ownsBlockingExecutor = true;
+        }
+        return blockingExecutor;
+    }
+
+
+    /**
+     * Runs the task of a component, on the executor for blocking tasks for blocking
+     * components and in the pool for all others.
+     */
+    private void execute(IBaseLinkableComponent component, final ForkJoinTask<?> task) {
+        if (isBlocking(component)) {
+            getBlockingExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    // runs the task in the calling thread
+                    task.invoke();
+                }
+            });
+        } else if (ForkJoinTask.getPool() == pool) {
+            task.fork();
+        } else {
+            pool.execute(task);
+        }
+    }
+
+
+    private static void await(CountDownLatch done, AtomicReference<OmiException> failure) {
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, new OmiException(UPDATE_INTERRUPTED, e));
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+
+    /**
+     * Returns the components the specified component depends on, in order of addition to the
+     * composition. Links that are ignored to break a cycle are left out.
+     *
+     * @param component to get the dependencies for
+     * @return the components it depends on
+     */
+    public List<IBaseLinkableComponent> getDependencies(IBaseLinkableComponent component) {
+        List<IBaseLinkableComponent> result = new ArrayList<IBaseLinkableComponent>();
+        for (Node node : buildGraph()) {
+            if (node.component == component) {
+                for (Node provider : node.providers) {
+                    result.add(provider.component);
+                }
+            }
+        }
+        return result;
+    }
+
+
+    private List<Node> buildGraph() {
+        Map<IBaseLinkableComponent, Node> map = new IdentityHashMap<IBaseLinkableComponent,
+                Node>();
+        List<Node> nodes = new ArrayList<Node>();
+        for (IBaseLinkableComponent component : components) {
+            Node node = new Node(component);
+            map.put(component, node);
+            nodes.add(node);
+        }
+
+        for (Node node : nodes) {
+            for (IBaseInput input : node.component.getInputs()) {
+                addLink(map, getOwner(input.getProvider()), node);
+            }
+            for (IBaseOutput output : node.component.getOutputs()) {
+                addConsumerLinks(map, node, output);
+            }
+        }
+
+        // drop the links that close a cycle, by a depth first search in order of addition
+        for (Node node : nodes) {
+            if (node.state == 0) {
+                breakCycles(node);
+            }
+        }
+        for (Node node : nodes) {
+            for (Node provider : node.providers) {
+                provider.consumers.add(node);
+            }
+        }
+        return nodes;
+    }
+
+
+    private void buildLinks(List<Node> nodes) {
+        Map<IBaseLinkableComponent, Node> map = new IdentityHashMap<IBaseLinkableComponent,
+                Node>();
+        for (Node node : nodes) {
+            map.put(node.component, node);
+        }
+
+        // only the links between components that depend on each other are buffered,
+        // including those that were ignored to break a cycle
+        Map<IBaseInput, Link> links = new IdentityHashMap<IBaseInput, Link>();
+        for (Node node : nodes) {
+            for (IBaseInput input : node.component.getInputs()) {
+                IBaseOutput output = input.getProvider();
+                Node provider = map.get(getOwner(output));
+                if ((provider != null) && (node.providers.contains(provider) ||
+                        node.delayedProviders.contains(provider))) {
+                    addLink(links, provider, output, node, input);
+                }
+            }
+        }
+        for (Node node : nodes) {
+            for (Node consumer : node.consumers) {
+                for (IBaseOutput output : node.component.getOutputs()) {
+                    addLinks(links, node, output, consumer);
+                }
+            }
+            for (Node provider : node.delayedProviders) {
+                for (IBaseOutput output : provider.component.getOutputs()) {
+                    addLinks(links, provider, output, node);
+                }
+            }
+        }
+    }
+
+
+    private void addLinks(Map<IBaseInput, Link> links, Node provider, IBaseOutput output,
+                          Node consumer) {
+        for (IBaseInput input : output.getConsumers()) {
+            if (input.getComponent() == consumer.component) {
+                addLink(links, provider, output, consumer, input);
+            }
+        }
+        for (IBaseAdaptedOutput adaptedOutput : output.getAdaptedOutputs()) {
+            addLinks(links, provider, adaptedOutput, consumer);
+        }
+    }
+
+
+    private void addLink(Map<IBaseInput, Link> links, Node provider, IBaseOutput output,
+                         Node consumer, IBaseInput input) {
+        if (!links.containsKey(input)) {
+            boolean delayed = consumer.delayedProviders.contains(provider);
+            Link link = new Link(output, input, delayed ? 1 : bufferSize, delayed);
+            links.put(input, link);
+            provider.outputLinks.add(link);
+            consumer.inputLinks.add(link);
+        }
+    }
+
+
+    private static void addConsumerLinks(Map<IBaseLinkableComponent, Node> map, Node node,
+                                         IBaseOutput output) {
+        for (IBaseInput consumer : output.getConsumers()) {
+            addLink(map, node, consumer.getComponent());
+        }
+        for (IBaseAdaptedOutput adaptedOutput : output.getAdaptedOutputs()) {
+            addConsumerLinks(map, node, adaptedOutput);
+        }
+    }
+
+
+    private static void addLink(Map<IBaseLinkableComponent, Node> map,
+                                IBaseLinkableComponent provider, Node consumer) {
+        Node node = (provider == null) ? null : map.get(provider);
+        if ((node != null) && (node != consumer)) {
+            consumer.providers.add(node);
+        }
+    }
+
+
+    private static void addLink(Map<IBaseLinkableComponent, Node> map, Node provider,
+                                IBaseLinkableComponent consumer) {
+        Node node = (consumer == null) ? null : map.get(consumer);
+        if ((node != null) && (node != provider)) {
+            node.providers.add(provider);
+        }
+    }
+
+
+    private static IBaseLinkableComponent getOwner(IBaseOutput output) {
+        // adapted outputs belong to the component of the output they adapt
+        while (output instanceof IBaseAdaptedOutput) {
+            output = ((IBaseAdaptedOutput) output).getAdaptee();
+        }
+        return (output == null) ? null : output.getComponent();
+    }
+
+
+    private static void breakCycles(Node node) {
+        node.state = 1;
+        List<Node> closing = new ArrayList<Node>();
+        for (Node provider : node.providers) {
+            if (provider.state == 1) {
+                closing.add(provider);
+            } else if (provider.state == 0) {
+                breakCycles(provider);
+            }
+        }
+        node.providers.removeAll(closing);
+        node.delayedProviders.addAll(closing);
+        node.state = 2;
+    }
+
 }
@@ -0,0 +1,80 @@
+package nl.wur.alterra.openmi.sdk2.extras;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Helper for creating executors for tasks that spend most of their time blocked, e.g. on
+ * external executables or file exchanges. Uses a virtual thread per task when the running
+ * JVM supports virtual threads, so that many of these tasks can be in flight without a
+ * platform thread each. Otherwise the tasks run on a cached pool of daemon threads.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public final class BlockingExecutors {
+
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR;
+
+
+    static {
+        Method newVirtualThreadExecutor = null;
+        try {
+            newVirtualThreadExecutor = Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor");
+        } catch (Exception ex) {
+            // not supported by this JVM, use platform threads
+            newVirtualThreadExecutor = null;
+        }
+        NEW_VIRTUAL_THREAD_EXECUTOR = newVirtualThreadExecutor;
+    }
+
+
+    private BlockingExecutors() {
+        // utility class
+    }
+
+
+    /**
+     * Returns true when the running JVM supports virtual threads.
+     *
+     * @return true when executors use virtual threads
+     */
+    public static boolean isVirtual() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task, or when virtual
+     * threads are not supported an executor that reuses idle daemon threads and creates new
+     * ones as needed. Threads of either kind do not keep the JVM from exiting.
+     *
+     * @param name prefix for the names of the threads
+     * @return the executor
+     */
+    public static ExecutorService newExecutor(final String name) {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            } catch (Exception ex) {
+                // fall back to platform threads
+            }
+        }
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+}
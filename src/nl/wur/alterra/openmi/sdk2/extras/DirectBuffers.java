@@ -0,0 +1,70 @@
+package nl.wur.alterra.openmi.sdk2.extras;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Helper for releasing the memory of direct and memory-mapped byte buffers right away,
+ * instead of waiting for the garbage collector to find them unreachable. Uses the cleaner
+ * support of the running JVM when available, otherwise releasing is left to the garbage
+ * collector.
+ * <p/>
+ * After a buffer has been released it must not be accessed any more, doing so can crash the
+ * JVM. Callers are responsible for dropping all references to the buffer and its views.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public final class DirectBuffers {
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception ex) {
+            // not supported by this JVM, leave releasing to the garbage collector
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+
+    private DirectBuffers() {
+        // utility class
+    }
+
+
+    /**
+     * Releases the memory of a direct or memory-mapped buffer. Heap buffers, null references
+     * and views (slices, duplicates) are ignored.
+     *
+     * @param buffer to release
+     * @return true when the memory was released, false when this is left to the garbage
+     *         collector
+     */
+    public static boolean release(ByteBuffer buffer) {
+        if ((buffer == null) || (!buffer.isDirect()) || (INVOKE_CLEANER == null)) {
+            return false;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            return true;
+        } catch (Exception ex) {
+            // e.g. a slice or duplicate, which has no cleaner of its own
+            return false;
+        }
+    }
+
+}
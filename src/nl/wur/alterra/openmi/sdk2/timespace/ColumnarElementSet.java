@@ -0,0 +1,546 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import nl.wur.alterra.openmi.sdk2.backbone.DescribableOmiObject;
+import nl.wur.alterra.openmi.sdk2.backbone.Identifier;
+import org.openmi.standard2.IIdentifiable;
+import org.openmi.standard2.timespace.ElementType;
+import org.openmi.standard2.timespace.IElementSet;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+/**
+ * Element set that stores its geometry in columns instead of in Element and Vertex objects,
+ * for large meshes. The coordinates of all vertices are kept in one array per dimension, the
+ * vertices of an element are a range in these arrays given by an offset array (compressed
+ * sparse row layout). Faces are stored the same way: an offset array per element into the
+ * faces, and per face an offset array into a single array of vertex indices.
+ * <p/>
+ * Elements are appended: addElement starts a new element, addVertex and addFace add to the
+ * last element. Existing elements can not be changed, except for their coordinates through
+ * setVertexCoordinates. Every change increases the version of the element set.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class ColumnarElementSet extends DescribableOmiObject implements IElementGeometry,
+        Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // messages
+    private static final String NO_ELEMENT = "Add an element before adding vertices or faces.";
+    private static final String NO_Z = "The element set has no Z coordinates.";
+    private static final String NO_M = "The element set has no M coordinates.";
+    private static final String INVALID_FACE = "Face vertex index %d is not a vertex of the " +
+            "element.";
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private ElementType elementType;
+    private String spatialReferenceSystemWkt;
+    private int elementCount;
+    private String[] ids;
+    private int[] vertexOffsets;
+    private int vertexCount;
+    private double[] x;
+    private double[] y;
+    private double[] z;
+    private double[] m;
+    private int[] faceOffsets;
+    private int faceCount;
+    private int[] faceVertexOffsets;
+    private int[] faceVertices;
+    private int version;
+    private transient volatile HashMap<String, Integer> idIndex;
+    private transient volatile SpatialIndex spatialIndex;
+    private transient byte[] fingerprint;
+    private transient int fingerprintVersion;
+
+
+    /**
+     * Creates an empty element set.
+     *
+     * @param caption                   The caption
+     * @param description               The description
+     * @param elementType               The ElementType
+     * @param spatialReferenceSystemWkt The spatial reference system as WKT
+     * @param hasZ                      True to store Z coordinates
+     * @param hasM                      True to store M coordinates
+     */
+    public ColumnarElementSet(String caption, String description, ElementType elementType,
+                              String spatialReferenceSystemWkt, boolean hasZ, boolean hasM) {
+        super(caption, description);
+        this.elementType = elementType;
+        this.spatialReferenceSystemWkt = spatialReferenceSystemWkt;
+        ids = new String[INITIAL_CAPACITY];
+        vertexOffsets = new int[INITIAL_CAPACITY + 1];
+        x = new double[INITIAL_CAPACITY];
+        y = new double[INITIAL_CAPACITY];
+        z = hasZ ? new double[INITIAL_CAPACITY] : null;
+        m = hasM ? new double[INITIAL_CAPACITY] : null;
+        faceOffsets = new int[INITIAL_CAPACITY + 1];
+        faceVertexOffsets = new int[INITIAL_CAPACITY + 1];
+        faceVertices = new int[INITIAL_CAPACITY];
+    }
+
+
+    /**
+     * Creates an instance and copies the elements of the specified element set. Z and M
+     * coordinates are copied when the source has them. The coordinates of an
+     * IElementGeometry are copied in bulk.
+     *
+     * @param source The IElementSet to copy from
+     */
+    public ColumnarElementSet(IElementSet source) {
+        this(source.getCaption(), source.getDescription(), source.getElementType(),
+                source.getSpatialReferenceSystemWkt(), source.hasZ(), source.hasM());
+
+        int count = source.getElementCount();
+        int[] offsets = null;
+        double[][] columns = null;
+        if (source instanceof IElementGeometry) {
+            IElementGeometry geometry = (IElementGeometry) source;
+            offsets = new int[count + 1];
+            int total = geometry.getVertexOffsets(0, count, offsets);
+            columns = new double[4][];
+            columns[0] = new double[total];
+            columns[1] = new double[total];
+            geometry.getXYCoordinates(0, count, columns[0], columns[1], 0);
+            if (z != null) {
+                columns[2] = new double[total];
+                geometry.getCoordinates(0, count, ElementSet.SpatialDimension.Z, columns[2], 0);
+            }
+            if (m != null) {
+                columns[3] = new double[total];
+                geometry.getCoordinates(0, count, ElementSet.SpatialDimension.M, columns[3], 0);
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            addElement(source.getElementId(i).getId());
+            if (columns != null) {
+                for (int v = offsets[i]; v < offsets[i + 1]; v++) {
+                    addVertex(columns[0][v], columns[1][v],
+                            (columns[2] == null) ? 0.0 : columns[2][v],
+                            (columns[3] == null) ? 0.0 : columns[3][v]);
+                }
+            } else {
+                int vertexCount = source.getVertexCount(i);
+                for (int j = 0; j < vertexCount; j++) {
+                    addVertex(source.getVertexXCoordinate(i, j),
+                            source.getVertexYCoordinate(i, j),
+                            (z == null) ? 0.0 : source.getVertexZCoordinate(i, j),
+                            (m == null) ? 0.0 : source.getVertexMCoordinate(i, j));
+                }
+            }
+            for (int f = 0; f < source.getFaceCount(i); f++) {
+                addFace(source.getFaceVertexIndices(i, f));
+            }
+        }
+        trimToSize();
+    }
+
+
+    /**
+     * Starts a new element, the following vertices and faces are added to it.
+     *
+     * @param id The id of the element
+     * @return The index of the element
+     */
+    public int addElement(String id) {
+        if (elementCount == ids.length) {
+            int capacity = Math.max(2 * ids.length, INITIAL_CAPACITY);
+            ids = Arrays.copyOf(ids, capacity);
+            vertexOffsets = Arrays.copyOf(vertexOffsets, capacity + 1);
+            faceOffsets = Arrays.copyOf(faceOffsets, capacity + 1);
+        }
+        ids[elementCount] = id;
+        elementCount++;
+        vertexOffsets[elementCount] = vertexCount;
+        faceOffsets[elementCount] = faceCount;
+        HashMap<String, Integer> index = idIndex;
+        if ((index != null) && !index.containsKey(id)) {
+            index.put(id, elementCount - 1);
+        }
+        spatialIndex = null;
+        version++;
+        return elementCount - 1;
+    }
+
+
+    /**
+     * Adds a vertex to the last element.
+     *
+     * @param x The X coordinate
+     * @param y The Y coordinate
+     */
+    public void addVertex(double x, double y) {
+        addVertex(x, y, 0.0, 0.0);
+    }
+
+
+    /**
+     * Adds a vertex to the last element. Coordinates of dimensions the element set does not
+     * have are ignored.
+     *
+     * @param x The X coordinate
+     * @param y The Y coordinate
+     * @param z The Z coordinate
+     * @param m The M coordinate
+     */
+    public void addVertex(double x, double y, double z, double m) {
+        if (elementCount == 0) {
+            throw new IllegalStateException(NO_ELEMENT);
+        }
+        if (vertexCount == this.x.length) {
+            int capacity = Math.max(2 * vertexCount, INITIAL_CAPACITY);
+            this.x = Arrays.copyOf(this.x, capacity);
+            this.y = Arrays.copyOf(this.y, capacity);
+            this.z = (this.z == null) ? null : Arrays.copyOf(this.z, capacity);
+            this.m = (this.m == null) ? null : Arrays.copyOf(this.m, capacity);
+        }
+        this.x[vertexCount] = x;
+        this.y[vertexCount] = y;
+        if (this.z != null) {
+            this.z[vertexCount] = z;
+        }
+        if (this.m != null) {
+            this.m[vertexCount] = m;
+        }
+        vertexCount++;
+        vertexOffsets[elementCount] = vertexCount;
+        spatialIndex = null;
+        version++;
+    }
+
+
+    /**
+     * Adds a face to the last element.
+     *
+     * @param vertexIndices The indices of the vertices of the face, within the element
+     */
+    public void addFace(int[] vertexIndices) {
+        if (elementCount == 0) {
+            throw new IllegalStateException(NO_ELEMENT);
+        }
+        int elementVertices = getVertexCount(elementCount - 1);
+        for (int index : vertexIndices) {
+            if ((index < 0) || (index >= elementVertices)) {
+                throw new IllegalArgumentException(String.format(INVALID_FACE, index));
+            }
+        }
+        if (faceCount + 1 == faceVertexOffsets.length) {
+            faceVertexOffsets = Arrays.copyOf(faceVertexOffsets, 2 * faceVertexOffsets.length);
+        }
+        int start = faceVertexOffsets[faceCount];
+        if (start + vertexIndices.length > faceVertices.length) {
+            faceVertices = Arrays.copyOf(faceVertices, Math.max(2 * faceVertices.length,
+                    start + vertexIndices.length));
+        }
+        System.arraycopy(vertexIndices, 0, faceVertices, start, vertexIndices.length);
+        faceCount++;
+        faceVertexOffsets[faceCount] = start + vertexIndices.length;
+        faceOffsets[elementCount] = faceCount;
+        version++;
+    }
+
+
+    /**
+     * Reduces the storage to the current number of elements, vertices and faces.
+     */
+    public void trimToSize() {
+        ids = Arrays.copyOf(ids, elementCount);
+        vertexOffsets = Arrays.copyOf(vertexOffsets, elementCount + 1);
+        faceOffsets = Arrays.copyOf(faceOffsets, elementCount + 1);
+        x = Arrays.copyOf(x, vertexCount);
+        y = Arrays.copyOf(y, vertexCount);
+        z = (z == null) ? null : Arrays.copyOf(z, vertexCount);
+        m = (m == null) ? null : Arrays.copyOf(m, vertexCount);
+        faceVertexOffsets = Arrays.copyOf(faceVertexOffsets, faceCount + 1);
+        faceVertices = Arrays.copyOf(faceVertices, faceVertexOffsets[faceCount]);
+    }
+
+
+    /**
+     * Changes the coordinates of an existing vertex. Coordinates of dimensions the element
+     * set does not have are ignored.
+     *
+     * @param elementIndex Index for the element
+     * @param vertexIndex  Index for the vertex
+     * @param x            The X coordinate
+     * @param y            The Y coordinate
+     * @param z            The Z coordinate
+     * @param m            The M coordinate
+     */
+    public void setVertexCoordinates(int elementIndex, int vertexIndex, double x, double y,
+                                     double z, double m) {
+        int offset = offsetOf(elementIndex, vertexIndex);
+        this.x[offset] = x;
+        this.y[offset] = y;
+        if (this.z != null) {
+            this.z[offset] = z;
+        }
+        if (this.m != null) {
+            this.m[offset] = m;
+        }
+        spatialIndex = null;
+        version++;
+    }
+
+
+    @Override
+    public int getVertexOffsets(int fromElement, int toElement, int[] offsets) {
+        checkRange(fromElement, toElement);
+        int first = vertexOffsets[fromElement];
+        for (int i = fromElement; i <= toElement; i++) {
+            offsets[i - fromElement] = vertexOffsets[i] - first;
+        }
+        return vertexOffsets[toElement] - first;
+    }
+
+
+    @Override
+    public int getCoordinates(int fromElement, int toElement,
+                              ElementSet.SpatialDimension dimension, double[] target, int offset) {
+        double[] column;
+        switch (dimension) {
+            case X:
+                column = x;
+                break;
+            case Y:
+                column = y;
+                break;
+            case Z:
+                if (z == null) {
+                    throw new UnsupportedOperationException(NO_Z);
+                }
+                column = z;
+                break;
+            default:
+                if (m == null) {
+                    throw new UnsupportedOperationException(NO_M);
+                }
+                column = m;
+                break;
+        }
+        checkRange(fromElement, toElement);
+        int first = vertexOffsets[fromElement];
+        int count = vertexOffsets[toElement] - first;
+        System.arraycopy(column, first, target, offset, count);
+        return count;
+    }
+
+
+    @Override
+    public int getXYCoordinates(int fromElement, int toElement, double[] x, double[] y,
+                                int offset) {
+        checkRange(fromElement, toElement);
+        int first = vertexOffsets[fromElement];
+        int count = vertexOffsets[toElement] - first;
+        System.arraycopy(this.x, first, x, offset, count);
+        System.arraycopy(this.y, first, y, offset, count);
+        return count;
+    }
+
+
+    private void checkRange(int fromElement, int toElement) {
+        if ((fromElement < 0) || (toElement > elementCount) || (fromElement > toElement)) {
+            throw new IndexOutOfBoundsException(fromElement + ".." + toElement);
+        }
+    }
+
+
+    private int offsetOf(int elementIndex, int vertexIndex) {
+        checkElementIndex(elementIndex);
+        int offset = vertexOffsets[elementIndex] + vertexIndex;
+        if ((vertexIndex < 0) || (offset >= vertexOffsets[elementIndex + 1])) {
+            throw new IndexOutOfBoundsException(String.valueOf(vertexIndex));
+        }
+        return offset;
+    }
+
+
+    private void checkElementIndex(int elementIndex) {
+        if ((elementIndex < 0) || (elementIndex >= elementCount)) {
+            throw new IndexOutOfBoundsException(String.valueOf(elementIndex));
+        }
+    }
+
+
+    public ElementType getElementType() {
+        return elementType;
+    }
+
+
+    public String getSpatialReferenceSystemWkt() {
+        return spatialReferenceSystemWkt;
+    }
+
+
+    public int getElementCount() {
+        return elementCount;
+    }
+
+
+    public int getVersion() {
+        return version;
+    }
+
+
+    /**
+     * Gets the fingerprint of the content of the element set (see ElementSetFingerprint). It
+     * is computed once per version.
+     *
+     * @return the fingerprint
+     */
+    public byte[] getFingerprint() {
+        if ((fingerprint == null) || (fingerprintVersion != version)) {
+            fingerprint = ElementSetFingerprint.compute(this);
+            fingerprintVersion = version;
+        }
+        return fingerprint.clone();
+    }
+
+
+    /**
+     * Returns the total number of vertices of all elements.
+     *
+     * @return Number of vertices
+     */
+    public int getTotalVertexCount() {
+        return vertexCount;
+    }
+
+
+    public IIdentifiable getElementId(int index) {
+        checkElementIndex(index);
+        Identifier result = new Identifier();
+        result.setId(ids[index]);
+        return result;
+    }
+
+
+    /**
+     * Returns the element index for a given element identifier, through a hash index on the
+     * ids. When several elements have the same id the first one is returned.
+     *
+     * @param elementId The identifier of the element
+     * @return The index of the element with the specified identifier, -1 when not found
+     */
+    public int getElementIndex(IIdentifiable elementId) {
+        if (elementId == null) {
+            return -1;
+        }
+        Integer result = getIdIndex().get(elementId.getId());
+        return (result == null) ? -1 : result;
+    }
+
+
+    /**
+     * Returns the element indices for a list of element identifiers, in a single pass.
+     *
+     * @param elementIds The identifiers of the elements
+     * @return The index of the element for each identifier, -1 for those not found
+     */
+    public int[] getElementIndices(IIdentifiable[] elementIds) {
+        HashMap<String, Integer> index = getIdIndex();
+        int[] result = new int[elementIds.length];
+        for (int i = 0; i < elementIds.length; i++) {
+            Integer found = (elementIds[i] == null) ? null : index.get(elementIds[i].getId());
+            result[i] = (found == null) ? -1 : found;
+        }
+        return result;
+    }
+
+
+    private HashMap<String, Integer> getIdIndex() {
+        HashMap<String, Integer> index = idIndex;
+        if (index == null) {
+            index = new HashMap<String, Integer>(2 * elementCount);
+            for (int i = elementCount - 1; i >= 0; i--) {
+                // the first element with an id wins
+                index.put(ids[i], i);
+            }
+            idIndex = index;
+        }
+        return index;
+    }
+
+
+    /**
+     * Gets the spatial index on the elements, which is built on first use and rebuilt after
+     * elements, vertices or coordinates have changed.
+     *
+     * @return The spatial index
+     */
+    public SpatialIndex getSpatialIndex() {
+        SpatialIndex index = spatialIndex;
+        if ((index == null) || !index.isCurrent()) {
+            index = new SpatialIndex(this);
+            spatialIndex = index;
+        }
+        return index;
+    }
+
+
+    public int getVertexCount(int index) {
+        checkElementIndex(index);
+        return vertexOffsets[index + 1] - vertexOffsets[index];
+    }
+
+
+    public int getFaceCount(int index) {
+        checkElementIndex(index);
+        return faceOffsets[index + 1] - faceOffsets[index];
+    }
+
+
+    public int[] getFaceVertexIndices(int elementIndex, int faceIndex) {
+        checkElementIndex(elementIndex);
+        int face = faceOffsets[elementIndex] + faceIndex;
+        if ((faceIndex < 0) || (face >= faceOffsets[elementIndex + 1])) {
+            throw new IndexOutOfBoundsException(String.valueOf(faceIndex));
+        }
+        return Arrays.copyOfRange(faceVertices, faceVertexOffsets[face],
+                faceVertexOffsets[face + 1]);
+    }
+
+
+    public boolean hasZ() {
+        return z != null;
+    }
+
+
+    public boolean hasM() {
+        return m != null;
+    }
+
+
+    public double getVertexXCoordinate(int elementIndex, int vertexIndex) {
+        return x[offsetOf(elementIndex, vertexIndex)];
+    }
+
+
+    public double getVertexYCoordinate(int elementIndex, int vertexIndex) {
+        return y[offsetOf(elementIndex, vertexIndex)];
+    }
+
+
+    public double getVertexZCoordinate(int elementIndex, int vertexIndex) {
+        if (z == null) {
+            throw new UnsupportedOperationException(NO_Z);
+        }
+        return z[offsetOf(elementIndex, vertexIndex)];
+    }
+
+
+    public double getVertexMCoordinate(int elementIndex, int vertexIndex) {
+        if (m == null) {
+            throw new UnsupportedOperationException(NO_M);
+        }
+        return m[offsetOf(elementIndex, vertexIndex)];
+    }
+
+}
@@ -0,0 +1,175 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import nl.wur.alterra.openmi.sdk2.backbone.DoubleValueSet;
+import org.openmi.standard2.timespace.ITimeSpaceValueSet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A two dimensional value set of doubles with one dimension representing time and one
+ * representing space, stored in a flat primitive array (time major). Next to the List based
+ * methods of ITimeSpaceValueSet it provides methods that copy the values for a time, or the
+ * time series for an element, directly from and to double arrays.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class DoubleTimeSpaceValueSet extends DoubleValueSet implements ITimeSpaceValueSet,
+        TimeSpaceLayout.Storage {
+
+    // fields
+    private final int mTimeCapacity;
+    private final int mSpaceCapacity;
+
+
+    public DoubleTimeSpaceValueSet(int timeCapacity, int spaceCapacity) {
+        super(timeCapacity, spaceCapacity);
+        mTimeCapacity = timeCapacity;
+        mSpaceCapacity = spaceCapacity;
+    }
+
+
+    @Override
+    public DoubleTimeSpaceValueSet copy() {
+        DoubleTimeSpaceValueSet copy = new DoubleTimeSpaceValueSet(mTimeCapacity, mSpaceCapacity);
+        copy.copyFrom(this);
+        return copy;
+    }
+
+
+    public int getTimeCapacity() {
+        return mTimeCapacity;
+    }
+
+
+    public int getSpaceCapacity() {
+        return mSpaceCapacity;
+    }
+
+
+    @Override
+    public double getDouble(int timeIndex, int elementIndex) {
+        return super.getDouble(new int[]{timeIndex, elementIndex});
+    }
+
+
+    public void setDouble(int timeIndex, int elementIndex, double value) {
+        super.setDouble(new int[]{timeIndex, elementIndex}, value);
+    }
+
+
+    /**
+     * Copies the values of all elements for a time into the target array, using a single
+     * array copy.
+     *
+     * @param timeIndex    index of the time
+     * @param target       array to copy the values into
+     * @param targetOffset position in the target array of the first value
+     * @return number of values copied
+     */
+    public int getElementValuesForTime(int timeIndex, double[] target, int targetOffset) {
+        return getDoubles(new int[]{timeIndex}, target, targetOffset);
+    }
+
+
+    /**
+     * Copies values from the source array into the values of all elements for a time, using a
+     * single array copy.
+     *
+     * @param timeIndex    index of the time
+     * @param source       array to copy the values from
+     * @param sourceOffset position in the source array of the first value
+     * @return number of values copied
+     */
+    public int setElementValuesForTime(int timeIndex, double[] source, int sourceOffset) {
+        return setDoubles(new int[]{timeIndex}, source, sourceOffset);
+    }
+
+
+    /**
+     * Copies the time series of an element into the target array.
+     *
+     * @param elementIndex index of the element
+     * @param target       array to copy the values into
+     * @param targetOffset position in the target array of the first value
+     * @return number of values copied
+     */
+    public int getTimeSeriesValuesForElement(int elementIndex, double[] target,
+                                             int targetOffset) {
+        return getDoublesAlong(0, new int[]{0, elementIndex}, target, targetOffset);
+    }
+
+
+    /**
+     * Copies values from the source array into the time series of an element.
+     *
+     * @param elementIndex index of the element
+     * @param source       array to copy the values from
+     * @param sourceOffset position in the source array of the first value
+     * @return number of values copied
+     */
+    public int setTimeSeriesValuesForElement(int elementIndex, double[] source,
+                                             int sourceOffset) {
+        return setDoublesAlong(0, new int[]{0, elementIndex}, source, sourceOffset);
+    }
+
+
+    // the raw lists are declared by ITimeSpaceValueSet
+    @SuppressWarnings("rawtypes")
+    @Override
+    public List<List> getValues2D() {
+        List<List> result = new ArrayList<List>(mTimeCapacity);
+        TimeSpaceLayout.getValues2D(this, mTimeCapacity, mSpaceCapacity, result);
+        return result;
+    }
+
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void setValues2D(List<List> values) {
+        clear();
+        TimeSpaceLayout.setValues2D(this, values);
+    }
+
+
+    @Override
+    public Object getValue(int timeIndex, int elementIndex) {
+        return getDouble(timeIndex, elementIndex);
+    }
+
+
+    @Override
+    public void setValue(int timeIndex, int elementIndex, Object value) {
+        setValue(new int[]{timeIndex, elementIndex}, value);
+    }
+
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public List getTimeSeriesValuesForElement(int elementIndex) {
+        return TimeSpaceLayout.getTimeSeriesValuesForElement(this, elementIndex, mTimeCapacity);
+    }
+
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void setTimeSeriesValuesForElement(int elementIndex, List values) {
+        TimeSpaceLayout.setTimeSeriesValuesForElement(this, elementIndex, values);
+    }
+
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public List getElementValuesForTime(int timeIndex) {
+        return TimeSpaceLayout.getElementValuesForTime(this, timeIndex, mSpaceCapacity);
+    }
+
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void setElementValuesForTime(int timeIndex, List values) {
+        TimeSpaceLayout.setElementValuesForTime(this, timeIndex, values);
+    }
+
+}
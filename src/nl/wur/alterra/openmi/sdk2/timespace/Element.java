@@ -35,7 +35,9 @@ import java.util.ArrayList;
 
 
 /**
- * The element class contains a spatial element.
+ * The element class contains a spatial element. Changes made through the methods of an
+ * element or its vertices are passed on to the element set it was last added to. Changes
+ * made to the Vertices collection or the Identifier directly are not.
  */
 public class Element implements Serializable {
 
@@ -44,6 +46,7 @@ public class Element implements Serializable {
     private Vertices vertices;
     private ArrayList<int[]> faces;
     private Identifier identifier;
+    private ElementSet owner;
 
 
     /**
@@ -94,6 +97,10 @@ public class Element implements Serializable {
      */
     public void setVertices(Vertices vertices) {
         this.vertices = vertices;
+        for (Vertex vertex : vertices) {
+            vertex.setOwner(this);
+        }
+        verticesChanged();
     }
 
 
@@ -119,6 +126,9 @@ public class Element implements Serializable {
      */
     public void setId(String id) {
         identifier.setId(id);
+        if (owner != null) {
+            owner.invalidateElementIndex();
+        }
     }
 
 
@@ -150,6 +160,8 @@ public class Element implements Serializable {
      */
     public void addVertex(Vertex vertex) {
         vertices.add(vertex);
+        vertex.setOwner(this);
+        verticesChanged();
     }
 
 
@@ -170,6 +182,7 @@ public class Element implements Serializable {
      */
     public void addFace(int[] vertexIndices) {
         faces.add(vertexIndices);
+        verticesChanged();
     }
 
 
@@ -184,6 +197,23 @@ public class Element implements Serializable {
     }
 
 
+    /**
+     * Sets the element set that is told about changes of the element.
+     *
+     * @param owner The element set the element was added to
+     */
+    void setOwner(ElementSet owner) {
+        this.owner = owner;
+    }
+
+
+    void verticesChanged() {
+        if (owner != null) {
+            owner.invalidateSpatialIndex();
+        }
+    }
+
+
     @Override
     public boolean equals(Object obj) {
         if (obj == null || this.getClass() != obj.getClass()) {
@@ -206,7 +236,7 @@ public class Element implements Serializable {
 
     @Override
     public int hashCode() {
-        return super.hashCode() + getIdentifier().hashCode() + getVertices().hashCode();
+        return getIdentifier().hashCode() + getVertices().hashCode();
     }
 
 }
@@ -36,12 +36,20 @@ import org.openmi.standard2.timespace.IElementSet;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 
 /**
  * The ElementSet class describes a collection of spatial elements.
+ * <p/>
+ * Every change made through the methods of the element set, or of its Element and Vertex
+ * objects, increases its version, so caches of derived data (spatial index, mapping weights,
+ * etc.) can check in O(1) whether they are still valid. Elements and vertices tell the element
+ * set they were last added to about their changes, the copy constructor therefore copies
+ * them. Changes made to the Vertices collection or the Identifier of an element directly are
+ * not detected, call elementsChanged after making them.
  */
-public class ElementSet extends DescribableOmiObject implements IElementSet, Serializable {
+public class ElementSet extends DescribableOmiObject implements IElementGeometry, Serializable {
 
     private static final long serialVersionUID = 1L;
 
@@ -53,6 +61,13 @@ public class ElementSet extends DescribableOmiObject implements IElementSet, Ser
     private ArrayList<Element> elements;
     private ElementType elementType;
     private String spatialReferenceSystemWkt;
+    private boolean hasZ;
+    private boolean hasM;
+    private int version;
+    private transient volatile SpatialIndex spatialIndex;
+    private transient volatile HashMap<String, Integer> idIndex;
+    private transient byte[] fingerprint;
+    private transient int fingerprintVersion;
 
 
     /**
@@ -68,23 +83,41 @@ public class ElementSet extends DescribableOmiObject implements IElementSet, Ser
      *
      * @param source The IElementSet to copy from
      */
-    @SuppressWarnings("unchecked")
     public ElementSet(IElementSet source) {
         this(null, source.getCaption(), source.getDescription(),
                 source.getElementType(), source.getSpatialReferenceSystemWkt());
 
-        // can copy faster with some inside knowledge
+        // can copy faster with some inside knowledge, the elements and vertices are copied
+        // so that changing them does not change the source
         if (source instanceof ElementSet) {
-            elements = (ArrayList<Element>) ((ElementSet) source).elements.clone();
+            ArrayList<Element> sourceElements = ((ElementSet) source).elements;
+            hasZ = ((ElementSet) source).hasZ;
+            hasM = ((ElementSet) source).hasM;
+            elements.ensureCapacity(sourceElements.size());
+            for (Element sourceElement : sourceElements) {
+                Element element = new Element(sourceElement.getId());
+                for (Vertex vertex : sourceElement.getVertices()) {
+                    element.addVertex(new Vertex(vertex));
+                }
+                for (int f = 0; f < sourceElement.getFaceCount(); f++) {
+                    element.addFace(sourceElement.getFaceVertexIndices(f).clone());
+                }
+                addElement(element);
+            }
         } else {
+            hasZ = source.hasZ();
+            hasM = source.hasM();
             for (int i = 0; i < source.getElementCount(); i++) {
                 Element element = new Element(source.getElementId(i).getId());
                 for (int j = 0; j < source.getVertexCount(i); j++) {
                     double x = source.getVertexXCoordinate(i, j);
                     double y = source.getVertexYCoordinate(i, j);
-                    double z = source.getVertexZCoordinate(i, j);
-                    // TODO add checks and M property
-                    element.addVertex(new Vertex(x, y, z));
+                    double z = hasZ ? source.getVertexZCoordinate(i, j) : 0;
+                    double m = hasM ? source.getVertexMCoordinate(i, j) : 0;
+                    element.addVertex(new Vertex(x, y, z, m));
+                }
+                for (int f = 0; f < source.getFaceCount(i); f++) {
+                    element.addFace(source.getFaceVertexIndices(i, f));
                 }
                 addElement(element);
             }
@@ -141,7 +174,11 @@ public class ElementSet extends DescribableOmiObject implements IElementSet, Ser
         elements.clear();
         for (Element e : values) {
             elements.add(e);
+            e.setOwner(this);
         }
+        spatialIndex = null;
+        idIndex = null;
+        version++;
     }
 
 
@@ -162,6 +199,8 @@ public class ElementSet extends DescribableOmiObject implements IElementSet, Ser
      */
     public void setElementType(ElementType elementType) {
         this.elementType = elementType;
+        spatialIndex = null;
+        version++;
     }
 
 
@@ -235,30 +274,142 @@ public class ElementSet extends DescribableOmiObject implements IElementSet, Ser
 
 
     /**
-     * Returns the element index for a given element identifier.
+     * Returns the element index for a given element identifier. Elements are matched by id,
+     * through a hash index on the ids that is built on first use. When several elements have
+     * the same id the first one is returned. After changing the id of an element in the set,
+     * call invalidateElementIndex to have it found by its new id.
      *
      * @param elementId The identifier of the element
      * @return The index of the element with the specified identifier, -1 when not found
-     * @throws Exception when no match was found
      */
     @Override
     public int getElementIndex(IIdentifiable elementId) {
-        for (Element e : elements) {
-            if (elementId.equals(e.getIdentifier())) {
-                return elements.indexOf(e);
-            }
+        if (elementId == null) {
+            return -1;
         }
-        return -1;
+        return getElementIndex(getIdIndex(), elementId.getId());
     }
 
 
     /**
-     * Gets the version of the ElementSet.
+     * Returns the element indices for a list of element identifiers, in a single pass.
+     *
+     * @param elementIds The identifiers of the elements
+     * @return The index of the element for each identifier, -1 for those not found
+     */
+    public int[] getElementIndices(IIdentifiable[] elementIds) {
+        HashMap<String, Integer> index = getIdIndex();
+        int[] result = new int[elementIds.length];
+        for (int i = 0; i < elementIds.length; i++) {
+            result[i] = (elementIds[i] == null) ? -1 : getElementIndex(index, elementIds[i]
+                    .getId());
+        }
+        return result;
+    }
+
+
+    private int getElementIndex(HashMap<String, Integer> index, String id) {
+        Integer result = index.get(id);
+        if (result == null) {
+            return -1;
+        }
+        String current = elements.get(result).getId();
+        if ((id == null) ? (current != null) : !id.equals(current)) {
+            // the id of the element was changed after it was indexed
+            HashMap<String, Integer> rebuilt = buildIdIndex();
+            idIndex = rebuilt;
+            result = rebuilt.get(id);
+        }
+        return (result == null) ? -1 : result;
+    }
+
+
+    /**
+     * Discards the index on the element ids, it is rebuilt when it is needed again. The
+     * version is increased, as the ids of the elements have changed.
+     */
+    public void invalidateElementIndex() {
+        idIndex = null;
+        version++;
+    }
+
+
+    private HashMap<String, Integer> getIdIndex() {
+        HashMap<String, Integer> index = idIndex;
+        if (index == null) {
+            index = buildIdIndex();
+            idIndex = index;
+        }
+        return index;
+    }
+
+
+    private HashMap<String, Integer> buildIdIndex() {
+        HashMap<String, Integer> index = new HashMap<String, Integer>(2 * elements.size());
+        for (int i = elements.size() - 1; i >= 0; i--) {
+            // the first element with an id wins
+            index.put(elements.get(i).getId(), i);
+        }
+        return index;
+    }
+
+
+    /**
+     * Gets the version of the ElementSet, which increases with every change.
      *
      * @return Integer version number
      */
     public int getVersion() {
-        return 0;
+        return version;
+    }
+
+
+    /**
+     * Tells the element set that elements or vertices were changed directly, through the
+     * Vertices collection or the Identifier of an element. Increases the version and discards
+     * the indices.
+     */
+    public void elementsChanged() {
+        spatialIndex = null;
+        idIndex = null;
+        version++;
+    }
+
+
+    /**
+     * Changes the coordinates of a vertex.
+     *
+     * @param elementIndex Index for the element
+     * @param vertexIndex  Index for the vertex
+     * @param x            The X coordinate
+     * @param y            The Y coordinate
+     * @param z            The Z coordinate
+     * @param m            The M value
+     */
+    public void setVertexCoordinates(int elementIndex, int vertexIndex, double x, double y,
+                                     double z, double m) {
+        Vertex vertex = elements.get(elementIndex).getVertex(vertexIndex);
+        vertex.setX(x);
+        vertex.setY(y);
+        vertex.setZ(z);
+        vertex.setM(m);
+        spatialIndex = null;
+        version++;
+    }
+
+
+    /**
+     * Gets the fingerprint of the content of the element set (see ElementSetFingerprint). It
+     * is computed once per version.
+     *
+     * @return the fingerprint
+     */
+    public byte[] getFingerprint() {
+        if ((fingerprint == null) || (fingerprintVersion != version)) {
+            fingerprint = ElementSetFingerprint.compute(this);
+            fingerprintVersion = version;
+        }
+        return fingerprint.clone();
     }
 
 
@@ -292,6 +443,38 @@ public class ElementSet extends DescribableOmiObject implements IElementSet, Ser
      */
     public void addElement(Element element) {
         elements.add(element);
+        element.setOwner(this);
+        spatialIndex = null;
+        version++;
+        HashMap<String, Integer> index = idIndex;
+        if ((index != null) && !index.containsKey(element.getId())) {
+            index.put(element.getId(), elements.size() - 1);
+        }
+    }
+
+
+    /**
+     * Gets the spatial index on the elements, which is built on first use and rebuilt after
+     * the elements or their vertices have been changed.
+     *
+     * @return The spatial index
+     */
+    public SpatialIndex getSpatialIndex() {
+        SpatialIndex index = spatialIndex;
+        if ((index == null) || !index.isCurrent()) {
+            index = new SpatialIndex(this);
+            spatialIndex = index;
+        }
+        return index;
+    }
+
+
+    /**
+     * Discards the spatial index, it is rebuilt when it is needed again.
+     */
+    public void invalidateSpatialIndex() {
+        spatialIndex = null;
+        version++;
     }
 
 
@@ -304,9 +487,16 @@ public class ElementSet extends DescribableOmiObject implements IElementSet, Ser
             return false;
         }
         final ElementSet other = (ElementSet) obj;
+        if ((this.elements != null) && (other.elements != null) &&
+                (this.elements.size() != other.elements.size())) {
+            return false;
+        }
         if (this.elements != other.elements && (this.elements == null || !this.elements.equals(other.elements))) {
             return false;
         }
+        if (this.elementType != other.elementType) {
+            return false;
+        }
         if ((this.spatialReferenceSystemWkt == null) ? (other.spatialReferenceSystemWkt != null) : !this.spatialReferenceSystemWkt.equals(other.spatialReferenceSystemWkt)) {
             return false;
         }
@@ -334,20 +524,55 @@ public class ElementSet extends DescribableOmiObject implements IElementSet, Ser
     }
 
 
+    /**
+     * Sets whether the Z coordinates of the vertices are meaningful. Vertices always store a
+     * Z coordinate, this only changes what hasZ reports.
+     *
+     * @param hasZ true when the element set has Z coordinates
+     */
+    public void setHasZ(boolean hasZ) {
+        this.hasZ = hasZ;
+        version++;
+    }
+
+
+    /**
+     * Sets whether the M values of the vertices are meaningful. Vertices always store an M
+     * value, this only changes what hasM reports.
+     *
+     * @param hasM true when the element set has M values
+     */
+    public void setHasM(boolean hasM) {
+        this.hasM = hasM;
+        version++;
+    }
+
+
     public boolean hasSpatialDimension(SpatialDimension dim) {
-        throw new UnsupportedOperationException("Not supported yet.");
+        switch (dim) {
+            case X:
+            case Y:
+                return true;
+            case Z:
+                return hasZ;
+            case M:
+                return hasM;
+        }
+        return false;
     }
 
 
     public double getVertexCoordinate(int elementIndex, int vertexIndex, SpatialDimension dim) {
+        Vertex vertex = elements.get(elementIndex).getVertex(vertexIndex);
         switch (dim) {
             case X:
-                return elements.get(elementIndex).getVertex(vertexIndex).getX();
+                return vertex.getX();
             case Y:
-                return elements.get(elementIndex).getVertex(vertexIndex).getY();
+                return vertex.getY();
             case Z:
-                return elements.get(elementIndex).getVertex(vertexIndex).getZ();
-
+                return vertex.getZ();
+            case M:
+                return vertex.getM();
         }
         throw new UnsupportedOperationException("Spatial Dimension " + dim + " not supported yet.");
     }
@@ -355,37 +580,100 @@ public class ElementSet extends DescribableOmiObject implements IElementSet, Ser
 
     @Override
     public double getVertexMCoordinate(int elementIndex, int vertexIndex) {
-        return getVertexCoordinate(elementIndex, vertexIndex, SpatialDimension.M);
+        return elements.get(elementIndex).getVertex(vertexIndex).getM();
     }
 
 
     @Override
     public double getVertexXCoordinate(int elementIndex, int vertexIndex) {
-        return getVertexCoordinate(elementIndex, vertexIndex, SpatialDimension.X);
+        return elements.get(elementIndex).getVertex(vertexIndex).getX();
     }
 
 
     @Override
     public double getVertexYCoordinate(int elementIndex, int vertexIndex) {
-        return getVertexCoordinate(elementIndex, vertexIndex, SpatialDimension.Y);
+        return elements.get(elementIndex).getVertex(vertexIndex).getY();
     }
 
 
     @Override
     public double getVertexZCoordinate(int elementIndex, int vertexIndex) {
-        return getVertexCoordinate(elementIndex, vertexIndex, SpatialDimension.Z);
+        return elements.get(elementIndex).getVertex(vertexIndex).getZ();
     }
 
 
     @Override
     public boolean hasM() {
-        return hasSpatialDimension(SpatialDimension.M);
+        return hasM;
     }
 
 
     @Override
     public boolean hasZ() {
-        return hasSpatialDimension(SpatialDimension.Z);
+        return hasZ;
+    }
+
+
+    @Override
+    public int getVertexOffsets(int fromElement, int toElement, int[] offsets) {
+        int count = 0;
+        offsets[0] = 0;
+        for (int i = fromElement; i < toElement; i++) {
+            count += elements.get(i).getVertexCount();
+            offsets[i - fromElement + 1] = count;
+        }
+        return count;
+    }
+
+
+    @Override
+    public int getCoordinates(int fromElement, int toElement, SpatialDimension dimension,
+                              double[] target, int offset) {
+        int index = offset;
+        for (int i = fromElement; i < toElement; i++) {
+            Vertices vertices = elements.get(i).getVertices();
+            int count = vertices.size();
+            switch (dimension) {
+                case X:
+                    for (int j = 0; j < count; j++) {
+                        target[index++] = vertices.get(j).getX();
+                    }
+                    break;
+                case Y:
+                    for (int j = 0; j < count; j++) {
+                        target[index++] = vertices.get(j).getY();
+                    }
+                    break;
+                case Z:
+                    for (int j = 0; j < count; j++) {
+                        target[index++] = vertices.get(j).getZ();
+                    }
+                    break;
+                case M:
+                    for (int j = 0; j < count; j++) {
+                        target[index++] = vertices.get(j).getM();
+                    }
+                    break;
+            }
+        }
+        return index - offset;
+    }
+
+
+    @Override
+    public int getXYCoordinates(int fromElement, int toElement, double[] x, double[] y,
+                                int offset) {
+        int index = offset;
+        for (int i = fromElement; i < toElement; i++) {
+            Vertices vertices = elements.get(i).getVertices();
+            for (int j = 0, count = vertices.size(); j < count; j++) {
+                Vertex vertex = vertices.get(j);
+                x[index] = vertex.getX();
+                y[index] = vertex.getY();
+                index++;
+            }
+        }
+        return index - offset;
     }
 
 }
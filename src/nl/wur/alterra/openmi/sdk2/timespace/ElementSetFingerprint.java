@@ -0,0 +1,216 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import nl.wur.alterra.openmi.sdk2.backbone.OmiException;
+import org.openmi.standard2.timespace.IElementSet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * Computes a SHA-256 fingerprint of the content of an element set: the element type, the
+ * spatial reference system, and per element the id, the coordinates of the vertices and the
+ * faces. Element sets with the same fingerprint can be taken to have the same geometry, e.g.
+ * for reusing weights that were computed for it before.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public final class ElementSetFingerprint {
+
+    // fingerprint length in bytes
+    public static final int LENGTH = 32;
+
+    // messages
+    private static final String NO_DIGEST = "SHA-256 is not supported by this JVM.";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int CHUNK_ELEMENTS = 4096;
+
+
+    private ElementSetFingerprint() {
+        // utility class
+    }
+
+
+    /**
+     * Computes the fingerprint of an element set.
+     *
+     * @param elementSet to compute the fingerprint of
+     * @return the fingerprint, LENGTH bytes
+     */
+    public static byte[] compute(IElementSet elementSet) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new OmiException(NO_DIGEST, ex);
+        }
+
+        int count = elementSet.getElementCount();
+        boolean hasZ = elementSet.hasZ();
+        boolean hasM = elementSet.hasM();
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        buffer = putString(digest, buffer, String.valueOf(elementSet.getElementType()));
+        buffer.putInt(count);
+        buffer.put((byte) (hasZ ? 1 : 0));
+        buffer.put((byte) (hasM ? 1 : 0));
+        buffer = putString(digest, buffer, elementSet.getSpatialReferenceSystemWkt());
+
+        // coordinates are read in chunks of elements
+        int[] offsets = new int[CHUNK_ELEMENTS + 1];
+        double[] x = new double[0];
+        double[] y = new double[0];
+        double[] z = new double[0];
+        double[] m = new double[0];
+        for (int from = 0; from < count; from += CHUNK_ELEMENTS) {
+            int to = Math.min(count, from + CHUNK_ELEMENTS);
+            int total = getVertexOffsets(elementSet, from, to, offsets);
+            if (total > x.length) {
+                x = new double[total];
+                y = new double[total];
+                z = hasZ ? new double[total] : z;
+                m = hasM ? new double[total] : m;
+            }
+            getCoordinates(elementSet, from, to, offsets, x, y, z, m);
+
+            for (int i = from; i < to; i++) {
+                buffer = putString(digest, buffer, elementSet.getElementId(i).getId());
+                int start = offsets[i - from];
+                int end = offsets[i - from + 1];
+                buffer = ensureRemaining(digest, buffer, 4);
+                buffer.putInt(end - start);
+                for (int v = start; v < end; v++) {
+                    buffer = ensureRemaining(digest, buffer, 32);
+                    buffer.putDouble(x[v]);
+                    buffer.putDouble(y[v]);
+                    if (hasZ) {
+                        buffer.putDouble(z[v]);
+                    }
+                    if (hasM) {
+                        buffer.putDouble(m[v]);
+                    }
+                }
+                int faces = elementSet.getFaceCount(i);
+                buffer = ensureRemaining(digest, buffer, 4);
+                buffer.putInt(faces);
+                for (int f = 0; f < faces; f++) {
+                    int[] indices = elementSet.getFaceVertexIndices(i, f);
+                    buffer = ensureRemaining(digest, buffer, 4 * (indices.length + 1));
+                    buffer.putInt(indices.length);
+                    for (int index : indices) {
+                        buffer.putInt(index);
+                    }
+                }
+            }
+        }
+        buffer.flip();
+        digest.update(buffer);
+        return digest.digest();
+    }
+
+
+    /**
+     * Returns the fingerprint of an element set, the one cached by ElementSet and
+     * ColumnarElementSet for their current version, or else a newly computed one.
+     *
+     * @param elementSet to get the fingerprint of
+     * @return the fingerprint, LENGTH bytes
+     */
+    public static byte[] of(IElementSet elementSet) {
+        if (elementSet instanceof ElementSet) {
+            return ((ElementSet) elementSet).getFingerprint();
+        } else if (elementSet instanceof ColumnarElementSet) {
+            return ((ColumnarElementSet) elementSet).getFingerprint();
+        }
+        return compute(elementSet);
+    }
+
+
+    /**
+     * Returns the fingerprint as a string of hexadecimal digits.
+     *
+     * @param fingerprint to convert
+     * @return the hexadecimal string
+     */
+    public static String toHex(byte[] fingerprint) {
+        StringBuilder sb = new StringBuilder(2 * fingerprint.length);
+        for (byte b : fingerprint) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+
+    private static int getVertexOffsets(IElementSet elementSet, int from, int to,
+                                        int[] offsets) {
+        if (elementSet instanceof IElementGeometry) {
+            return ((IElementGeometry) elementSet).getVertexOffsets(from, to, offsets);
+        }
+        offsets[0] = 0;
+        for (int i = from; i < to; i++) {
+            offsets[i - from + 1] = offsets[i - from] + elementSet.getVertexCount(i);
+        }
+        return offsets[to - from];
+    }
+
+
+    private static void getCoordinates(IElementSet elementSet, int from, int to, int[] offsets,
+                                       double[] x, double[] y, double[] z, double[] m) {
+        if (elementSet instanceof IElementGeometry) {
+            IElementGeometry geometry = (IElementGeometry) elementSet;
+            geometry.getXYCoordinates(from, to, x, y, 0);
+            if (elementSet.hasZ()) {
+                geometry.getCoordinates(from, to, ElementSet.SpatialDimension.Z, z, 0);
+            }
+            if (elementSet.hasM()) {
+                geometry.getCoordinates(from, to, ElementSet.SpatialDimension.M, m, 0);
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                for (int v = offsets[i - from]; v < offsets[i - from + 1]; v++) {
+                    int j = v - offsets[i - from];
+                    x[v] = elementSet.getVertexXCoordinate(i, j);
+                    y[v] = elementSet.getVertexYCoordinate(i, j);
+                    if (elementSet.hasZ()) {
+                        z[v] = elementSet.getVertexZCoordinate(i, j);
+                    }
+                    if (elementSet.hasM()) {
+                        m[v] = elementSet.getVertexMCoordinate(i, j);
+                    }
+                }
+            }
+        }
+    }
+
+
+    private static ByteBuffer putString(MessageDigest digest, ByteBuffer buffer, String value) {
+        byte[] bytes = (value == null) ? new byte[0] : value.getBytes(UTF8);
+        buffer = ensureRemaining(digest, buffer, 5);
+        // null and empty strings differ
+        buffer.put((byte) ((value == null) ? 0 : 1));
+        buffer.putInt(bytes.length);
+        buffer.flip();
+        digest.update(buffer);
+        buffer.clear();
+        digest.update(bytes);
+        return buffer;
+    }
+
+
+    private static ByteBuffer ensureRemaining(MessageDigest digest, ByteBuffer buffer,
+                                              int count) {
+        if (buffer.remaining() < count) {
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+            if (buffer.capacity() < count) {
+                return ByteBuffer.allocate(count);
+            }
+        }
+        return buffer;
+    }
+
+}
@@ -0,0 +1,57 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import org.openmi.standard2.timespace.IElementSet;
+
+
+/**
+ * Element set that can copy the coordinates of a range of elements into arrays in one call,
+ * for adapters and indices that process all vertices. The vertices of the elements in the
+ * range are written one after the other, the vertex offsets tell where each element starts.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public interface IElementGeometry extends IElementSet {
+
+    /**
+     * Writes the offsets of the vertices of the elements fromElement (inclusive) to toElement
+     * (exclusive), relative to the first vertex of fromElement. The offsets array receives
+     * toElement - fromElement + 1 values, the last one is the number of vertices in the range.
+     *
+     * @param fromElement index of the first element
+     * @param toElement   index after the last element
+     * @param offsets     array to write the offsets to, starting at index 0
+     * @return the number of vertices in the range
+     */
+    int getVertexOffsets(int fromElement, int toElement, int[] offsets);
+
+
+    /**
+     * Writes one coordinate of all vertices of the elements fromElement (inclusive) to
+     * toElement (exclusive).
+     *
+     * @param fromElement index of the first element
+     * @param toElement   index after the last element
+     * @param dimension   the coordinate to write
+     * @param target      array to write the coordinates to
+     * @param offset      index in target of the first coordinate
+     * @return the number of coordinates written
+     * @throws UnsupportedOperationException when the element set does not store the dimension
+     */
+    int getCoordinates(int fromElement, int toElement, ElementSet.SpatialDimension dimension,
+                       double[] target, int offset);
+
+
+    /**
+     * Writes the X and Y coordinates of all vertices of the elements fromElement (inclusive)
+     * to toElement (exclusive).
+     *
+     * @param fromElement index of the first element
+     * @param toElement   index after the last element
+     * @param x           array to write the X coordinates to
+     * @param y           array to write the Y coordinates to
+     * @param offset      index in x and y of the first coordinates
+     * @return the number of vertices written
+     */
+    int getXYCoordinates(int fromElement, int toElement, double[] x, double[] y, int offset);
+
+}
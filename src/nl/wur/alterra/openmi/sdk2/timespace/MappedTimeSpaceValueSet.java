@@ -0,0 +1,599 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import nl.wur.alterra.openmi.sdk2.backbone.OmiException;
+import nl.wur.alterra.openmi.sdk2.backbone.OmiValueSet;
+import nl.wur.alterra.openmi.sdk2.extras.DirectBuffers;
+import org.openmi.standard2.timespace.ITimeSpaceValueSet;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * A time x element value set of doubles that is stored in a file and accessed through memory
+ * mapping, for histories that do not fit in memory. The file is divided in pages of whole
+ * time steps. Only a limited number of pages is mapped at any time, pages are mapped in on
+ * demand and the least recently used page is unmapped when the limit is reached.
+ * <p/>
+ * The value set grows along the time axis only: values can be set for existing time steps,
+ * and a new time step is added by setting values for the time index equal to the current
+ * number of time steps (or by appendElementValues). The number of elements is fixed.
+ * <p/>
+ * The file starts with a small header with the number of elements and time steps, so it can
+ * be opened again later with open(File). Call close() to write the header and release the
+ * mapped memory and the file. This class is not thread safe.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class MappedTimeSpaceValueSet extends OmiValueSet implements ITimeSpaceValueSet,
+        TimeSpaceLayout.Storage, Closeable {
+
+    // messages
+    private static final String FIXED_VALUE_TYPE = "The value type of a mapped value set can " +
+            "not be changed.";
+    private static final String INDEX_OUT_OF_BOUNDS = "Index %d is out of bounds for " +
+            "dimension %d with size %d.";
+    private static final String CLOSED = "Value set has been closed.";
+    private static final String IO_FAILED = "Could not access value set file %s.";
+    private static final String INVALID_FILE = "File %s is not a mapped time space value set.";
+
+    // file layout
+    private static final int MAGIC = 0x4F4D5453;
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int TIME_COUNT_POSITION = 16;
+
+    // defaults
+    public static final int DEFAULT_PAGE_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_MAX_MAPPED_PAGES = 16;
+
+    // fields
+    private File mFile;
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private MappedByteBuffer mHeader;
+    private ByteOrder mByteOrder;
+    private int mSpaceCapacity;
+    private int mTimeCount;
+    private int mPageTimeSteps;
+    private int mMaxMappedPages;
+    private LinkedHashMap<Integer, MappedByteBuffer> mMappedPages;
+    private int mLastPageIndex;
+    private DoubleBuffer mLastPage;
+
+
+    /**
+     * Creates a new, empty value set in the specified file with default page settings. An
+     * existing file is overwritten.
+     *
+     * @param file          to store the values in
+     * @param spaceCapacity number of elements
+     * @return the value set
+     */
+    public static MappedTimeSpaceValueSet newInstance(File file, int spaceCapacity) {
+        return new MappedTimeSpaceValueSet(file, spaceCapacity, DEFAULT_PAGE_SIZE,
+                DEFAULT_MAX_MAPPED_PAGES);
+    }
+
+
+    /**
+     * Opens a value set that was stored in the specified file before, with default page
+     * settings.
+     *
+     * @param file containing the values
+     * @return the value set
+     */
+    public static MappedTimeSpaceValueSet open(File file) {
+        return new MappedTimeSpaceValueSet(file, -1, DEFAULT_PAGE_SIZE, DEFAULT_MAX_MAPPED_PAGES);
+    }
+
+
+    /**
+     * Creates a value set stored in the specified file.
+     *
+     * @param file           to store the values in
+     * @param spaceCapacity  number of elements for a new file, or a negative number to open
+     *                       an existing file
+     * @param pageSize       size in bytes of the pages that are mapped in, rounded to whole
+     *                       time steps
+     * @param maxMappedPages maximum number of pages that is mapped at the same time
+     */
+    public MappedTimeSpaceValueSet(File file, int spaceCapacity, int pageSize,
+                                   int maxMappedPages) {
+        super();
+        super.setValueType(Double.class);
+
+        mFile = file;
+        mMaxMappedPages = Math.max(1, maxMappedPages);
+        mMappedPages = new LinkedHashMap<Integer, MappedByteBuffer>(16, 0.75f, true);
+        mLastPageIndex = -1;
+
+        try {
+            if (spaceCapacity >= 0) {
+                if (file.exists() && !file.delete()) {
+                    throw new IOException("Can not overwrite " + file);
+                }
+                mRandomAccessFile = new RandomAccessFile(file, "rw");
+                mChannel = mRandomAccessFile.getChannel();
+                mHeader = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                mByteOrder = ByteOrder.nativeOrder();
+                mSpaceCapacity = spaceCapacity;
+                mTimeCount = 0;
+                mHeader.putInt(0, MAGIC);
+                mHeader.putInt(4, FILE_VERSION);
+                mHeader.putInt(8, ByteOrder.LITTLE_ENDIAN.equals(mByteOrder) ? 1 : 0);
+                mHeader.putInt(12, mSpaceCapacity);
+                mHeader.putLong(TIME_COUNT_POSITION, mTimeCount);
+            } else {
+                mRandomAccessFile = new RandomAccessFile(file, "rw");
+                mChannel = mRandomAccessFile.getChannel();
+                if (mChannel.size() < HEADER_SIZE) {
+                    throw new OmiException(String.format(INVALID_FILE, file));
+                }
+                mHeader = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+                if ((mHeader.getInt(0) != MAGIC) || (mHeader.getInt(4) != FILE_VERSION)) {
+                    throw new OmiException(String.format(INVALID_FILE, file));
+                }
+                mByteOrder = (mHeader.getInt(8) == 1) ? ByteOrder.LITTLE_ENDIAN :
+                        ByteOrder.BIG_ENDIAN;
+                mSpaceCapacity = mHeader.getInt(12);
+                mTimeCount = (int) mHeader.getLong(TIME_COUNT_POSITION);
+            }
+        } catch (IOException ex) {
+            closeQuietly();
+            throw new OmiException(String.format(IO_FAILED, file), ex);
+        } catch (RuntimeException ex) {
+            closeQuietly();
+            throw ex;
+        }
+
+        int rowSize = Math.max(1, mSpaceCapacity) * 8;
+        mPageTimeSteps = Math.max(1, pageSize / rowSize);
+    }
+
+
+    public File getFile() {
+        return mFile;
+    }
+
+
+    public int getSpaceCapacity() {
+        return mSpaceCapacity;
+    }
+
+
+    /**
+     * Returns the current number of time steps.
+     *
+     * @return number of time steps
+     */
+    public int getTimeCount() {
+        return mTimeCount;
+    }
+
+
+    /**
+     * Returns the number of pages that is currently mapped in memory.
+     *
+     * @return number of mapped pages
+     */
+    public int getMappedPageCount() {
+        return mMappedPages.size();
+    }
+
+
+    @Override
+    public void setValueType(Type t) {
+        if (t != getValueType()) {
+            throw new UnsupportedOperationException(FIXED_VALUE_TYPE);
+        }
+    }
+
+
+    /**
+     * Removes all time steps and truncates the file.
+     */
+    @Override
+    public void clear() {
+        if (mChannel != null) {
+            unmapPages();
+            mTimeCount = 0;
+            mHeader.putLong(TIME_COUNT_POSITION, mTimeCount);
+            try {
+                mChannel.truncate(HEADER_SIZE);
+            } catch (IOException ex) {
+                throw new OmiException(String.format(IO_FAILED, mFile), ex);
+            }
+        }
+    }
+
+
+    /**
+     * Writes all changes to the file.
+     */
+    public void flush() {
+        checkOpen();
+        mHeader.force();
+        for (MappedByteBuffer page : mMappedPages.values()) {
+            page.force();
+        }
+    }
+
+
+    /**
+     * Writes the header, releases the mapped memory and closes the file. Has no effect when
+     * the value set is already closed.
+     */
+    @Override
+    public void close() {
+        if (mChannel != null) {
+            mHeader.putLong(TIME_COUNT_POSITION, mTimeCount);
+            flush();
+            unmapPages();
+            try {
+                // remove the unused part of the last page
+                mChannel.truncate(HEADER_SIZE + (long) mTimeCount * mSpaceCapacity * 8);
+            } catch (IOException ex) {
+                closeQuietly();
+                throw new OmiException(String.format(IO_FAILED, mFile), ex);
+            }
+            closeQuietly();
+        }
+    }
+
+
+    public boolean isClosed() {
+        return mChannel == null;
+    }
+
+
+    private void closeQuietly() {
+        unmapPages();
+        if (mHeader != null) {
+            DirectBuffers.release(mHeader);
+            mHeader = null;
+        }
+        try {
+            if (mRandomAccessFile != null) {
+                mRandomAccessFile.close();
+            }
+        } catch (IOException ex) {
+            // ignore, nothing more to release
+        }
+        mRandomAccessFile = null;
+        mChannel = null;
+    }
+
+
+    private void unmapPages() {
+        mLastPageIndex = -1;
+        mLastPage = null;
+        for (MappedByteBuffer page : mMappedPages.values()) {
+            page.force();
+            DirectBuffers.release(page);
+        }
+        mMappedPages.clear();
+    }
+
+
+    private void checkOpen() {
+        if (mChannel == null) {
+            throw new IllegalStateException(CLOSED);
+        }
+    }
+
+
+    /**
+     * Returns the mapped page that contains the specified time step, mapping it in when
+     * needed.
+     *
+     * @param pageIndex index of the page
+     * @return the values in the page
+     */
+    private DoubleBuffer page(int pageIndex) {
+        if (pageIndex == mLastPageIndex) {
+            return mLastPage;
+        }
+        checkOpen();
+
+        // the last page may have been used many times since it was looked up, make it the
+        // most recently used one before another page can be evicted
+        if (mLastPageIndex >= 0) {
+            mMappedPages.get(mLastPageIndex);
+        }
+        MappedByteBuffer page = mMappedPages.get(pageIndex);
+        if (page == null) {
+            if (mMappedPages.size() >= mMaxMappedPages) {
+                // unmap the least recently used page
+                Iterator<Map.Entry<Integer, MappedByteBuffer>> eldest = mMappedPages.entrySet()
+                        .iterator();
+                MappedByteBuffer evicted = eldest.next().getValue();
+                eldest.remove();
+                evicted.force();
+                DirectBuffers.release(evicted);
+            }
+            long rowSize = (long) mSpaceCapacity * 8;
+            long position = HEADER_SIZE + (long) pageIndex * mPageTimeSteps * rowSize;
+            try {
+                page = mChannel.map(FileChannel.MapMode.READ_WRITE, position,
+                        mPageTimeSteps * rowSize);
+            } catch (IOException ex) {
+                throw new OmiException(String.format(IO_FAILED, mFile), ex);
+            }
+            mMappedPages.put(pageIndex, page);
+        }
+
+        mLastPageIndex = pageIndex;
+        mLastPage = page.order(mByteOrder).asDoubleBuffer();
+        return mLastPage;
+    }
+
+
+    // for testing, true when the page is currently mapped
+    boolean isPageMapped(int pageIndex) {
+        return mMappedPages.containsKey(pageIndex);
+    }
+
+
+    private void checkIndices(int timeIndex, int elementIndex, boolean allowAppend) {
+        int timeLimit = allowAppend ? mTimeCount + 1 : mTimeCount;
+        if ((timeIndex < 0) || (timeIndex >= timeLimit)) {
+            throw new IndexOutOfBoundsException(String.format(INDEX_OUT_OF_BOUNDS, timeIndex, 0,
+                    mTimeCount));
+        }
+        if ((elementIndex < 0) || (elementIndex >= mSpaceCapacity)) {
+            throw new IndexOutOfBoundsException(String.format(INDEX_OUT_OF_BOUNDS, elementIndex,
+                    1, mSpaceCapacity));
+        }
+    }
+
+
+    private void checkArrayRange(int arrayLength, int offset, int count) {
+        if ((offset < 0) || (offset > arrayLength - count)) {
+            throw new IndexOutOfBoundsException(String.format(INDEX_OUT_OF_BOUNDS, offset, -1,
+                    arrayLength - count + 1));
+        }
+    }
+
+
+    private void growTo(int timeIndex) {
+        if (timeIndex == mTimeCount) {
+            mTimeCount++;
+            mHeader.putLong(TIME_COUNT_POSITION, mTimeCount);
+        }
+    }
+
+
+    public double getDouble(int timeIndex, int elementIndex) {
+        checkIndices(timeIndex, elementIndex, false);
+        return page(timeIndex / mPageTimeSteps).get(
+                (timeIndex % mPageTimeSteps) * mSpaceCapacity + elementIndex);
+    }
+
+
+    /**
+     * Sets a value. When the time index equals the number of time steps a new time step is
+     * added, with all other values zero.
+     *
+     * @param timeIndex    index of the time
+     * @param elementIndex index of the element
+     * @param value        to set
+     */
+    public void setDouble(int timeIndex, int elementIndex, double value) {
+        checkIndices(timeIndex, elementIndex, true);
+        page(timeIndex / mPageTimeSteps).put(
+                (timeIndex % mPageTimeSteps) * mSpaceCapacity + elementIndex, value);
+        growTo(timeIndex);
+    }
+
+
+    /**
+     * Adds a time step with the values of all elements copied from the source array.
+     *
+     * @param source       array to copy the values from
+     * @param sourceOffset position in the source array of the first value
+     * @return index of the new time step
+     */
+    public int appendElementValues(double[] source, int sourceOffset) {
+        int timeIndex = mTimeCount;
+        setElementValuesForTime(timeIndex, source, sourceOffset);
+        return timeIndex;
+    }
+
+
+    /**
+     * Copies the values of all elements for a time into the target array, using a single
+     * bulk copy from the mapped page.
+     *
+     * @param timeIndex    index of the time
+     * @param target       array to copy the values into
+     * @param targetOffset position in the target array of the first value
+     * @return number of values copied
+     */
+    public int getElementValuesForTime(int timeIndex, double[] target, int targetOffset) {
+        checkIndices(timeIndex, 0, false);
+        checkArrayRange(target.length, targetOffset, mSpaceCapacity);
+        DoubleBuffer page = page(timeIndex / mPageTimeSteps).duplicate();
+        page.position((timeIndex % mPageTimeSteps) * mSpaceCapacity);
+        page.get(target, targetOffset, mSpaceCapacity);
+        return mSpaceCapacity;
+    }
+
+
+    /**
+     * Copies values from the source array into the values of all elements for a time, using a
+     * single bulk copy into the mapped page. When the time index equals the number of time
+     * steps a new time step is added.
+     *
+     * @param timeIndex    index of the time
+     * @param source       array to copy the values from
+     * @param sourceOffset position in the source array of the first value
+     * @return number of values copied
+     */
+    public int setElementValuesForTime(int timeIndex, double[] source, int sourceOffset) {
+        checkIndices(timeIndex, 0, true);
+        checkArrayRange(source.length, sourceOffset, mSpaceCapacity);
+        DoubleBuffer page = page(timeIndex / mPageTimeSteps).duplicate();
+        page.position((timeIndex % mPageTimeSteps) * mSpaceCapacity);
+        page.put(source, sourceOffset, mSpaceCapacity);
+        growTo(timeIndex);
+        return mSpaceCapacity;
+    }
+
+
+    /**
+     * Copies the time series of an element into the target array.
+     *
+     * @param elementIndex index of the element
+     * @param target       array to copy the values into
+     * @param targetOffset position in the target array of the first value
+     * @return number of values copied
+     */
+    public int getTimeSeriesValuesForElement(int elementIndex, double[] target,
+                                             int targetOffset) {
+        checkArrayRange(target.length, targetOffset, mTimeCount);
+        for (int t = 0; t < mTimeCount; t++) {
+            target[targetOffset + t] = getDouble(t, elementIndex);
+        }
+        return mTimeCount;
+    }
+
+
+    /**
+     * Copies values from the source array into the time series of an element, for the
+     * existing time steps.
+     *
+     * @param elementIndex index of the element
+     * @param source       array to copy the values from
+     * @param sourceOffset position in the source array of the first value
+     * @return number of values copied
+     */
+    public int setTimeSeriesValuesForElement(int elementIndex, double[] source,
+                                             int sourceOffset) {
+        checkArrayRange(source.length, sourceOffset, mTimeCount);
+        for (int t = 0; t < mTimeCount; t++) {
+            setDouble(t, elementIndex, source[sourceOffset + t]);
+        }
+        return mTimeCount;
+    }
+
+
+    @Override
+    public int getNumberOfIndices() {
+        return 2;
+    }
+
+
+    @Override
+    public int getIndexCount(int[] indices) {
+        if ((indices == null) || (indices.length == 0)) {
+            return mTimeCount;
+        } else if ((indices.length == 1) && (indices[0] >= 0) && (indices[0] < mTimeCount)) {
+            return mSpaceCapacity;
+        }
+        return -1;
+    }
+
+
+    @Override
+    public Object getValue(int[] indices) {
+        if ((indices == null) || (indices.length != 2)) {
+            throw new IllegalArgumentException(INVALID_INDICES_SIZE);
+        }
+        return getDouble(indices[0], indices[1]);
+    }
+
+
+    @Override
+    public void setValue(int[] indices, Object value) {
+        if ((indices == null) || (indices.length != 2)) {
+            throw new IllegalArgumentException(INVALID_INDICES_SIZE);
+        }
+        setValue(indices[0], indices[1], value);
+    }
+
+
+    /**
+     * The page cache is not thread safe, so the operation is performed in the calling thread,
+     * in order of the indices.
+     */
+    @Override
+    public boolean performNodeOperationParallel(INodeOperation operation, ForkJoinPool pool) {
+        return performNodeOperation(operation);
+    }
+
+
+    @Override
+    public Object getValue(int timeIndex, int elementIndex) {
+        return getDouble(timeIndex, elementIndex);
+    }
+
+
+    @Override
+    public void setValue(int timeIndex, int elementIndex, Object value) {
+        if (!(value instanceof Double)) {
+            throw new IllegalArgumentException(INVALID_VALUE_TYPE);
+        }
+        setDouble(timeIndex, elementIndex, (Double) value);
+    }
+
+
+    // the raw lists are declared by ITimeSpaceValueSet
+    @SuppressWarnings("rawtypes")
+    @Override
+    public List<List> getValues2D() {
+        List<List> result = new ArrayList<List>(mTimeCount);
+        TimeSpaceLayout.getValues2D(this, mTimeCount, mSpaceCapacity, result);
+        return result;
+    }
+
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void setValues2D(List<List> values) {
+        clear();
+        TimeSpaceLayout.setValues2D(this, values);
+    }
+
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public List getTimeSeriesValuesForElement(int elementIndex) {
+        return TimeSpaceLayout.getTimeSeriesValuesForElement(this, elementIndex, mTimeCount);
+    }
+
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void setTimeSeriesValuesForElement(int elementIndex, List values) {
+        TimeSpaceLayout.setTimeSeriesValuesForElement(this, elementIndex, values);
+    }
+
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public List getElementValuesForTime(int timeIndex) {
+        return TimeSpaceLayout.getElementValuesForTime(this, timeIndex, mSpaceCapacity);
+    }
+
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void setElementValuesForTime(int timeIndex, List values) {
+        TimeSpaceLayout.setElementValuesForTime(this, timeIndex, values);
+    }
+
+}
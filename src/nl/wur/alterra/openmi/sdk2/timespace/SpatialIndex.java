@@ -0,0 +1,545 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import org.openmi.standard2.timespace.ElementType;
+import org.openmi.standard2.timespace.IElementSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+/**
+ * Read-only spatial index on the elements of an element set, for finding the elements in an
+ * area, the elements that contain a point and the elements nearest to a point without
+ * scanning all elements.
+ * <p/>
+ * The index is an R-tree that is bulk loaded with Sort-Tile-Recursive (STR) packing: the
+ * bounding boxes of the elements are sorted in vertical slices, then per slice from bottom to
+ * top, and packed in nodes of at most NODE_CAPACITY entries. The same is repeated for the
+ * nodes until a single root remains. All boxes are kept in flat arrays, one set per level.
+ * <p/>
+ * The index is built from the X and Y coordinates of the vertices. Elements without vertices
+ * (e.g. of ID based element sets) are not indexed. Changes made to the element set after the
+ * index was built are not seen by the index, isCurrent tells whether the version of the
+ * element set is still the one the index was built for.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class SpatialIndex {
+
+    // maximum number of entries in a node
+    public static final int NODE_CAPACITY = 16;
+
+    // fields
+    private final IElementSet elementSet;
+    private final int version;
+    private final ElementType elementType;
+    private final double[] elementBoxes;
+    private final int[] items;
+    private final List<double[]> levelBoxes;
+    private final List<int[]> levelChildStarts;
+    private final List<int[]> levelChildEnds;
+
+
+    /**
+     * An entry of the priority queue of a nearest neighbour search, either a node or an
+     * element.
+     */
+    private static final class Candidate {
+        private final double distance;
+        private final int level;
+        private final int index;
+
+
+        private Candidate(double distance, int level, int index) {
+            this.distance = distance;
+            this.level = level;
+            this.index = index;
+        }
+    }
+
+
+    /**
+     * Growable list of element indices.
+     */
+    private static final class Hits {
+        private int[] indices = new int[16];
+        private int size = 0;
+
+
+        private void add(int index) {
+            if (size == indices.length) {
+                indices = Arrays.copyOf(indices, 2 * size);
+            }
+            indices[size++] = index;
+        }
+
+
+        private int[] toSortedArray() {
+            int[] result = Arrays.copyOf(indices, size);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+
+
+    /**
+     * Builds the index for an element set.
+     *
+     * @param elementSet to index
+     */
+    public SpatialIndex(IElementSet elementSet) {
+        this.elementSet = elementSet;
+        this.version = elementSet.getVersion();
+        this.elementType = elementSet.getElementType();
+        this.levelBoxes = new ArrayList<double[]>();
+        this.levelChildStarts = new ArrayList<int[]>();
+        this.levelChildEnds = new ArrayList<int[]>();
+
+        // bounding boxes of the elements, elements without vertices are left out
+        int elementCount = elementSet.getElementCount();
+        elementBoxes = new double[4 * elementCount];
+        List<Integer> indexed = new ArrayList<Integer>();
+        if (elementSet instanceof IElementGeometry) {
+            // all coordinates in one pass over primitive arrays
+            IElementGeometry geometry = (IElementGeometry) elementSet;
+            int[] offsets = new int[elementCount + 1];
+            int total = geometry.getVertexOffsets(0, elementCount, offsets);
+            double[] xs = new double[total];
+            double[] ys = new double[total];
+            geometry.getXYCoordinates(0, elementCount, xs, ys, 0);
+            for (int i = 0; i < elementCount; i++) {
+                if (offsets[i + 1] > offsets[i]) {
+                    setBox(elementBoxes, i, xs, ys, offsets[i], offsets[i + 1]);
+                    indexed.add(i);
+                }
+            }
+        } else {
+            for (int i = 0; i < elementCount; i++) {
+                int vertexCount = elementSet.getVertexCount(i);
+                if (vertexCount > 0) {
+                    double[] xs = new double[vertexCount];
+                    double[] ys = new double[vertexCount];
+                    for (int j = 0; j < vertexCount; j++) {
+                        xs[j] = elementSet.getVertexXCoordinate(i, j);
+                        ys[j] = elementSet.getVertexYCoordinate(i, j);
+                    }
+                    setBox(elementBoxes, i, xs, ys, 0, vertexCount);
+                    indexed.add(i);
+                }
+            }
+        }
+
+        // leaves
+        items = new int[indexed.size()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = indexed.get(i);
+        }
+        int[] groups = pack(elementBoxes, items);
+        addLevel(elementBoxes, items, groups);
+
+        // upper levels
+        while (levelBoxes.get(levelBoxes.size() - 1).length > 4) {
+            int level = levelBoxes.size() - 1;
+            double[] boxes = levelBoxes.get(level);
+            int[] starts = levelChildStarts.get(level);
+            int[] ends = levelChildEnds.get(level);
+            int count = starts.length;
+
+            int[] nodeIds = new int[count];
+            for (int i = 0; i < count; i++) {
+                nodeIds[i] = i;
+            }
+            groups = pack(boxes, nodeIds);
+
+            // put the nodes of the level in packing order
+            double[] sortedBoxes = new double[boxes.length];
+            int[] sortedStarts = new int[count];
+            int[] sortedEnds = new int[count];
+            int[] positions = new int[count];
+            for (int i = 0; i < count; i++) {
+                int id = nodeIds[i];
+                System.arraycopy(boxes, 4 * id, sortedBoxes, 4 * i, 4);
+                sortedStarts[i] = starts[id];
+                sortedEnds[i] = ends[id];
+                positions[i] = i;
+            }
+            levelBoxes.set(level, sortedBoxes);
+            levelChildStarts.set(level, sortedStarts);
+            levelChildEnds.set(level, sortedEnds);
+            addLevel(sortedBoxes, positions, groups);
+        }
+    }
+
+
+    /**
+     * Orders the ids by sort-tile-recursive packing.
+     *
+     * @param boxes of the ids, four values per id
+     * @param ids   to order, in place
+     * @return start of each group of at most NODE_CAPACITY ids, followed by the number of ids
+     */
+    private static int[] pack(double[] boxes, int[] ids) {
+        int n = ids.length;
+        int leafCount = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceCount = (int) Math.ceil(Math.sqrt(leafCount));
+        int sliceSize = Math.max(1, sliceCount) * NODE_CAPACITY;
+
+        sortByCentre(boxes, ids, 0, n, 0);
+
+        int[] groups = new int[leafCount + sliceCount + 1];
+        int groupCount = 0;
+        for (int slice = 0; slice < n; slice += sliceSize) {
+            int sliceEnd = Math.min(slice + sliceSize, n);
+            sortByCentre(boxes, ids, slice, sliceEnd, 1);
+            for (int group = slice; group < sliceEnd; group += NODE_CAPACITY) {
+                groups[groupCount++] = group;
+            }
+        }
+        groups[groupCount++] = n;
+        return Arrays.copyOf(groups, groupCount);
+    }
+
+
+    /**
+     * Sorts a range of ids by the centre of their boxes, keeping the order of ids with the same
+     * centre. The ids are sorted through primitive long keys, holding the rank of the centre
+     * and the position of the id in the range.
+     *
+     * @param boxes of the ids, four values per id
+     * @param ids   to sort, in place
+     * @param from  first position of the range
+     * @param to    position after the range
+     * @param axis  0 to sort by X, 1 to sort by Y
+     */
+    private static void sortByCentre(double[] boxes, int[] ids, int from, int to, int axis) {
+        int n = to - from;
+        double[] centres = new double[n];
+        for (int i = 0; i < n; i++) {
+            int box = 4 * ids[from + i] + axis;
+            centres[i] = boxes[box] + boxes[box + 2];
+        }
+        double[] sorted = centres.clone();
+        Arrays.sort(sorted);
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = ((long) Arrays.binarySearch(sorted, centres[i]) << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] unsorted = Arrays.copyOfRange(ids, from, to);
+        for (int i = 0; i < n; i++) {
+            ids[from + i] = unsorted[(int) keys[i]];
+        }
+    }
+
+
+    /**
+     * Adds a level with a node for each group of children.
+     */
+    private void addLevel(double[] childBoxes, int[] children, int[] groups) {
+        int count = groups.length - 1;
+        double[] boxes = new double[4 * count];
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        for (int i = 0; i < count; i++) {
+            double minX = Double.POSITIVE_INFINITY;
+            double minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY;
+            double maxY = Double.NEGATIVE_INFINITY;
+            for (int j = groups[i]; j < groups[i + 1]; j++) {
+                int child = 4 * children[j];
+                minX = Math.min(minX, childBoxes[child]);
+                minY = Math.min(minY, childBoxes[child + 1]);
+                maxX = Math.max(maxX, childBoxes[child + 2]);
+                maxY = Math.max(maxY, childBoxes[child + 3]);
+            }
+            setBox(boxes, i, minX, minY, maxX, maxY);
+            starts[i] = groups[i];
+            ends[i] = groups[i + 1];
+        }
+        levelBoxes.add(boxes);
+        levelChildStarts.add(starts);
+        levelChildEnds.add(ends);
+    }
+
+
+    private static void setBox(double[] boxes, int i, double minX, double minY, double maxX,
+                               double maxY) {
+        boxes[4 * i] = minX;
+        boxes[4 * i + 1] = minY;
+        boxes[4 * i + 2] = maxX;
+        boxes[4 * i + 3] = maxY;
+    }
+
+
+    private static void setBox(double[] boxes, int i, double[] xs, double[] ys, int from,
+                               int to) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int j = from; j < to; j++) {
+            minX = Math.min(minX, xs[j]);
+            minY = Math.min(minY, ys[j]);
+            maxX = Math.max(maxX, xs[j]);
+            maxY = Math.max(maxY, ys[j]);
+        }
+        setBox(boxes, i, minX, minY, maxX, maxY);
+    }
+
+
+    public IElementSet getElementSet() {
+        return elementSet;
+    }
+
+
+    /**
+     * Returns the version of the element set the index was built for.
+     *
+     * @return version of the element set
+     */
+    public int getVersion() {
+        return version;
+    }
+
+
+    /**
+     * Returns true when the element set has not changed since the index was built, as far as
+     * its version tells.
+     *
+     * @return true when the index is up to date
+     */
+    public boolean isCurrent() {
+        return elementSet.getVersion() == version;
+    }
+
+
+    /**
+     * Returns the number of indexed elements, i.e. the elements that have vertices.
+     *
+     * @return number of elements in the index
+     */
+    public int size() {
+        return items.length;
+    }
+
+
+    /**
+     * Returns the number of levels of the tree, including the leaves.
+     *
+     * @return the height of the tree
+     */
+    public int getHeight() {
+        return (items.length == 0) ? 0 : levelBoxes.size();
+    }
+
+
+    /**
+     * Gets the bounding box of an element.
+     *
+     * @param elementIndex of the element
+     * @param box          array of at least four values to store minX, minY, maxX, maxY in
+     */
+    public void getBoundingBox(int elementIndex, double[] box) {
+        System.arraycopy(elementBoxes, 4 * elementIndex, box, 0, 4);
+    }
+
+
+    /**
+     * Returns the indices of the elements whose bounding box intersects the specified box.
+     *
+     * @param minX of the box
+     * @param minY of the box
+     * @param maxX of the box
+     * @param maxY of the box
+     * @return the element indices, in ascending order
+     */
+    public int[] query(double minX, double minY, double maxX, double maxY) {
+        Hits hits = new Hits();
+        if (items.length > 0) {
+            int top = levelBoxes.size() - 1;
+            int count = levelChildStarts.get(top).length;
+            for (int i = 0; i < count; i++) {
+                query(top, i, minX, minY, maxX, maxY, hits);
+            }
+        }
+        return hits.toSortedArray();
+    }
+
+
+    private void query(int level, int node, double minX, double minY, double maxX,
+                       double maxY, Hits hits) {
+        if (!intersects(levelBoxes.get(level), node, minX, minY, maxX, maxY)) {
+            return;
+        }
+        int start = levelChildStarts.get(level)[node];
+        int end = levelChildEnds.get(level)[node];
+        if (level == 0) {
+            for (int i = start; i < end; i++) {
+                if (intersects(elementBoxes, items[i], minX, minY, maxX, maxY)) {
+                    hits.add(items[i]);
+                }
+            }
+        } else {
+            for (int i = start; i < end; i++) {
+                query(level - 1, i, minX, minY, maxX, maxY, hits);
+            }
+        }
+    }
+
+
+    private static boolean intersects(double[] boxes, int i, double minX, double minY,
+                                      double maxX, double maxY) {
+        return (boxes[4 * i] <= maxX) && (boxes[4 * i + 2] >= minX) &&
+                (boxes[4 * i + 1] <= maxY) && (boxes[4 * i + 3] >= minY);
+    }
+
+
+    /**
+     * Returns the indices of the elements that contain the specified point. For polygons the
+     * point has to lie inside the polygon (or on its boundary), for points the coordinates
+     * have to be the same, for all other element types the point has to lie in the bounding
+     * box of the element.
+     *
+     * @param x coordinate of the point
+     * @param y coordinate of the point
+     * @return the element indices, in ascending order
+     */
+    public int[] findContaining(double x, double y) {
+        int[] candidates = query(x, y, x, y);
+        int count = 0;
+        for (int candidate : candidates) {
+            if (contains(candidate, x, y)) {
+                candidates[count++] = candidate;
+            }
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+
+    private boolean contains(int element, double x, double y) {
+        if (elementType == ElementType.POLYGON) {
+            return getDistance(element, x, y) == 0.0;
+        }
+        // within the bounding box, for points the box is the point itself
+        return true;
+    }
+
+
+    /**
+     * Returns the indices of the k elements nearest to the specified point. The distance to
+     * a point element is the distance between the points, to a polyline element the distance
+     * to the nearest segment and to a polygon element zero when the point lies inside it and
+     * the distance to the nearest edge otherwise. For all other element types the distance to
+     * the bounding box is used.
+     *
+     * @param x coordinate of the point
+     * @param y coordinate of the point
+     * @param k maximum number of elements to return
+     * @return the element indices, nearest first
+     */
+    public int[] findNearest(double x, double y, int k) {
+        Hits hits = new Hits();
+        if ((items.length == 0) || (k <= 0)) {
+            return new int[0];
+        }
+
+        PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>(64,
+                new Comparator<Candidate>() {
+                    @Override
+                    public int compare(Candidate a, Candidate b) {
+                        return Double.compare(a.distance, b.distance);
+                    }
+                });
+        int top = levelBoxes.size() - 1;
+        for (int i = 0; i < levelChildStarts.get(top).length; i++) {
+            queue.add(new Candidate(getBoxDistance(levelBoxes.get(top), i, x, y), top, i));
+        }
+
+        // nodes are expanded in order of distance, elements (level -1) are found in order
+        while (!queue.isEmpty() && (hits.size < k)) {
+            Candidate candidate = queue.poll();
+            if (candidate.level < 0) {
+                hits.add(candidate.index);
+            } else {
+                int start = levelChildStarts.get(candidate.level)[candidate.index];
+                int end = levelChildEnds.get(candidate.level)[candidate.index];
+                for (int i = start; i < end; i++) {
+                    if (candidate.level == 0) {
+                        queue.add(new Candidate(getDistance(items[i], x, y), -1, items[i]));
+                    } else {
+                        int level = candidate.level - 1;
+                        queue.add(new Candidate(getBoxDistance(levelBoxes.get(level), i, x,
+                                y), level, i));
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(hits.indices, hits.size);
+    }
+
+
+    private static double getBoxDistance(double[] boxes, int i, double x, double y) {
+        double dx = Math.max(0.0, Math.max(boxes[4 * i] - x, x - boxes[4 * i + 2]));
+        double dy = Math.max(0.0, Math.max(boxes[4 * i + 1] - y, y - boxes[4 * i + 3]));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+
+    /**
+     * Returns the distance from a point to an element, see findNearest.
+     *
+     * @param element index of the element
+     * @param x       coordinate of the point
+     * @param y       coordinate of the point
+     * @return the distance
+     */
+    public double getDistance(int element, double x, double y) {
+        int n = elementSet.getVertexCount(element);
+        if ((n == 1) || (elementType == ElementType.POINT)) {
+            double dx = elementSet.getVertexXCoordinate(element, 0) - x;
+            double dy = elementSet.getVertexYCoordinate(element, 0) - y;
+            return Math.sqrt(dx * dx + dy * dy);
+        }
+        if ((elementType != ElementType.POLYLINE) && (elementType != ElementType.POLYGON)) {
+            return getBoxDistance(elementBoxes, element, x, y);
+        }
+
+        boolean polygon = (elementType == ElementType.POLYGON);
+        boolean inside = false;
+        double min = Double.POSITIVE_INFINITY;
+        int segments = polygon ? n : n - 1;
+        for (int j = 0; j < segments; j++) {
+            int next = (j + 1) % n;
+            double x1 = elementSet.getVertexXCoordinate(element, j);
+            double y1 = elementSet.getVertexYCoordinate(element, j);
+            double x2 = elementSet.getVertexXCoordinate(element, next);
+            double y2 = elementSet.getVertexYCoordinate(element, next);
+            min = Math.min(min, getSegmentDistance(x, y, x1, y1, x2, y2));
+
+            // ray casting to the right of the point
+            if (polygon && ((y1 > y) != (y2 > y)) &&
+                    (x < (x2 - x1) * (y - y1) / (y2 - y1) + x1)) {
+                inside = !inside;
+            }
+        }
+        return inside ? 0.0 : min;
+    }
+
+
+    private static double getSegmentDistance(double x, double y, double x1, double y1,
+                                             double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = (lengthSquared == 0.0) ? 0.0 : ((x - x1) * dx + (y - y1) * dy) /
+                lengthSquared;
+        t = Math.max(0.0, Math.min(1.0, t));
+        double px = x1 + t * dx - x;
+        double py = y1 + t * dy - y;
+        return Math.sqrt(px * px + py * py);
+    }
+
+}
@@ -0,0 +1,369 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import org.openmi.standard2.timespace.ElementType;
+import org.openmi.standard2.timespace.IElementSet;
+
+import java.util.Arrays;
+
+
+/**
+ * Computes the weights for mapping values from the elements of a source element set to the
+ * elements of a target element set, as a WeightMatrix with a row for every target element and
+ * a column for every source element. Candidate source elements are found through a
+ * SpatialIndex on the source.
+ * <p/>
+ * Targets are represented by the mean of their vertices for the point based methods. Target
+ * elements that no source element maps to get an empty row.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public final class SpatialMapping {
+
+    // messages
+    private static final String NO_GEOMETRY = "Spatial mapping needs element sets with " +
+            "vertices, not %s.";
+    private static final String NOT_POLYGONS = "Area weighted mapping needs polygon element " +
+            "sets, not %s.";
+    private static final String INVALID_NEIGHBOURS = "Number of neighbours must be at least 1.";
+
+
+    /**
+     * The ways of computing the weights.
+     */
+    public enum Method {
+        /**
+         * Every target element takes the value of the nearest source element.
+         */
+        NEAREST_NEIGHBOUR,
+        /**
+         * Every target element takes the inverse distance weighted mean of the values of the
+         * nearest source elements.
+         */
+        INVERSE_DISTANCE,
+        /**
+         * Every target polygon takes the mean of the values of the source polygons that
+         * overlap it, weighted by the area of overlap. Target polygons must be convex.
+         */
+        AREA_WEIGHTED
+    }
+
+
+    private SpatialMapping() {
+        // utility class
+    }
+
+
+    /**
+     * Computes the weights with the specified method, using the default number of neighbours
+     * (4) and power (2) for inverse distance weighting.
+     *
+     * @param method to compute the weights with
+     * @param source element set the values are on
+     * @param target element set to map the values to
+     * @return the weights
+     */
+    public static WeightMatrix computeWeights(Method method, IElementSet source,
+                                              IElementSet target) {
+        switch (method) {
+            case NEAREST_NEIGHBOUR:
+                return nearestNeighbour(source, target);
+            case INVERSE_DISTANCE:
+                return inverseDistance(source, target, 4, 2.0);
+            default:
+                return areaWeighted(source, target);
+        }
+    }
+
+
+    /**
+     * Computes nearest neighbour weights: a single weight of 1 per target element.
+     *
+     * @param source element set the values are on
+     * @param target element set to map the values to
+     * @return the weights
+     */
+    public static WeightMatrix nearestNeighbour(IElementSet source, IElementSet target) {
+        return inverseDistance(source, target, 1, 0.0);
+    }
+
+
+    /**
+     * Computes inverse distance weights: per target element the neighbours nearest source
+     * elements, weighted by 1 / distance ^ power. Source elements at distance zero, e.g.
+     * polygons that contain the target, share all weight.
+     *
+     * @param source     element set the values are on
+     * @param target     element set to map the values to
+     * @param neighbours number of source elements per target element
+     * @param power      of the distance
+     * @return the weights
+     */
+    public static WeightMatrix inverseDistance(IElementSet source, IElementSet target,
+                                               int neighbours, double power) {
+        if (neighbours < 1) {
+            throw new IllegalArgumentException(INVALID_NEIGHBOURS);
+        }
+        checkGeometry(source);
+        checkGeometry(target);
+
+        SpatialIndex index = getSpatialIndex(source);
+        Geometry targets = new Geometry(target);
+        WeightMatrix result = new WeightMatrix(targets.count, source.getElementCount());
+        int[] columns = new int[neighbours];
+        double[] weights = new double[neighbours];
+        for (int j = 0; j < targets.count; j++) {
+            int start = targets.offsets[j];
+            int end = targets.offsets[j + 1];
+            if (start == end) {
+                result.addRow(columns, weights, 0);
+                continue;
+            }
+            double x = 0;
+            double y = 0;
+            for (int v = start; v < end; v++) {
+                x += targets.x[v];
+                y += targets.y[v];
+            }
+            x /= (end - start);
+            y /= (end - start);
+
+            int[] nearest = index.findNearest(x, y, neighbours);
+            int count = 0;
+            int zeros = 0;
+            double sum = 0;
+            for (int n = 0; n < nearest.length; n++) {
+                double distance = index.getDistance(nearest[n], x, y);
+                if (distance == 0) {
+                    // a match, only matches share the weight
+                    if (zeros == 0) {
+                        count = 0;
+                        sum = 0;
+                    }
+                    columns[count] = nearest[n];
+                    weights[count] = 1;
+                    zeros++;
+                    count++;
+                    sum++;
+                } else if (zeros == 0) {
+                    columns[count] = nearest[n];
+                    weights[count] = 1 / Math.pow(distance, power);
+                    sum += weights[count];
+                    count++;
+                }
+            }
+            for (int n = 0; n < count; n++) {
+                weights[n] /= sum;
+            }
+            result.addRow(columns, weights, count);
+        }
+        result.trimToSize();
+        return result;
+    }
+
+
+    /**
+     * Computes area weights: per target polygon the source polygons that overlap it, weighted
+     * by the fraction of the covered area of the target that they overlap. The overlaps are
+     * found by clipping the source polygons with the target polygon, so target polygons must
+     * be convex; source polygons can be any simple polygon.
+     *
+     * @param source polygons the values are on
+     * @param target polygons to map the values to
+     * @return the weights
+     */
+    public static WeightMatrix areaWeighted(IElementSet source, IElementSet target) {
+        if (source.getElementType() != ElementType.POLYGON) {
+            throw new IllegalArgumentException(String.format(NOT_POLYGONS,
+                    source.getElementType()));
+        }
+        if (target.getElementType() != ElementType.POLYGON) {
+            throw new IllegalArgumentException(String.format(NOT_POLYGONS,
+                    target.getElementType()));
+        }
+
+        SpatialIndex index = getSpatialIndex(source);
+        Geometry sources = new Geometry(source);
+        Geometry targets = new Geometry(target);
+        WeightMatrix result = new WeightMatrix(targets.count, sources.count);
+        int[] columns = new int[16];
+        double[] weights = new double[16];
+        Clipper clipper = new Clipper();
+        for (int j = 0; j < targets.count; j++) {
+            int start = targets.offsets[j];
+            int end = targets.offsets[j + 1];
+            int count = 0;
+            double sum = 0;
+            if (end - start >= 3) {
+                double minX = Double.POSITIVE_INFINITY;
+                double minY = Double.POSITIVE_INFINITY;
+                double maxX = Double.NEGATIVE_INFINITY;
+                double maxY = Double.NEGATIVE_INFINITY;
+                for (int v = start; v < end; v++) {
+                    minX = Math.min(minX, targets.x[v]);
+                    minY = Math.min(minY, targets.y[v]);
+                    maxX = Math.max(maxX, targets.x[v]);
+                    maxY = Math.max(maxY, targets.y[v]);
+                }
+                for (int i : index.query(minX, minY, maxX, maxY)) {
+                    double area = clipper.overlap(sources, i, targets, j);
+                    if (area > 0) {
+                        if (count == columns.length) {
+                            columns = Arrays.copyOf(columns, 2 * count);
+                            weights = Arrays.copyOf(weights, 2 * count);
+                        }
+                        columns[count] = i;
+                        weights[count] = area;
+                        sum += area;
+                        count++;
+                    }
+                }
+            }
+            for (int n = 0; n < count; n++) {
+                weights[n] /= sum;
+            }
+            result.addRow(columns, weights, count);
+        }
+        result.trimToSize();
+        return result;
+    }
+
+
+    private static void checkGeometry(IElementSet elementSet) {
+        if (elementSet.getElementType() == ElementType.ID_BASED) {
+            throw new IllegalArgumentException(String.format(NO_GEOMETRY,
+                    elementSet.getElementType()));
+        }
+    }
+
+
+    private static SpatialIndex getSpatialIndex(IElementSet elementSet) {
+        if (elementSet instanceof ElementSet) {
+            return ((ElementSet) elementSet).getSpatialIndex();
+        } else if (elementSet instanceof ColumnarElementSet) {
+            return ((ColumnarElementSet) elementSet).getSpatialIndex();
+        }
+        return new SpatialIndex(elementSet);
+    }
+
+
+    /**
+     * The X and Y coordinates of all vertices of an element set in flat arrays.
+     */
+    private static final class Geometry {
+        private final int count;
+        private final int[] offsets;
+        private final double[] x;
+        private final double[] y;
+
+
+        private Geometry(IElementSet elementSet) {
+            count = elementSet.getElementCount();
+            offsets = new int[count + 1];
+            if (elementSet instanceof IElementGeometry) {
+                IElementGeometry geometry = (IElementGeometry) elementSet;
+                int total = geometry.getVertexOffsets(0, count, offsets);
+                x = new double[total];
+                y = new double[total];
+                geometry.getXYCoordinates(0, count, x, y, 0);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    offsets[i + 1] = offsets[i] + elementSet.getVertexCount(i);
+                }
+                x = new double[offsets[count]];
+                y = new double[offsets[count]];
+                for (int i = 0; i < count; i++) {
+                    for (int v = offsets[i]; v < offsets[i + 1]; v++) {
+                        x[v] = elementSet.getVertexXCoordinate(i, v - offsets[i]);
+                        y[v] = elementSet.getVertexYCoordinate(i, v - offsets[i]);
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Sutherland-Hodgman clipping of a polygon with a convex polygon, reusing its buffers.
+     */
+    private static final class Clipper {
+        private double[] inX = new double[32];
+        private double[] inY = new double[32];
+        private double[] outX = new double[32];
+        private double[] outY = new double[32];
+
+
+        private double overlap(Geometry subject, int s, Geometry clip, int c) {
+            int n = subject.offsets[s + 1] - subject.offsets[s];
+            if (n < 3) {
+                return 0;
+            }
+            ensureCapacity(n);
+            System.arraycopy(subject.x, subject.offsets[s], inX, 0, n);
+            System.arraycopy(subject.y, subject.offsets[s], inY, 0, n);
+
+            int start = clip.offsets[c];
+            int end = clip.offsets[c + 1];
+            double orientation = Math.signum(area(clip.x, clip.y, start, end));
+            for (int e = start; (e < end) && (n > 0); e++) {
+                int next = (e + 1 < end) ? e + 1 : start;
+                double ax = clip.x[e];
+                double ay = clip.y[e];
+                double dx = clip.x[next] - ax;
+                double dy = clip.y[next] - ay;
+                ensureCapacity(2 * n);
+                int m = 0;
+                for (int i = 0; i < n; i++) {
+                    int j = (i + 1 < n) ? i + 1 : 0;
+                    double si = orientation * (dx * (inY[i] - ay) - dy * (inX[i] - ax));
+                    double sj = orientation * (dx * (inY[j] - ay) - dy * (inX[j] - ax));
+                    if (si >= 0) {
+                        outX[m] = inX[i];
+                        outY[m] = inY[i];
+                        m++;
+                    }
+                    if ((si >= 0) != (sj >= 0)) {
+                        double t = si / (si - sj);
+                        outX[m] = inX[i] + t * (inX[j] - inX[i]);
+                        outY[m] = inY[i] + t * (inY[j] - inY[i]);
+                        m++;
+                    }
+                }
+                double[] swap = inX;
+                inX = outX;
+                outX = swap;
+                swap = inY;
+                inY = outY;
+                outY = swap;
+                n = m;
+            }
+            return (n < 3) ? 0 : Math.abs(area(inX, inY, 0, n));
+        }
+
+
+        private void ensureCapacity(int n) {
+            if (n > inX.length) {
+                inX = Arrays.copyOf(inX, n);
+                inY = Arrays.copyOf(inY, n);
+                outX = new double[n];
+                outY = new double[n];
+            } else if (n > outX.length) {
+                outX = new double[n];
+                outY = new double[n];
+            }
+        }
+    }
+
+
+    /**
+     * Returns the signed area of a polygon, positive when counter clockwise.
+     */
+    private static double area(double[] x, double[] y, int start, int end) {
+        double sum = 0;
+        for (int i = start; i < end; i++) {
+            int next = (i + 1 < end) ? i + 1 : start;
+            sum += x[i] * y[next] - x[next] * y[i];
+        }
+        return sum / 2;
+    }
+
+}
@@ -0,0 +1,232 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import nl.wur.alterra.openmi.sdk2.backbone.Argument;
+import nl.wur.alterra.openmi.sdk2.backbone.BaseAdaptedOutput;
+import nl.wur.alterra.openmi.sdk2.backbone.DoubleValueSet;
+import org.openmi.standard2.IArgument;
+import org.openmi.standard2.IBaseLinkableComponent;
+import org.openmi.standard2.IBaseOutput;
+import org.openmi.standard2.IBaseValueSet;
+import org.openmi.standard2.IValueDefinition;
+import org.openmi.standard2.timespace.IElementSet;
+import org.openmi.standard2.timespace.ISpatialDefinition;
+import org.openmi.standard2.timespace.ITimeSpaceExchangeItem;
+
+
+/**
+ * Adapted output that maps the values of its adaptee from the source element set to a target
+ * element set (regridding). The weights are computed once by SpatialMapping and kept as a
+ * WeightMatrix, so a refresh is a sparse matrix-vector product for every time. The weights are
+ * recomputed only when another method or element set is used, or when the version of one of
+ * the element sets changes. With a WeightMatrixStore the weights are also kept on disk, for
+ * reuse in later runs.
+ * <p/>
+ * The adaptee values must be doubles (or Numbers) with one index for the elements, or two
+ * indices for time and elements. The source element set is taken from the spatial definition
+ * of the adaptee unless it is set explicitly.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class SpatialMappingAdaptedOutput extends BaseAdaptedOutput {
+
+    public static final String ARG_METHOD = "method";
+
+    // messages
+    private static final String NO_SOURCE = "The adaptee of %s has no element set.";
+    private static final String NO_TARGET = "No target element set for %s.";
+    private static final String VALUES_MISMATCH = "Adaptee has values for %d elements, the " +
+            "source element set has %d elements.";
+    private static final String UNSUPPORTED_VALUES = "Can only map values with one or two " +
+            "indices, not %d.";
+
+    // fields
+    private IArgument methodArg;
+    private SpatialMapping.Method method;
+    private IElementSet sourceElementSet;
+    private IElementSet targetElementSet;
+    private WeightMatrixStore weightMatrixStore;
+    private WeightMatrix weights;
+    private SpatialMapping.Method weightsMethod;
+    private IElementSet weightsSource;
+    private IElementSet weightsTarget;
+    private int weightsSourceVersion;
+    private int weightsTargetVersion;
+
+
+    public SpatialMappingAdaptedOutput() {
+        this(null, null, SpatialMapping.Method.NEAREST_NEIGHBOUR, null);
+    }
+
+
+    /**
+     * Creates an instance.
+     *
+     * @param owner            the owner
+     * @param valueDef         the value definition
+     * @param method           to compute the weights with
+     * @param targetElementSet element set to map the values to
+     */
+    public SpatialMappingAdaptedOutput(IBaseLinkableComponent owner, IValueDefinition valueDef,
+                                       SpatialMapping.Method method,
+                                       IElementSet targetElementSet) {
+        super(owner, valueDef, null);
+        setCaption("spatial_mapping_adapted_output");
+        this.method = method;
+        this.targetElementSet = targetElementSet;
+        methodArg = Argument.newInstance(ARG_METHOD, "method", "Spatial mapping method, one " +
+                "of NEAREST_NEIGHBOUR, INVERSE_DISTANCE and AREA_WEIGHTED.", method.name(),
+                true, false);
+        addArgument(methodArg);
+    }
+
+
+    @Override
+    public void initialize() {
+        Object value = methodArg.getValue();
+        if (value != null) {
+            method = SpatialMapping.Method.valueOf(value.toString());
+        }
+        super.initialize();
+    }
+
+
+    public SpatialMapping.Method getMethod() {
+        return method;
+    }
+
+
+    public void setMethod(SpatialMapping.Method method) {
+        this.method = method;
+        methodArg.setValue(method.name());
+    }
+
+
+    /**
+     * Gets the source element set, the one set explicitly or else the one of the adaptee.
+     *
+     * @return the source element set, null when unknown
+     */
+    public IElementSet getSourceElementSet() {
+        if (sourceElementSet != null) {
+            return sourceElementSet;
+        }
+        IBaseOutput adaptee = getAdaptee();
+        if (adaptee instanceof ITimeSpaceExchangeItem) {
+            ISpatialDefinition definition = ((ITimeSpaceExchangeItem) adaptee)
+                    .getSpatialDefinition();
+            if (definition instanceof IElementSet) {
+                return (IElementSet) definition;
+            }
+        }
+        return null;
+    }
+
+
+    public void setSourceElementSet(IElementSet sourceElementSet) {
+        this.sourceElementSet = sourceElementSet;
+    }
+
+
+    public IElementSet getTargetElementSet() {
+        return targetElementSet;
+    }
+
+
+    public void setTargetElementSet(IElementSet targetElementSet) {
+        this.targetElementSet = targetElementSet;
+    }
+
+
+    public WeightMatrixStore getWeightMatrixStore() {
+        return weightMatrixStore;
+    }
+
+
+    /**
+     * Sets the store to get the weights from, null to always compute them.
+     *
+     * @param weightMatrixStore to get the weights from
+     */
+    public void setWeightMatrixStore(WeightMatrixStore weightMatrixStore) {
+        this.weightMatrixStore = weightMatrixStore;
+    }
+
+
+    /**
+     * Gets the weights for the current method and element sets, computing them when they
+     * are not available yet or out of date.
+     *
+     * @return the weights
+     */
+    public WeightMatrix getWeights() {
+        IElementSet source = getSourceElementSet();
+        if (source == null) {
+            throw new IllegalStateException(String.format(NO_SOURCE, getCaption()));
+        }
+        if (targetElementSet == null) {
+            throw new IllegalStateException(String.format(NO_TARGET, getCaption()));
+        }
+        if ((weights == null) || (weightsMethod != method) || (weightsSource != source) ||
+                (weightsTarget != targetElementSet) ||
+                (weightsSourceVersion != source.getVersion()) ||
+                (weightsTargetVersion != targetElementSet.getVersion())) {
+            weights = (weightMatrixStore != null) ? weightMatrixStore.getWeights(method, source,
+                    targetElementSet) : SpatialMapping.computeWeights(method, source,
+                    targetElementSet);
+            weightsMethod = method;
+            weightsSource = source;
+            weightsTarget = targetElementSet;
+            weightsSourceVersion = source.getVersion();
+            weightsTargetVersion = targetElementSet.getVersion();
+        }
+        return weights;
+    }
+
+
+    @Override
+    public void refresh() {
+        IBaseOutput adaptee = getAdaptee();
+        IBaseValueSet values = (adaptee == null) ? null : adaptee.getValues();
+        valueSet = (values == null) ? null : map(values, getWeights());
+        super.refresh();
+    }
+
+
+    private static IBaseValueSet map(IBaseValueSet values, WeightMatrix matrix) {
+        int indices = values.getNumberOfIndices();
+        if ((indices != 1) && (indices != 2)) {
+            throw new IllegalStateException(String.format(UNSUPPORTED_VALUES, indices));
+        }
+        int times = (indices == 1) ? 1 : values.getIndexCount(new int[0]);
+        int elements = (indices == 1) ? values.getIndexCount(new int[0]) :
+                (times == 0) ? matrix.getColumnCount() : values.getIndexCount(new int[]{0});
+        if (elements != matrix.getColumnCount()) {
+            throw new IllegalStateException(String.format(VALUES_MISMATCH, elements,
+                    matrix.getColumnCount()));
+        }
+
+        DoubleValueSet result = (indices == 1) ? new DoubleValueSet(matrix.getRowCount()) :
+                new DoubleTimeSpaceValueSet(times, matrix.getRowCount());
+        double[] source = new double[elements];
+        double[] target = new double[matrix.getRowCount()];
+        for (int t = 0; t < times; t++) {
+            int[] prefix = (indices == 1) ? new int[0] : new int[]{t};
+            if (values instanceof DoubleValueSet) {
+                ((DoubleValueSet) values).getDoubles(prefix, source, 0);
+            } else {
+                int[] index = new int[indices];
+                index[0] = t;
+                for (int e = 0; e < elements; e++) {
+                    index[indices - 1] = e;
+                    Object value = values.getValue(index);
+                    source[e] = (value instanceof Number) ? ((Number) value).doubleValue() :
+                            Double.NaN;
+                }
+            }
+            matrix.multiply(source, 0, target, 0);
+            result.setDoubles(prefix, target, 0);
+        }
+        return result;
+    }
+
+}
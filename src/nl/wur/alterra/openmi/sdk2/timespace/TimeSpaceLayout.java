@@ -0,0 +1,91 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * List based accessors of ITimeSpaceValueSet, shared by the time space value sets of doubles
+ * (DoubleTimeSpaceValueSet, DirectTimeSpaceValueSet and MappedTimeSpaceValueSet). The value
+ * sets provide typed access to a single value through the Storage interface, and check the
+ * indices and values themselves.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+final class TimeSpaceLayout {
+
+    /**
+     * Typed access to the values of a time space value set.
+     */
+    interface Storage {
+
+        double getDouble(int timeIndex, int elementIndex);
+
+        void setValue(int timeIndex, int elementIndex, Object value);
+
+    }
+
+
+    private TimeSpaceLayout() {
+        // utility class
+    }
+
+
+    /**
+     * Adds the values for each time to the target, as a list with a value for each element.
+     *
+     * @param storage    of the values
+     * @param timeCount  number of times
+     * @param spaceCount number of elements
+     * @param target     to add the lists to
+     */
+    static void getValues2D(Storage storage, int timeCount, int spaceCount,
+                            List<? super List<Double>> target) {
+        for (int t = 0; t < timeCount; t++) {
+            target.add(getElementValuesForTime(storage, t, spaceCount));
+        }
+    }
+
+
+    static void setValues2D(Storage storage, List<?> values) {
+        for (int t = 0; t < values.size(); t++) {
+            setElementValuesForTime(storage, t, (List<?>) values.get(t));
+        }
+    }
+
+
+    static List<Double> getTimeSeriesValuesForElement(Storage storage, int elementIndex,
+                                                      int timeCount) {
+        List<Double> result = new ArrayList<Double>(timeCount);
+        for (int t = 0; t < timeCount; t++) {
+            result.add(storage.getDouble(t, elementIndex));
+        }
+        return result;
+    }
+
+
+    static void setTimeSeriesValuesForElement(Storage storage, int elementIndex,
+                                              List<?> values) {
+        for (int t = 0; t < values.size(); t++) {
+            storage.setValue(t, elementIndex, values.get(t));
+        }
+    }
+
+
+    static List<Double> getElementValuesForTime(Storage storage, int timeIndex,
+                                                int spaceCount) {
+        List<Double> result = new ArrayList<Double>(spaceCount);
+        for (int e = 0; e < spaceCount; e++) {
+            result.add(storage.getDouble(timeIndex, e));
+        }
+        return result;
+    }
+
+
+    static void setElementValuesForTime(Storage storage, int timeIndex, List<?> values) {
+        for (int e = 0; e < values.size(); e++) {
+            storage.setValue(timeIndex, e, values.get(e));
+        }
+    }
+
+}
@@ -14,8 +14,6 @@ import java.util.List;
  */
 public class TimeSpaceValueSet<E> extends BaseValueSet2D<E> implements ITimeSpaceValueSet {
 
-    // TODO: Add unit test for this class!
-
     // fields
     private int mTimeCapacity;
     private int mSpaceCapacity;
@@ -33,10 +31,11 @@ public class TimeSpaceValueSet<E> extends BaseValueSet2D<E> implements ITimeSpac
         List<List> result = new ArrayList<List>();
         int[] index = new int[2];
         for (index[0] = 0; index[0] < mTimeCapacity; index[0]++) {
-            List values = new ArrayList();
+            List values = new ArrayList(mSpaceCapacity);
             for (index[1] = 0; index[1] < mSpaceCapacity; index[1]++) {
                 values.add(getValue(index));
             }
+            result.add(values);
         }
         return result;
     }
@@ -57,23 +56,21 @@ public class TimeSpaceValueSet<E> extends BaseValueSet2D<E> implements ITimeSpac
 
     @Override
     public Object getValue(int timeIndex, int elementIndex) {
-        return super.getValue(new int[]{timeIndex, elementIndex});
+        return super.getValue(timeIndex, elementIndex);
     }
 
 
     @Override
     public void setValue(int timeIndex, int elementIndex, Object value) {
-        super.setValue(new int[]{timeIndex, elementIndex}, value);
+        super.setValue(timeIndex, elementIndex, value);
     }
 
 
     @Override
     public List getTimeSeriesValuesForElement(int elementIndex) {
-        List result = new ArrayList();
-        int[] index = new int[2];
-        index[1] = elementIndex;
-        for (index[0] = 0; index[0] < mTimeCapacity; index[0]++) {
-            result.add(getValue(index));
+        List result = new ArrayList(mTimeCapacity);
+        for (int t = 0; t < mTimeCapacity; t++) {
+            result.add(getValue(t, elementIndex));
         }
         return result;
     }
@@ -81,21 +78,17 @@ public class TimeSpaceValueSet<E> extends BaseValueSet2D<E> implements ITimeSpac
 
     @Override
     public void setTimeSeriesValuesForElement(int elementIndex, List values) {
-        int[] index = new int[2];
-        index[1] = elementIndex;
-        for (index[0] = 0; index[0] < values.size(); index[0]++) {
-            setValue(index, values.get(index[0]));
+        for (int t = 0; t < values.size(); t++) {
+            setValue(t, elementIndex, values.get(t));
         }
     }
 
 
     @Override
     public List getElementValuesForTime(int timeIndex) {
-        List result = new ArrayList();
-        int[] index = new int[2];
-        index[0] = timeIndex;
-        for (index[1] = 0; index[1] < mSpaceCapacity; index[1]++) {
-            result.add(getValue(index));
+        List result = new ArrayList(mSpaceCapacity);
+        for (int e = 0; e < mSpaceCapacity; e++) {
+            result.add(getValue(timeIndex, e));
         }
         return result;
     }
@@ -103,10 +96,36 @@ public class TimeSpaceValueSet<E> extends BaseValueSet2D<E> implements ITimeSpac
 
     @Override
     public void setElementValuesForTime(int timeIndex, List values) {
-        int[] index = new int[2];
-        index[0] = timeIndex;
-        for (index[1] = 0; index[1] < values.size(); index[1]++) {
-            setValue(index, values.get(index[1]));
+        for (int e = 0; e < values.size(); e++) {
+            setValue(timeIndex, e, values.get(e));
         }
     }
+
+
+    /**
+     * Copies the values of all elements for a time into the target array, using a single
+     * array copy.
+     *
+     * @param timeIndex    index of the time
+     * @param target       array to copy the values into
+     * @param targetOffset position in the target array of the first value
+     * @return number of values copied
+     */
+    public int getElementValuesForTime(int timeIndex, E[] target, int targetOffset) {
+        return getValues(timeIndex, target, targetOffset);
+    }
+
+
+    /**
+     * Copies values from the source array into the values of all elements for a time, using a
+     * single array copy.
+     *
+     * @param timeIndex    index of the time
+     * @param source       array to copy the values from
+     * @param sourceOffset position in the source array of the first value
+     * @return number of values copied
+     */
+    public int setElementValuesForTime(int timeIndex, E[] source, int sourceOffset) {
+        return setValues(timeIndex, source, sourceOffset);
+    }
 }
@@ -32,8 +32,9 @@ package nl.wur.alterra.openmi.sdk2.timespace;
 import java.io.Serializable;
 
 /**
- * The Vertex class contains a (x,y,z) coordinate. It is part of the
- * implementation of the OpenMI ElementSet in the backbone package.
+ * The Vertex class contains a (x,y,z) coordinate and an optional measure m. It is part of the
+ * implementation of the OpenMI ElementSet in the backbone package. Changes of the coordinates
+ * are passed on to the element the vertex was last added to.
  *
  * @author Rob Knapen; Alterra, Wageningen UR, Netherlands
  */
@@ -44,6 +45,8 @@ public class Vertex implements Serializable {
     private double x;
     private double y;
     private double z;
+    private double m;
+    private Element owner;
 
     /**
      * Creates a default (0, 0, 0) vertex.
@@ -58,7 +61,7 @@ public class Vertex implements Serializable {
      * @param source The vertex to copy
      */
     public Vertex(Vertex source) {
-        this(source.x, source.y, source.z);
+        this(source.x, source.y, source.z, source.m);
     }
 
     /**
@@ -69,9 +72,22 @@ public class Vertex implements Serializable {
      * @param z Z position
      */
     public Vertex(double x, double y, double z) {
+        this(x, y, z, 0);
+    }
+
+    /**
+     * Creates a vertex with the specified coordinates and measure.
+     *
+     * @param x X position
+     * @param y Y position
+     * @param z Z position
+     * @param m M value
+     */
+    public Vertex(double x, double y, double z, double m) {
         this.x = x;
         this.y = y;
         this.z = z;
+        this.m = m;
     }
 
     /**
@@ -101,6 +117,15 @@ public class Vertex implements Serializable {
         return z;
     }
 
+    /**
+     * Gets the M value.
+     *
+     * @return M value
+     */
+    public double getM() {
+        return m;
+    }
+
     /**
      * Sets the X position.
      *
@@ -108,6 +133,7 @@ public class Vertex implements Serializable {
      */
     public void setX(double d) {
         x = d;
+        changed();
     }
 
     /**
@@ -117,6 +143,7 @@ public class Vertex implements Serializable {
      */
     public void setY(double d) {
         y = d;
+        changed();
     }
 
     /**
@@ -126,6 +153,32 @@ public class Vertex implements Serializable {
      */
     public void setZ(double d) {
         z = d;
+        changed();
+    }
+
+    /**
+     * Sets the M value.
+     *
+     * @param d The M value
+     */
+    public void setM(double d) {
+        m = d;
+        changed();
+    }
+
+    /**
+     * Sets the element that is told about changes of the vertex.
+     *
+     * @param owner The element the vertex was added to
+     */
+    void setOwner(Element owner) {
+        this.owner = owner;
+    }
+
+    private void changed() {
+        if (owner != null) {
+            owner.verticesChanged();
+        }
     }
 
     @Override
@@ -135,13 +188,14 @@ public class Vertex implements Serializable {
         }
 
         Vertex v = (Vertex) obj;
-        return (this.x == v.x && this.y == v.y && this.z == v.z);
+        return (this.x == v.x && this.y == v.y && this.z == v.z && this.m == v.m);
     }
 
     @Override
     public int hashCode() {
-        return super.hashCode() + Double.valueOf(x).hashCode()
-                + Double.valueOf(y).hashCode() + Double.valueOf(z).hashCode();
+        return Double.valueOf(x).hashCode()
+                + Double.valueOf(y).hashCode() + Double.valueOf(z).hashCode()
+                + Double.valueOf(m).hashCode();
     }
 
     @Override
@@ -0,0 +1,236 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+
+/**
+ * Sparse matrix of weights in compressed sparse row (CSR) layout, that maps values on the
+ * elements of one element set (the columns) to values on the elements of another element set
+ * (the rows). The weights of row i are at positions rowOffsets[i] to rowOffsets[i + 1] in the
+ * columns and weights arrays.
+ * <p/>
+ * Rows are added in order with addRow, after which the matrix is only read.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class WeightMatrix implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // messages
+    private static final String INVALID_COLUMN = "Column %d is out of bounds for a matrix " +
+            "with %d columns.";
+    private static final String MATRIX_FULL = "All %d rows of the matrix have been added.";
+    private static final String INVALID_LAYOUT = "Row offsets, columns and weights do not " +
+            "form a valid matrix.";
+
+    // fields
+    private final int rowCount;
+    private final int columnCount;
+    private int rows;
+    private int[] rowOffsets;
+    private int[] columns;
+    private double[] weights;
+
+
+    /**
+     * Creates an empty matrix, rows are added with addRow.
+     *
+     * @param rowCount    number of rows, the elements of the target
+     * @param columnCount number of columns, the elements of the source
+     */
+    public WeightMatrix(int rowCount, int columnCount) {
+        this.rowCount = rowCount;
+        this.columnCount = columnCount;
+        this.rowOffsets = new int[rowCount + 1];
+        this.columns = new int[Math.max(rowCount, 1)];
+        this.weights = new double[columns.length];
+    }
+
+
+    /**
+     * Creates a matrix from its CSR arrays, which are used as is.
+     *
+     * @param columnCount number of columns
+     * @param rowOffsets  start of each row, followed by the number of weights
+     * @param columns     column of each weight
+     * @param weights     the weights
+     */
+    public WeightMatrix(int columnCount, int[] rowOffsets, int[] columns, double[] weights) {
+        int count = rowOffsets[rowOffsets.length - 1];
+        if ((rowOffsets[0] != 0) || (columns.length < count) || (weights.length < count)) {
+            throw new IllegalArgumentException(INVALID_LAYOUT);
+        }
+        for (int i = 0; i < rowOffsets.length - 1; i++) {
+            if (rowOffsets[i] > rowOffsets[i + 1]) {
+                throw new IllegalArgumentException(INVALID_LAYOUT);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            if ((columns[i] < 0) || (columns[i] >= columnCount)) {
+                throw new IllegalArgumentException(String.format(INVALID_COLUMN, columns[i],
+                        columnCount));
+            }
+        }
+        this.rowCount = rowOffsets.length - 1;
+        this.columnCount = columnCount;
+        this.rows = rowCount;
+        this.rowOffsets = rowOffsets;
+        this.columns = columns;
+        this.weights = weights;
+    }
+
+
+    /**
+     * Adds the next row.
+     *
+     * @param rowColumns columns of the weights in the row
+     * @param rowWeights the weights
+     * @param count      number of weights in the row
+     */
+    public void addRow(int[] rowColumns, double[] rowWeights, int count) {
+        if (rows == rowCount) {
+            throw new IllegalStateException(String.format(MATRIX_FULL, rowCount));
+        }
+        int start = rowOffsets[rows];
+        if (start + count > columns.length) {
+            int capacity = Math.max(2 * columns.length, start + count);
+            columns = Arrays.copyOf(columns, capacity);
+            weights = Arrays.copyOf(weights, capacity);
+        }
+        for (int i = 0; i < count; i++) {
+            if ((rowColumns[i] < 0) || (rowColumns[i] >= columnCount)) {
+                throw new IllegalArgumentException(String.format(INVALID_COLUMN, rowColumns[i],
+                        columnCount));
+            }
+            columns[start + i] = rowColumns[i];
+            weights[start + i] = rowWeights[i];
+        }
+        rows++;
+        rowOffsets[rows] = start + count;
+    }
+
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+
+    /**
+     * Returns the number of weights in the matrix.
+     *
+     * @return number of non-zero entries
+     */
+    public int getWeightCount() {
+        return rowOffsets[rows];
+    }
+
+
+    /**
+     * Returns the number of weights in a row.
+     *
+     * @param row index of the row
+     * @return number of weights
+     */
+    public int getRowLength(int row) {
+        return rowOffsets[row + 1] - rowOffsets[row];
+    }
+
+
+    /**
+     * Returns the column of a weight in a row.
+     *
+     * @param row   index of the row
+     * @param index index of the weight within the row
+     * @return the column
+     */
+    public int getColumn(int row, int index) {
+        return columns[rowOffsets[row] + index];
+    }
+
+
+    /**
+     * Returns a weight in a row.
+     *
+     * @param row   index of the row
+     * @param index index of the weight within the row
+     * @return the weight
+     */
+    public double getWeight(int row, int index) {
+        return weights[rowOffsets[row] + index];
+    }
+
+
+    /**
+     * Multiplies the matrix with a vector of source values: for every row the weighted sum of
+     * the source values in its columns. Rows without weights get NaN, they have no source
+     * elements to take a value from.
+     *
+     * @param source       the source values, one for each column
+     * @param sourceOffset position in source of the value for column 0
+     * @param target       array for the results, one for each row
+     * @param targetOffset position in target of the result for row 0
+     */
+    public void multiply(double[] source, int sourceOffset, double[] target, int targetOffset) {
+        for (int row = 0; row < rowCount; row++) {
+            int start = rowOffsets[row];
+            int end = rowOffsets[row + 1];
+            if (start == end) {
+                target[targetOffset + row] = Double.NaN;
+            } else {
+                double sum = 0;
+                for (int i = start; i < end; i++) {
+                    sum += weights[i] * source[sourceOffset + columns[i]];
+                }
+                target[targetOffset + row] = sum;
+            }
+        }
+    }
+
+
+    /**
+     * Reduces the storage to the number of weights.
+     */
+    public void trimToSize() {
+        columns = Arrays.copyOf(columns, getWeightCount());
+        weights = Arrays.copyOf(weights, getWeightCount());
+    }
+
+
+    /**
+     * Returns the row offsets, the start of each row followed by the number of weights. The
+     * array is not copied and must not be changed.
+     *
+     * @return the row offsets
+     */
+    public int[] getRowOffsets() {
+        return rowOffsets;
+    }
+
+
+    /**
+     * Returns the columns of the weights, not copied.
+     *
+     * @return the columns
+     */
+    public int[] getColumns() {
+        return columns;
+    }
+
+
+    /**
+     * Returns the weights, not copied.
+     *
+     * @return the weights
+     */
+    public double[] getWeights() {
+        return weights;
+    }
+
+}
@@ -0,0 +1,275 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import nl.wur.alterra.openmi.sdk2.backbone.OmiException;
+import nl.wur.alterra.openmi.sdk2.extras.DirectBuffers;
+import org.openmi.standard2.timespace.IElementSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+
+/**
+ * Stores spatial mapping weights in a directory, so that they are computed only once for a
+ * pair of element sets instead of on every run. The weights are stored in a binary file per
+ * method and pair of element sets, named after the fingerprints of the element sets (see
+ * ElementSetFingerprint). The file also contains the full fingerprints. Weights are only
+ * read back when these and the method match, otherwise they are computed and the file is
+ * replaced.
+ * <p/>
+ * Files are read through memory mapping and copied into the arrays of the WeightMatrix in
+ * bulk. New files are written to a temporary file first and then renamed, so a run that
+ * stops halfway does not leave a damaged file behind.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class WeightMatrixStore {
+
+    // messages
+    private static final String NOT_A_DIRECTORY = "%s is not a directory.";
+    private static final String IO_FAILED = "Could not store weights in %s.";
+    private static final String TOO_LARGE = "Weights of %d bytes are too large to store.";
+
+    // file layout
+    private static final int MAGIC = 0x4F4D5757;
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_SIZE = 32 + 2 * ElementSetFingerprint.LENGTH;
+    private static final String EXTENSION = ".weights";
+
+    // fields
+    private final File directory;
+    private int hits;
+    private int misses;
+
+
+    /**
+     * Creates a store in the specified directory, which is created when it does not exist.
+     *
+     * @param directory to store the weights in
+     */
+    public WeightMatrixStore(File directory) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new OmiException(String.format(NOT_A_DIRECTORY, directory));
+        }
+        this.directory = directory;
+    }
+
+
+    public File getDirectory() {
+        return directory;
+    }
+
+
+    /**
+     * Returns the number of times weights were read from a file.
+     *
+     * @return number of hits
+     */
+    public int getHits() {
+        return hits;
+    }
+
+
+    /**
+     * Returns the number of times weights had to be computed.
+     *
+     * @return number of misses
+     */
+    public int getMisses() {
+        return misses;
+    }
+
+
+    /**
+     * Gets the weights for mapping values from the source to the target element set, from
+     * the file when it is there and matches the element sets, otherwise by computing them
+     * with SpatialMapping and storing them.
+     *
+     * @param method to compute the weights with
+     * @param source element set the values are on
+     * @param target element set to map the values to
+     * @return the weights
+     */
+    public synchronized WeightMatrix getWeights(SpatialMapping.Method method,
+                                                IElementSet source, IElementSet target) {
+        byte[] sourceFingerprint = ElementSetFingerprint.of(source);
+        byte[] targetFingerprint = ElementSetFingerprint.of(target);
+        File file = getFile(method, sourceFingerprint, targetFingerprint);
+
+        WeightMatrix result = file.isFile() ? read(file, method, sourceFingerprint,
+                targetFingerprint) : null;
+        if (result != null) {
+            hits++;
+        } else {
+            misses++;
+            result = SpatialMapping.computeWeights(method, source, target);
+            write(file, method, sourceFingerprint, targetFingerprint, result);
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the file the weights for a method and pair of element sets are stored in.
+     *
+     * @param method            of the weights
+     * @param sourceFingerprint of the source element set
+     * @param targetFingerprint of the target element set
+     * @return the file, which does not have to exist
+     */
+    public File getFile(SpatialMapping.Method method, byte[] sourceFingerprint,
+                        byte[] targetFingerprint) {
+        String name = ElementSetFingerprint.toHex(Arrays.copyOf(sourceFingerprint, 12)) + "-" +
+                ElementSetFingerprint.toHex(Arrays.copyOf(targetFingerprint, 12)) + "-" +
+                method.name().toLowerCase() + EXTENSION;
+        return new File(directory, name);
+    }
+
+
+    /**
+     * Reads the weights from a file, returns null when the file can not be read or does not
+     * match the method and fingerprints.
+     */
+    private static WeightMatrix read(File file, SpatialMapping.Method method,
+                                     byte[] sourceFingerprint, byte[] targetFingerprint) {
+        RandomAccessFile randomAccessFile = null;
+        MappedByteBuffer buffer = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if ((size < HEADER_SIZE) || (size > Integer.MAX_VALUE)) {
+                return null;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if ((buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != FILE_VERSION)) {
+                return null;
+            }
+            buffer.order((buffer.getInt(8) == 1) ? ByteOrder.LITTLE_ENDIAN :
+                    ByteOrder.BIG_ENDIAN);
+            int rowCount = buffer.getInt(16);
+            int columnCount = buffer.getInt(20);
+            int weightCount = buffer.getInt(24);
+            if ((buffer.getInt(12) != method.ordinal()) || (rowCount < 0) || (weightCount < 0) ||
+                    (size != dataSize(rowCount, weightCount))) {
+                return null;
+            }
+            byte[] fingerprint = new byte[ElementSetFingerprint.LENGTH];
+            buffer.position(32);
+            buffer.get(fingerprint);
+            if (!Arrays.equals(fingerprint, sourceFingerprint)) {
+                return null;
+            }
+            buffer.get(fingerprint);
+            if (!Arrays.equals(fingerprint, targetFingerprint)) {
+                return null;
+            }
+
+            int[] rowOffsets = new int[rowCount + 1];
+            int[] columns = new int[weightCount];
+            double[] weights = new double[weightCount];
+            buffer.position(HEADER_SIZE);
+            buffer.asIntBuffer().get(rowOffsets);
+            buffer.position(HEADER_SIZE + 4 * (rowCount + 1));
+            buffer.asIntBuffer().get(columns);
+            buffer.position(weightsPosition(rowCount, weightCount));
+            buffer.asDoubleBuffer().get(weights);
+            return new WeightMatrix(columnCount, rowOffsets, columns, weights);
+        } catch (IOException ex) {
+            return null;
+        } catch (RuntimeException ex) {
+            // damaged file
+            return null;
+        } finally {
+            if (buffer != null) {
+                DirectBuffers.release(buffer);
+            }
+            closeQuietly(randomAccessFile);
+        }
+    }
+
+
+    private static void write(File file, SpatialMapping.Method method, byte[] sourceFingerprint,
+                              byte[] targetFingerprint, WeightMatrix matrix) {
+        int rowCount = matrix.getRowCount();
+        int weightCount = matrix.getWeightCount();
+        long size = dataSize(rowCount, weightCount);
+        if (size > Integer.MAX_VALUE) {
+            throw new OmiException(String.format(TOO_LARGE, size));
+        }
+
+        File temporary = new File(file.getPath() + ".tmp");
+        RandomAccessFile randomAccessFile = null;
+        MappedByteBuffer buffer = null;
+        try {
+            if (temporary.exists() && !temporary.delete()) {
+                throw new IOException("Can not overwrite " + temporary);
+            }
+            randomAccessFile = new RandomAccessFile(temporary, "rw");
+            FileChannel channel = randomAccessFile.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            ByteOrder order = ByteOrder.nativeOrder();
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, FILE_VERSION);
+            buffer.putInt(8, ByteOrder.LITTLE_ENDIAN.equals(order) ? 1 : 0);
+            buffer.order(order);
+            buffer.putInt(12, method.ordinal());
+            buffer.putInt(16, rowCount);
+            buffer.putInt(20, matrix.getColumnCount());
+            buffer.putInt(24, weightCount);
+            buffer.position(32);
+            buffer.put(sourceFingerprint, 0, ElementSetFingerprint.LENGTH);
+            buffer.put(targetFingerprint, 0, ElementSetFingerprint.LENGTH);
+
+            buffer.position(HEADER_SIZE);
+            buffer.asIntBuffer().put(matrix.getRowOffsets(), 0, rowCount + 1);
+            buffer.position(HEADER_SIZE + 4 * (rowCount + 1));
+            buffer.asIntBuffer().put(matrix.getColumns(), 0, weightCount);
+            buffer.position(weightsPosition(rowCount, weightCount));
+            buffer.asDoubleBuffer().put(matrix.getWeights(), 0, weightCount);
+            buffer.force();
+        } catch (IOException ex) {
+            throw new OmiException(String.format(IO_FAILED, file), ex);
+        } finally {
+            if (buffer != null) {
+                DirectBuffers.release(buffer);
+            }
+            closeQuietly(randomAccessFile);
+        }
+
+        if ((file.exists() && !file.delete()) || !temporary.renameTo(file)) {
+            temporary.delete();
+            throw new OmiException(String.format(IO_FAILED, file));
+        }
+    }
+
+
+    private static int weightsPosition(int rowCount, int weightCount) {
+        // doubles start at a multiple of 8
+        long position = HEADER_SIZE + 4L * (rowCount + 1) + 4L * weightCount;
+        return (int) ((position + 7) & ~7L);
+    }
+
+
+    private static long dataSize(int rowCount, int weightCount) {
+        long position = HEADER_SIZE + 4L * (rowCount + 1) + 4L * weightCount;
+        return ((position + 7) & ~7L) + 8L * weightCount;
+    }
+
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ex) {
+                // nothing left to do
+            }
+        }
+    }
+
+}
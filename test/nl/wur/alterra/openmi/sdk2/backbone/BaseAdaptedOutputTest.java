@@ -184,4 +184,104 @@ public class BaseAdaptedOutputTest {
         assertTrue(adaptedOutput1.canAdaptTo(input4));
     }
 
+
+    @Test
+    public void testDirtyRegionRefresh() {
+        adaptedOutput1.refresh();
+        assertEquals(1, adaptedOutput1.getFullRefreshCount());
+
+        // single changes only recompute the changed value
+        output1.setValue(new int[]{3, 4}, 1, false, false);
+        assertEquals(10, adaptedOutput1.getValues().getValue(new int[]{3, 4}));
+        assertEquals(1, adaptedOutput1.getFullRefreshCount());
+
+        // batched changes refresh once
+        output1.beginUpdate();
+        for (int i = 0; i < 100; i++) {
+            output1.setValue(new int[]{i, 1}, -i, false, false);
+        }
+        assertEquals(100, adaptedOutput1.getValues().getValue(new int[]{10, 1}));
+        output1.endUpdate();
+        assertEquals(-100, adaptedOutput1.getValues().getValue(new int[]{10, 1}));
+        assertEquals(1, adaptedOutput1.getFullRefreshCount());
+
+        // replacing the value set refreshes completely
+        output1.beginUpdate();
+        output1.setValue(new int[]{0, 0}, 5, false, false);
+        output1.setValues(BaseValueSet.newInstance(output1.getValues()), true, false);
+        output1.endUpdate();
+        assertEquals(2, adaptedOutput1.getFullRefreshCount());
+        assertEquals(50, adaptedOutput1.getValues().getValue(new int[]{0, 0}));
+
+        try {
+            output1.endUpdate();
+            fail();
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testDirtyRegion() {
+        DirtyRegion region = new DirtyRegion(2, 3);
+        assertTrue(region.isEmpty());
+        region.add(new int[]{1, 2});
+        region.add(new int[]{3, 4});
+        region.add(new int[]{1, 2});
+        assertEquals(2, region.size());
+        assertTrue(region.contains(new int[]{3, 4}));
+        assertFalse(region.contains(new int[]{4, 3}));
+
+        int[] indices = new int[2];
+        region.getIndices(1, indices);
+        assertArrayEquals(new int[]{3, 4}, indices);
+
+        // exceeding the limit widens the region to everything
+        region.add(new int[]{5, 6});
+        region.add(new int[]{7, 8});
+        assertTrue(region.isAll());
+        assertTrue(region.contains(new int[]{9, 9}));
+
+        region.clear();
+        assertTrue(region.isEmpty());
+    }
+
+
+    @Test
+    public void testLazyRefresh() {
+        adaptedOutput1.refresh();
+        MultiplierAdaptedOutput adaptedOutput2 = MultiplierAdaptedOutput.newInstance("id3",
+                "Chained", "", null, 2);
+        adaptedOutput2.setAdaptee(adaptedOutput1);
+        adaptedOutput2.refresh();
+
+        adaptedOutput1.setLazy(true);
+        adaptedOutput2.setLazy(true);
+        adaptedOutput1.getValues();
+        adaptedOutput2.getValues();
+        assertFalse(adaptedOutput2.isStale());
+        int fullRefreshes = adaptedOutput1.getFullRefreshCount();
+
+        // changes only mark the chain stale
+        output1.setValue(new int[]{2, 3}, 1, false, false);
+        output1.setValue(new int[]{2, 4}, 2, false, false);
+        assertTrue(adaptedOutput1.isStale());
+        assertTrue(adaptedOutput2.isStale());
+
+        // the values are recomputed on request, for the changed values only
+        assertEquals(40, adaptedOutput2.getValues().getValue(new int[]{2, 4}));
+        assertEquals(20, adaptedOutput2.getValues().getValue(new int[]{2, 3}));
+        assertFalse(adaptedOutput1.isStale());
+        assertFalse(adaptedOutput2.isStale());
+        assertEquals(fullRefreshes, adaptedOutput1.getFullRefreshCount());
+
+        // replacing the values recomputes completely, once
+        output1.setValues(BaseValueSet.newInstance(output1.getValues()), true, false);
+        output1.setValues(BaseValueSet.newInstance(output1.getValues()), true, false);
+        assertEquals(fullRefreshes, adaptedOutput1.getFullRefreshCount());
+        adaptedOutput2.getValues();
+        assertEquals(fullRefreshes + 1, adaptedOutput1.getFullRefreshCount());
+    }
+
 }
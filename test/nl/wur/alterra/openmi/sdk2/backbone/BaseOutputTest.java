@@ -199,4 +199,42 @@ public class BaseOutputTest {
         assertEquals(valueSet1, output1.getValues(newInput));
     }
 
+
+    @Test
+    public void testSnapshot() {
+        DoubleValueSet values = new DoubleValueSet(2000);
+        BaseOutput output = BaseOutput.newInstance("id", "caption", "", null, null, values);
+        assertEquals(0, output.getVersion());
+
+        IBaseValueSet snapshot = output.getSnapshot();
+        assertSame(snapshot, output.getSnapshot());
+
+        output.setValue(new int[]{1500}, 1.0, false, false);
+        assertEquals(1, output.getVersion());
+        assertEquals(0.0, snapshot.getValue(new int[]{1500}));
+        assertNotSame(snapshot, output.getSnapshot());
+        assertEquals(1.0, output.getSnapshot().getValue(new int[]{1500}));
+
+        // other value sets are copied
+        output1.setValue(new int[]{0}, "Good", true, false);
+        IBaseValueSet copy = output1.getSnapshot();
+        output1.getValues().setValue(new int[]{0}, "Bad");
+        assertEquals("Good", copy.getValue(new int[]{0}));
+        try {
+            copy.setValue(new int[]{0}, "Bad");
+            fail();
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+
+        // off-heap values are copied to the heap
+        DirectDoubleValueSet direct = new DirectDoubleValueSet(3);
+        direct.setDoubleAt(2, 4.0);
+        output.setValues(direct, true, false);
+        IBaseValueSet heap = output.getSnapshot();
+        direct.close();
+        assertTrue(heap instanceof DoubleValueSetSnapshot);
+        assertEquals(4.0, heap.getValue(new int[]{2}));
+    }
+
 }
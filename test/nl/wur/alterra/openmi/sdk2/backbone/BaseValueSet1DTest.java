@@ -2,19 +2,32 @@ package nl.wur.alterra.openmi.sdk2.backbone;
 
 import org.junit.Test;
 
-import static org.junit.Assert.fail;
+import static org.junit.Assert.*;
 
 
 /**
- * Unintentionally left blank.
+ * Unit test for the one dimensional value set.
  *
  * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
  */
 public class BaseValueSet1DTest {
 
     @Test
-    public void dummy() {
-        fail();
+    public void testStoreAndRetrieve() {
+        BaseValueSet1D<String> values = new BaseValueSet1D<String>(String.class, 10);
+        assertEquals(1, values.getNumberOfIndices());
+        assertEquals(10, values.getIndexCount(new int[]{}));
+
+        values.setValue(new int[]{9}, "value");
+        assertEquals("value", values.getValue(new int[]{9}));
+        assertNull(values.getValue(new int[]{0}));
+
+        try {
+            values.setValue(new int[]{0}, 42);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
     }
 
 }
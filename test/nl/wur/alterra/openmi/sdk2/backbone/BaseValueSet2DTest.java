@@ -2,19 +2,34 @@ package nl.wur.alterra.openmi.sdk2.backbone;
 
 import org.junit.Test;
 
-import static org.junit.Assert.fail;
+import static org.junit.Assert.*;
 
 
 /**
- * Unintentionally left blank.
+ * Unit test for the two dimensional value set.
  *
  * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
  */
 public class BaseValueSet2DTest {
 
     @Test
-    public void dummy() {
-        fail();
+    public void testStoreAndRetrieve() {
+        BaseValueSet2D<Double> values = new BaseValueSet2D<Double>(Double.class, 3, 4);
+        assertEquals(2, values.getNumberOfIndices());
+        assertEquals(3, values.getIndexCount(new int[]{}));
+        assertEquals(4, values.getIndexCount(new int[]{2}));
+
+        values.setValue(new int[]{2, 3}, 42.0);
+        assertEquals(42.0, values.getValue(new int[]{2, 3}));
+        assertEquals(42.0, values.getValue(2, 3));
+        assertNull(values.getValue(0, 0));
+
+        try {
+            values.setValue(new int[]{0, 0}, 42);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
     }
 
 }
@@ -31,6 +31,9 @@ package nl.wur.alterra.openmi.sdk2.backbone;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.Assert.*;
 
 
@@ -160,4 +163,152 @@ public class BaseValueSetTest {
         assertEquals(15, intValues.getIndexCount(new int[]{9}));
     }
 
+
+    @Test
+    public void testJaggedIndexCount() {
+        BaseValueSet values = BaseValueSet.newInstance(Double.class, 3);
+        assertEquals(-1, values.getIndexCount(new int[]{}));
+
+        values.setValue(new int[]{0, 2, 4}, 1.0);
+        values.setValue(new int[]{3, 0, 1}, 2.0);
+        values.setValue(new int[]{0, 5, 0}, 3.0);
+        values.setValue(new int[]{0, 2, 4}, 4.0);
+
+        assertEquals(4, values.getIndexCount(new int[]{}));
+        assertEquals(6, values.getIndexCount(new int[]{0}));
+        assertEquals(-1, values.getIndexCount(new int[]{1}));
+        assertEquals(1, values.getIndexCount(new int[]{3}));
+        assertEquals(5, values.getIndexCount(new int[]{0, 2}));
+        assertEquals(1, values.getIndexCount(new int[]{0, 5}));
+        assertEquals(-1, values.getIndexCount(new int[]{0, 3}));
+
+        assertEquals(4.0, values.getValue(new int[]{0, 2, 4}));
+        assertNull(values.getValue(new int[]{0, 2, 3}));
+
+        values.clear();
+        assertEquals(-1, values.getIndexCount(new int[]{}));
+        assertNull(values.getValue(new int[]{0, 2, 4}));
+    }
+
+
+    @Test
+    public void testHashCode() {
+        BaseValueSet duplicate = BaseValueSet.newInstance(intValues);
+        assertEquals(intValues.hashCode(), duplicate.hashCode());
+    }
+
+
+    @Test
+    public void testTraversal() {
+        // sum of i * j for i, j in 0..9
+        assertEquals(2025.0, doubleValues.reduceDoubles(new OmiValueSet.IDoubleReduction() {
+            @Override
+            public double apply(double result, double value) {
+                return result + value;
+            }
+        }, 0.0), 0.0);
+
+        final int[] count = new int[1];
+        assertFalse(intValues.forEachIndexed(new OmiValueSet.IIndexedNodeOperation() {
+            @Override
+            public boolean perform(int flatIndex, Object value) {
+                count[0]++;
+                return flatIndex < 14;
+            }
+        }));
+        assertEquals(15, count[0]);
+
+        intValues.map(new OmiValueSet.IValueFunction() {
+            @Override
+            public Object apply(Object value) {
+                return (Integer) value + 1;
+            }
+        });
+        assertEquals(13, intValues.getValue(new int[]{3, 4}));
+
+        // results are stored with the type of the values
+        intValues.mapDoubles(new OmiValueSet.IDoubleFunction() {
+            @Override
+            public double apply(double value) {
+                return value * 1.5;
+            }
+        });
+        assertEquals(20, intValues.getValue(new int[]{3, 4}));
+    }
+
+
+    @Test
+    public void testParallelTraversal() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        final AtomicInteger sum = new AtomicInteger();
+        assertTrue(intValues.performNodeOperationParallel(new OmiValueSet.INodeOperation() {
+            @Override
+            public boolean perform(int[] indices, Object value) {
+                sum.addAndGet((Integer) value);
+                return true;
+            }
+        }, pool));
+        assertEquals(2025, sum.get());
+
+        final AtomicInteger count = new AtomicInteger();
+        assertFalse(intValues.performNodeOperationParallel(new OmiValueSet.INodeOperation() {
+            @Override
+            public boolean perform(int[] indices, Object value) {
+                count.incrementAndGet();
+                return indices[0] != 0;
+            }
+        }, pool));
+        assertTrue(count.get() < 100);
+
+        // setting values in parallel on a copy that shares its storage
+        final BaseValueSet duplicate = BaseValueSet.newInstance(intValues);
+        assertTrue(duplicate.performNodeOperationParallel(new OmiValueSet.INodeOperation() {
+            @Override
+            public boolean perform(int[] indices, Object value) {
+                duplicate.setValue(indices, (Integer) value + 1);
+                return true;
+            }
+        }, pool));
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                assertEquals(i * j + 1, duplicate.getValue(new int[]{i, j}));
+                assertEquals(i * j, intValues.getValue(new int[]{i, j}));
+            }
+        }
+
+        pool.shutdown();
+    }
+
+
+    @Test
+    public void testCopyOnWrite() {
+        BaseValueSet duplicate = BaseValueSet.newInstance(intValues);
+        duplicate.setValue(new int[]{2, 2}, 42);
+        assertEquals(4, intValues.getValue(new int[]{2, 2}));
+        assertEquals(42, duplicate.getValue(new int[]{2, 2}));
+
+        BaseValueSet other = BaseValueSet.newInstance(intValues);
+        intValues.setValue(new int[]{12, 0}, 7);
+        assertEquals(13, intValues.getIndexCount(new int[]{}));
+        assertEquals(10, other.getIndexCount(new int[]{}));
+        assertNull(other.getValue(new int[]{12, 0}));
+
+        other.clear();
+        assertEquals(7, intValues.getValue(new int[]{12, 0}));
+
+        // dense value sets are copied value by value
+        BaseValueSet copy = BaseValueSet.newInstance(new IntValueSet(2, 2));
+        assertEquals(0, copy.getValue(new int[]{1, 1}));
+
+        // holes in jagged value sets are skipped
+        BaseValueSet jagged = BaseValueSet.new2DInt();
+        jagged.setValue(new int[]{0, 3}, 1);
+        jagged.setValue(new int[]{2, 0}, 2);
+        IntValueSet dense = new IntValueSet(3, 4);
+        dense.copyFrom(jagged);
+        assertEquals(1, dense.getInt(0, 3));
+        assertEquals(2, dense.getInt(2, 0));
+        assertEquals(0, dense.getInt(1, 1));
+    }
+
 }
@@ -0,0 +1,38 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Unit test for the boolean value set.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class BooleanValueSetTest {
+
+    @Test
+    public void testStoreAndRetrieve() {
+        BooleanValueSet values = new BooleanValueSet(100);
+        assertEquals(Boolean.class, values.getValueType());
+        assertEquals(1, values.getNumberOfIndices());
+        assertEquals(100, values.getIndexCount(new int[]{}));
+        assertFalse(values.getBoolean(42));
+
+        values.setBoolean(new int[]{42}, true);
+        assertTrue(values.getBoolean(42));
+        assertEquals(Boolean.TRUE, values.getValue(new int[]{42}));
+
+        values.setValue(new int[]{42}, Boolean.FALSE);
+        assertFalse(values.getBooleanAt(42));
+
+        try {
+            values.setValue(new int[]{0}, 1);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+}
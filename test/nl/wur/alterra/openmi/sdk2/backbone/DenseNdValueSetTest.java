@@ -0,0 +1,123 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Unit test for the dense N-dimensional value set.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class DenseNdValueSetTest {
+
+    // test subjects, time x layer x element
+    private DenseNdValueSet<String> values;
+
+
+    @Before
+    public void setUp() {
+        values = new DenseNdValueSet<String>(String.class, 2, 3, 4);
+        int[] i = new int[3];
+        for (i[0] = 0; i[0] < 2; i[0]++) {
+            for (i[1] = 0; i[1] < 3; i[1]++) {
+                for (i[2] = 0; i[2] < 4; i[2]++) {
+                    values.set(i, "" + i[0] + i[1] + i[2]);
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testInstanceCreation() {
+        assertEquals(String.class, values.getValueType());
+        assertEquals(3, values.getNumberOfIndices());
+        assertEquals(24, values.getSize());
+        assertArrayEquals(new int[]{12, 4, 1}, values.getStrides());
+        assertTrue(values.isContiguous());
+    }
+
+
+    @Test
+    public void testStoreAndRetrieve() {
+        assertEquals("123", values.get(1, 2, 3));
+        assertEquals("123", values.getValue(new int[]{1, 2, 3}));
+        assertEquals("123", values.getAt(23));
+
+        values.setValue(new int[]{1, 2, 3}, null);
+        assertNull(values.get(1, 2, 3));
+
+        try {
+            values.setValue(new int[]{0, 0, 0}, 42);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testIndexCount() {
+        assertEquals(2, values.getIndexCount(new int[]{}));
+        assertEquals(3, values.getIndexCount(new int[]{1}));
+        assertEquals(4, values.getIndexCount(new int[]{1, 2}));
+        assertEquals(-1, values.getIndexCount(new int[]{1, 3}));
+    }
+
+
+    @Test
+    public void testReshape() {
+        DenseNdValueSet<String> flat = values.reshape(6, 4);
+        assertEquals(2, flat.getNumberOfIndices());
+        assertEquals("123", flat.get(5, 3));
+
+        // view shares storage with the original
+        flat.set(new int[]{5, 3}, "changed");
+        assertEquals("changed", values.get(1, 2, 3));
+
+        try {
+            values.reshape(5, 5);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testTranspose() {
+        DenseNdValueSet<String> transposed = values.transpose(2, 0, 1);
+        assertArrayEquals(new int[]{4, 2, 3}, transposed.getShape());
+        assertFalse(transposed.isContiguous());
+        assertEquals("123", transposed.get(3, 1, 2));
+        assertEquals(4, transposed.getIndexCount(new int[]{}));
+
+        // flat index follows the shape of the view
+        assertEquals("010", transposed.getAt(1));
+
+        transposed.set(new int[]{0, 0, 0}, "changed");
+        assertEquals("changed", values.get(0, 0, 0));
+
+        DenseNdValueSet<String> reversed = values.transpose();
+        assertArrayEquals(new int[]{4, 3, 2}, reversed.getShape());
+        assertEquals(values, reversed.transpose());
+
+        try {
+            transposed.reshape(24);
+            fail();
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        try {
+            values.transpose(0, 0, 1);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import nl.wur.alterra.openmi.sdk2.timespace.DirectTimeSpaceValueSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Unit test for the off-heap double value set.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class DirectDoubleValueSetTest {
+
+    // test subjects
+    private DirectDoubleValueSet values;
+
+
+    @Before
+    public void setUp() {
+        values = new DirectDoubleValueSet(10, 20);
+        for (int i = 0; i < values.getSize(); i++) {
+            values.setDoubleAt(i, i);
+        }
+    }
+
+
+    @After
+    public void tearDown() {
+        values.close();
+    }
+
+
+    @Test
+    public void testStoreAndRetrieve() {
+        assertEquals(Double.class, values.getValueType());
+        assertEquals(20, values.getIndexCount(new int[]{3}));
+        assertEquals(65.0, values.getDouble(3, 5), 0.0);
+        assertEquals(65.0, values.getValue(new int[]{3, 5}));
+
+        values.setValue(new int[]{3, 5}, 42.0);
+        assertEquals(42.0, values.getDoubleAt(65), 0.0);
+
+        values.clear();
+        assertEquals(0.0, values.getDouble(3, 5), 0.0);
+    }
+
+
+    @Test
+    public void testBulkTransfer() {
+        double[] row = new double[20];
+        values.getDoubles(new int[]{2}, row, 0);
+        assertEquals(40.0, row[0], 0.0);
+        assertEquals(59.0, row[19], 0.0);
+
+        double[] column = new double[10];
+        values.getDoublesAlong(0, new int[]{0, 7}, column, 0);
+        assertEquals(187.0, column[9], 0.0);
+
+        values.setDoublesAt(0, new double[]{-1, -2}, 0, 2);
+        assertEquals(-2.0, values.getDouble(0, 1), 0.0);
+    }
+
+
+    @Test
+    public void testViews() {
+        DirectDoubleValueSet transposed = values.transpose();
+        assertEquals(65.0, transposed.getDouble(5, 3), 0.0);
+
+        // closing a view does not release the shared memory
+        transposed.close();
+        assertFalse(values.isClosed());
+        assertEquals(65.0, transposed.getDouble(5, 3), 0.0);
+    }
+
+
+    @Test
+    public void testClose() {
+        DirectDoubleValueSet view = values.reshape(200);
+        values.close();
+        assertTrue(values.isClosed());
+        assertTrue(view.isClosed());
+
+        try {
+            values.getDouble(0, 0);
+            fail();
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        try {
+            view.getDoubleAt(0);
+            fail();
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        // closing again has no effect
+        values.close();
+    }
+
+
+    @Test
+    public void testTimeSpace() {
+        DirectTimeSpaceValueSet timeSpace = new DirectTimeSpaceValueSet(3, 4);
+        try {
+            timeSpace.setElementValuesForTime(1, new double[]{1, 2, 3, 4}, 0);
+            assertEquals(3.0, timeSpace.getDouble(1, 2), 0.0);
+            assertEquals(4.0, timeSpace.getElementValuesForTime(1).get(3));
+            assertEquals(2.0, timeSpace.getTimeSeriesValuesForElement(1).get(1));
+        } finally {
+            timeSpace.close();
+        }
+    }
+
+
+    @Test
+    public void testCopy() {
+        DirectDoubleValueSet copy = values.transpose().copy();
+        try {
+            assertEquals(65.0, copy.getDouble(5, 3), 0.0);
+
+            DoubleValueSet heap = new DoubleValueSet(20, 10);
+            heap.copyFrom(copy);
+            assertEquals(65.0, heap.getDouble(5, 3), 0.0);
+
+            heap.setDouble(new int[]{5, 3}, -1.0);
+            copy.copyFrom(heap);
+            assertEquals(-1.0, copy.getDouble(5, 3), 0.0);
+            assertEquals(65.0, values.getDouble(3, 5), 0.0);
+
+            values.copyFrom(copy.transpose());
+            assertEquals(-1.0, values.getDouble(3, 5), 0.0);
+        } finally {
+            copy.close();
+        }
+    }
+
+}
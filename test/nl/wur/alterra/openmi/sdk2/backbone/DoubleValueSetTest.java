@@ -0,0 +1,355 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Unit test for the double value set.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class DoubleValueSetTest {
+
+    // test subjects
+    private DoubleValueSet values;
+
+
+    @Before
+    public void setUp() {
+        values = new DoubleValueSet(3, 4, 5);
+        int[] i = new int[3];
+        for (i[0] = 0; i[0] < 3; i[0]++) {
+            for (i[1] = 0; i[1] < 4; i[1]++) {
+                for (i[2] = 0; i[2] < 5; i[2]++) {
+                    values.setDouble(i, i[0] * 100 + i[1] * 10 + i[2]);
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testInstanceCreation() {
+        assertEquals(Double.class, values.getValueType());
+        assertEquals(3, values.getNumberOfIndices());
+        assertEquals(60, values.getSize());
+    }
+
+
+    @Test
+    public void testStoreAndRetrieve() {
+        assertEquals(123.0, values.getDouble(1, 2, 3), 0.0);
+        assertEquals(123.0, values.getValue(new int[]{1, 2, 3}));
+        assertEquals(234.0, values.getDoubleAt(59), 0.0);
+
+        values.setValue(new int[]{0, 0, 0}, 42.0);
+        assertEquals(42.0, values.getDouble(0, 0, 0), 0.0);
+        values.setDoubleAt(1, 43.0);
+        assertEquals(43.0, values.getDouble(0, 0, 1), 0.0);
+
+        values.clear();
+        assertEquals(0.0, values.getDouble(1, 2, 3), 0.0);
+    }
+
+
+    @Test
+    public void testIndexCount() {
+        assertEquals(3, values.getIndexCount(new int[]{}));
+        assertEquals(4, values.getIndexCount(new int[]{2}));
+        assertEquals(5, values.getIndexCount(new int[]{2, 3}));
+        assertEquals(-1, values.getIndexCount(new int[]{3}));
+        assertEquals(-1, values.getIndexCount(new int[]{0, 0, 0}));
+    }
+
+
+    @Test
+    public void testValidation() {
+        try {
+            values.setValue(new int[]{0, 0, 0}, 42);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        try {
+            values.getDouble(0, 0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        try {
+            values.getDouble(0, 4, 0);
+            fail();
+        } catch (IndexOutOfBoundsException ex) {
+            // expected
+        }
+
+        try {
+            values.setValueType(Integer.class);
+            fail();
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testEquals() {
+        DoubleValueSet other = new DoubleValueSet(3, 4, 5);
+        assertFalse(values.equals(other));
+
+        other.setDouble(new int[]{1, 2, 3}, 123.0);
+        values.clear();
+        values.setDouble(new int[]{1, 2, 3}, 123.0);
+        assertEquals(values, other);
+        assertEquals(values.hashCode(), other.hashCode());
+    }
+
+
+    @Test
+    public void testBulkTransfer() {
+        double[] block = new double[20];
+        assertEquals(20, values.getDoubles(new int[]{1}, block, 0));
+        assertEquals(100.0, block[0], 0.0);
+        assertEquals(134.0, block[19], 0.0);
+
+        double[] line = new double[4];
+        assertEquals(4, values.getDoublesAlong(1, new int[]{2, 0, 3}, line, 0));
+        assertArrayEquals(new double[]{203, 213, 223, 233}, line, 0.0);
+
+        values.setDoubles(new int[]{0, 1}, new double[]{1, 2, 3, 4, 5}, 0);
+        assertEquals(5.0, values.getDouble(0, 1, 4), 0.0);
+        values.setDoublesAlong(0, new int[]{0, 3, 3}, new double[]{-1, -2, -3}, 0);
+        assertEquals(-3.0, values.getDouble(2, 3, 3), 0.0);
+
+        // non-contiguous views copy value by value
+        DoubleValueSet transposed = values.transpose();
+        double[] all = new double[60];
+        transposed.getDoubles(new int[]{}, all, 0);
+        assertEquals(values.getDouble(1, 0, 0), all[1], 0.0);
+        transposed.getDoublesAt(3, all, 0, 2);
+        assertEquals(values.getDouble(0, 1, 0), all[0], 0.0);
+    }
+
+
+    @Test
+    public void testTraversal() {
+        OmiValueSet.IDoubleReduction sum = new OmiValueSet.IDoubleReduction() {
+            @Override
+            public double apply(double result, double value) {
+                return result + value;
+            }
+        };
+        assertEquals(7020.0, values.reduceDoubles(sum, 0.0), 0.0);
+        assertEquals(7020.0, values.transpose().reduceDoubles(sum, 0.0), 0.0);
+
+        // views are traversed in order of their own indices
+        final double[] visited = new double[2];
+        values.transpose().performNodeOperation(new OmiValueSet.INodeOperation() {
+            @Override
+            public boolean perform(int[] indices, Object value) {
+                if (indices[2] == 1) {
+                    visited[0] = (Double) value;
+                    return false;
+                }
+                return true;
+            }
+        });
+        assertEquals(100.0, visited[0], 0.0);
+
+        // traversal stops as soon as the operation returns false
+        final int[] count = new int[1];
+        assertFalse(values.forEachDouble(new OmiValueSet.IDoubleNodeOperation() {
+            @Override
+            public boolean perform(int flatIndex, double value) {
+                count[0]++;
+                return flatIndex < 4;
+            }
+        }));
+        assertEquals(5, count[0]);
+
+        values.mapDoubles(new OmiValueSet.IDoubleFunction() {
+            @Override
+            public double apply(double value) {
+                return value * 2;
+            }
+        });
+        assertEquals(246.0, values.getDouble(1, 2, 3), 0.0);
+    }
+
+
+    @Test
+    public void testParallelTraversal() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        final DoubleValueSet large = new DoubleValueSet(200, 300);
+        for (int i = 0; i < large.getSize(); i++) {
+            large.setDoubleAt(i, 1.0);
+        }
+
+        // every value is visited exactly once, in a view as well
+        final DoubleValueSet transposed = large.transpose();
+        assertTrue(transposed.performNodeOperationParallel(new OmiValueSet.INodeOperation() {
+            @Override
+            public boolean perform(int[] indices, Object value) {
+                transposed.setDouble(indices, (Double) value + indices[0]);
+                return true;
+            }
+        }, pool));
+        assertEquals(60000.0 + 200 * 299 * 300 / 2, large.reduceDoubles(
+                new OmiValueSet.IDoubleReduction() {
+                    @Override
+                    public double apply(double result, double value) {
+                        return result + value;
+                    }
+                }, 0.0), 0.0);
+        assertEquals(6.0, large.getDouble(17, 5), 0.0);
+
+        // stopping one task stops the others as well
+        final AtomicInteger count = new AtomicInteger();
+        assertFalse(large.performNodeOperationParallel(new OmiValueSet.INodeOperation() {
+            @Override
+            public boolean perform(int[] indices, Object value) {
+                count.incrementAndGet();
+                return !((indices[0] == 100) && (indices[1] == 0));
+            }
+        }, pool));
+        assertTrue(count.get() < large.getSize());
+
+        pool.shutdown();
+    }
+
+
+    @Test
+    public void testCopy() {
+        DoubleValueSet copy = values.transpose().copy();
+        assertTrue(copy.isContiguous());
+        assertEquals(123.0, copy.getDouble(3, 2, 1), 0.0);
+        copy.setDouble(new int[]{3, 2, 1}, -1.0);
+        assertEquals(123.0, values.getDouble(1, 2, 3), 0.0);
+        assertEquals(values.transpose(), values.transpose().copy());
+        assertEquals(60, copy.reshape(60).getSize());
+
+        // transpose in place through a view on the same storage
+        DoubleValueSet square = new DoubleValueSet(3, 3);
+        for (int i = 0; i < 9; i++) {
+            square.setDoubleAt(i, i);
+        }
+        square.copyFrom(square.transpose());
+        assertEquals(3.0, square.getDouble(0, 1), 0.0);
+        assertEquals(1.0, square.getDouble(1, 0), 0.0);
+
+        // other value set types are copied value by value
+        BaseValueSet base = BaseValueSet.new2DDouble();
+        base.setValue(new int[]{1, 2}, 12.0);
+        square.copyFrom(base);
+        assertEquals(12.0, square.getDouble(1, 2), 0.0);
+        assertEquals(3.0, square.getDouble(0, 1), 0.0);
+
+        try {
+            square.copyFrom(new DoubleValueSet(3, 4));
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected, shapes differ
+        }
+    }
+
+
+    @Test
+    public void testSnapshot() {
+        DoubleValueSet large = new DoubleValueSet(10, 1000);
+        large.setDouble(new int[]{0, 0}, 1.0);
+        large.setDouble(new int[]{9, 999}, 2.0);
+
+        DoubleValueSetSnapshot first = large.snapshot();
+        large.setDoubleAt(0, -1.0);
+        large.setDoubles(new int[]{5}, new double[1000], 0);
+        DoubleValueSetSnapshot second = large.transpose().snapshot();
+        large.mapDoubles(new OmiValueSet.IDoubleFunction() {
+            @Override
+            public double apply(double value) {
+                return value + 10.0;
+            }
+        });
+
+        assertEquals(1.0, first.getDouble(0, 0), 0.0);
+        assertEquals(2.0, first.getDouble(9, 999), 0.0);
+        assertEquals(-1.0, second.getDouble(0, 0), 0.0);
+        assertEquals(2.0, second.getDouble(999, 9), 0.0);
+        assertEquals(12.0, large.getDouble(9, 999), 0.0);
+        assertEquals(2, second.getVersion());
+
+        // snapshots can be copied but not changed
+        DoubleValueSet copy = first.copy();
+        assertEquals(2.0, copy.getDouble(9, 999), 0.0);
+        try {
+            first.setValue(new int[]{0, 0}, 3.0);
+            fail();
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testSubclassViewSharesSnapshots() {
+        DoubleValueSet source = new DoubleValueSet(2, 3);
+        source.setDouble(new int[]{1, 2}, 1.0);
+        DoubleValueSetSnapshot snapshot = source.snapshot();
+
+        // the view writes the storage of the source, the snapshot keeps the old value
+        DoubleValueSet view = new DoubleValueSet(source, new int[]{3}, new int[]{1}, 3) {
+        };
+        view.setDoubleAt(2, 2.0);
+        assertEquals(2.0, source.getDouble(1, 2), 0.0);
+        assertEquals(1.0, snapshot.getDouble(1, 2), 0.0);
+    }
+
+
+    @Test
+    public void testSnapshotAcrossThreads() throws Exception {
+        final DoubleValueSet values = new DoubleValueSet(5000);
+        final BlockingQueue<DoubleValueSetSnapshot> queue =
+                new ArrayBlockingQueue<DoubleValueSetSnapshot>(2);
+        final int steps = 200;
+
+        // the writer overwrites every value on each step, while the reader checks the
+        // snapshots of earlier steps
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int step = 0; step < steps; step++) {
+                        for (int i = 0; i < values.getSize(); i++) {
+                            values.setDoubleAt(i, step);
+                        }
+                        queue.put(values.snapshot());
+                    }
+                } catch (InterruptedException ex) {
+                    // stops the test
+                }
+            }
+        };
+        writer.start();
+
+        double[] target = new double[5000];
+        for (int step = 0; step < steps; step++) {
+            DoubleValueSetSnapshot snapshot = queue.take();
+            snapshot.getDoublesAt(0, target, 0, target.length);
+            for (int i = 0; i < target.length; i++) {
+                assertEquals(step, target[i], 0.0);
+                assertEquals(step, snapshot.getDoubleAt(i), 0.0);
+            }
+        }
+        writer.join();
+    }
+
+}
@@ -0,0 +1,160 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmi.standard2.IBaseValueSet;
+
+import java.lang.reflect.Type;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Unit test for fused element-wise adapted outputs.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class ElementWiseAdaptedOutputTest {
+
+    // test subjects
+    private DoubleValueSet values;
+    private BaseOutput output;
+    private LinearAdaptedOutput toCelsius;
+    private LinearAdaptedOutput doubled;
+    private ThresholdAdaptedOutput classified;
+
+
+    // linear conversion a * value + b
+    private static class LinearAdaptedOutput extends ElementWiseAdaptedOutput {
+        private double a;
+        private double b;
+        private int kernelCalls = 0;
+
+
+        private LinearAdaptedOutput(double a, double b) {
+            this.a = a;
+            this.b = b;
+        }
+
+
+        @Override
+        public Object adaptValue(Object value) {
+            return adaptDouble((Double) value);
+        }
+
+
+        @Override
+        public boolean isDoubleKernel() {
+            return true;
+        }
+
+
+        @Override
+        public double adaptDouble(double value) {
+            kernelCalls++;
+            return a * value + b;
+        }
+    }
+
+
+    // classifies values as "low" or "high"
+    private static class ThresholdAdaptedOutput extends ElementWiseAdaptedOutput {
+        private double threshold;
+
+
+        private ThresholdAdaptedOutput(double threshold) {
+            this.threshold = threshold;
+        }
+
+
+        @Override
+        public Object adaptValue(Object value) {
+            return ((Double) value < threshold) ? "low" : "high";
+        }
+
+
+        @Override
+        public Type getAdaptedValueType(Type valueType) {
+            return String.class;
+        }
+    }
+
+
+    @Before
+    public void setUp() {
+        values = new DoubleValueSet(3, 4);
+        for (int i = 0; i < values.getSize(); i++) {
+            values.setDoubleAt(i, 273.15 + i);
+        }
+        output = BaseOutput.newInstance("out", "Temperature", "", null, null, values);
+
+        toCelsius = new LinearAdaptedOutput(1.0, -273.15);
+        toCelsius.setAdaptee(output);
+        doubled = new LinearAdaptedOutput(2.0, 0.0);
+        doubled.setAdaptee(toCelsius);
+        classified = new ThresholdAdaptedOutput(10.0);
+        classified.setAdaptee(doubled);
+    }
+
+
+    @Test
+    public void testFusedChain() {
+        ElementWiseAdaptedOutput[] chain = classified.getFusedChain();
+        assertEquals(3, chain.length);
+        assertSame(toCelsius, chain[0]);
+        assertSame(classified, chain[2]);
+
+        IBaseValueSet adapted = classified.getValues();
+        assertEquals(String.class, adapted.getValueType());
+        assertEquals("low", adapted.getValue(new int[]{1, 0}));
+        assertEquals("high", adapted.getValue(new int[]{1, 1}));
+
+        // the stages in between were not evaluated on their own
+        assertTrue(toCelsius.isStale());
+        assertTrue(doubled.isStale());
+        assertEquals(12, toCelsius.kernelCalls);
+    }
+
+
+    @Test
+    public void testPrimitiveChain() {
+        IBaseValueSet adapted = doubled.getValues();
+        assertTrue(adapted instanceof DoubleValueSet);
+        assertEquals(22.0, ((DoubleValueSet) adapted).getDouble(2, 3), 1e-9);
+        assertTrue(toCelsius.isStale());
+
+        // memoized until the source changes
+        assertSame(adapted, doubled.getValues());
+        output.setValue(new int[]{2, 3}, 283.15, false, false);
+        assertTrue(doubled.isStale());
+        assertEquals(20.0, ((DoubleValueSet) doubled.getValues()).getDouble(2, 3), 1e-9);
+        assertEquals(10.0, ((DoubleValueSet) toCelsius.getValues()).getDouble(2, 3), 1e-9);
+    }
+
+
+    @Test
+    public void testPartialRefresh() {
+        IBaseValueSet adapted = doubled.getValues();
+        assertEquals(12, toCelsius.kernelCalls);
+
+        // only the changed values run through the chain, in the same value set
+        output.beginUpdate();
+        output.setValue(new int[]{0, 1}, 300.15, false, false);
+        output.setValue(new int[]{2, 3}, 283.15, false, false);
+        output.endUpdate();
+        assertSame(adapted, doubled.getValues());
+        assertEquals(14, toCelsius.kernelCalls);
+        assertEquals(54.0, ((DoubleValueSet) adapted).getDouble(0, 1), 1e-9);
+        assertEquals(20.0, ((DoubleValueSet) adapted).getDouble(2, 3), 1e-9);
+        assertEquals(14.0, ((DoubleValueSet) adapted).getDouble(1, 3), 1e-9);
+
+        // and through the boxed chain
+        IBaseValueSet classes = classified.getValues();
+        assertEquals("low", classes.getValue(new int[]{1, 0}));
+        output.setValue(new int[]{1, 0}, 300.15, false, false);
+        assertSame(classes, classified.getValues());
+        assertEquals("high", classes.getValue(new int[]{1, 0}));
+        assertEquals("low", classes.getValue(new int[]{0, 0}));
+    }
+
+}
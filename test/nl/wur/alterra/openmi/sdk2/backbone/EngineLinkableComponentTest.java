@@ -2,8 +2,9 @@ package nl.wur.alterra.openmi.sdk2.backbone;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.openmi.standard2.LinkableComponentStatus;
 
-import static org.junit.Assert.fail;
+import static org.junit.Assert.*;
 
 
 /**
@@ -13,10 +14,21 @@ import static org.junit.Assert.fail;
  */
 public class EngineLinkableComponentTest {
 
+    // test subjects
+    private ScalingEngine engine;
+    private EngineLinkableComponent component;
+    private BaseInput input;
+    private BaseOutput output;
+
 
     @Before
     public void SetUp() {
-        // TODO
+        engine = new ScalingEngine(2.0);
+        component = new EngineLinkableComponent(engine);
+        input = BaseInput.newInstance("in", "in", "", component, null, null);
+        component.addInput(input);
+        output = BaseOutput.newInstance("out", "out", "", component, null, null);
+        component.addOutput(output);
     }
 
 
@@ -24,4 +36,94 @@ public class EngineLinkableComponentTest {
     public void testInstanceCreation() {
         fail();
     }
+
+
+    @Test
+    public void testUpdate() {
+        component.setTimeHorizon(10, 12, 1);
+        component.initialize();
+        assertEquals(LinkableComponentStatus.INITIALIZED, component.getStatus());
+        component.prepare();
+        assertTrue(engine.isPrepared());
+        assertEquals(LinkableComponentStatus.UPDATED, component.getStatus());
+        assertEquals(10, component.getCurrentTime(), 0.0);
+
+        // input values are scaled by the engine and end up in the output
+        DoubleValueSet values = new DoubleValueSet(3);
+        values.setDoublesAt(0, new double[]{1, 2, 3}, 0, 3);
+        input.setValues(values);
+        component.update(null);
+        assertEquals(LinkableComponentStatus.UPDATED, component.getStatus());
+        assertEquals(11, component.getCurrentTime(), 0.0);
+        assertEquals(11, engine.getLastTime(), 0.0);
+        DoubleValueSet result = (DoubleValueSet) output.getValues();
+        assertEquals(3, result.getSize());
+        assertEquals(6.0, result.getDoubleAt(2), 0.0);
+
+        // the value set of the output is reused, and done at the end time
+        values.setDoubleAt(2, 5);
+        component.update(null);
+        assertEquals(LinkableComponentStatus.DONE, component.getStatus());
+        assertSame(result, output.getValues());
+        assertEquals(10.0, result.getDoubleAt(2), 0.0);
+        assertEquals(2, engine.getUpdateCount());
+
+        component.finish();
+        assertEquals(LinkableComponentStatus.FINISHED, component.getStatus());
+        assertEquals(Boolean.FALSE, engine.getFinishedInFailedState());
+    }
+
+
+    @Test
+    public void testProviderValues() {
+        // without values of its own an input uses those of its provider
+        DoubleValueSet values = new DoubleValueSet(2);
+        values.setDoubleAt(1, 4);
+        BaseOutput provider = BaseOutput.newInstance("provider", "provider", "", null, null,
+                values);
+        input.setProvider(provider);
+        component.prepare();
+        component.update(null);
+        assertEquals(LinkableComponentStatus.DONE, component.getStatus());
+        assertEquals(8.0, ((DoubleValueSet) output.getValues()).getDoubleAt(1), 0.0);
+    }
+
+
+    @Test
+    public void testFailure() {
+        component.setTimeHorizon(0, 10, 1);
+        component.prepare();
+        engine.setFailing(true);
+        try {
+            component.update(null);
+            fail();
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        assertEquals(LinkableComponentStatus.FAILED, component.getStatus());
+        assertEquals(0, component.getCurrentTime(), 0.0);
+        component.finish();
+        assertEquals(Boolean.TRUE, engine.getFinishedInFailedState());
+    }
+
+
+    @Test
+    public void testTimeHorizon() {
+        assertEquals(0, component.getStartTime(), 0.0);
+        assertEquals(0, component.getEndTime(), 0.0);
+        assertEquals(1, component.getTimeStep(), 0.0);
+        try {
+            component.setTimeHorizon(0, 10, 0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        try {
+            component.setTimeHorizon(10, 0, 1);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
 }
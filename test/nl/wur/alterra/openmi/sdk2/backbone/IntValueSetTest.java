@@ -0,0 +1,85 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Unit test for the integer value set.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class IntValueSetTest {
+
+    // test subjects
+    private IntValueSet values;
+
+
+    @Before
+    public void setUp() {
+        values = new IntValueSet(10, 10);
+        int[] i = new int[2];
+        for (i[0] = 0; i[0] < 10; i[0]++) {
+            for (i[1] = 0; i[1] < 10; i[1]++) {
+                values.setInt(i, i[0] * i[1]);
+            }
+        }
+    }
+
+
+    @Test
+    public void testStoreAndRetrieve() {
+        assertEquals(Integer.class, values.getValueType());
+        assertEquals(42, values.getInt(6, 7));
+        assertEquals(42, values.getValue(new int[]{7, 6}));
+        assertEquals(81, values.getIntAt(99));
+
+        values.setValue(new int[]{0, 0}, 17);
+        assertEquals(17, values.getInt(0, 0));
+    }
+
+
+    @Test
+    public void testIndexCount() {
+        assertEquals(10, values.getIndexCount(new int[]{}));
+        assertEquals(10, values.getIndexCount(new int[]{9}));
+        assertEquals(-1, values.getIndexCount(new int[]{10}));
+    }
+
+
+    @Test
+    public void testValueTypeValidation() {
+        try {
+            values.setValue(new int[]{0, 0}, "string");
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testMapDoubles() {
+        values.mapDoubles(new OmiValueSet.IDoubleFunction() {
+            @Override
+            public double apply(double value) {
+                return value * 2;
+            }
+        });
+        assertEquals(84, values.getInt(6, 7));
+
+        // results are rounded, also on a view
+        values.transpose().mapDoubles(new OmiValueSet.IDoubleFunction() {
+            @Override
+            public double apply(double value) {
+                return value / 4;
+            }
+        });
+        assertEquals(21, values.getInt(6, 7));
+        assertEquals(5, values.getInt(3, 3));
+        assertEquals(Integer.valueOf(5), values.getValue(new int[]{3, 3}));
+    }
+
+}
@@ -19,6 +19,8 @@ public class MultiplierAdaptedOutput extends BaseAdaptedOutput {
     private int multiplier = 1;
     private IArgument multiplierArg;
     private BaseValueSet adaptedValues;
+    private boolean refreshed = false;
+    private int fullRefreshCount = 0;
 
 
     private class MultiplierIntOp implements BaseValueSet.INodeOperation {
@@ -75,13 +77,39 @@ public class MultiplierAdaptedOutput extends BaseAdaptedOutput {
         if (getAdaptee() != null) {
             adaptedValues = BaseValueSet.newInstance(getAdaptee().getValues());
             adaptedValues.performNodeOperation(new MultiplierIntOp());
+            refreshed = true;
+            fullRefreshCount++;
         }
         super.refresh();
     }
 
 
+    @Override
+    public void refresh(DirtyRegion dirtyRegion) {
+        if ((getAdaptee() == null) || !refreshed || dirtyRegion.isAll()) {
+            refresh();
+            return;
+        }
+
+        // only recompute the changed values
+        IBaseValueSet values = getAdaptee().getValues();
+        int[] indices = new int[dirtyRegion.getNumberOfIndices()];
+        for (int i = 0; i < dirtyRegion.size(); i++) {
+            dirtyRegion.getIndices(i, indices);
+            adaptedValues.setValue(indices, multiplier * (Integer) values.getValue(indices));
+        }
+        refreshAdaptedOutputs(dirtyRegion);
+    }
+
+
+    public int getFullRefreshCount() {
+        return fullRefreshCount;
+    }
+
+
     @Override
     public IBaseValueSet getValues() {
+        refreshIfStale();
         return adaptedValues;
     }
 
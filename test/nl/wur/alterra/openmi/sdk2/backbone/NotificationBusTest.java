@@ -0,0 +1,318 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmi.standard2.LinkableComponentStatus;
+import org.openmi.standard2.LinkableComponentStatusChangeEventArgs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Unit test for notification bus.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class NotificationBusTest {
+
+    // test subjects
+    private NotificationBus bus;
+    private Recorder recorder;
+    private Quality quality;
+
+
+    // component of which the status can be changed
+    private static class StatusComponent extends BaseLinkableComponent {
+        private void changeStatus(LinkableComponentStatus status) {
+            updateStatus(status, "changed");
+        }
+    }
+
+
+    // subscriber that keeps all batches it receives
+    private static class Recorder implements NotificationBus.ISubscriber {
+        private final List<List<OmiNotification>> batches = new ArrayList<List<OmiNotification>>();
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private boolean blocking = false;
+
+
+        @Override
+        public synchronized void notify(List<OmiNotification> notifications) {
+            batches.add(new ArrayList<OmiNotification>(notifications));
+            if (blocking) {
+                blocking = false;
+                blocked.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+
+        private synchronized int count() {
+            int result = 0;
+            for (List<OmiNotification> batch : batches) {
+                result += batch.size();
+            }
+            return result;
+        }
+    }
+
+
+    @Before
+    public void setUp() {
+        recorder = new Recorder();
+        quality = new Quality();
+    }
+
+
+    @After
+    public void tearDown() {
+        if (bus != null) {
+            bus.close();
+        }
+    }
+
+
+    @Test
+    public void testSynchronous() {
+        bus = new NotificationBus();
+        assertFalse(bus.isAsynchronous());
+
+        // dropped without subscribers
+        quality.setNotificationBus(bus);
+        quality.setCaption("dropped");
+        bus.subscribe(recorder);
+        assertTrue(bus.hasSubscribers());
+
+        quality.setCaption("caption");
+        quality.setDescription("description");
+        assertEquals(2, recorder.batches.size());
+        OmiNotification notification = recorder.batches.get(0).get(0);
+        assertSame(quality, notification.getSender());
+        assertEquals(OmiNotification.Type.MODIFIED, notification.getChangeType());
+
+        bus.unsubscribe(recorder);
+        quality.setCaption("unsubscribed");
+        assertEquals(2, recorder.count());
+    }
+
+
+    @Test
+    public void testFailingSubscriber() {
+        bus = new NotificationBus();
+        quality.setNotificationBus(bus);
+        bus.subscribe(new NotificationBus.ISubscriber() {
+            @Override
+            public void notify(List<OmiNotification> notifications) {
+                throw new IllegalStateException("failing");
+            }
+        });
+        bus.subscribe(recorder);
+
+        // the later subscriber gets the batch, the failure reaches the publisher afterwards
+        try {
+            quality.setCaption("caption");
+            fail();
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        assertEquals(1, recorder.count());
+    }
+
+
+    @Test
+    public void testCoalescing() throws InterruptedException {
+        bus = new NotificationBus(true, true);
+        bus.subscribe(recorder);
+        Object variable = new Object();
+
+        // keep the delivery thread busy with the first notification
+        recorder.blocking = true;
+        bus.publish(OmiNotification.newAddNotification(quality, variable, false));
+        assertTrue(recorder.blocked.await(10, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 100; i++) {
+            bus.publish(OmiNotification.newModifiedNotification(quality, variable, false));
+        }
+        OmiNotification last = OmiNotification.newModifiedNotification(quality, variable,
+                false);
+        last.setMessage("last");
+        bus.publish(last);
+        bus.publish(OmiNotification.newDeleteNotification(quality, variable, false));
+
+        recorder.release.countDown();
+        bus.close();
+
+        // the modifications are delivered once, with the last notification, in one batch
+        assertEquals(3, recorder.count());
+        List<OmiNotification> batch = recorder.batches.get(recorder.batches.size() - 1);
+        assertEquals(2, batch.size());
+        assertEquals("last", batch.get(0).getMessage());
+        assertEquals(OmiNotification.Type.DELETED, batch.get(1).getChangeType());
+
+        // dropped once closed
+        bus.publish(OmiNotification.newAddNotification(quality, variable, false));
+        bus.flush();
+        assertEquals(3, recorder.count());
+    }
+
+
+    @Test
+    public void testCoalescingOrder() throws InterruptedException {
+        bus = new NotificationBus(true, true);
+        bus.subscribe(recorder);
+        Object a = new Object();
+        Object b = new Object();
+
+        recorder.blocking = true;
+        bus.publish(OmiNotification.newAddNotification(quality, a, false));
+        assertTrue(recorder.blocked.await(10, TimeUnit.SECONDS));
+
+        // a modification of a after one of b is delivered after it
+        bus.publish(OmiNotification.newModifiedNotification(quality, a, false));
+        bus.publish(OmiNotification.newModifiedNotification(quality, b, false));
+        OmiNotification later = OmiNotification.newModifiedNotification(quality, a, false);
+        bus.publish(later);
+        OmiNotification last = OmiNotification.newModifiedNotification(quality, a, false);
+        bus.publish(last);
+
+        recorder.release.countDown();
+        bus.close();
+
+        List<OmiNotification> batch = recorder.batches.get(recorder.batches.size() - 1);
+        assertEquals(2, batch.size());
+        assertSame(b, batch.get(0).getVariable());
+        assertSame(last, batch.get(1));
+    }
+
+
+    @Test
+    public void testWithoutCoalescing() {
+        bus = new NotificationBus(false, false);
+        bus.subscribe(recorder);
+        Object variable = new Object();
+        for (int i = 0; i < 10; i++) {
+            bus.publish(OmiNotification.newModifiedNotification(quality, variable, false));
+        }
+        assertEquals(10, recorder.count());
+    }
+
+
+    @Test
+    public void testStatusChanged() {
+        bus = new NotificationBus();
+        bus.subscribe(recorder);
+        StatusComponent component = new StatusComponent();
+        component.setNotificationBus(bus);
+        final List<Object> observed = new ArrayList<Object>();
+        component.getStatusChangedObservable().addObserver(new Observer() {
+            @Override
+            public void update(Observable observable, Object o) {
+                observed.add(o);
+            }
+        });
+
+        component.changeStatus(LinkableComponentStatus.INITIALIZING);
+        assertEquals(1, observed.size());
+        assertEquals(2, recorder.count());
+        assertEquals(OmiNotification.Type.MODIFIED, recorder.batches.get(0).get(0)
+                .getChangeType());
+        OmiNotification notification = recorder.batches.get(1).get(0);
+        assertEquals(OmiNotification.Type.OTHER, notification.getChangeType());
+        assertSame(observed.get(0), notification.getVariable());
+        assertEquals(LinkableComponentStatus.INITIALIZING,
+                ((LinkableComponentStatusChangeEventArgs) notification.getVariable())
+                        .getNewStatus());
+    }
+
+
+    @Test
+    public void testMessage() {
+        final int[] rendered = new int[1];
+        final String[] state = {"before"};
+        Object variable = new Object() {
+            @Override
+            public String toString() {
+                rendered[0]++;
+                return state[0];
+            }
+        };
+
+        // the variable is described by its identity, it is never converted to a string
+        OmiNotification notification = OmiNotification.newModifiedNotification(quality,
+                variable, true);
+        state[0] = "after";
+        assertTrue(notification.hasMessage());
+        assertTrue(notification.getMessage().endsWith("Changed object @" +
+                Integer.toHexString(System.identityHashCode(variable))));
+        assertSame(notification.getMessage(), notification.getMessage());
+        assertEquals(0, rendered[0]);
+
+        // identifiable variables by their id and caption when the notification was created
+        IdentifiableOmiObject identifiable = new IdentifiableOmiObject("id", "before", "");
+        OmiNotification added = OmiNotification.newAddNotification(quality, identifiable, true);
+        identifiable.setCaption("after");
+        assertTrue(added.getMessage().endsWith("Added object IdentifiableOmiObject{id,before}"));
+
+        // equal notifications, compared without formatting their messages
+        OmiNotification copy = new OmiNotification(quality, variable,
+                OmiNotification.Type.MODIFIED, notification.getMessage());
+        assertFalse(notification.equals(copy));
+        copy.setMessage(null);
+        notification.setMessage(null);
+        assertEquals(notification, copy);
+        assertEquals(notification.hashCode(), copy.hashCode());
+
+        assertFalse(notification.hasMessage());
+        assertFalse(OmiNotification.newAddNotification(quality, variable, false).hasMessage());
+        assertEquals(0, rendered[0]);
+    }
+
+
+    @Test
+    public void testWithoutListeners() {
+        final int[] created = new int[1];
+        Quality counting = new Quality() {
+            @Override
+            protected void notify(OmiNotification notification) {
+                created[0]++;
+                super.notify(notification);
+            }
+        };
+        counting.setCaption("no listeners");
+        counting.setNotificationBus(bus = new NotificationBus());
+        counting.setCaption("no subscribers");
+        assertEquals(0, created[0]);
+
+        bus.subscribe(recorder);
+        counting.setCaption("subscribed");
+        assertEquals(1, created[0]);
+        bus.unsubscribe(recorder);
+        counting.setNotificationBus(null);
+
+        Observer observer = new Observer() {
+            @Override
+            public void update(Observable observable, Object o) {
+            }
+        };
+        counting.addObserver(observer);
+        counting.setCaption("observed");
+        assertEquals(2, created[0]);
+        counting.deleteObserver(observer);
+        counting.setCaption("not observed");
+        assertEquals(2, created[0]);
+    }
+
+}
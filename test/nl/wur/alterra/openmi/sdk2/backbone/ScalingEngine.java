@@ -0,0 +1,180 @@
+package nl.wur.alterra.openmi.sdk2.backbone;
+
+import nl.wur.alterra.openmi.sdk2.extras.IEngine;
+import org.openmi.standard2.IBaseLinkableComponent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * This class provides a sample engine for testing purposes. On each update it multiplies
+ * the values of its first input by a factor, its outputs all get the result. Without inputs
+ * the result is the number of updates.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class ScalingEngine implements IEngine {
+
+    // fields
+    private final double factor;
+    private final Map<String, double[]> inputs = new LinkedHashMap<String, double[]>();
+    private double[] result = new double[0];
+    private double lastTime = Double.NaN;
+    private volatile int updateCount = 0;
+    private volatile boolean failing = false;
+    private volatile boolean prepared = false;
+    private volatile Boolean finishedInFailedState = null;
+
+
+    public ScalingEngine(double factor) {
+        this.factor = factor;
+    }
+
+
+    public int getUpdateCount() {
+        return updateCount;
+    }
+
+
+    public double getLastTime() {
+        return lastTime;
+    }
+
+
+    public void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+
+    public boolean isPrepared() {
+        return prepared;
+    }
+
+
+    public Boolean getFinishedInFailedState() {
+        return finishedInFailedState;
+    }
+
+
+    @Override
+    public void initialize(IBaseLinkableComponent component) {
+        // nothing to initialize
+    }
+
+
+    @Override
+    public boolean validate(String[] errors, String[] warning, String[] information) {
+        return true;
+    }
+
+
+    @Override
+    public void setInput(String id, int elementCount, int elementValueCount, int vectorLength) {
+        // not used
+    }
+
+
+    @Override
+    public void setInput(String id, int elementCount, int[] elementValueCounts,
+                         int vectorLength) {
+        // not used
+    }
+
+
+    @Override
+    public void setOutput(String id, int elementCount, int elementValueCount,
+                          int vectorLength) {
+        // not used
+    }
+
+
+    @Override
+    public void setOutput(String id, int elementCount, int[] elementValueCounts,
+                          int vectorLength) {
+        // not used
+    }
+
+
+    @Override
+    public void prepare() {
+        prepared = true;
+    }
+
+
+    @Override
+    public void setStrings(String id, double modifiedJulianDay, String missingValue,
+                           String[] values) {
+        // not used
+    }
+
+
+    @Override
+    public void setInt32s(String id, double modifiedJulianDay, int missingValue, int[] values) {
+        // not used
+    }
+
+
+    @Override
+    public void setDoubles(String id, double modifiedJulianDay, double missingValue,
+                           double[] values) {
+        inputs.put(id, values.clone());
+    }
+
+
+    @Override
+    public void setBooleans(String id, double modifiedJulianDay, boolean missingValue,
+                            boolean[] values) {
+        // not used
+    }
+
+
+    @Override
+    public void update() {
+        if (failing) {
+            throw new IllegalStateException("failing");
+        }
+        updateCount++;
+        if (inputs.isEmpty()) {
+            result = new double[]{updateCount};
+        } else {
+            double[] values = inputs.values().iterator().next();
+            result = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = factor * values[i];
+            }
+        }
+    }
+
+
+    @Override
+    public String[] getStrings(String id, double modifiedJulianDay, String missingValue) {
+        return null;
+    }
+
+
+    @Override
+    public int[] getInt32s(String id, double modifiedJulianDay, int missingValue) {
+        return null;
+    }
+
+
+    @Override
+    public double[] getDoubles(String id, double modifiedJulianDay, double missingValue) {
+        lastTime = modifiedJulianDay;
+        return result.clone();
+    }
+
+
+    @Override
+    public boolean[] getBooleans(String id, double modifiedJulianDay, boolean missingValue) {
+        return null;
+    }
+
+
+    @Override
+    public void finish(boolean inFailedState) {
+        finishedInFailedState = inFailedState;
+    }
+
+}
@@ -0,0 +1,456 @@
+package nl.wur.alterra.openmi.sdk2.composition;
+
+import nl.wur.alterra.openmi.sdk2.backbone.BaseInput;
+import nl.wur.alterra.openmi.sdk2.backbone.BaseLinkableComponent;
+import nl.wur.alterra.openmi.sdk2.backbone.BaseOutput;
+import nl.wur.alterra.openmi.sdk2.backbone.DoubleValueSet;
+import nl.wur.alterra.openmi.sdk2.backbone.DoubleValueSetSnapshot;
+import nl.wur.alterra.openmi.sdk2.backbone.EngineLinkableComponent;
+import nl.wur.alterra.openmi.sdk2.backbone.OmiException;
+import nl.wur.alterra.openmi.sdk2.backbone.ScalingEngine;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmi.standard2.IBaseInput;
+import org.openmi.standard2.IBaseOutput;
+import org.openmi.standard2.IBaseValueSet;
+import org.openmi.standard2.LinkableComponentStatus;
+
+import java.util.Arrays;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Unit test for composition.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class CompositionTest {
+
+    private static final int STEPS = 5;
+
+    // test subjects
+    private ForkJoinPool pool;
+    private Composition composition;
+    private CyclicBarrier barrier;
+    private TestComponent catchment1;
+    private TestComponent catchment2;
+    private TestComponent river;
+
+
+    // component that counts its updates and checks that its providers are up to date
+    private class TestComponent extends BaseLinkableComponent {
+        private BaseOutput output;
+        private DoubleValueSet values;
+        private volatile int step = 0;
+        private volatile int maxLead = 0;
+        private TestComponent follower;
+        private int waitForLead = 0;
+        private long delay = 0;
+        private boolean waitForOthers = false;
+        private boolean failing = false;
+        private boolean checkProviders = true;
+        private boolean checkInputs = false;
+        private boolean checkDelayedInputs = false;
+        private volatile boolean onWorkerThread = false;
+        private volatile ForkJoinPool workerPool = null;
+        private volatile boolean prepared = false;
+        private volatile boolean finished = false;
+
+
+        private TestComponent(String id) {
+            this(id, 1);
+        }
+
+
+        private TestComponent(String id, int size) {
+            super(id, id, "");
+            values = new DoubleValueSet(size);
+            output = BaseOutput.newInstance(id + ".out", "out", "", this, null, values);
+            addOutput(output);
+        }
+
+
+        private void linkTo(TestComponent consumer) {
+            BaseInput input = BaseInput.newInstance(consumer.getId() + ".in." + getId(), "in",
+                    "", consumer, null, null);
+            consumer.addInput(input);
+            output.addConsumer(input);
+            input.setProvider(output);
+        }
+
+
+        @Override
+        public void prepare() {
+            prepared = true;
+        }
+
+
+        @Override
+        public void finish() {
+            finished = true;
+        }
+
+
+        @Override
+        public void update(IBaseOutput[] requiredOutputs) {
+            onWorkerThread |= Thread.currentThread() instanceof ForkJoinWorkerThread;
+            if (Thread.currentThread() instanceof ForkJoinWorkerThread) {
+                workerPool = ((ForkJoinWorkerThread) Thread.currentThread()).getPool();
+            }
+            if (failing) {
+                throw new IllegalStateException("failing");
+            }
+            if (waitForOthers) {
+                try {
+                    barrier.await(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            if (follower != null) {
+                maxLead = Math.max(maxLead, step - follower.step);
+            }
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            for (IBaseInput in : getInputs()) {
+                TestComponent provider = (TestComponent) in.getProvider().getComponent();
+                if (checkInputs) {
+                    // the values of the provider for the same step
+                    DoubleValueSetSnapshot snapshot = (DoubleValueSetSnapshot) in.getValues();
+                    for (int i = 0; i < snapshot.getSize(); i++) {
+                        assertEquals(step + 1, snapshot.getDoubleAt(i), 0.0);
+                    }
+                } else if (checkDelayedInputs) {
+                    // the values of the provider for the previous step, none on the first
+                    IBaseValueSet inValues = in.getValues();
+                    if (step == 0) {
+                        assertNull(inValues);
+                    } else {
+                        assertEquals(step, ((DoubleValueSetSnapshot) inValues).getDoubleAt(0),
+                                0.0);
+                    }
+                } else {
+                    assertTrue(!checkProviders || (provider.step > step));
+                }
+                if ((waitForLead > 0) && (step == 0)) {
+                    long timeout = System.currentTimeMillis() + 10000;
+                    while ((provider.step < step + waitForLead) &&
+                            (System.currentTimeMillis() < timeout)) {
+                        Thread.yield();
+                    }
+                    assertTrue(provider.step >= step + waitForLead);
+                }
+            }
+            step++;
+            for (int i = 0; i < values.getSize(); i++) {
+                values.setDoubleAt(i, step);
+            }
+            if (step == STEPS) {
+                updateStatus(LinkableComponentStatus.DONE, "done");
+            }
+        }
+    }
+
+
+    // engine component with an input linked to a test component, and an output
+    private class EngineComponent extends EngineLinkableComponent {
+        private BaseOutput output;
+
+
+        private EngineComponent(ScalingEngine engine, TestComponent provider) {
+            super(engine, true);
+            BaseInput input = BaseInput.newInstance(getId() + ".in", "in", "", this, null,
+                    null);
+            addInput(input);
+            provider.output.addConsumer(input);
+            input.setProvider(provider.output);
+            output = BaseOutput.newInstance(getId() + ".out", "out", "", this, null, null);
+            addOutput(output);
+        }
+    }
+
+
+    @Before
+    public void setUp() {
+        pool = new ForkJoinPool(4);
+        composition = new Composition(pool);
+        barrier = new CyclicBarrier(2);
+
+        catchment1 = new TestComponent("catchment1");
+        catchment2 = new TestComponent("catchment2");
+        river = new TestComponent("river");
+        catchment1.linkTo(river);
+        catchment2.linkTo(river);
+
+        composition.addComponent(river);
+        composition.addComponent(catchment1);
+        composition.addComponent(catchment2);
+    }
+
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+
+    @Test
+    public void testDependencies() {
+        assertEquals(Arrays.asList(catchment1, catchment2), composition.getDependencies(river));
+        assertTrue(composition.getDependencies(catchment1).isEmpty());
+        assertFalse(composition.addComponent(river));
+    }
+
+
+    @Test
+    public void testRun() {
+        // both catchments have to be updated at the same time to pass the barrier
+        catchment1.waitForOthers = true;
+        catchment2.waitForOthers = true;
+
+        assertFalse(composition.isDone());
+        composition.run();
+        assertTrue(composition.isDone());
+        assertEquals(STEPS, catchment1.step);
+        assertEquals(STEPS, catchment2.step);
+        assertEquals(STEPS, river.step);
+    }
+
+
+    @Test
+    public void testCycle() {
+        // river feeds back into catchment1, the link from river was added first and is ignored
+        river.linkTo(catchment1);
+        catchment1.checkProviders = false;
+        assertTrue(composition.getDependencies(catchment1).isEmpty());
+        assertEquals(2, composition.getDependencies(river).size());
+        composition.run();
+        assertEquals(STEPS, river.step);
+    }
+
+
+    @Test
+    public void testFailure() {
+        catchment1.failing = true;
+        try {
+            composition.update();
+            fail();
+        } catch (OmiException ex) {
+            // expected
+            assertTrue(ex.getMessage().contains("catchment1"));
+        }
+        assertEquals(0, river.step);
+    }
+
+
+    private void setUpChain() {
+        // catchment1 -> river -> catchment2, pipelined
+        composition = new Composition(pool);
+        composition.setPipelined(true);
+        catchment1 = new TestComponent("catchment1");
+        river = new TestComponent("river");
+        catchment2 = new TestComponent("catchment2");
+        catchment1.linkTo(river);
+        river.linkTo(catchment2);
+        river.checkInputs = true;
+        catchment2.checkInputs = true;
+        composition.addComponent(catchment1);
+        composition.addComponent(river);
+        composition.addComponent(catchment2);
+    }
+
+
+    @Test
+    public void testPipelined() {
+        setUpChain();
+        assertEquals(Composition.DEFAULT_BUFFER_SIZE, composition.getBufferSize());
+
+        // river can only pass its first step once catchment1 is two steps ahead
+        river.waitForLead = 2;
+        composition.run();
+        assertTrue(composition.isDone());
+        assertEquals(STEPS, catchment1.step);
+        assertEquals(STEPS, river.step);
+        assertEquals(STEPS, catchment2.step);
+    }
+
+
+    @Test
+    public void testBackPressure() {
+        setUpChain();
+        composition.setBufferSize(1);
+        river.delay = 20;
+        catchment1.follower = river;
+        composition.run();
+        assertEquals(STEPS, catchment2.step);
+
+        // one step in the buffer, one being processed and one waiting to be put
+        assertTrue(catchment1.maxLead >= 2);
+        assertTrue(catchment1.maxLead <= 3);
+
+        try {
+            composition.setBufferSize(0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testPipelinedOverwrite() {
+        // the provider overwrites all its values on every step, while the slower consumer
+        // still reads those of an earlier step
+        composition = new Composition(pool);
+        composition.setPipelined(true);
+        catchment1 = new TestComponent("catchment1", 20000);
+        river = new TestComponent("river");
+        catchment1.linkTo(river);
+        river.checkInputs = true;
+        river.delay = 10;
+        composition.addComponent(catchment1);
+        composition.addComponent(river);
+        composition.run();
+        assertEquals(STEPS, river.step);
+    }
+
+
+    @Test
+    public void testPipelinedCycle() {
+        // river feeds back into catchment1, river gets the values of the previous step
+        composition = new Composition(pool);
+        composition.setPipelined(true);
+        catchment1 = new TestComponent("catchment1");
+        river = new TestComponent("river");
+        catchment1.linkTo(river);
+        river.linkTo(catchment1);
+        catchment1.checkInputs = true;
+        river.checkDelayedInputs = true;
+        composition.addComponent(catchment1);
+        composition.addComponent(river);
+        assertTrue(composition.getDependencies(river).isEmpty());
+        composition.run();
+        assertEquals(STEPS, catchment1.step);
+        assertEquals(STEPS, river.step);
+    }
+
+
+    @Test
+    public void testPipelinedFailure() {
+        setUpChain();
+        river.failing = true;
+        try {
+            composition.run();
+            fail();
+        } catch (OmiException ex) {
+            // expected
+            assertTrue(ex.getMessage().contains("river"));
+        }
+        assertEquals(0, catchment2.step);
+    }
+
+
+    @Test
+    public void testBlocking() {
+        // a single worker thread, the blocking components can only meet at the barrier when
+        // they are not run in the pool
+        ForkJoinPool single = new ForkJoinPool(1);
+        composition = new Composition(single);
+        barrier = new CyclicBarrier(3);
+        TestComponent[] components = new TestComponent[3];
+        for (int i = 0; i < components.length; i++) {
+            components[i] = new TestComponent("engine" + i);
+            components[i].waitForOthers = true;
+            composition.addComponent(components[i]);
+            composition.setBlocking(components[i], true);
+            assertTrue(composition.isBlocking(components[i]));
+        }
+        river = new TestComponent("river");
+        components[0].linkTo(river);
+        composition.addComponent(river);
+        assertFalse(composition.isBlocking(river));
+
+        composition.prepare();
+        composition.run();
+        composition.finish();
+        single.shutdownNow();
+
+        for (TestComponent component : components) {
+            assertTrue(component.prepared);
+            assertEquals(STEPS, component.step);
+            assertFalse(component.onWorkerThread);
+            assertTrue(component.finished);
+        }
+        assertEquals(STEPS, river.step);
+        assertTrue(river.onWorkerThread);
+    }
+
+
+    @Test
+    public void testEngine() {
+        // an engine component runs until the end of its time horizon, on the blocking executor
+        ScalingEngine engine = new ScalingEngine(2.0);
+        EngineComponent component = new EngineComponent(engine, catchment1);
+        component.setTimeHorizon(0, STEPS, 1);
+        composition.addComponent(component);
+        assertTrue(composition.isBlocking(component));
+        assertEquals(Arrays.asList(catchment1),
+                composition.getDependencies(component));
+
+        composition.prepare();
+        assertTrue(engine.isPrepared());
+        composition.run();
+        assertTrue(composition.isDone());
+        assertEquals(LinkableComponentStatus.DONE, component.getStatus());
+        assertEquals(STEPS, engine.getUpdateCount());
+        assertEquals(STEPS, component.getCurrentTime(), 0.0);
+        assertEquals(2.0 * STEPS, ((DoubleValueSet) component.output.getValues())
+                .getDoubleAt(0), 0.0);
+        composition.finish();
+        assertEquals(Boolean.FALSE, engine.getFinishedInFailedState());
+    }
+
+
+    @Test
+    public void testShutdown() {
+        // a pool and executor that were passed in are left running
+        ExecutorService executor = Executors.newCachedThreadPool();
+        composition.setBlockingExecutor(executor);
+        composition.setBlocking(catchment1, true);
+        composition.run();
+        composition.shutdown();
+        assertFalse(pool.isShutdown());
+        assertFalse(executor.isShutdown());
+        executor.shutdownNow();
+
+        // a pool the composition created itself is shut down, and created again when needed
+        composition = new Composition();
+        catchment1 = new TestComponent("catchment1");
+        composition.addComponent(catchment1);
+        composition.update();
+        ForkJoinPool created = catchment1.workerPool;
+        assertNotNull(created);
+        assertNotSame(pool, created);
+        composition.shutdown();
+        assertTrue(created.isShutdown());
+        composition.run();
+        assertEquals(STEPS, catchment1.step);
+        assertNotSame(created, catchment1.workerPool);
+        composition.shutdown();
+        assertTrue(catchment1.workerPool.isShutdown());
+    }
+
+}
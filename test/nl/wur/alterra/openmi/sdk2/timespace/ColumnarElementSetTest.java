@@ -0,0 +1,213 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmi.standard2.IIdentifiable;
+import org.openmi.standard2.timespace.ElementType;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Unit test for the columnar element set.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class ColumnarElementSetTest {
+
+    // test subjects
+    private ColumnarElementSet grid;
+
+
+    @Before
+    public void setUp() {
+        // 10 x 10 grid of unit squares, more than the initial capacity
+        grid = new ColumnarElementSet("grid", "grid", ElementType.POLYGON, "", false, false);
+        for (int row = 0; row < 10; row++) {
+            for (int column = 0; column < 10; column++) {
+                grid.addElement(row + "_" + column);
+                grid.addVertex(column, row);
+                grid.addVertex(column + 1, row);
+                grid.addVertex(column + 1, row + 1);
+                grid.addVertex(column, row + 1);
+            }
+        }
+    }
+
+
+    private IIdentifiable id(String id) {
+        return new Element(id).getIdentifier();
+    }
+
+
+    @Test
+    public void testLayout() {
+        assertEquals(100, grid.getElementCount());
+        assertEquals(400, grid.getTotalVertexCount());
+        assertEquals(4, grid.getVertexCount(57));
+        assertEquals(8.0, grid.getVertexXCoordinate(57, 1), 0.0);
+        assertEquals(6.0, grid.getVertexYCoordinate(57, 2), 0.0);
+        assertEquals("5_7", grid.getElementId(57).getId());
+        assertEquals(0, grid.getFaceCount(57));
+        assertFalse(grid.hasZ());
+        assertFalse(grid.hasM());
+
+        try {
+            grid.getVertexZCoordinate(0, 0);
+            fail();
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+
+        try {
+            grid.getVertexXCoordinate(0, 4);
+            fail();
+        } catch (IndexOutOfBoundsException ex) {
+            // expected
+        }
+
+        int version = grid.getVersion();
+        grid.trimToSize();
+        assertEquals(version, grid.getVersion());
+        grid.setVertexCoordinates(99, 3, 20, 21, 0, 0);
+        assertTrue(grid.getVersion() > version);
+        assertEquals(20.0, grid.getVertexXCoordinate(99, 3), 0.0);
+        assertEquals(21.0, grid.getVertexYCoordinate(99, 3), 0.0);
+    }
+
+
+    @Test
+    public void testAddAfterTrim() {
+        // an empty set, trimmed or copied from an empty element set
+        ColumnarElementSet empty = new ColumnarElementSet("empty", "", ElementType.POINT, "",
+                false, false);
+        empty.trimToSize();
+        assertEquals(0, empty.addElement("a"));
+        empty.addVertex(1, 2);
+        ColumnarElementSet copy = new ColumnarElementSet(new ElementSet(null, "empty", "",
+                ElementType.POINT, ""));
+        assertEquals(0, copy.addElement("a"));
+        copy.addVertex(1, 2);
+        assertEquals(2.0, copy.getVertexYCoordinate(0, 0), 0.0);
+
+        // a set without vertices
+        ColumnarElementSet ids = new ColumnarElementSet("ids", "", ElementType.ID_BASED, "",
+                false, false);
+        ids.addElement("a");
+        ids.trimToSize();
+        ids.addVertex(3, 4);
+        assertEquals(1, ids.getTotalVertexCount());
+        assertEquals(1, ids.addElement("b"));
+        assertEquals(1, ids.getElementIndex(id("b")));
+    }
+
+
+    @Test
+    public void testFaces() {
+        ColumnarElementSet cubes = new ColumnarElementSet("cubes", "", ElementType.POLYHEDRON,
+                "", true, true);
+        cubes.addElement("tetrahedron");
+        cubes.addVertex(0, 0, 0, 1);
+        cubes.addVertex(1, 0, 0, 2);
+        cubes.addVertex(0, 1, 0, 3);
+        cubes.addVertex(0, 0, 1, 4);
+        cubes.addFace(new int[]{0, 1, 2});
+        cubes.addFace(new int[]{0, 1, 3});
+        cubes.addFace(new int[]{0, 2, 3});
+        cubes.addFace(new int[]{1, 2, 3});
+        cubes.addElement("empty");
+
+        assertEquals(4, cubes.getFaceCount(0));
+        assertEquals(0, cubes.getFaceCount(1));
+        assertArrayEquals(new int[]{0, 2, 3}, cubes.getFaceVertexIndices(0, 2));
+        assertEquals(1.0, cubes.getVertexZCoordinate(0, 3), 0.0);
+        assertEquals(4.0, cubes.getVertexMCoordinate(0, 3), 0.0);
+
+        try {
+            cubes.addFace(new int[]{0});
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+
+        ColumnarElementSet empty = new ColumnarElementSet("", "", ElementType.POINT, "", false,
+                false);
+        try {
+            empty.addVertex(0, 0);
+            fail();
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testCopy() {
+        ElementSet source = new ElementSet("source", "", "", ElementType.POLYLINE, "");
+        Element line = new Element("line");
+        line.addVertex(new Vertex(1, 2, 3));
+        line.addVertex(new Vertex(4, 5, 6));
+        source.addElement(line);
+        source.setHasZ(true);
+        source.addElement(new Element("none"));
+
+        ColumnarElementSet copy = new ColumnarElementSet(source);
+        assertEquals(ElementType.POLYLINE, copy.getElementType());
+        assertEquals(2, copy.getElementCount());
+        assertEquals(0, copy.getVertexCount(1));
+        assertTrue(copy.hasZ());
+        assertEquals(6.0, copy.getVertexZCoordinate(0, 1), 0.0);
+        assertEquals(1, copy.getElementIndex(id("none")));
+
+        ColumnarElementSet again = new ColumnarElementSet(copy);
+        assertEquals(5.0, again.getVertexYCoordinate(0, 1), 0.0);
+        assertEquals(3.0, again.getVertexZCoordinate(0, 0), 0.0);
+    }
+
+
+    @Test
+    public void testBulkCoordinates() {
+        int[] offsets = new int[3];
+        assertEquals(8, grid.getVertexOffsets(11, 13, offsets));
+        assertArrayEquals(new int[]{0, 4, 8}, offsets);
+        double[] x = new double[8];
+        double[] y = new double[8];
+        assertEquals(8, grid.getXYCoordinates(11, 13, x, y, 0));
+        assertArrayEquals(new double[]{1, 2, 2, 1, 2, 3, 3, 2}, x, 0.0);
+        assertArrayEquals(new double[]{1, 1, 2, 2, 1, 1, 2, 2}, y, 0.0);
+        double[] target = new double[4];
+        grid.getCoordinates(99, 100, ElementSet.SpatialDimension.Y, target, 0);
+        assertArrayEquals(new double[]{9, 9, 10, 10}, target, 0.0);
+
+        try {
+            grid.getCoordinates(0, 1, ElementSet.SpatialDimension.Z, target, 0);
+            fail();
+        } catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testIndices() {
+        assertEquals(57, grid.getElementIndex(id("5_7")));
+        assertEquals(-1, grid.getElementIndex(id("unknown")));
+        assertEquals(-1, grid.getElementIndex(null));
+        assertArrayEquals(new int[]{0, -1, 99}, grid.getElementIndices(new IIdentifiable[]{
+                id("0_0"), id("x"), id("9_9")}));
+
+        // appended elements are indexed, the first element with an id wins
+        assertEquals(100, grid.addElement("extra"));
+        grid.addElement("0_0");
+        assertEquals(100, grid.getElementIndex(id("extra")));
+        assertEquals(0, grid.getElementIndex(id("0_0")));
+
+        SpatialIndex index = grid.getSpatialIndex();
+        assertArrayEquals(new int[]{57}, index.findContaining(7.5, 5.5));
+        grid.addVertex(50, 50);
+        assertNotSame(index, grid.getSpatialIndex());
+        // the vertex is added to the last element
+        assertArrayEquals(new int[]{101}, grid.getSpatialIndex().findNearest(40, 40, 1));
+    }
+
+}
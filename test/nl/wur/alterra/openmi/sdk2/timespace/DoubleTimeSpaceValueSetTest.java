@@ -0,0 +1,65 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Unit test for the primitive double time space value set.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class DoubleTimeSpaceValueSetTest {
+
+    // test subjects
+    private DoubleTimeSpaceValueSet values;
+
+
+    @Before
+    public void setUp() {
+        values = new DoubleTimeSpaceValueSet(3, 4);
+        for (int t = 0; t < 3; t++) {
+            for (int e = 0; e < 4; e++) {
+                values.setDouble(t, e, t * 10 + e);
+            }
+        }
+    }
+
+
+    @Test
+    public void testStoreAndRetrieve() {
+        assertEquals(12.0, values.getDouble(1, 2), 0.0);
+        assertEquals(12.0, values.getValue(1, 2));
+        assertEquals(12.0, values.getValue(new int[]{1, 2}));
+        assertEquals(23.0, values.getValues2D().get(2).get(3));
+        assertEquals(21.0, values.getTimeSeriesValuesForElement(1).get(2));
+        assertEquals(21.0, values.getElementValuesForTime(2).get(1));
+    }
+
+
+    @Test
+    public void testBulkTransfer() {
+        double[] slice = new double[4];
+        assertEquals(4, values.getElementValuesForTime(2, slice, 0));
+        assertArrayEquals(new double[]{20, 21, 22, 23}, slice, 0.0);
+
+        double[] series = new double[4];
+        assertEquals(3, values.getTimeSeriesValuesForElement(3, series, 1));
+        assertArrayEquals(new double[]{0, 3, 13, 23}, series, 0.0);
+
+        values.setElementValuesForTime(0, new double[]{-1, -2, -3, -4}, 0);
+        assertEquals(-4.0, values.getDouble(0, 3), 0.0);
+        values.setTimeSeriesValuesForElement(0, new double[]{7, 8, 9}, 0);
+        assertEquals(9.0, values.getDouble(2, 0), 0.0);
+
+        try {
+            values.getElementValuesForTime(0, new double[3], 0);
+            fail();
+        } catch (IndexOutOfBoundsException ex) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmi.standard2.IIdentifiable;
+import org.openmi.standard2.timespace.ElementType;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Unit test for element set.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class ElementSetTest {
+
+    // test subjects
+    private ElementSet elementSet;
+
+
+    @Before
+    public void setUp() {
+        elementSet = new ElementSet("nodes", "nodes", "", ElementType.ID_BASED, "");
+        for (int i = 0; i < 100; i++) {
+            elementSet.addElement(new Element("node" + i));
+        }
+    }
+
+
+    private static IIdentifiable id(String id) {
+        return new Element(id).getIdentifier();
+    }
+
+
+    @Test
+    public void testGetElementIndex() {
+        assertEquals(0, elementSet.getElementIndex(id("node0")));
+        assertEquals(42, elementSet.getElementIndex(id("node42")));
+        assertEquals(-1, elementSet.getElementIndex(id("unknown")));
+        assertEquals(-1, elementSet.getElementIndex(null));
+
+        // added elements are found, for duplicates the first one
+        elementSet.addElement(new Element("node100"));
+        elementSet.addElement(new Element("node5"));
+        assertEquals(100, elementSet.getElementIndex(id("node100")));
+        assertEquals(5, elementSet.getElementIndex(id("node5")));
+
+        // renamed elements
+        elementSet.getElement(7).setId("renamed");
+        assertEquals(-1, elementSet.getElementIndex(id("node7")));
+        elementSet.invalidateElementIndex();
+        assertEquals(7, elementSet.getElementIndex(id("renamed")));
+        assertEquals(-1, elementSet.getElementIndex(id("node7")));
+
+        elementSet.setElements(new Element[]{new Element("a"), new Element("b")});
+        assertEquals(1, elementSet.getElementIndex(id("b")));
+        assertEquals(-1, elementSet.getElementIndex(id("node1")));
+    }
+
+
+    @Test
+    public void testGetElementIndices() {
+        IIdentifiable[] ids = new IIdentifiable[]{id("node99"), null,
+                id("node3"), id("unknown")};
+        assertArrayEquals(new int[]{99, -1, 3, -1}, elementSet.getElementIndices(ids));
+    }
+
+
+
+    @Test
+    public void testCoordinates() {
+        ElementSet lines = new ElementSet("lines", "", "", ElementType.POLYLINE, "");
+        for (int i = 0; i < 3; i++) {
+            Element line = new Element("line" + i);
+            for (int j = 0; j <= i; j++) {
+                line.addVertex(new Vertex(i, j, 10 * i + j, -j));
+            }
+            lines.addElement(line);
+        }
+        assertFalse(lines.hasZ());
+        assertFalse(lines.hasM());
+        lines.setHasZ(true);
+        lines.setHasM(true);
+        assertTrue(lines.hasZ());
+        assertTrue(lines.hasM());
+        assertEquals(21.0, lines.getVertexZCoordinate(2, 1), 0.0);
+        assertEquals(-2.0, lines.getVertexMCoordinate(2, 2), 0.0);
+        assertEquals(-2.0, lines.getVertexCoordinate(2, 2, ElementSet.SpatialDimension.M), 0.0);
+
+        // bulk export of the last two elements
+        int[] offsets = new int[3];
+        assertEquals(5, lines.getVertexOffsets(1, 3, offsets));
+        assertArrayEquals(new int[]{0, 2, 5}, offsets);
+        double[] x = new double[6];
+        double[] y = new double[6];
+        assertEquals(5, lines.getXYCoordinates(1, 3, x, y, 1));
+        assertArrayEquals(new double[]{0, 1, 1, 2, 2, 2}, x, 0.0);
+        assertArrayEquals(new double[]{0, 0, 1, 0, 1, 2}, y, 0.0);
+        double[] z = new double[5];
+        lines.getCoordinates(1, 3, ElementSet.SpatialDimension.Z, z, 0);
+        assertArrayEquals(new double[]{10, 11, 20, 21, 22}, z, 0.0);
+
+        // copies keep the dimensions
+        ColumnarElementSet columns = new ColumnarElementSet(lines);
+        ElementSet copy = new ElementSet(columns);
+        assertTrue(copy.hasM());
+        assertEquals(-1.0, copy.getVertexMCoordinate(1, 1), 0.0);
+    }
+
+
+
+    @Test
+    public void testVersion() {
+        int version = elementSet.getVersion();
+        byte[] fingerprint = elementSet.getFingerprint();
+        int hash = elementSet.hashCode();
+        assertArrayEquals(fingerprint, elementSet.getFingerprint());
+        assertEquals(version, elementSet.getVersion());
+
+        Element point = new Element("point");
+        point.addVertex(new Vertex(1, 2, 0));
+        elementSet.addElement(point);
+        assertTrue(elementSet.getVersion() > version);
+        assertFalse(Arrays.equals(fingerprint, elementSet.getFingerprint()));
+        assertFalse(hash == elementSet.hashCode());
+
+        // changes through the element set
+        SpatialIndex index = elementSet.getSpatialIndex();
+        version = elementSet.getVersion();
+        fingerprint = elementSet.getFingerprint();
+        elementSet.setVertexCoordinates(100, 0, 3, 4, 0, 0);
+        assertTrue(elementSet.getVersion() > version);
+        assertFalse(index.isCurrent());
+        assertFalse(Arrays.equals(fingerprint, elementSet.getFingerprint()));
+        assertEquals(3.0, elementSet.getVertexXCoordinate(100, 0), 0.0);
+
+        // changes through the vertices
+        index = elementSet.getSpatialIndex();
+        assertTrue(index.isCurrent());
+        version = elementSet.getVersion();
+        fingerprint = elementSet.getFingerprint();
+        hash = elementSet.hashCode();
+        point.getVertex(0).setY(10);
+        assertTrue(elementSet.getVersion() > version);
+        assertFalse(index.isCurrent());
+        assertFalse(Arrays.equals(fingerprint, elementSet.getFingerprint()));
+        assertFalse(hash == elementSet.hashCode());
+        assertNotSame(index, elementSet.getSpatialIndex());
+
+        // changes of the collection of vertices must be reported
+        version = elementSet.getVersion();
+        point.getVertices().add(new Vertex(5, 6, 0));
+        assertEquals(version, elementSet.getVersion());
+        elementSet.elementsChanged();
+        assertTrue(elementSet.getVersion() > version);
+
+        version = elementSet.getVersion();
+        elementSet.setElements(new Element[]{point});
+        assertTrue(elementSet.getVersion() > version);
+        assertEquals(elementSet, new ElementSet(elementSet));
+    }
+
+
+    @Test
+    public void testCopy() {
+        Element point = new Element("point");
+        point.addVertex(new Vertex(1, 2, 0));
+        elementSet.addElement(point);
+
+        // the copy has its own vertices, equal sets have equal hash codes
+        ElementSet copy = new ElementSet(elementSet);
+        assertEquals(elementSet, copy);
+        assertEquals(elementSet.hashCode(), copy.hashCode());
+        int version = elementSet.getVersion();
+        copy.setVertexCoordinates(100, 0, 3, 4, 0, 0);
+        assertEquals(1.0, elementSet.getVertexXCoordinate(100, 0), 0.0);
+        assertEquals(version, elementSet.getVersion());
+        assertFalse(elementSet.equals(copy));
+
+        copy.getElement(100).getVertex(0).setX(1);
+        copy.getElement(100).getVertex(0).setY(2);
+        assertEquals(elementSet, copy);
+        assertEquals(elementSet.hashCode(), copy.hashCode());
+    }
+
+}
@@ -0,0 +1,138 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Unit test for the memory-mapped time space value set.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class MappedTimeSpaceValueSetTest {
+
+    // test subjects
+    private File file;
+    private MappedTimeSpaceValueSet values;
+
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("mapped", ".omts");
+        // pages of 4 time steps of 10 elements, at most 2 mapped
+        values = new MappedTimeSpaceValueSet(file, 10, 4 * 10 * 8, 2);
+    }
+
+
+    @After
+    public void tearDown() {
+        values.close();
+        file.delete();
+    }
+
+
+    @Test
+    public void testAppendAndRetrieve() {
+        assertEquals(0, values.getIndexCount(new int[]{}));
+
+        double[] row = new double[10];
+        for (int t = 0; t < 25; t++) {
+            for (int e = 0; e < 10; e++) {
+                row[e] = t * 100 + e;
+            }
+            assertEquals(t, values.appendElementValues(row, 0));
+        }
+
+        assertEquals(25, values.getTimeCount());
+        assertEquals(25, values.getIndexCount(new int[]{}));
+        assertEquals(10, values.getIndexCount(new int[]{24}));
+        assertEquals(-1, values.getIndexCount(new int[]{25}));
+        assertTrue(values.getMappedPageCount() <= 2);
+
+        assertEquals(1203.0, values.getDouble(12, 3), 0.0);
+        assertEquals(203.0, values.getValue(new int[]{2, 3}));
+
+        double[] series = new double[25];
+        values.getTimeSeriesValuesForElement(7, series, 0);
+        assertEquals(2407.0, series[24], 0.0);
+        assertEquals(7.0, series[0], 0.0);
+        assertTrue(values.getMappedPageCount() <= 2);
+
+        double[] slice = new double[10];
+        values.getElementValuesForTime(17, slice, 0);
+        assertEquals(1709.0, slice[9], 0.0);
+    }
+
+
+    @Test
+    public void testHotPageStaysMapped() {
+        double[] row = new double[10];
+        for (int t = 0; t < 12; t++) {
+            values.appendElementValues(row, 0);
+        }
+
+        // page 0 is used last and often, page 1 should be evicted when page 2 is mapped
+        values.getDouble(0, 0);
+        values.getDouble(4, 0);
+        values.getDouble(0, 0);
+        values.getDouble(1, 0);
+        values.getDouble(2, 0);
+        values.getDouble(8, 0);
+        assertTrue(values.isPageMapped(0));
+        assertFalse(values.isPageMapped(1));
+        assertTrue(values.isPageMapped(2));
+    }
+
+
+    @Test
+    public void testGrowByValue() {
+        values.setValue(0, 4, 1.0);
+        assertEquals(1, values.getTimeCount());
+        assertEquals(0.0, values.getDouble(0, 0), 0.0);
+
+        values.setDouble(0, 5, 2.0);
+        assertEquals(1, values.getTimeCount());
+
+        try {
+            values.setDouble(2, 0, 3.0);
+            fail();
+        } catch (IndexOutOfBoundsException ex) {
+            // expected, only append is allowed
+        }
+    }
+
+
+    @Test
+    public void testReopen() {
+        double[] row = new double[10];
+        for (int t = 0; t < 9; t++) {
+            row[0] = t;
+            values.appendElementValues(row, 0);
+        }
+        values.close();
+        assertTrue(values.isClosed());
+        assertEquals(32 + 9 * 10 * 8, file.length());
+
+        try {
+            values.getDouble(0, 0);
+            fail();
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        values = MappedTimeSpaceValueSet.open(file);
+        assertEquals(10, values.getSpaceCapacity());
+        assertEquals(9, values.getTimeCount());
+        assertEquals(8.0, values.getDouble(8, 0), 0.0);
+
+        values.clear();
+        assertEquals(0, values.getTimeCount());
+    }
+
+}
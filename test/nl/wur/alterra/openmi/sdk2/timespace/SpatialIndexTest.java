@@ -0,0 +1,161 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmi.standard2.timespace.ElementType;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Unit test for the spatial index on element sets.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class SpatialIndexTest {
+
+    private static final int GRID_SIZE = 50;
+
+    // test subjects
+    private ElementSet grid;
+    private ElementSet points;
+
+
+    @Before
+    public void setUp() {
+        // grid of unit squares, element index = row * GRID_SIZE + column
+        grid = new ElementSet("grid", "grid", "", ElementType.POLYGON, "");
+        for (int row = 0; row < GRID_SIZE; row++) {
+            for (int column = 0; column < GRID_SIZE; column++) {
+                Element cell = new Element(row + "_" + column);
+                cell.addVertex(new Vertex(column, row, 0));
+                cell.addVertex(new Vertex(column + 1, row, 0));
+                cell.addVertex(new Vertex(column + 1, row + 1, 0));
+                cell.addVertex(new Vertex(column, row + 1, 0));
+                grid.addElement(cell);
+            }
+        }
+
+        Random random = new Random(42);
+        points = new ElementSet("points", "points", "", ElementType.POINT, "");
+        for (int i = 0; i < 1000; i++) {
+            Element point = new Element("p" + i);
+            point.addVertex(new Vertex(random.nextDouble() * 100, random.nextDouble() * 100, 0));
+            points.addElement(point);
+        }
+    }
+
+
+    @Test
+    public void testStructure() {
+        SpatialIndex index = grid.getSpatialIndex();
+        assertEquals(GRID_SIZE * GRID_SIZE, index.size());
+        assertEquals(3, index.getHeight());
+        assertSame(index, grid.getSpatialIndex());
+
+        double[] box = new double[4];
+        index.getBoundingBox(GRID_SIZE + 2, box);
+        assertArrayEquals(new double[]{2, 1, 3, 2}, box, 0.0);
+    }
+
+
+    @Test
+    public void testQuery() {
+        SpatialIndex index = grid.getSpatialIndex();
+        int[] hits = index.query(10.5, 20.5, 12.5, 20.7);
+        assertArrayEquals(new int[]{20 * GRID_SIZE + 10, 20 * GRID_SIZE + 11,
+                20 * GRID_SIZE + 12}, hits);
+        assertEquals(0, index.query(-10, -10, -5, -5).length);
+        assertEquals(GRID_SIZE * GRID_SIZE, index.query(0, 0, GRID_SIZE, GRID_SIZE).length);
+
+        // compare with a scan over all points
+        SpatialIndex pointIndex = points.getSpatialIndex();
+        int[] expected = new int[points.getElementCount()];
+        int count = 0;
+        for (int i = 0; i < points.getElementCount(); i++) {
+            double x = points.getVertexXCoordinate(i, 0);
+            double y = points.getVertexYCoordinate(i, 0);
+            if ((x >= 25) && (x <= 40) && (y >= 60) && (y <= 90)) {
+                expected[count++] = i;
+            }
+        }
+        assertArrayEquals(Arrays.copyOf(expected, count), pointIndex.query(25, 60, 40, 90));
+    }
+
+
+    @Test
+    public void testFindContaining() {
+        SpatialIndex index = grid.getSpatialIndex();
+        assertArrayEquals(new int[]{7 * GRID_SIZE + 3}, index.findContaining(3.5, 7.25));
+        assertEquals(0, index.findContaining(GRID_SIZE + 1, 0.5).length);
+
+        // on a shared edge both cells contain the point
+        assertArrayEquals(new int[]{3, 4}, index.findContaining(4.0, 0.5));
+
+        // triangle, the lower right half of its bounding box
+        ElementSet triangles = new ElementSet("triangles", "", "", ElementType.POLYGON, "");
+        Element triangle = new Element("t");
+        triangle.addVertex(new Vertex(0, 0, 0));
+        triangle.addVertex(new Vertex(10, 0, 0));
+        triangle.addVertex(new Vertex(10, 10, 0));
+        triangles.addElement(triangle);
+        assertEquals(1, triangles.getSpatialIndex().findContaining(8, 2).length);
+        assertEquals(0, triangles.getSpatialIndex().findContaining(2, 8).length);
+    }
+
+
+    @Test
+    public void testFindNearest() {
+        SpatialIndex index = points.getSpatialIndex();
+        Random random = new Random(7);
+        for (int test = 0; test < 20; test++) {
+            double x = random.nextDouble() * 120 - 10;
+            double y = random.nextDouble() * 120 - 10;
+            int[] nearest = index.findNearest(x, y, 5);
+            assertEquals(5, nearest.length);
+
+            // compare with the distances of all points
+            double[] distances = new double[points.getElementCount()];
+            for (int i = 0; i < distances.length; i++) {
+                distances[i] = index.getDistance(i, x, y);
+            }
+            double[] sorted = distances.clone();
+            Arrays.sort(sorted);
+            for (int i = 0; i < nearest.length; i++) {
+                assertEquals(sorted[i], distances[nearest[i]], 0.0);
+            }
+        }
+
+        // inside a polygon the distance is zero
+        assertEquals(0.0, grid.getSpatialIndex().getDistance(0, 0.5, 0.5), 0.0);
+        assertEquals(1.5, grid.getSpatialIndex().getDistance(0, 2.5, 0.5), 1e-12);
+        assertArrayEquals(new int[]{5 * GRID_SIZE + 5}, grid.getSpatialIndex().findNearest(5.5,
+                5.5, 1));
+    }
+
+
+    @Test
+    public void testInvalidation() {
+        SpatialIndex index = points.getSpatialIndex();
+        Element point = new Element("new");
+        point.addVertex(new Vertex(500, 500, 0));
+        points.addElement(point);
+        assertNotSame(index, points.getSpatialIndex());
+        assertArrayEquals(new int[]{1000}, points.getSpatialIndex().findNearest(400, 400, 1));
+
+        points.setElements(new Element[]{point});
+        assertEquals(1, points.getSpatialIndex().size());
+
+        // elements without vertices are not indexed
+        ElementSet ids = new ElementSet("ids", "", "", ElementType.ID_BASED, "");
+        ids.addElement(new Element("a"));
+        assertEquals(0, ids.getSpatialIndex().size());
+        assertEquals(0, ids.getSpatialIndex().getHeight());
+        assertEquals(0, ids.getSpatialIndex().findNearest(0, 0, 3).length);
+        assertEquals(0, ids.getSpatialIndex().query(0, 0, 1, 1).length);
+    }
+
+}
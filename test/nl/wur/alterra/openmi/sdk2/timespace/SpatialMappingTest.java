@@ -0,0 +1,161 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import nl.wur.alterra.openmi.sdk2.backbone.BaseOutput;
+import nl.wur.alterra.openmi.sdk2.backbone.DoubleValueSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmi.standard2.timespace.ElementType;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Unit test for spatial mapping weights and the spatial mapping adapted output.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class SpatialMappingTest {
+
+    // test subjects
+    private ColumnarElementSet fine;
+    private ColumnarElementSet coarse;
+    private ColumnarElementSet points;
+
+
+    @Before
+    public void setUp() {
+        // 4 x 4 unit cells and 2 x 2 cells of size 2 covering the same area
+        fine = TestGrids.grid("fine", 4, 1.0);
+        coarse = TestGrids.grid("coarse", 2, 2.0);
+
+        points = new ColumnarElementSet("points", "", ElementType.POINT, "", false, false);
+        points.addElement("a");
+        points.addVertex(0.5, 0.5);
+        points.addElement("b");
+        points.addVertex(3.5, 3.5);
+        points.addElement("outside");
+        points.addVertex(10, 0.5);
+    }
+
+
+    @Test
+    public void testAreaWeighted() {
+        WeightMatrix weights = SpatialMapping.areaWeighted(fine, coarse);
+        assertEquals(4, weights.getRowCount());
+        assertEquals(16, weights.getColumnCount());
+        assertEquals(16, weights.getWeightCount());
+        for (int row = 0; row < 4; row++) {
+            assertEquals(4, weights.getRowLength(row));
+            for (int i = 0; i < 4; i++) {
+                assertEquals(0.25, weights.getWeight(row, i), 1e-12);
+            }
+        }
+
+        // coarse to fine, every fine cell lies within one coarse cell
+        WeightMatrix back = SpatialMapping.areaWeighted(coarse, fine);
+        assertEquals(16, back.getWeightCount());
+        assertEquals(3, back.getColumn(4 * 2 + 2, 0));
+
+        // a triangle clipped by a cell of half its size
+        ColumnarElementSet triangle = new ColumnarElementSet("", "", ElementType.POLYGON, "",
+                false, false);
+        triangle.addElement("t");
+        triangle.addVertex(0, 0);
+        triangle.addVertex(2, 0);
+        triangle.addVertex(0, 2);
+        WeightMatrix overlap = SpatialMapping.areaWeighted(triangle, fine);
+        assertEquals(1, overlap.getRowLength(0));
+        assertEquals(1, overlap.getRowLength(1));
+        assertEquals(0, overlap.getRowLength(5));
+        assertEquals(0, overlap.getRowLength(15));
+
+        try {
+            SpatialMapping.areaWeighted(points, coarse);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testPointMethods() {
+        WeightMatrix nearest = SpatialMapping.nearestNeighbour(coarse, points);
+        assertEquals(1, nearest.getRowLength(0));
+        assertEquals(0, nearest.getColumn(0, 0));
+        assertEquals(3, nearest.getColumn(1, 0));
+        assertEquals(1, nearest.getColumn(2, 0));
+        assertEquals(1.0, nearest.getWeight(2, 0), 0.0);
+
+        // inside a polygon only the containing polygon counts
+        WeightMatrix inverse = SpatialMapping.inverseDistance(coarse, points, 3, 2.0);
+        assertEquals(1, inverse.getRowLength(0));
+        assertEquals(3, inverse.getRowLength(2));
+        double sum = 0;
+        for (int i = 0; i < 3; i++) {
+            sum += inverse.getWeight(2, i);
+        }
+        assertEquals(1.0, sum, 1e-12);
+        assertTrue(inverse.getWeight(2, 0) > inverse.getWeight(2, 2));
+
+        double[] result = new double[3];
+        inverse.multiply(new double[]{1, 2, 3, 4}, 0, result, 0);
+        assertEquals(1.0, result[0], 1e-12);
+        assertEquals(4.0, result[1], 1e-12);
+    }
+
+
+    @Test
+    public void testAdaptedOutput() {
+        DoubleTimeSpaceValueSet values = new DoubleTimeSpaceValueSet(2, 16);
+        for (int e = 0; e < 16; e++) {
+            values.setDouble(0, e, e);
+            values.setDouble(1, e, 1);
+        }
+        BaseOutput output = new BaseOutput(null, null, values);
+        SpatialMappingAdaptedOutput adapted = new SpatialMappingAdaptedOutput(null, null,
+                SpatialMapping.Method.AREA_WEIGHTED, coarse);
+        adapted.setSourceElementSet(fine);
+        adapted.setAdaptee(output);
+        adapted.refresh();
+
+        DoubleTimeSpaceValueSet result = (DoubleTimeSpaceValueSet) adapted.getValues();
+        assertEquals(4, result.getSpaceCapacity());
+        // lower left coarse cell covers fine cells 0, 1, 4 and 5
+        assertEquals(2.5, result.getDouble(0, 0), 1e-12);
+        assertEquals(12.5, result.getDouble(0, 3), 1e-12);
+        assertEquals(1.0, result.getDouble(1, 2), 1e-12);
+
+        // weights are reused until the method or an element set changes
+        WeightMatrix weights = adapted.getWeights();
+        adapted.refresh();
+        assertSame(weights, adapted.getWeights());
+        adapted.setMethod(SpatialMapping.Method.NEAREST_NEIGHBOUR);
+        assertNotSame(weights, adapted.getWeights());
+
+        // and until the geometry changes
+        weights = adapted.getWeights();
+        assertSame(weights, adapted.getWeights());
+        coarse.setVertexCoordinates(0, 0, 0.5, 0.5, 0, 0);
+        assertNotSame(weights, adapted.getWeights());
+        coarse.setVertexCoordinates(0, 0, 0, 0, 0, 0);
+
+        // values without time
+        DoubleValueSet single = new DoubleValueSet(16);
+        single.setDouble(new int[]{15}, 7);
+        output.setValues(single, true, false);
+        adapted.setMethod(SpatialMapping.Method.AREA_WEIGHTED);
+        adapted.refresh();
+        assertEquals(1.75, ((DoubleValueSet) adapted.getValues()).getDouble(3), 1e-12);
+
+        // value count must match the source element set
+        adapted.setSourceElementSet(coarse);
+        try {
+            adapted.refresh();
+            fail();
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import org.openmi.standard2.timespace.ElementType;
+
+
+/**
+ * This class provides the square polygon grids the spatial mapping tests map between.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+final class TestGrids {
+
+    private TestGrids() {
+        // utility class
+    }
+
+
+    /**
+     * Creates a grid of size x size square cells, with its lower left corner at the origin.
+     *
+     * @param caption  of the element set, also used as prefix of the element ids
+     * @param size     number of rows and columns
+     * @param cellSize width and height of a cell
+     * @return the grid, with the cells row by row
+     */
+    static ColumnarElementSet grid(String caption, int size, double cellSize) {
+        ColumnarElementSet result = new ColumnarElementSet(caption, "", ElementType.POLYGON, "",
+                false, false);
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                result.addElement(caption + row + "_" + column);
+                result.addVertex(column * cellSize, row * cellSize);
+                result.addVertex((column + 1) * cellSize, row * cellSize);
+                result.addVertex((column + 1) * cellSize, (row + 1) * cellSize);
+                result.addVertex(column * cellSize, (row + 1) * cellSize);
+            }
+        }
+        return result;
+    }
+
+}
@@ -1,20 +1,65 @@
 package nl.wur.alterra.openmi.sdk2.timespace;
 
+import org.junit.Before;
 import org.junit.Test;
 
-import static org.junit.Assert.fail;
+import java.util.List;
+
+import static org.junit.Assert.*;
 
 
 /**
- * Unintentionally left blank.
+ * Unit test for the time space value set.
  *
  * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
  */
 public class TimeSpaceValueSetTest {
 
+    // test subjects
+    private TimeSpaceValueSet<Integer> values;
+
+
+    @Before
+    public void setUp() {
+        values = new TimeSpaceValueSet<Integer>(Integer.class, 3, 4);
+        for (int t = 0; t < 3; t++) {
+            for (int e = 0; e < 4; e++) {
+                values.setValue(t, e, t * 10 + e);
+            }
+        }
+    }
+
+
+    @Test
+    public void testStoreAndRetrieve() {
+        assertEquals(12, values.getValue(1, 2));
+        assertEquals(12, values.getValue(new int[]{1, 2}));
+        assertEquals(3, values.getValues2D().size());
+        assertEquals(23, values.getValues2D().get(2).get(3));
+    }
+
+
+    @Test
+    public void testSeries() {
+        List series = values.getTimeSeriesValuesForElement(1);
+        assertEquals(3, series.size());
+        assertEquals(21, series.get(2));
+
+        List slice = values.getElementValuesForTime(2);
+        assertEquals(4, slice.size());
+        assertEquals(21, slice.get(1));
+    }
+
+
     @Test
-    public void dummy() {
-        fail();
+    public void testBulkTransfer() {
+        Integer[] slice = new Integer[5];
+        assertEquals(4, values.getElementValuesForTime(1, slice, 1));
+        assertNull(slice[0]);
+        assertEquals(Integer.valueOf(13), slice[4]);
+
+        values.setElementValuesForTime(0, new Integer[]{7, 8, 9, 10}, 0);
+        assertEquals(10, values.getValue(0, 3));
     }
 
 }
@@ -0,0 +1,123 @@
+package nl.wur.alterra.openmi.sdk2.timespace;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+
+/**
+ * Unit test for the on-disk store of spatial mapping weights.
+ *
+ * @author Rob Knapen; Alterra, Wageningen UR, The Netherlands (2011)
+ */
+public class WeightMatrixStoreTest {
+
+    // test subjects
+    private File directory;
+    private ColumnarElementSet fine;
+    private ColumnarElementSet coarse;
+
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("weights", "");
+        directory.delete();
+        fine = TestGrids.grid("fine", 6, 1.0);
+        coarse = TestGrids.grid("coarse", 3, 2.0);
+    }
+
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+
+    private static void assertSameWeights(WeightMatrix expected, WeightMatrix actual) {
+        assertEquals(expected.getRowCount(), actual.getRowCount());
+        assertEquals(expected.getColumnCount(), actual.getColumnCount());
+        assertEquals(expected.getWeightCount(), actual.getWeightCount());
+        for (int row = 0; row < expected.getRowCount(); row++) {
+            assertEquals(expected.getRowLength(row), actual.getRowLength(row));
+            for (int i = 0; i < expected.getRowLength(row); i++) {
+                assertEquals(expected.getColumn(row, i), actual.getColumn(row, i));
+                assertEquals(expected.getWeight(row, i), actual.getWeight(row, i), 0.0);
+            }
+        }
+    }
+
+
+    @Test
+    public void testStoreAndReload() {
+        WeightMatrixStore store = new WeightMatrixStore(directory);
+        WeightMatrix computed = store.getWeights(SpatialMapping.Method.AREA_WEIGHTED, fine,
+                coarse);
+        assertEquals(0, store.getHits());
+        assertEquals(1, store.getMisses());
+        assertEquals(1, directory.listFiles().length);
+
+        // a new store, as in a later run, reads the file
+        WeightMatrixStore later = new WeightMatrixStore(directory);
+        WeightMatrix loaded = later.getWeights(SpatialMapping.Method.AREA_WEIGHTED,
+                new ColumnarElementSet(fine), coarse);
+        assertEquals(1, later.getHits());
+        assertSameWeights(computed, loaded);
+
+        // another method or geometry is computed again
+        later.getWeights(SpatialMapping.Method.NEAREST_NEIGHBOUR, fine, coarse);
+        fine.setVertexCoordinates(0, 0, 0.1, 0, 0, 0);
+        later.getWeights(SpatialMapping.Method.AREA_WEIGHTED, fine, coarse);
+        assertEquals(1, later.getHits());
+        assertEquals(2, later.getMisses());
+        assertEquals(3, directory.listFiles().length);
+    }
+
+
+    @Test
+    public void testDamagedFile() throws IOException {
+        WeightMatrixStore store = new WeightMatrixStore(directory);
+        WeightMatrix computed = store.getWeights(SpatialMapping.Method.INVERSE_DISTANCE, coarse,
+                fine);
+        File file = directory.listFiles()[0];
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(randomAccessFile.length() - 8);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        // recomputed and stored again
+        WeightMatrix recomputed = store.getWeights(SpatialMapping.Method.INVERSE_DISTANCE,
+                coarse, fine);
+        assertEquals(2, store.getMisses());
+        assertSameWeights(computed, recomputed);
+        assertSameWeights(computed, store.getWeights(SpatialMapping.Method.INVERSE_DISTANCE,
+                coarse, fine));
+        assertEquals(1, store.getHits());
+    }
+
+
+    @Test
+    public void testFingerprint() {
+        byte[] fingerprint = ElementSetFingerprint.compute(fine);
+        assertEquals(ElementSetFingerprint.LENGTH, fingerprint.length);
+        assertArrayEquals(fingerprint, ElementSetFingerprint.compute(new ElementSet(fine)));
+        assertFalse(ElementSetFingerprint.toHex(fingerprint).equals(ElementSetFingerprint
+                .toHex(ElementSetFingerprint.compute(coarse))));
+        assertEquals(64, ElementSetFingerprint.toHex(fingerprint).length());
+        assertArrayEquals(fingerprint, ElementSetFingerprint.of(fine));
+    }
+
+}